@@ -0,0 +1,130 @@
+package rmi.protocol.codec;
+
+import java.io.IOException;
+
+/** Compares the payload encodings of a call with primitive arguments and a
+    primitive return value.
+
+    <p>
+    Three variants encode the arguments of <code>add(long, boolean)</code>,
+    decode them, then do the same for its <code>long</code> return value, as a
+    stub and a skeleton would for one call:
+    <ul>
+    <li>Java serialization of the boxed values.</li>
+    <li>The binary codec writing the boxed values as tagged values.</li>
+    <li>The binary codec writing raw primitives from the method signature.</li>
+    </ul>
+
+    <p>
+    As {@link rmi.server.task.DispatchBenchmark}, this is a plain timing loop
+    reporting the best of several rounds, not a rigorous harness. Payload
+    sizes are printed with the timings. Run with <code>make bench</code>.
+ */
+public class CodecBenchmark
+{
+    /** Calls per timed round. */
+    private static final int        CALLS = 200000;
+    /** Timed rounds per variant. */
+    private static final int        ROUNDS = 5;
+
+    /** Parameter types of the call. */
+    private static final Class<?>[] PARAMETERS =
+        new Class<?>[] {long.class, boolean.class};
+
+    /** Encodes and decodes one call. */
+    private interface Variant
+    {
+        /** Returns the decoded return value. */
+        Object call(Object[] args, Object result)
+            throws IOException, ClassNotFoundException;
+    }
+
+    /** Runs the benchmark.
+
+        @param arguments Ignored.
+     */
+    public static void main(String[] arguments) throws Exception
+    {
+        final Object[]  args = new Object[] {123456789L, false};
+        final Object    result = 987654321L;
+
+        Variant         java = new Variant()
+        {
+            @Override
+            public Object call(Object[] args, Object result)
+                throws IOException, ClassNotFoundException
+            {
+                Codecs.JAVA.decode(Codecs.JAVA.encode(args));
+                return Codecs.JAVA.decode(Codecs.JAVA.encode(result));
+            }
+        };
+
+        Variant         tagged = new Variant()
+        {
+            @Override
+            public Object call(Object[] args, Object result)
+                throws IOException, ClassNotFoundException
+            {
+                Codecs.BINARY.decode(Codecs.BINARY.encode(args));
+                return Codecs.BINARY.decode(Codecs.BINARY.encode(result));
+            }
+        };
+
+        Variant         typed = new Variant()
+        {
+            @Override
+            public Object call(Object[] args, Object result)
+                throws IOException, ClassNotFoundException
+            {
+                Codecs.BINARY.decodeArguments(PARAMETERS,
+                    Codecs.BINARY.encodeArguments(PARAMETERS, args));
+                return Codecs.BINARY.decodeResult(long.class,
+                    Codecs.BINARY.encodeResult(long.class, result));
+            }
+        };
+
+        report("java serialization ", time(java, args, result),
+               Codecs.JAVA.encode(args).length,
+               Codecs.JAVA.encode(result).length);
+        report("binary, tagged     ", time(tagged, args, result),
+               Codecs.BINARY.encode(args).length,
+               Codecs.BINARY.encode(result).length);
+        report("binary, signature  ", time(typed, args, result),
+               Codecs.BINARY.encodeArguments(PARAMETERS, args).length,
+               Codecs.BINARY.encodeResult(long.class, result).length);
+    }
+
+    /** Times one variant, returning nanoseconds per call. */
+    private static double time(Variant variant, Object[] args, Object result)
+        throws Exception
+    {
+        long    best = Long.MAX_VALUE;
+        Object  sink = null;
+
+        for(int round = -2; round < ROUNDS; ++round)
+        {
+            long    start = System.nanoTime();
+            for(int i = 0; i < CALLS; ++i)
+                sink = variant.call(args, result);
+            long    elapsed = System.nanoTime() - start;
+
+            // Negative rounds are warm-up.
+            if(round >= 0)
+                best = Math.min(best, elapsed);
+        }
+
+        if(!result.equals(sink))
+            throw new IllegalStateException("wrong result " + sink);
+
+        return (double)best / CALLS;
+    }
+
+    /** Prints one line of results. */
+    private static void report(String name, double nanos, int argBytes,
+                               int resultBytes)
+    {
+        System.out.println(name + String.format("%8.1f", nanos) +
+                           " ns/call, arguments " + argBytes +
+                           " bytes, result " + resultBytes + " bytes");
+    }
+}
@@ -0,0 +1,109 @@
+package rmi.server.task;
+
+import rmi.RMIException;
+import rmi.protocol.MethodTable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Method;
+
+/** Compares skeleton dispatch through <code>Method.invoke</code> with the
+    precomputed method handles of {@link DispatchTable}.
+
+    <p>
+    This is a plain timing loop, not a rigorous harness: each variant is warmed
+    up, then timed over several rounds, and the best round is reported in
+    nanoseconds per call. Run with <code>make bench</code>.
+ */
+public class DispatchBenchmark
+{
+    /** Calls per timed round. */
+    private static final int        CALLS = 5000000;
+    /** Timed rounds per variant. */
+    private static final int        ROUNDS = 5;
+
+    /** Remote interface dispatched to. */
+    public interface Counter
+    {
+        long add(long delta, boolean negate) throws RMIException;
+    }
+
+    /** Trivial implementation, so the measurement is mostly dispatch. */
+    public static class CounterImpl implements Counter
+    {
+        /** Running total. */
+        private long    total;
+
+        @Override
+        public long add(long delta, boolean negate)
+        {
+            total += negate ? -delta : delta;
+            return total;
+        }
+    }
+
+    /** Runs the benchmark.
+
+        @param arguments Ignored.
+     */
+    public static void main(String[] arguments) throws Exception
+    {
+        MethodTable     table = MethodTable.of(Counter.class);
+        Method          method = table.methodAt(0);
+        MethodHandle    invoker = new DispatchTable(table).invokerAt(0);
+        Object          target = new CounterImpl();
+        Object[]        args = new Object[] {1L, false};
+
+        System.out.println("Method.invoke       " + reflective(method, target, args) + " ns/call");
+        System.out.println("DispatchTable       " + handle(invoker, target, args) + " ns/call");
+    }
+
+    /** Times <code>Method.invoke</code>. */
+    private static double reflective(Method method, Object target, Object[] args) throws Exception
+    {
+        long    best = Long.MAX_VALUE;
+        Object  sink = null;
+
+        for(int round = -2; round < ROUNDS; ++round)
+        {
+            long    start = System.nanoTime();
+            for(int i = 0; i < CALLS; ++i)
+                sink = method.invoke(target, args);
+            long    elapsed = System.nanoTime() - start;
+
+            // Negative rounds are warm-up.
+            if(round >= 0)
+                best = Math.min(best, elapsed);
+        }
+
+        consume(sink);
+        return (double)best / CALLS;
+    }
+
+    /** Times the dispatch table invoker, as used by <code>MethodInvocation</code>. */
+    private static double handle(MethodHandle invoker, Object target, Object[] args) throws Exception
+    {
+        long    best = Long.MAX_VALUE;
+        Object  sink = null;
+
+        for(int round = -2; round < ROUNDS; ++round)
+        {
+            long    start = System.nanoTime();
+            for(int i = 0; i < CALLS; ++i)
+                sink = new MethodInvocation(target, invoker, args).call();
+            long    elapsed = System.nanoTime() - start;
+
+            if(round >= 0)
+                best = Math.min(best, elapsed);
+        }
+
+        consume(sink);
+        return (double)best / CALLS;
+    }
+
+    /** Keeps results alive so the loops are not optimized away. */
+    private static void consume(Object sink)
+    {
+        if(sink == null)
+            throw new IllegalStateException("no result");
+    }
+}
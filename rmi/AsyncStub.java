@@ -0,0 +1,130 @@
+package rmi;
+
+import rmi.client.proxy.StubInvocationHandler;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.SocketAddress;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking stub for a remote interface.
+ * <p/>
+ * <p/>
+ * Calls are expressed against the remote interface itself and return a
+ * <code>CompletableFuture</code> instead of blocking the caller:
+ * <p/>
+ * <pre>
+ * AsyncStub&lt;FileServer&gt;       files = Stub.createAsync(FileServer.class, address);
+ * CompletableFuture&lt;Long&gt;      size = files.call(f -&gt; f.size(path));
+ * </pre>
+ * <p/>
+ * The lambda is run once, immediately, against a recording proxy that only
+ * notes the method and arguments; its return value is meaningless. The call
+ * is then sent over the multiplexed connection shared by all stubs for the
+ * address. The future is completed off that connection's reader thread, so
+ * dependent stages may block, even on another call; a call to a skeleton in
+ * this JVM completes on the worker thread that ran it. A remote exception
+ * completes the future exceptionally with the exception thrown by the
+ * server, network failures with an <code>RMIException</code>.
+ */
+public final class AsyncStub<T> {
+
+    /**
+     * A single call on the remote interface.
+     */
+    public interface RemoteCall<T, R> {
+        R apply(T stub) throws Exception;
+    }
+
+    /**
+     * Last call made on a recording proxy, per thread
+     */
+    private static final ThreadLocal<Object[]> RECORDED = new ThreadLocal<Object[]>();
+
+    private final Class<T> service;
+    private final SocketAddress address;
+    private final StubInvocationHandler handler;
+    private final T recorder;
+
+    AsyncStub(Class<T> c, SocketAddress address) {
+        this.service = c;
+        this.address = address;
+        this.handler = new StubInvocationHandler(c, address, true);
+        this.recorder = c.cast(Proxy.newProxyInstance(c.getClassLoader(), new Class<?>[] { c }, new Recorder()));
+    }
+
+    /**
+     * Send the call made by <code>call</code> on the remote interface.
+     *
+     * @throws IllegalArgumentException If <code>call</code> does not invoke
+     *                                  exactly one method of the interface.
+     */
+    @SuppressWarnings("unchecked")
+    public <R> CompletableFuture<R> call(RemoteCall<T, R> call) {
+        RECORDED.remove();
+        try {
+            call.apply(recorder);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Remote call lambda must only call the stub", e);
+        }
+        Object[] recorded = RECORDED.get();
+        RECORDED.remove();
+        if (null == recorded) {
+            throw new IllegalArgumentException("Remote call lambda did not call the stub");
+        }
+        return (CompletableFuture<R>) (CompletableFuture<?>) handler.invokeAsync((Method) recorded[0],
+                (Object[]) recorded[1]);
+    }
+
+    public Class<T> getService() {
+        return service;
+    }
+
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Records the invoked method instead of calling it
+     */
+    private static final class Recorder implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (Object.class == method.getDeclaringClass()) {
+                throw new UnsupportedOperationException(method.getName() + " cannot be called asynchronously");
+            }
+            if (null != RECORDED.get()) {
+                throw new IllegalStateException("Remote call lambda may call the stub only once");
+            }
+            RECORDED.set(new Object[] { method, args });
+            return defaultValue(method.getReturnType());
+        }
+
+        private static Object defaultValue(Class<?> type) {
+            if (!type.isPrimitive() || void.class == type) {
+                return null;
+            }
+            if (boolean.class == type) {
+                return false;
+            }
+            if (char.class == type) {
+                return '\0';
+            }
+            if (long.class == type) {
+                return 0L;
+            }
+            if (float.class == type) {
+                return 0f;
+            }
+            if (double.class == type) {
+                return 0d;
+            }
+            if (int.class == type) {
+                return 0;
+            }
+            return type == short.class ? (Object) (short) 0 : (Object) (byte) 0;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package rmi;
+
+/**
+ * Receives the notices a skeleton publishes to subscribed stubs.
+ * <p/>
+ * <p/>
+ * Notices published with {@link Skeleton#publish} reach every listener
+ * registered with {@link Stub#subscribe} for a stub of that skeleton. They
+ * are delivered in order, by a thread of the stub's connection other than the
+ * one reading it, or by the publishing thread for a skeleton in the same JVM.
+ * A listener may call the skeleton, but delays the notices after its own
+ * until it returns. If that connection is lost, notices may have been missed:
+ * {@link #lost} is called and the listener must subscribe again to receive
+ * further notices.
+ */
+public interface NoticeListener {
+    /**
+     * Called for every notice published while subscribed.
+     *
+     * @param notice The published value, copied to the stub.
+     */
+    void notice(Object notice);
+
+    /**
+     * Called once the subscription has ended because the connection carrying
+     * it was lost.
+     */
+    void lost();
+}
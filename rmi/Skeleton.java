@@ -1,12 +1,26 @@
 package rmi;
 
+import rmi.config.Config;
+import rmi.management.SkeletonManagement;
+import rmi.metrics.SkeletonMetrics;
+import rmi.protocol.MethodTable;
+import rmi.protocol.codec.Codec;
+import rmi.protocol.codec.Codecs;
+import rmi.server.NIOServer;
+import rmi.server.RMIServer;
+import rmi.server.ServerState;
 import rmi.server.TCPServer;
+import rmi.server.task.WorkerPool;
 
+import javax.management.ObjectName;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * RMI skeleton
@@ -32,9 +46,32 @@ import java.util.logging.Logger;
  * or <code>service_error</code>.
  */
 public class Skeleton<T> {
-    private static final Logger LOGGER = Logger.getLogger("Skeleton");
+    /**
+     * Server of the current or last run, <code>null</code> before the first
+     * start; a new one is created on each start
+     */
+    private RMIServer<T> tcpServer;
+
+    private Class<T> service;
+
+    private T serviceImpl;
+
+    /**
+     * Address given to the constructor, then the one bound on the first start
+     * so that restarts and stubs keep using it; <code>null</code> until then
+     * for a system-chosen port
+     */
+    private SocketAddress address;
 
-    private TCPServer<T> tcpServer;
+    /**
+     * Kept across restarts
+     */
+    private SkeletonMetrics metrics;
+
+    /**
+     * Name of the management bean of the running server, or <code>null</code>
+     */
+    private ObjectName managementName;
 
 
     /**
@@ -58,26 +95,7 @@ public class Skeleton<T> {
      *                              <code>server</code> is <code>null</code>.
      */
     public Skeleton(Class<T> c, T server) {
-        if (null == c || null == server) {
-            throw new NullPointerException("Parameter c or server is null");
-        }
-
-        // check if c is a remote interface; if each methods throw RMIException
-        Method[] methods = c.getMethods();
-        for (Method method : methods) {
-            Class<?>[] exceptions = method.getExceptionTypes();
-            for (Class<?> exception : exceptions) {
-                if (!exception.getName().equals(RMIException.class.getName())) {
-                    throw new Error("Not a remote interface");
-                }
-            }
-        }
-
-        try {
-            tcpServer = new TCPServer<T>(c, server);
-        } catch (IOException e) {
-            LOGGER.log(Level.WARNING, "init tcp server error!");
-        }
+        this(c, server, (InetSocketAddress) null);
     }
 
     /**
@@ -100,7 +118,53 @@ public class Skeleton<T> {
      *                              <code>server</code> is <code>null</code>.
      */
     public Skeleton(Class<T> c, T server, InetSocketAddress address) {
-        throw new UnsupportedOperationException("not implemented");
+        init(c, server, address);
+    }
+
+    /**
+     * Creates a <code>Skeleton</code> listening on a Unix domain socket.
+     * <p/>
+     * <p/>
+     * This constructor should be used when all stubs run on the same host as
+     * the skeleton: they are created with the same address and skip the
+     * loopback TCP stack. The skeleton always uses the selector-based
+     * transport. The socket file is created when the skeleton is started and
+     * removed when it stops; it must not exist beforehand.
+     *
+     * @param c       An object representing the class of the interface for which the
+     *                skeleton server is to handle method call requests.
+     * @param server  An object implementing said interface. Requests for method
+     *                calls are forwarded by the skeleton to this object.
+     * @param address The socket file at which the skeleton is to run.
+     * @throws Error                If <code>c</code> does not represent a remote interface -
+     *                              an interface whose methods are all marked as throwing
+     *                              <code>RMIException</code>.
+     * @throws NullPointerException If any argument is <code>null</code>.
+     */
+    public Skeleton(Class<T> c, T server, UnixDomainSocketAddress address) {
+        if (null == address) {
+            throw new NullPointerException("Parameter address is null");
+        }
+        init(c, server, address);
+    }
+
+    private void init(Class<T> c, T server, SocketAddress address) {
+        if (null == c || null == server) {
+            throw new NullPointerException("Parameter c or server is null");
+        }
+
+        // check if c is a remote interface; if each methods throw RMIException
+        Method[] methods = c.getMethods();
+        for (Method method : methods) {
+            if (!Arrays.asList(method.getExceptionTypes()).contains(RMIException.class)) {
+                throw new Error("Not a remote interface");
+            }
+        }
+
+        this.service = c;
+        this.serviceImpl = server;
+        this.address = address;
+        this.metrics = new SkeletonMetrics(MethodTable.of(c));
     }
 
     /**
@@ -156,6 +220,79 @@ public class Skeleton<T> {
     protected void service_error(RMIException exception) {
     }
 
+    /**
+     * Creates the pool of threads running the method calls, called each time
+     * the skeleton is started; the pool is shut down when it stops.
+     * <p/>
+     * <p/>
+     * The default pool is sized by <code>Config.MIN_THREAD</code>,
+     * <code>Config.MAX_THREAD</code>, <code>Config.KEEP_ALIVE_TIME</code> and
+     * <code>Config.WORKER_QUEUE_SIZE</code>, and answers calls arriving while
+     * it is saturated with an "overloaded" <code>RMIException</code>. Override
+     * this method to size the pool or change the rejection policy for one
+     * skeleton, or return <code>WorkerPool.threadPerCall</code> to run each
+     * call (and, with the blocking transport, each connection) on a thread of
+     * its own - virtual threads on runtimes that support them - when the
+     * service methods spend most of their time blocked.
+     *
+     * @return The worker pool.
+     */
+    protected WorkerPool createWorkerPool() {
+        return WorkerPool.createDefault(service.getSimpleName());
+    }
+
+    /**
+     * Returns the codecs stubs may use to encode arguments and return values,
+     * called each time the skeleton is started.
+     * <p/>
+     * <p/>
+     * When a stub connects it offers the codecs it supports; the skeleton
+     * picks the first of them that appears in this list, and falls back to
+     * Java serialization if there is none. The default list holds the compact
+     * binary codec and Java serialization. Override this method to return
+     * <code>Codecs.of(Codecs.JAVA)</code> to force Java serialization, or to
+     * add a codec of your own.
+     *
+     * @return The supported codecs.
+     */
+    protected List<Codec> createCodecs() {
+        return Codecs.defaults();
+    }
+
+    /**
+     * Returns the pool running the method calls, or <code>null</code> if the
+     * skeleton has never been started.
+     */
+    public WorkerPool getWorkerPool() {
+        return (null == tcpServer) ? null : tcpServer.getWorkerPool();
+    }
+
+    /**
+     * Returns what the skeleton recorded about the calls of each remote
+     * method, since it was created.
+     * <p/>
+     * <p/>
+     * For every method the skeleton counts calls, errors and the bytes of
+     * arguments and replies, and keeps latency histograms of the time calls
+     * wait for a worker thread, run, and take to write their reply.
+     * Recording takes no lock, so metrics are always on; read them with
+     * <code>getMetrics().byMethod()</code>.
+     *
+     * @return The metrics.
+     */
+    public SkeletonMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the address the skeleton listens at, or <code>null</code> if it
+     * was created without one and has not been started yet. A port left to
+     * the system is known once the skeleton has been started.
+     */
+    synchronized SocketAddress getAddress() {
+        return address;
+    }
+
     /**
      * Starts the skeleton server.
      * <p/>
@@ -164,6 +301,13 @@ public class Skeleton<T> {
      * returns immediately. Additional threads are created when connections are
      * accepted. The network address used for the server is determined by which
      * constructor was used to create the <code>Skeleton</code> object.
+     * <p/>
+     * <p/>
+     * While it runs, the skeleton is registered with the platform MBean
+     * server as <code>rmi:type=Skeleton,service=...,address=...</code>: its
+     * state, connections, worker pool and per-method call counts and rates
+     * can be watched with any JMX console, which can also pause and resume
+     * accepting connections and resize the worker pool.
      *
      * @throws RMIException When the listening socket cannot be created or
      *                      bound, when the listening thread cannot be created,
@@ -171,8 +315,67 @@ public class Skeleton<T> {
      *                      not since stopped.
      */
     public synchronized void start() throws RMIException {
+        if (null != tcpServer && ServerState.SHUTDOWN != tcpServer.getServerState()) {
+            throw new RMIException("Skeleton already started");
+        }
+
+        // a thread cannot be restarted, each run gets a server of its own
+        SocketAddress bindAddress = (null == address) ? new InetSocketAddress(0) : address;
+        RMIServer<T> created;
+        try {
+            if (Config.NIO || bindAddress instanceof UnixDomainSocketAddress) {
+                created = new NIOServer<T>(bindAddress, Config.MAX_CONNECTION, service, serviceImpl);
+            } else {
+                created = new TCPServer<T>(bindAddress, Config.MAX_CONNECTION, service, serviceImpl);
+            }
+        } catch (IOException e) {
+            throw new RMIException("Cannot listen at " + bindAddress, e);
+        }
+        created.setMetrics(metrics);
+        created.setWorkerPool(createWorkerPool());
+        created.setCodecs(createCodecs());
+        created.setStopListener(new Consumer<Throwable>() {
+            @Override
+            public void accept(Throwable cause) {
+                synchronized (Skeleton.this) {
+                    stopped(cause);
+                }
+            }
+        });
+        try {
+            created.startServer();
+        } catch (RuntimeException e) {
+            created.shutDown();
+            throw new RMIException("Cannot start listening thread", e);
+        }
+        tcpServer = created;
+        if (null == address
+                || (address instanceof InetSocketAddress && 0 == ((InetSocketAddress) address).getPort())) {
+            // keep the port the system picked, for stubs and restarts
+            address = created.getAddress();
+        }
+        if (null == managementName) {
+            managementName = SkeletonManagement.register(tcpServer);
+        }
+    }
+
+    /**
+     * Publishes a notice to the stubs subscribed to this skeleton.
+     * <p/>
+     * <p/>
+     * The notice is sent to every stub connection subscribed with
+     * <code>Stub.subscribe</code>, and handed to the listeners of stubs in
+     * this JVM. It is encoded like a return value, so it must be
+     * serializable. Notices are queued per connection and written without
+     * blocking the caller; a connection more than
+     * <code>Config.NOTICE_QUEUE</code> notices behind is closed. Stubs
+     * subscribing later, or whose connection is lost, miss them.
+     *
+     * @param notice The value to publish.
+     */
+    public void publish(Object notice) {
         if (null != tcpServer) {
-            tcpServer.startServer();
+            tcpServer.publish(notice);
         }
     }
 
@@ -187,8 +390,15 @@ public class Skeleton<T> {
      * restarted.
      */
     public synchronized void stop() {
-        if (null != tcpServer) {
-            tcpServer.shutDown();
+        try {
+            if (null != tcpServer && ServerState.SHUTDOWN != tcpServer.getServerState()) {
+                tcpServer.shutDown();
+            }
+        } finally {
+            if (null != managementName) {
+                SkeletonManagement.unregister(managementName);
+                managementName = null;
+            }
         }
     }
 
@@ -2,13 +2,19 @@ package rmi;
 
 import rmi.client.proxy.StubInvocationHandler;
 import rmi.config.Config;
+import rmi.metrics.StubMetrics;
 import rmi.service.server.FileServer;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
 import java.net.UnknownHostException;
+import java.util.Arrays;
 
 /**
  * RMI stub factory.
@@ -56,7 +62,20 @@ public abstract class Stub {
      */
     public static <T> T create(Class<T> c, Skeleton<T> skeleton)
             throws UnknownHostException {
-        throw new UnsupportedOperationException("not implemented");
+        if (null == c || null == skeleton) {
+            throw new NullPointerException("Parameter c or skeleton is null");
+        }
+        SocketAddress address = skeleton.getAddress();
+        if (null == address) {
+            throw new IllegalStateException("Skeleton has no address");
+        }
+        if (address instanceof InetSocketAddress) {
+            InetSocketAddress inet = (InetSocketAddress) address;
+            if (inet.getAddress().isAnyLocalAddress()) {
+                address = new InetSocketAddress(InetAddress.getLocalHost(), inet.getPort());
+            }
+        }
+        return createProxy(c, address);
     }
 
     /**
@@ -92,7 +111,14 @@ public abstract class Stub {
      */
     public static <T> T create(Class<T> c, Skeleton<T> skeleton,
             String hostname) {
-        throw new UnsupportedOperationException("not implemented");
+        if (null == c || null == skeleton || null == hostname) {
+            throw new NullPointerException("Parameter c, skeleton or hostname is null");
+        }
+        SocketAddress address = skeleton.getAddress();
+        if (!(address instanceof InetSocketAddress)) {
+            throw new IllegalStateException("Skeleton has no port");
+        }
+        return createProxy(c, new InetSocketAddress(hostname, ((InetSocketAddress) address).getPort()));
     }
 
     /**
@@ -115,11 +141,147 @@ public abstract class Stub {
      */
     public static <T> T create(Class<T> c, InetSocketAddress address) {
 //        throw new UnsupportedOperationException("not implemented");
-        InvocationHandler handler = new StubInvocationHandler(address);
+        return createProxy(c, address);
+    }
+
+    /**
+     * Creates a stub, given the Unix domain socket address of a skeleton on
+     * the same host.
+     * <p/>
+     * <p/>
+     * Calls use the same framing as over TCP, but skip the loopback network
+     * stack.
+     *
+     * @param c       A <code>Class</code> object representing the interface
+     *                implemented by the remote object.
+     * @param address The socket file of the local skeleton.
+     * @return The stub created.
+     * @throws NullPointerException If any argument is <code>null</code>.
+     */
+    public static <T> T create(Class<T> c, UnixDomainSocketAddress address) {
+        if (null == c || null == address) {
+            throw new NullPointerException("Parameter c or address is null");
+        }
+        return createProxy(c, address);
+    }
+
+    private static <T> T createProxy(Class<T> c, SocketAddress address) {
+        if (!c.isInterface()) {
+            throw new Error(c.getName() + " is not an interface");
+        }
+        for (Method method : c.getMethods()) {
+            if (!Arrays.asList(method.getExceptionTypes()).contains(RMIException.class)) {
+                throw new Error("Not a remote interface: " + method);
+            }
+        }
+        InvocationHandler handler = new StubInvocationHandler(c, address);
         T instance = (T) Proxy.newProxyInstance(c.getClassLoader(), new Class[] { c }, handler);
         return instance;
     }
 
+    /**
+     * Creates a non-blocking stub, given the address of a remote server.
+     * <p/>
+     * <p/>
+     * Calls made through the returned object return
+     * <code>CompletableFuture</code>s instead of blocking, so a few threads
+     * can keep many calls in flight.
+     *
+     * @param c       A <code>Class</code> object representing the interface
+     *                implemented by the remote object.
+     * @param address The network address of the remote skeleton.
+     * @return The asynchronous stub created.
+     * @throws NullPointerException If any argument is <code>null</code>.
+     */
+    public static <T> AsyncStub<T> createAsync(Class<T> c, InetSocketAddress address) {
+        if (null == c || null == address) {
+            throw new NullPointerException("Parameter c or address is null");
+        }
+        return new AsyncStub<T>(c, address);
+    }
+
+    /**
+     * Creates a non-blocking stub, given the Unix domain socket address of a
+     * skeleton on the same host.
+     *
+     * @param c       A <code>Class</code> object representing the interface
+     *                implemented by the remote object.
+     * @param address The socket file of the local skeleton.
+     * @return The asynchronous stub created.
+     * @throws NullPointerException If any argument is <code>null</code>.
+     */
+    public static <T> AsyncStub<T> createAsync(Class<T> c, UnixDomainSocketAddress address) {
+        if (null == c || null == address) {
+            throw new NullPointerException("Parameter c or address is null");
+        }
+        return new AsyncStub<T>(c, address);
+    }
+
+    /**
+     * Subscribes to the notices published by the skeleton a stub connects to.
+     * <p/>
+     * <p/>
+     * Notices arrive over the multiplexed connection to the skeleton, opened
+     * if needed, or directly if the skeleton runs in this JVM. See
+     * {@link NoticeListener} for how they are delivered.
+     *
+     * @param stub     A stub created by this class.
+     * @param listener The listener receiving the notices.
+     * @throws RMIException         If the subscription cannot be sent.
+     * @throws IllegalArgumentException If <code>stub</code> is not a stub.
+     * @throws NullPointerException If any argument is <code>null</code>.
+     */
+    public static void subscribe(Object stub, NoticeListener listener) throws RMIException {
+        if (null == listener) {
+            throw new NullPointerException("Parameter listener is null");
+        }
+        handlerOf(stub).subscribe(listener);
+    }
+
+    /**
+     * Stops delivering notices to a listener subscribed with
+     * {@link #subscribe}.
+     *
+     * @param stub     The stub the listener subscribed with.
+     * @param listener The listener to remove.
+     * @throws IllegalArgumentException If <code>stub</code> is not a stub.
+     */
+    public static void unsubscribe(Object stub, NoticeListener listener) {
+        handlerOf(stub).unsubscribe(listener);
+    }
+
+    /**
+     * Returns what stubs recorded about their calls to the skeleton a stub
+     * connects to.
+     * <p/>
+     * <p/>
+     * All stubs for the same address share these metrics. For every method
+     * they count calls, errors, exceptions thrown by the server and the bytes
+     * of arguments and replies, and keep latency histograms of the time to
+     * get a connection, encode the arguments, wait on the server and decode
+     * the reply. <code>StubMetrics.all()</code> lists every address.
+     *
+     * @param stub A stub created by this class.
+     * @return The metrics of the stub's address.
+     * @throws IllegalArgumentException If <code>stub</code> is not a stub.
+     */
+    public static StubMetrics getMetrics(Object stub) {
+        return handlerOf(stub).getMetrics();
+    }
+
+    private static StubInvocationHandler handlerOf(Object stub) {
+        if (null == stub) {
+            throw new NullPointerException("Parameter stub is null");
+        }
+        if (Proxy.isProxyClass(stub.getClass())) {
+            InvocationHandler handler = Proxy.getInvocationHandler(stub);
+            if (handler instanceof StubInvocationHandler) {
+                return (StubInvocationHandler) handler;
+            }
+        }
+        throw new IllegalArgumentException("Not a stub: " + stub);
+    }
+
     public static void main(String[] args) throws IOException {
         InetSocketAddress address = new InetSocketAddress(Config.SERVER_HOST, Config.LISTENING_PORT);
         FileServer fileServer = Stub.create(FileServer.class, address);
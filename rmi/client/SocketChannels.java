@@ -0,0 +1,130 @@
+package rmi.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Client side channel helpers shared by the TCP and Unix domain socket
+ * transports.
+ */
+public final class SocketChannels {
+
+    private SocketChannels() {}
+
+    /**
+     * Open a blocking channel connected to a skeleton, over TCP for an
+     * <code>InetSocketAddress</code> and over a Unix domain socket for a
+     * <code>UnixDomainSocketAddress</code>.
+     */
+    public static SocketChannel connect(SocketAddress address, int connectTimeout) throws IOException {
+        SocketChannel channel;
+        if (address instanceof UnixDomainSocketAddress) {
+            channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            try {
+                channel.connect(address);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            return channel;
+        }
+        if (!(address instanceof InetSocketAddress)) {
+            throw new IllegalArgumentException("Unsupported address type " + address.getClass().getName());
+        }
+
+        channel = SocketChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+            channel.socket().connect(address, connectTimeout);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Check an idle channel without blocking: end of stream or unexpected
+     * data both mean it can no longer carry calls.
+     */
+    public static boolean isAlive(SocketChannel channel) {
+        if (!channel.isOpen() || !channel.isConnected()) {
+            return false;
+        }
+        try {
+            synchronized (channel.blockingLock()) {
+                channel.configureBlocking(false);
+                try {
+                    return 0 == channel.read(ByteBuffer.allocate(1));
+                } finally {
+                    channel.configureBlocking(true);
+                }
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stream reading straight from the channel. Unlike
+     * <code>java.nio.channels.Channels.newInputStream</code>, a blocked read
+     * does not hold the channel's blocking lock, so another thread can write
+     * meanwhile.
+     */
+    public static InputStream inputStream(final SocketChannel channel) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xFF);
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (0 == len) {
+                    return 0;
+                }
+                return channel.read(ByteBuffer.wrap(b, off, len));
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /**
+     * Stream writing straight to the channel, see {@link #inputStream}.
+     */
+    public static OutputStream outputStream(final SocketChannel channel) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+}
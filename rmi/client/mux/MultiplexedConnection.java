@@ -0,0 +1,656 @@
+package rmi.client.mux;
+
+import rmi.NoticeListener;
+import rmi.RMIException;
+import rmi.client.SocketChannels;
+import rmi.client.stream.InboundStream;
+import rmi.config.Config;
+import rmi.protocol.FileBody;
+import rmi.protocol.Frame;
+import rmi.protocol.Protocol;
+import rmi.protocol.codec.Codec;
+import rmi.protocol.codec.Codecs;
+import rmi.trace.TraceContext;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A connection carrying many concurrent calls to one skeleton.
+ *
+ * Every request gets a call id, and the skeleton answers each call as soon as
+ * it completes, in any order. A reader thread matches replies to callers
+ * through a fixed-size correlation table: the slot of a call is its id modulo
+ * the table size, claimed and released with compare-and-set, so neither the
+ * callers nor the reader take a lock. The number of calls in flight is bounded
+ * by the table size.
+ *
+ * Futures returned to callers, and notices, are completed off the reader
+ * thread, so a stage or listener may make a blocking call on the same
+ * connection without stopping the replies it waits for.
+ */
+public class MultiplexedConnection {
+    private static final Logger LOGGER = Logger.getLogger("MultiplexedConnection");
+
+    private static final ConcurrentHashMap<SocketAddress, MultiplexedConnection> CONNECTIONS =
+            new ConcurrentHashMap<SocketAddress, MultiplexedConnection>();
+
+    /**
+     * Connections being opened, so callers for one address wait for a single
+     * connect without holding up other addresses
+     */
+    private static final ConcurrentHashMap<SocketAddress, CompletableFuture<MultiplexedConnection>> CONNECTING =
+            new ConcurrentHashMap<SocketAddress, CompletableFuture<MultiplexedConnection>>();
+
+    /**
+     * Completes the futures returned to callers, shared by every connection
+     */
+    private static final ExecutorService COMPLETIONS = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+            60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), daemonThreads("MultiplexedConnection-completion-"));
+
+    private final SocketAddress address;
+    private final SocketChannel channel;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /**
+     * Codec negotiated with the skeleton for this connection
+     */
+    private final Codec codec;
+
+    /**
+     * Correlation table, indexed by call id masked to the table size
+     */
+    private final AtomicReferenceArray<PendingCall> inFlight;
+    private final int mask;
+
+    /**
+     * One permit per free slot of the correlation table
+     */
+    private final Semaphore slots;
+    private final AtomicInteger nextCallId = new AtomicInteger();
+
+    private volatile boolean open = true;
+
+    /**
+     * Receivers of the notices pushed on this connection, subscribed with
+     * the first of them
+     */
+    private final CopyOnWriteArrayList<NoticeListener> listeners = new CopyOnWriteArrayList<NoticeListener>();
+    private boolean subscribed;
+
+    /**
+     * Delivers the notices of this connection in order, on one thread that
+     * stops while none are pending
+     */
+    private final ExecutorService notices;
+
+    /**
+     * A call waiting for its reply
+     */
+    private static final class PendingCall {
+        final int callId;
+        final FileBody.Target target;
+        final CompletableFuture<Frame> reply = new CompletableFuture<Frame>();
+
+        /**
+         * Frames of a streamed result following its RETURN, and the
+         * <code>IOException</code> failing it if the connection breaks;
+         * <code>null</code> unless the call returns a stream
+         */
+        final LinkedBlockingQueue<Object> stream;
+
+        /**
+         * The RETURN of a streamed result arrived, only used by the reader
+         */
+        boolean started;
+
+        PendingCall(int callId, FileBody.Target target, boolean streamed) {
+            this.callId = callId;
+            this.target = target;
+            this.stream = streamed ? new LinkedBlockingQueue<Object>() : null;
+        }
+    }
+
+    MultiplexedConnection(SocketAddress address, int maxInFlight) throws IOException {
+        if (Integer.bitCount(maxInFlight) != 1) {
+            throw new IllegalArgumentException("maxInFlight must be a power of two");
+        }
+        this.address = address;
+        this.inFlight = new AtomicReferenceArray<PendingCall>(maxInFlight);
+        this.mask = maxInFlight - 1;
+        this.slots = new Semaphore(maxInFlight);
+        this.notices = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                daemonThreads("MultiplexedConnection-notices-" + address + "-"));
+
+        channel = SocketChannels.connect(address, Config.CONNECT_TIMEOUT);
+        in = new DataInputStream(new BufferedInputStream(SocketChannels.inputStream(channel)));
+        out = new DataOutputStream(new BufferedOutputStream(SocketChannels.outputStream(channel)));
+        try {
+            codec = Codecs.handshake(in, out, Codecs.defaults());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readReplies();
+            }
+        }, "MultiplexedConnection-reader-" + address);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private static ThreadFactory daemonThreads(final String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Return the open connection shared by all multiplexed stubs for the
+     * address, connecting if there is none. Callers for the same address
+     * wait for one connect and share its outcome.
+     */
+    public static MultiplexedConnection of(SocketAddress address) throws RMIException {
+        MultiplexedConnection conn = CONNECTIONS.get(address);
+        if (null != conn && conn.open) {
+            return conn;
+        }
+        CompletableFuture<MultiplexedConnection> connecting = new CompletableFuture<MultiplexedConnection>();
+        CompletableFuture<MultiplexedConnection> pending = CONNECTING.putIfAbsent(address, connecting);
+        if (null != pending) {
+            return awaitConnect(address, pending);
+        }
+        try {
+            // another caller may have connected since the first look
+            conn = CONNECTIONS.get(address);
+            if (null == conn || !conn.open) {
+                conn = new MultiplexedConnection(address, Config.MUX_MAX_IN_FLIGHT);
+                CONNECTIONS.put(address, conn);
+            }
+            connecting.complete(conn);
+            return conn;
+        } catch (IOException e) {
+            RMIException failure = new RMIException("Cannot connect to " + address, e);
+            connecting.completeExceptionally(failure);
+            throw failure;
+        } finally {
+            CONNECTING.remove(address, connecting);
+        }
+    }
+
+    private static MultiplexedConnection awaitConnect(SocketAddress address,
+            CompletableFuture<MultiplexedConnection> pending) throws RMIException {
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RMIException("Interrupted connecting to " + address, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RMIException) {
+                throw (RMIException) e.getCause();
+            }
+            throw new RMIException("Cannot connect to " + address, e.getCause());
+        }
+    }
+
+    /**
+     * Send a call and return a future completed with the reply frame, or
+     * completed exceptionally with an <code>RMIException</code> if the
+     * connection fails first. The future completes, and runs the stages
+     * depending on it, on a completion thread rather than the reader.
+     */
+    public CompletableFuture<Frame> send(int methodIndex, byte[] payload) throws RMIException {
+        return send(methodIndex, payload, null);
+    }
+
+    /**
+     * Send a call returning a {@link FileBody}, whose body the reader thread
+     * writes into <code>target</code> instead of the reply frame.
+     */
+    public CompletableFuture<Frame> send(int methodIndex, byte[] payload, FileBody.Target target)
+            throws RMIException {
+        return send(methodIndex, payload, target, null);
+    }
+
+    /**
+     * Send a call, with a trace slot if <code>trace</code> is not
+     * <code>null</code>.
+     */
+    public CompletableFuture<Frame> send(int methodIndex, byte[] payload, FileBody.Target target,
+            TraceContext trace) throws RMIException {
+        return completedOffReader(send(claim(target, false), methodIndex, payload, trace));
+    }
+
+    /**
+     * Return a future completed like <code>reply</code>, but on a completion
+     * thread, so stages added by the caller never run on the reader.
+     */
+    private static CompletableFuture<Frame> completedOffReader(CompletableFuture<Frame> reply) {
+        final CompletableFuture<Frame> visible = new CompletableFuture<Frame>();
+        reply.whenComplete(new BiConsumer<Frame, Throwable>() {
+            @Override
+            public void accept(final Frame frame, final Throwable failure) {
+                COMPLETIONS.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (null == failure) {
+                            visible.complete(frame);
+                        } else {
+                            visible.completeExceptionally(failure);
+                        }
+                    }
+                });
+            }
+        });
+        return visible;
+    }
+
+    /**
+     * Wait for a free slot of the correlation table and put a new call in it.
+     */
+    private PendingCall claim(FileBody.Target target, boolean streamed) throws RMIException {
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RMIException("Interrupted waiting for a call slot on " + address, e);
+        }
+
+        // a permit guarantees a free slot, ids that land on a busy one are skipped
+        PendingCall call;
+        do {
+            call = new PendingCall(nextCallId.getAndIncrement(), target, streamed);
+        } while (!inFlight.compareAndSet(call.callId & mask, null, call));
+        return call;
+    }
+
+    private CompletableFuture<Frame> send(PendingCall call, int methodIndex, byte[] payload, TraceContext trace) {
+        if (!open) {
+            // the reader may have drained the table before the slot was claimed
+            fail(call, new RMIException("Connection to " + address + " is closed"));
+            return call.reply;
+        }
+
+        try {
+            writeFrame(new Frame(Protocol.CALL, call.callId, methodIndex, payload, trace));
+        } catch (IOException e) {
+            close(e);
+        }
+        return call.reply;
+    }
+
+    /**
+     * Send a call and block until its reply arrives.
+     */
+    public Frame call(int methodIndex, byte[] payload) throws RMIException {
+        return call(methodIndex, payload, null);
+    }
+
+    public Frame call(int methodIndex, byte[] payload, FileBody.Target target) throws RMIException {
+        return call(methodIndex, payload, target, null);
+    }
+
+    public Frame call(int methodIndex, byte[] payload, FileBody.Target target, TraceContext trace)
+            throws RMIException {
+        // the caller only waits, the reader may complete the future itself
+        return await(send(claim(target, false), methodIndex, payload, trace));
+    }
+
+    /**
+     * Send a call returning a stream (see {@link rmi.protocol.StreamTypes}).
+     * The call keeps its slot after the RETURN, and the rest of the stream is
+     * read from the source of the returned call. Its reply completes on a
+     * completion thread, as for {@link #send}.
+     */
+    public StreamedCall sendStreamed(int methodIndex, byte[] payload) throws RMIException {
+        return sendStreamed(methodIndex, payload, null);
+    }
+
+    public StreamedCall sendStreamed(int methodIndex, byte[] payload, TraceContext trace) throws RMIException {
+        PendingCall call = claim(null, true);
+        return new StreamedCall(completedOffReader(send(call, methodIndex, payload, trace)), new StreamSource(call));
+    }
+
+    /**
+     * Send a call returning a stream and block until its RETURN, or the
+     * exception it threw, arrives.
+     */
+    public StreamedCall callStreamed(int methodIndex, byte[] payload) throws RMIException {
+        return callStreamed(methodIndex, payload, null);
+    }
+
+    public StreamedCall callStreamed(int methodIndex, byte[] payload, TraceContext trace) throws RMIException {
+        PendingCall call = claim(null, true);
+        // complete once returned, so no stage added later runs on the reader
+        CompletableFuture<Frame> reply = send(call, methodIndex, payload, trace);
+        await(reply);
+        return new StreamedCall(reply, new StreamSource(call));
+    }
+
+    private Frame await(CompletableFuture<Frame> reply) throws RMIException {
+        try {
+            return reply.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RMIException("Interrupted waiting for reply from " + address, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RMIException) {
+                throw (RMIException) cause;
+            }
+            throw new RMIException("Call on " + address + " failed", cause);
+        }
+    }
+
+    /**
+     * Deliver the notices the skeleton publishes to <code>listener</code>,
+     * until it unsubscribes or the connection is lost.
+     */
+    public void subscribe(NoticeListener listener) throws RMIException {
+        synchronized (listeners) {
+            if (!open) {
+                throw new RMIException("Connection to " + address + " is closed");
+            }
+            listeners.addIfAbsent(listener);
+            if (subscribed) {
+                return;
+            }
+            try {
+                writeFrame(new Frame(Protocol.SUBSCRIBE, 0, 0, null));
+            } catch (IOException e) {
+                listeners.remove(listener);
+                close(e);
+                throw new RMIException("Cannot subscribe to " + address, e);
+            }
+            subscribed = true;
+        }
+    }
+
+    /**
+     * Stop delivering notices from the skeleton at <code>address</code> to
+     * <code>listener</code>, without connecting if there is no connection.
+     * The skeleton stops pushing notices once the last listener is gone.
+     */
+    public static void unsubscribe(SocketAddress address, NoticeListener listener) {
+        MultiplexedConnection conn = CONNECTIONS.get(address);
+        if (null != conn) {
+            conn.unsubscribe(listener);
+        }
+    }
+
+    private void unsubscribe(NoticeListener listener) {
+        synchronized (listeners) {
+            if (!listeners.remove(listener) || !listeners.isEmpty() || !subscribed || !open) {
+                return;
+            }
+            subscribed = false;
+            try {
+                // notices already in flight find no listener and are dropped
+                writeFrame(new Frame(Protocol.UNSUBSCRIBE, 0, 0, null));
+            } catch (IOException e) {
+                close(e);
+            }
+        }
+    }
+
+    private void writeFrame(Frame frame) throws IOException {
+        synchronized (out) {
+            frame.writeTo(out);
+            out.flush();
+        }
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    private void readReplies() {
+        try {
+            while (open) {
+                // bodies go to their target, other payloads are bounded by readPayload
+                Frame reply = Frame.readHeader(in, Integer.MAX_VALUE);
+                if (Protocol.NOTICE == reply.getType()) {
+                    notice(reply.readPayload(in));
+                    continue;
+                }
+                int slot = reply.getCallId() & mask;
+                PendingCall call = inFlight.get(slot);
+                if (null == call || call.callId != reply.getCallId()) {
+                    reply.readPayload(in);
+                    // frames of a cancelled stream may still be in flight
+                    boolean streamed = Protocol.STREAM_DATA == reply.getType()
+                            || Protocol.STREAM_END == reply.getType() || Protocol.EXCEPTION == reply.getType();
+                    LOGGER.log(streamed ? Level.FINE : Level.WARNING,
+                            "Dropping unexpected reply " + reply + " from " + address);
+                    continue;
+                }
+                if (call.started) {
+                    Frame frame = reply.readPayload(in);
+                    if (Protocol.STREAM_DATA != frame.getType()) {
+                        // last frame of the stream, free the slot unless the stub abandoned it
+                        if (!inFlight.compareAndSet(slot, call, null)) {
+                            continue;
+                        }
+                        slots.release();
+                    }
+                    call.stream.add(frame);
+                    continue;
+                }
+                // only the reader and a failing connection release slots of unanswered calls
+                reply = (null == call.target) ? reply.readPayload(in) : call.target.receive(reply, in);
+                if (null != call.stream && Protocol.RETURN == reply.getType()) {
+                    call.started = true;
+                    call.reply.complete(reply);
+                    continue;
+                }
+                if (!inFlight.compareAndSet(slot, call, null)) {
+                    LOGGER.log(Level.WARNING, "Dropping reply " + reply + " to a failed call from " + address);
+                    continue;
+                }
+                slots.release();
+                call.reply.complete(reply);
+            }
+        } catch (IOException e) {
+            close(e);
+        }
+    }
+
+    /**
+     * A call returning a stream: its first reply, and where the rest of the
+     * stream comes from once that reply is a RETURN.
+     */
+    public static final class StreamedCall {
+        private final CompletableFuture<Frame> reply;
+        private final InboundStream.Source source;
+
+        StreamedCall(CompletableFuture<Frame> reply, InboundStream.Source source) {
+            this.reply = reply;
+            this.source = source;
+        }
+
+        public CompletableFuture<Frame> getReply() {
+            return reply;
+        }
+
+        public InboundStream.Source getSource() {
+            return source;
+        }
+    }
+
+    /**
+     * Frames of a streamed result, queued by the reader
+     */
+    private final class StreamSource implements InboundStream.Source {
+        private final PendingCall call;
+
+        StreamSource(PendingCall call) {
+            this.call = call;
+        }
+
+        @Override
+        public Frame next() throws IOException {
+            Object next;
+            try {
+                next = call.stream.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted reading stream from " + address);
+            }
+            if (next instanceof IOException) {
+                throw new IOException("Stream from " + address + " failed", (IOException) next);
+            }
+            return (Frame) next;
+        }
+
+        @Override
+        public void grant(int n) throws IOException {
+            writeFrame(new Frame(Protocol.STREAM_CREDIT, call.callId, 0, ByteBuffer.allocate(4).putInt(n).array()));
+        }
+
+        @Override
+        public void finished() {
+            // the reader released the slot with the last frame
+        }
+
+        @Override
+        public void abort() {
+            if (inFlight.compareAndSet(call.callId & mask, call, null)) {
+                slots.release();
+                try {
+                    writeFrame(new Frame(Protocol.STREAM_CANCEL, call.callId, 0, null));
+                } catch (IOException e) {
+                    close(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Queue a notice for the listeners subscribed when it arrived.
+     */
+    private void notice(final Frame frame) {
+        final Object[] receivers = listeners.toArray();
+        if (0 == receivers.length) {
+            return;
+        }
+        try {
+            deliver(receivers, frame);
+        } catch (RejectedExecutionException e) {
+            // closed meanwhile, the listeners are told the connection is lost
+        }
+    }
+
+    private void deliver(final Object[] receivers, final Frame frame) {
+        notices.execute(new Runnable() {
+            @Override
+            public void run() {
+                Object notice;
+                try {
+                    notice = codec.decode(frame.getPayload());
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Dropping undecodable notice from " + address, e);
+                    return;
+                }
+                for (Object listener : receivers) {
+                    try {
+                        ((NoticeListener) listener).notice(notice);
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Notice listener failed", e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Close the connection and fail every call still in flight.
+     */
+    void close(Throwable cause) {
+        if (!open) {
+            return;
+        }
+        open = false;
+        CONNECTIONS.remove(address, this);
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // already failing
+        }
+
+        RMIException failure = new RMIException("Connection to " + address + " lost", cause);
+        for (int i = 0; i < inFlight.length(); i++) {
+            PendingCall call = inFlight.get(i);
+            if (null != call) {
+                fail(call, failure);
+            }
+        }
+
+        synchronized (listeners) {
+            final Object[] receivers = listeners.toArray();
+            listeners.clear();
+            // after the notices already queued
+            notices.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (Object listener : receivers) {
+                        try {
+                            ((NoticeListener) listener).lost();
+                        } catch (RuntimeException e) {
+                            LOGGER.log(Level.WARNING, "Notice listener failed", e);
+                        }
+                    }
+                }
+            });
+        }
+        notices.shutdown();
+    }
+
+    private void fail(PendingCall call, RMIException failure) {
+        if (inFlight.compareAndSet(call.callId & mask, call, null)) {
+            slots.release();
+            call.reply.completeExceptionally(failure);
+            if (null != call.stream) {
+                call.stream.add(new IOException(failure.getMessage(), failure));
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package rmi.client.pool;
+
+import rmi.client.SocketChannels;
+import rmi.protocol.codec.Codec;
+import rmi.protocol.codec.Codecs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A client connection to a skeleton, reused across calls by a {@link ConnectionPool}.
+ */
+public class Connection {
+
+    private final SocketChannel channel;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /**
+     * Codec negotiated with the skeleton for this connection
+     */
+    private final Codec codec;
+
+    /**
+     * Time the connection was last returned to the pool, in milliseconds
+     */
+    private volatile long lastUsed;
+
+    Connection(SocketAddress address, int connectTimeout) throws IOException {
+        channel = SocketChannels.connect(address, connectTimeout);
+        in = new DataInputStream(new BufferedInputStream(SocketChannels.inputStream(channel)));
+        out = new DataOutputStream(new BufferedOutputStream(SocketChannels.outputStream(channel)));
+        try {
+            codec = Codecs.handshake(in, out, Codecs.defaults());
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        lastUsed = System.currentTimeMillis();
+    }
+
+    public DataInputStream getIn() {
+        return in;
+    }
+
+    public DataOutputStream getOut() {
+        return out;
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Check the connection is still usable without sending anything.
+     *
+     * Between calls the server never writes to an idle connection, so any
+     * readable byte or end of stream means it is broken (typically closed by
+     * the server or a middlebox).
+     */
+    boolean isHealthy() {
+        try {
+            if (in.available() > 0) {
+                return false;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return SocketChannels.isAlive(channel);
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // nothing left to do with a broken socket
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package rmi.client.pool;
+
+import rmi.RMIException;
+import rmi.config.Config;
+import rmi.events.PoolExhaustedEvent;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of persistent connections to one skeleton address.
+ *
+ * All stubs for the same address share one pool (see {@link #of}). A
+ * connection is borrowed for the duration of a call and handed back
+ * afterwards. At most <code>maxSize</code> connections exist at a time,
+ * connections idle for longer than <code>idleTimeout</code> are closed, and
+ * a connection idle for a while is health checked before it is handed out
+ * again. A shared pool left without idle or borrowed connections, such as
+ * one for a server that went away, is retired by its evictor: it leaves the
+ * shared pools, stops being evicted, and closes connections handed back to
+ * it instead of keeping them.
+ */
+public class ConnectionPool {
+
+    private static final ConcurrentHashMap<SocketAddress, ConnectionPool> POOLS =
+            new ConcurrentHashMap<SocketAddress, ConnectionPool>();
+
+    /**
+     * Single daemon thread evicting idle connections of every pool
+     */
+    private static final ScheduledExecutorService EVICTOR =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ConnectionPool-evictor");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final SocketAddress address;
+    private final int maxSize;
+    private final long idleTimeout;
+
+    /**
+     * Idle connections, most recently used first
+     */
+    private final ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<Connection>();
+
+    /**
+     * One permit per connection that may still be opened or borrowed
+     */
+    private final Semaphore permits;
+
+    /**
+     * Eviction of a shared pool, cancelled when the pool is retired
+     */
+    private ScheduledFuture<?> eviction;
+
+    /**
+     * Set once the pool left the shared pools, connections are then not kept
+     */
+    private volatile boolean retired;
+
+    /**
+     * @param address     skeleton address
+     * @param maxSize     maximum number of open connections
+     * @param idleTimeout milliseconds after which an idle connection is closed
+     */
+    public ConnectionPool(SocketAddress address, int maxSize, long idleTimeout) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.address = address;
+        this.maxSize = maxSize;
+        this.idleTimeout = idleTimeout;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Return the pool shared by all stubs for the address, created with the
+     * defaults in {@link Config}.
+     */
+    public static ConnectionPool of(SocketAddress address) {
+        return of(address, Config.POOL_MAX_SIZE, Config.POOL_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Return the shared pool for the address, created with the given limits
+     * if there is none.
+     */
+    static ConnectionPool of(SocketAddress address, int maxSize, long idleTimeout) {
+        ConnectionPool pool = POOLS.get(address);
+        if (null == pool) {
+            pool = new ConnectionPool(address, maxSize, idleTimeout);
+            ConnectionPool existing = POOLS.putIfAbsent(address, pool);
+            if (null != existing) {
+                pool = existing;
+            } else {
+                pool.scheduleEviction();
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Borrow a connection, opening a new one if no healthy idle connection is
+     * available. Blocks while <code>maxSize</code> connections are in use.
+     *
+     * @throws RMIException if no connection becomes available in time, or the
+     *                      server cannot be reached
+     */
+    public Connection borrow() throws RMIException {
+        try {
+            // timed even when 0, so the fair semaphore keeps its order
+            if (!permits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+                PoolExhaustedEvent event = PoolExhaustedEvent.ifEnabled();
+                if (null != event) {
+                    event.begin();
+                }
+                if (!permits.tryAcquire(Config.POOL_BORROW_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    if (null != event) {
+                        event.end();
+                        if (event.shouldCommit()) {
+                            event.pool = "connection";
+                            event.name = String.valueOf(address);
+                            event.commit();
+                        }
+                    }
+                    throw new RMIException("Connection pool to " + address + " exhausted");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RMIException("Interrupted waiting for a connection to " + address, e);
+        }
+
+        Connection conn;
+        while (null != (conn = idle.pollFirst())) {
+            long idleTime = System.currentTimeMillis() - conn.getLastUsed();
+            // a probe is a non-blocking read, still a few system calls, only
+            // pay it for connections idle a while
+            if (idleTime <= idleTimeout
+                    && (idleTime < Config.POOL_VALIDATE_AFTER || conn.isHealthy())) {
+                return conn;
+            }
+            conn.close();
+        }
+
+        try {
+            return new Connection(address, Config.CONNECT_TIMEOUT);
+        } catch (IOException e) {
+            permits.release();
+            throw new RMIException("Cannot connect to " + address, e);
+        }
+    }
+
+    /**
+     * Return a connection after a successful call.
+     */
+    public void release(Connection conn) {
+        if (retired) {
+            conn.close();
+        } else {
+            conn.touch();
+            idle.offerFirst(conn);
+            // retired meanwhile, the evictor may have missed the connection
+            if (retired && idle.remove(conn)) {
+                conn.close();
+            }
+        }
+        permits.release();
+    }
+
+    /**
+     * Discard a connection whose state is unknown after a failure.
+     */
+    public void invalidate(Connection conn) {
+        conn.close();
+        permits.release();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Close idle connections not used for longer than the idle timeout.
+     */
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<Connection> it = idle.descendingIterator();
+        while (it.hasNext()) {
+            Connection conn = it.next();
+            if (isExpired(conn, now) && idle.remove(conn)) {
+                conn.close();
+            }
+        }
+    }
+
+    private boolean isExpired(Connection conn, long now) {
+        return now - conn.getLastUsed() > idleTimeout;
+    }
+
+    /**
+     * Remove a shared pool holding no connection from the shared pools, so
+     * pools of addresses no longer called do not pile up. Stubs still holding
+     * the pool keep working, their next call opens a new connection.
+     */
+    private void retireIfUnused() {
+        // taking every permit keeps borrowers out while checking
+        if (!idle.isEmpty() || !permits.tryAcquire(maxSize)) {
+            return;
+        }
+        try {
+            if (idle.isEmpty() && POOLS.remove(address, this)) {
+                retired = true;
+                synchronized (this) {
+                    eviction.cancel(false);
+                }
+            }
+        } finally {
+            permits.release(maxSize);
+        }
+    }
+
+    private void scheduleEviction() {
+        long period = Math.max(idleTimeout / 2, 1);
+        // held so a first run cannot retire the pool before this is set
+        synchronized (this) {
+            eviction = EVICTOR.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    evictIdle();
+                    retireIfUnused();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package rmi.client.pool;
+
+import rmi.client.stream.InboundStream;
+import rmi.protocol.Frame;
+import rmi.protocol.Protocol;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a streamed result from a pooled connection, which stays borrowed
+ * until the stream ends. A stream abandoned early closes the connection
+ * rather than draining it.
+ */
+public class PooledStreamSource implements InboundStream.Source {
+    private final ConnectionPool pool;
+    private final Connection conn;
+    private final int callId;
+    private boolean returned;
+
+    public PooledStreamSource(ConnectionPool pool, Connection conn, int callId) {
+        this.pool = pool;
+        this.conn = conn;
+        this.callId = callId;
+    }
+
+    @Override
+    public Frame next() throws IOException {
+        Frame frame = Frame.readFrom(conn.getIn());
+        if (frame.getCallId() != callId) {
+            throw new ProtocolException("Unexpected frame " + frame + " in stream of call " + callId);
+        }
+        return frame;
+    }
+
+    @Override
+    public void grant(int n) throws IOException {
+        DataOutputStream out = conn.getOut();
+        new Frame(Protocol.STREAM_CREDIT, callId, 0, ByteBuffer.allocate(4).putInt(n).array()).writeTo(out);
+        out.flush();
+    }
+
+    @Override
+    public void finished() {
+        if (!returned) {
+            returned = true;
+            pool.release(conn);
+        }
+    }
+
+    @Override
+    public void abort() {
+        if (!returned) {
+            returned = true;
+            pool.invalidate(conn);
+        }
+    }
+}
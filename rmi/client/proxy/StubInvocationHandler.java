@@ -1,42 +1,529 @@
 package rmi.client.proxy;
 
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import rmi.NoticeListener;
+import rmi.RMIException;
+import rmi.client.mux.MultiplexedConnection;
+import rmi.client.pool.Connection;
+import rmi.client.pool.ConnectionPool;
+import rmi.client.pool.PooledStreamSource;
+import rmi.client.stream.InboundStream;
+import rmi.config.Config;
+import rmi.events.StubCallEvent;
+import rmi.metrics.CallMetrics;
+import rmi.metrics.StubMetrics;
+import rmi.protocol.FileBody;
+import rmi.protocol.Frame;
+import rmi.protocol.MethodTable;
+import rmi.protocol.Protocol;
+import rmi.protocol.StreamTypes;
+import rmi.protocol.codec.Codec;
+import rmi.server.LocalSkeletons;
+import rmi.server.RMIServer;
+import rmi.trace.Span;
+import rmi.trace.TraceContext;
+import rmi.trace.Tracing;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
-import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.lang.reflect.Proxy;
+import java.net.ProtocolException;
+import java.net.SocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 /**
  * Invocation handler for the client proxy class
  */
 public class StubInvocationHandler implements InvocationHandler {
 
+    /**
+     * Call id generator, shared by all stubs
+     */
+    private static final AtomicInteger CALL_ID = new AtomicInteger();
+
+    /**
+     * The remote interface type
+     */
+    private Class<?> service;
+
+    /**
+     * Method numbering of the remote interface
+     */
+    private MethodTable methodTable;
+
     /**
      * Server socket address (hostname, port)
      */
-    private InetSocketAddress serverSockAddr;
+    private SocketAddress serverSockAddr;
 
-    public StubInvocationHandler(InetSocketAddress address) {
+    /**
+     * Send calls over the shared multiplexed connection instead of the pool
+     */
+    private boolean multiplexed;
+
+    /**
+     * Metrics of the calls to the address, indexed like the method table
+     */
+    private CallMetrics[] callMetrics;
+
+    public StubInvocationHandler(Class<?> c, SocketAddress address) {
+        this(c, address, Config.MULTIPLEXED);
+    }
+
+    public StubInvocationHandler(Class<?> c, SocketAddress address, boolean multiplexed) {
+        this.service = c;
+        this.methodTable = MethodTable.of(c);
         this.serverSockAddr = address;
+        this.multiplexed = multiplexed;
+        this.callMetrics = StubMetrics.of(address).methodsOf(methodTable);
+    }
+
+    /**
+     * @return the metrics of the calls stubs made to the address
+     */
+    public StubMetrics getMetrics() {
+        return StubMetrics.of(serverSockAddr);
     }
 
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (Object.class == method.getDeclaringClass()) {
+            return invokeLocal(proxy, method, args);
+        }
+
+        int methodIndex = methodTable.indexOf(method);
+        if (methodIndex < 0) {
+            throw new RMIException("Not a remote method: " + method);
+        }
+
+        CallMetrics metrics = callMetrics[methodIndex];
+        metrics.called();
+        TraceContext trace = Tracing.startCall();
+        long startMicros = (null == trace) ? 0 : Tracing.nowMicros();
+        StubCallEvent event = StubCallEvent.ifEnabled();
+        if (null != event) {
+            event.begin();
+        }
+        long started = System.nanoTime();
+        boolean failed = false;
+        try {
+            return call(method, methodIndex, args, metrics, event, trace);
+        } catch (Throwable t) {
+            metrics.failed();
+            failed = true;
+            throw t;
+        } finally {
+            commit(event, metrics, failed);
+            finish(trace, metrics, startMicros, started, failed);
+        }
+    }
+
+    private Object call(Method method, int methodIndex, Object[] args, CallMetrics metrics, StubCallEvent event,
+            TraceContext trace) throws Throwable {
+        FileBody.Target target = bodyTarget(methodIndex);
+        RMIServer<?> local = localServer();
+        if (null != local) {
+            if (null != event) {
+                event.transport = "local";
+            }
+            long started = System.nanoTime();
+            Object result;
+            try {
+                result = awaitLocal(local.invokeLocal(methodIndex, args, trace));
+            } catch (Throwable t) {
+                metrics.waited(System.nanoTime() - started, 0, true);
+                throw t;
+            }
+            metrics.waited(System.nanoTime() - started, 0, false);
+            return (null == target) ? result : receiveLocal(target, result);
+        }
+
+        if (multiplexed) {
+            if (null != event) {
+                event.transport = "multiplexed";
+            }
+            long started = System.nanoTime();
+            MultiplexedConnection conn = MultiplexedConnection.of(serverSockAddr);
+            byte[] payload = encodeArgs(conn.getCodec(), methodIndex, method, args, metrics, started, event);
+            Class<?> returnType = methodTable.returnTypeAt(methodIndex);
+            long sent = System.nanoTime();
+            if (StreamTypes.isStream(returnType)) {
+                MultiplexedConnection.StreamedCall call = conn.callStreamed(methodIndex, payload, trace);
+                Frame reply = call.getReply().join();
+                received(metrics, sent, reply, event);
+                return unpackStream(reply, call.getSource(), conn.getCodec(), returnType);
+            }
+            Frame reply = conn.call(methodIndex, payload, target, trace);
+            return unpack(received(metrics, sent, reply, event), conn.getCodec(), returnType, target, metrics);
+        }
+        if (null != event) {
+            event.transport = "pooled";
+        }
+        return callPooled(method, methodIndex, args, target, metrics, event, trace);
+    }
+
+    /**
+     * Finish the event of a call, filling in what identifies the call only
+     * if it is recorded.
+     *
+     * @param event the event of the call, <code>null</code> when not recorded
+     */
+    private void commit(StubCallEvent event, CallMetrics metrics, boolean failed) {
+        if (null == event) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.service = service.getName();
+            event.method = metrics.getSignature();
+            event.address = String.valueOf(serverSockAddr);
+            event.failed = failed;
+            event.commit();
+        }
+    }
+
+    /**
+     * Export the client span of a call, if its trace is sampled.
+     */
+    private void finish(TraceContext trace, CallMetrics metrics, long startMicros, long started, boolean failed) {
+        if (null != trace && trace.isSampled()) {
+            Tracing.finish(trace, Span.Kind.CLIENT, service.getName() + "." + metrics.getSignature(), startMicros,
+                    started, failed);
+        }
+    }
+
+    /**
+     * Return where the body of a method returning a {@link FileBody} goes,
+     * <code>null</code> for other methods.
+     */
+    private FileBody.Target bodyTarget(int methodIndex) {
+        return (FileBody.class == methodTable.returnTypeAt(methodIndex)) ? FileBody.target() : null;
+    }
+
+    /**
+     * Copy a body returned by a skeleton in this JVM into the target.
+     */
+    private static FileBody receiveLocal(FileBody.Target target, Object result) throws RMIException {
+        try {
+            target.receive((FileBody) result);
+            return target.body();
+        } catch (IOException e) {
+            throw new RMIException("Cannot copy returned body", e);
+        }
+    }
+
+    /**
+     * Open the stream answered by a RETURN, or throw what the server threw.
+     */
+    private static Object unpackStream(Frame reply, InboundStream.Source source, Codec codec, Class<?> returnType)
+            throws Throwable {
+        if (Protocol.RETURN != reply.getType()) {
+            return unpack(reply, codec, returnType, null);
+        }
+        return new InboundStream(source, codec).as(returnType);
+    }
 
-        Socket socket = new Socket(serverSockAddr.getAddress(), serverSockAddr.getPort());
-        // not need to connect like in C
-        ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-        ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+    /**
+     * Encode the arguments of a call, recording the time to get the
+     * connection since <code>started</code>, and the time to encode.
+     */
+    private byte[] encodeArgs(Codec codec, int methodIndex, Method method, Object[] args, CallMetrics metrics,
+            long started, StubCallEvent event) throws RMIException {
+        long connected = System.nanoTime();
+        metrics.connected(connected - started);
+        byte[] payload;
+        try {
+            payload = codec.encodeArguments(methodTable.parameterTypesAt(methodIndex), args);
+        } catch (IOException e) {
+            throw new RMIException("Cannot marshal arguments of " + method.getName(), e);
+        }
+        metrics.serialized(System.nanoTime() - connected, payload.length);
+        if (null != event) {
+            event.argumentBytes = payload.length;
+        }
+        return payload;
+    }
 
-        // write out method and args to server
-        out.writeObject(method);
-        out.writeObject(args);
+    /**
+     * Record the wait for a reply to a request written at <code>sent</code>.
+     */
+    private static Frame received(CallMetrics metrics, long sent, Frame reply, StubCallEvent event) {
+        metrics.waited(System.nanoTime() - sent, reply.getLength(), Protocol.EXCEPTION == reply.getType());
+        if (null != event) {
+            event.replyBytes = reply.getLength();
+        }
+        return reply;
+    }
 
+    /**
+     * Return the skeleton's server if it runs in this JVM and serves this
+     * interface, so the call can skip the network.
+     */
+    private RMIServer<?> localServer() {
+        if (!Config.LOCAL_CALLS) {
+            return null;
+        }
+        RMIServer<?> server = LocalSkeletons.lookup(serverSockAddr);
+        return (null != server && service == server.getService()) ? server : null;
+    }
+
+    private static Object awaitLocal(CompletableFuture<Object> result) throws Throwable {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RMIException("Interrupted waiting for local call", e);
+        }
+    }
+
+    /**
+     * Deliver the notices published by the skeleton to <code>listener</code>:
+     * directly if the skeleton runs in this JVM, otherwise over the
+     * multiplexed connection to it, whichever way calls are made.
+     */
+    public void subscribe(NoticeListener listener) throws RMIException {
+        RMIServer<?> local = localServer();
+        if (null != local) {
+            local.subscribeLocal(listener);
+            return;
+        }
+        MultiplexedConnection.of(serverSockAddr).subscribe(listener);
+    }
+
+    public void unsubscribe(NoticeListener listener) {
+        RMIServer<?> local = localServer();
+        if (null != local) {
+            local.unsubscribeLocal(listener);
+            return;
+        }
+        MultiplexedConnection.unsubscribe(serverSockAddr, listener);
+    }
+
+    /**
+     * Make a remote call without blocking. Unless the skeleton runs in this
+     * JVM, the call goes over the multiplexed connection, and the future is
+     * completed off its reader thread with the return value or with the
+     * exception the call threw.
+     */
+    public CompletableFuture<Object> invokeAsync(Method method, Object[] args) {
+        final CompletableFuture<Object> result = new CompletableFuture<Object>();
+        int methodIndex = methodTable.indexOf(method);
+        if (methodIndex < 0) {
+            result.completeExceptionally(new RMIException("Not a remote method: " + method));
+            return result;
+        }
+        final CallMetrics metrics = callMetrics[methodIndex];
+        metrics.called();
+        final TraceContext trace = Tracing.startCall();
+        final long startMicros = (null == trace) ? 0 : Tracing.nowMicros();
+        final StubCallEvent event = StubCallEvent.ifEnabled();
+        if (null != event) {
+            event.begin();
+        }
+        final long begun = System.nanoTime();
+        try {
+            final FileBody.Target target = bodyTarget(methodIndex);
+            RMIServer<?> local = localServer();
+            if (null != local) {
+                if (null != event) {
+                    event.transport = "local";
+                }
+                final long started = System.nanoTime();
+                local.invokeLocal(methodIndex, args, trace).whenComplete(new BiConsumer<Object, Throwable>() {
+                    @Override
+                    public void accept(Object value, Throwable failure) {
+                        metrics.waited(System.nanoTime() - started, 0, null != failure);
+                        boolean failed = false;
+                        try {
+                            if (null != failure) {
+                                throw failure;
+                            }
+                            result.complete((null == target) ? value : receiveLocal(target, value));
+                        } catch (Throwable t) {
+                            metrics.failed();
+                            failed = true;
+                            result.completeExceptionally(t);
+                        } finally {
+                            commit(event, metrics, failed);
+                            finish(trace, metrics, startMicros, begun, failed);
+                        }
+                    }
+                });
+                return result;
+            }
 
-        // read return value from server
-        Object retVal = in.readObject();
+            if (null != event) {
+                event.transport = "multiplexed";
+            }
+            long started = System.nanoTime();
+            MultiplexedConnection conn = MultiplexedConnection.of(serverSockAddr);
+            final Codec codec = conn.getCodec();
+            final Class<?> returnType = methodTable.returnTypeAt(methodIndex);
+            byte[] payload = encodeArgs(codec, methodIndex, method, args, metrics, started, event);
 
-        return retVal;
+            final long sent = System.nanoTime();
+            final MultiplexedConnection.StreamedCall streamed =
+                    StreamTypes.isStream(returnType) ? conn.sendStreamed(methodIndex, payload, trace) : null;
+            CompletableFuture<Frame> reply =
+                    (null == streamed) ? conn.send(methodIndex, payload, target, trace) : streamed.getReply();
+
+            reply.whenComplete(
+                    new BiConsumer<Frame, Throwable>() {
+                        @Override
+                        public void accept(Frame reply, Throwable failure) {
+                            boolean failed = false;
+                            try {
+                                if (null != failure) {
+                                    throw failure;
+                                }
+                                received(metrics, sent, reply, event);
+                                result.complete((null == streamed) ? unpack(reply, codec, returnType, target, metrics)
+                                        : unpackStream(reply, streamed.getSource(), codec, returnType));
+                            } catch (Throwable t) {
+                                metrics.failed();
+                                failed = true;
+                                result.completeExceptionally(t);
+                            } finally {
+                                commit(event, metrics, failed);
+                                finish(trace, metrics, startMicros, begun, failed);
+                            }
+                        }
+                    });
+        } catch (RMIException e) {
+            metrics.failed();
+            commit(event, metrics, true);
+            finish(trace, metrics, startMicros, begun, true);
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Make the call on a connection borrowed from the pool, one call at a time.
+     */
+    private Object callPooled(Method method, int methodIndex, Object[] args, FileBody.Target target,
+            CallMetrics metrics, StubCallEvent event, TraceContext trace) throws Throwable {
+        Frame reply;
+        long started = System.nanoTime();
+        ConnectionPool pool = ConnectionPool.of(serverSockAddr);
+        Connection conn = pool.borrow();
+        byte[] payload;
+        try {
+            payload = encodeArgs(conn.getCodec(), methodIndex, method, args, metrics, started, event);
+        } catch (RMIException e) {
+            pool.release(conn);
+            throw e;
+        }
+        try {
+            DataOutputStream out = conn.getOut();
+            long sent = System.nanoTime();
+
+            // write out method index and args to server
+            Frame request = new Frame(Protocol.CALL, CALL_ID.incrementAndGet(), methodIndex, payload, trace);
+            request.writeTo(out);
+            out.flush();
+
+            // read return value from server
+            reply = Frame.readHeader(conn.getIn(), (null == target) ? Config.MAX_FRAME_LENGTH : Integer.MAX_VALUE);
+            if (reply.getCallId() != request.getCallId()) {
+                throw new ProtocolException("Unexpected reply " + reply + " for call " + request.getCallId());
+            }
+            reply = (null == target) ? reply.readPayload(conn.getIn()) : target.receive(reply, conn.getIn());
+            received(metrics, sent, reply, event);
+        } catch (IOException e) {
+            pool.invalidate(conn);
+            throw new RMIException("Call " + method.getName() + " on " + serverSockAddr + " failed", e);
+        } catch (RuntimeException e) {
+            pool.invalidate(conn);
+            throw e;
+        }
+
+        Class<?> returnType = methodTable.returnTypeAt(methodIndex);
+        if (Protocol.RETURN == reply.getType() && StreamTypes.isStream(returnType)) {
+            // the connection stays borrowed until the stream ends
+            return unpackStream(reply, new PooledStreamSource(pool, conn, reply.getCallId()), conn.getCodec(),
+                    returnType);
+        }
+        pool.release(conn);
+        return unpack(reply, conn.getCodec(), returnType, target, metrics);
+    }
+
+    /**
+     * {@link #unpack}, recording the time to decode.
+     */
+    private static Object unpack(Frame reply, Codec codec, Class<?> returnType, FileBody.Target target,
+            CallMetrics metrics) throws Throwable {
+        long started = System.nanoTime();
+        try {
+            return unpack(reply, codec, returnType, target);
+        } finally {
+            metrics.deserialized(System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * Turn a reply frame into the return value, or throw what the server threw.
+     * Return values are decoded against the declared return type, exceptions
+     * as plain values; a body already went to <code>target</code>.
+     */
+    private static Object unpack(Frame reply, Codec codec, Class<?> returnType, FileBody.Target target)
+            throws Throwable {
+        if (Protocol.RETURN != reply.getType() && Protocol.EXCEPTION != reply.getType()) {
+            throw new RMIException("Unexpected frame type " + reply.getType());
+        }
+
+        Object result;
+        try {
+            if (Protocol.RETURN == reply.getType() && null != target) {
+                result = target.body();
+            } else if (Protocol.RETURN == reply.getType()) {
+                result = codec.decodeResult(returnType, reply.getPayload());
+            } else {
+                result = codec.decode(reply.getPayload());
+            }
+        } catch (ClassNotFoundException e) {
+            throw new RMIException("Cannot unmarshal reply", e);
+        } catch (IOException e) {
+            throw new RMIException("Cannot unmarshal reply", e);
+        }
+
+        if (Protocol.EXCEPTION == reply.getType()) {
+            throw (Throwable) result;
+        }
+        return result;
+    }
+
+    /**
+     * <code>equals</code>, <code>hashCode</code> and <code>toString</code> are
+     * answered by the stub itself: two stubs are equal if they implement the
+     * same interface and connect to the same address.
+     */
+    private Object invokeLocal(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("equals".equals(name)) {
+            Object other = args[0];
+            if (null == other || !Proxy.isProxyClass(other.getClass())) {
+                return false;
+            }
+            InvocationHandler handler = Proxy.getInvocationHandler(other);
+            if (!(handler instanceof StubInvocationHandler)) {
+                return false;
+            }
+            StubInvocationHandler that = (StubInvocationHandler) handler;
+            return service.equals(that.service) && serverSockAddr.equals(that.serverSockAddr);
+        }
+        if ("hashCode".equals(name)) {
+            return 31 * service.hashCode() + serverSockAddr.hashCode();
+        }
+        if ("toString".equals(name)) {
+            return "Stub[" + service.getName() + "@" + serverSockAddr + "]";
+        }
+        throw new UnsupportedOperationException(method.toString());
     }
 }
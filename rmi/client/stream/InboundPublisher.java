@@ -0,0 +1,119 @@
+package rmi.client.stream;
+
+import rmi.server.task.WorkerPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A streamed result as a <code>Flow.Publisher</code>. Chunks are pulled from
+ * the stream only as the single subscriber requests them, on a thread of
+ * their own since pulling blocks.
+ */
+public class InboundPublisher implements Flow.Publisher<ByteBuffer> {
+    private static final ExecutorService DELIVERY = WorkerPool.newThreadPerTaskExecutor("stream-delivery");
+
+    private final InboundStream stream;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    public InboundPublisher(InboundStream stream) {
+        this.stream = stream;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {}
+
+                @Override
+                public void cancel() {}
+            });
+            subscriber.onError(new IllegalStateException("A streamed result can only be subscribed once"));
+            return;
+        }
+        subscriber.onSubscribe(new Delivery(subscriber));
+    }
+
+    private final class Delivery implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean done;
+
+        Delivery(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (done) {
+                return;
+            }
+            if (n <= 0) {
+                done = true;
+                stream.close();
+                subscriber.onError(new IllegalArgumentException("Requested " + n + " items"));
+                return;
+            }
+            long current;
+            long next;
+            do {
+                current = demand.get();
+                next = current + n;
+                if (next < 0) {
+                    next = Long.MAX_VALUE;
+                }
+            } while (!demand.compareAndSet(current, next));
+            if (0 == pending.getAndIncrement()) {
+                DELIVERY.execute(this);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+            stream.close();
+        }
+
+        /**
+         * Deliver while there is demand; only one thread runs this at a time.
+         */
+        @Override
+        public void run() {
+            int missed = 1;
+            while (true) {
+                while (!done && demand.get() > 0) {
+                    ByteBuffer chunk;
+                    try {
+                        chunk = stream.nextChunk();
+                    } catch (IOException e) {
+                        if (!done) {
+                            done = true;
+                            subscriber.onError(e);
+                        }
+                        return;
+                    }
+                    if (null == chunk) {
+                        done = true;
+                        stream.close();
+                        subscriber.onComplete();
+                        return;
+                    }
+                    demand.decrementAndGet();
+                    subscriber.onNext(chunk);
+                }
+                missed = pending.addAndGet(-missed);
+                if (0 == missed) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package rmi.client.stream;
+
+import rmi.config.Config;
+import rmi.protocol.Frame;
+import rmi.protocol.Protocol;
+import rmi.protocol.codec.Codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.Flow;
+
+/**
+ * A streamed result, pulled from the connection as it is read.
+ *
+ * Every data frame consumed earns the skeleton a credit, granted in batches
+ * of half the window, so at most <code>Config.STREAM_WINDOW</code> chunks are
+ * ever buffered. Closing the stream before its end cancels the rest.
+ */
+public class InboundStream extends InputStream {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    /**
+     * Where the frames of the stream come from
+     */
+    public interface Source {
+        /**
+         * Block until the next STREAM_DATA, STREAM_END or EXCEPTION frame.
+         */
+        Frame next() throws IOException;
+
+        /**
+         * Let the skeleton send <code>n</code> more data frames.
+         */
+        void grant(int n) throws IOException;
+
+        /**
+         * The stream ended, normally or with a remote exception.
+         */
+        void finished();
+
+        /**
+         * The stream is abandoned before its end, or broken.
+         */
+        void abort();
+    }
+
+    private final Source source;
+    private final Codec codec;
+
+    private ByteBuffer chunk = EMPTY;
+    private int unacknowledged;
+    private boolean ended;
+    private boolean closed;
+    private IOException failure;
+
+    public InboundStream(Source source, Codec codec) {
+        this.source = source;
+        this.codec = codec;
+    }
+
+    /**
+     * Return the stream as the declared return type of the remote method,
+     * one of {@link rmi.protocol.StreamTypes}.
+     */
+    public Object as(Class<?> type) {
+        if (ReadableByteChannel.class == type) {
+            return Channels.newChannel(this);
+        }
+        if (Flow.Publisher.class == type) {
+            return new InboundPublisher(this);
+        }
+        return this;
+    }
+
+    /**
+     * Return the unread part of the current chunk or the next chunk, or
+     * <code>null</code> at the end of the stream.
+     */
+    public synchronized ByteBuffer nextChunk() throws IOException {
+        ensureOpen();
+        if (chunk.hasRemaining()) {
+            ByteBuffer rest = chunk;
+            chunk = EMPTY;
+            return rest;
+        }
+        return pull();
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        ensureOpen();
+        if (!chunk.hasRemaining()) {
+            ByteBuffer next = pull();
+            if (null == next) {
+                return -1;
+            }
+            chunk = next;
+        }
+        return chunk.get() & 0xFF;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (0 == len) {
+            return 0;
+        }
+        if (!chunk.hasRemaining()) {
+            ByteBuffer next = pull();
+            if (null == next) {
+                return -1;
+            }
+            chunk = next;
+        }
+        int n = Math.min(len, chunk.remaining());
+        chunk.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public synchronized int available() throws IOException {
+        ensureOpen();
+        return chunk.remaining();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        chunk = EMPTY;
+        if (!ended) {
+            ended = true;
+            source.abort();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /**
+     * Take the next non-empty chunk from the source.
+     */
+    private ByteBuffer pull() throws IOException {
+        while (true) {
+            if (ended) {
+                if (null != failure) {
+                    throw failure;
+                }
+                return null;
+            }
+
+            Frame frame;
+            try {
+                frame = source.next();
+            } catch (IOException e) {
+                throw fail(e, false);
+            }
+
+            switch (frame.getType()) {
+                case Protocol.STREAM_DATA:
+                    if (++unacknowledged >= Math.max(1, Config.STREAM_WINDOW / 2)) {
+                        try {
+                            source.grant(unacknowledged);
+                        } catch (IOException e) {
+                            throw fail(e, false);
+                        }
+                        unacknowledged = 0;
+                    }
+                    if (frame.getPayload().length > 0) {
+                        return ByteBuffer.wrap(frame.getPayload());
+                    }
+                    break;
+                case Protocol.STREAM_END:
+                    ended = true;
+                    source.finished();
+                    return null;
+                case Protocol.EXCEPTION:
+                    throw fail(new IOException("Remote stream failed", remoteCause(frame)), true);
+                default:
+                    throw fail(new ProtocolException("Unexpected frame in stream " + frame), false);
+            }
+        }
+    }
+
+    private IOException fail(IOException e, boolean remote) {
+        ended = true;
+        failure = e;
+        if (remote) {
+            source.finished();
+        } else {
+            source.abort();
+        }
+        return e;
+    }
+
+    private Throwable remoteCause(Frame frame) {
+        try {
+            return (Throwable) codec.decode(frame.getPayload());
+        } catch (Exception e) {
+            return e;
+        }
+    }
+}
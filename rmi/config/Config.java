@@ -7,7 +7,78 @@ public interface Config {
     String SERVER_HOST = "127.0.0.1";
     int MIN_THREAD = 5;
     int MAX_THREAD = 10;
+    /** Seconds an idle worker above MIN_THREAD is kept */
     int KEEP_ALIVE_TIME = 10;
+    /** Calls queued per skeleton before the pool grows past MIN_THREAD */
+    int WORKER_QUEUE_SIZE = 100;
     int MAX_CONNECTION = 20;
     int LISTENING_PORT = 8888;
+    /** Largest payload read into memory from a frame, larger frames close the connection, -Drmi.maxFrameLength */
+    int MAX_FRAME_LENGTH = Integer.getInteger("rmi.maxFrameLength", 64 * 1024 * 1024);
+    /** Skeletons serve connections from one selector thread instead of a thread each, -Drmi.nio=true */
+    boolean NIO = Boolean.getBoolean("rmi.nio");
+
+    /** Client connection pool, per skeleton address */
+    int POOL_MAX_SIZE = 8;
+    /** Milliseconds before an idle pooled connection is closed */
+    long POOL_IDLE_TIMEOUT = 30000;
+    /** Milliseconds of idleness after which a pooled connection is probed before reuse */
+    long POOL_VALIDATE_AFTER = 1000;
+    /** Milliseconds a call waits for a pooled connection */
+    long POOL_BORROW_TIMEOUT = 5000;
+    /** Milliseconds to establish a new connection */
+    int CONNECT_TIMEOUT = 5000;
+
+    /** Stubs share one multiplexed connection per address instead of the pool, -Drmi.multiplexed=true */
+    boolean MULTIPLEXED = Boolean.getBoolean("rmi.multiplexed");
+    /** Stubs call skeletons running in the same JVM directly, -Drmi.localCalls=false to always use sockets */
+    boolean LOCAL_CALLS = !"false".equals(System.getProperty("rmi.localCalls"));
+    /** Calls in flight on one multiplexed connection, a power of two */
+    int MUX_MAX_IN_FLIGHT = 1024;
+
+    /** Largest data frame of a streamed result, in bytes */
+    int STREAM_CHUNK_SIZE = 64 * 1024;
+    /** Data frames a skeleton may send ahead of the stub consuming them */
+    int STREAM_WINDOW = 16;
+
+    /** Notices queued for one subscribed connection, a subscriber further behind is disconnected */
+    int NOTICE_QUEUE = 256;
+
+    /** Bytes fetched per ranged call by a chunked download */
+    int DOWNLOAD_CHUNK_SIZE = 4 * 1024 * 1024;
+    /** Chunks of one download fetched at once, each over its own pooled connection */
+    int DOWNLOAD_PARALLELISM = 4;
+    /** Attempts per chunk before a download gives up */
+    int DOWNLOAD_ATTEMPTS = 3;
+
+    /** Milliseconds the file server trusts cached file attributes */
+    long FILE_ATTRIBUTES_TTL = 1000;
+    /** Files whose attributes the file server caches */
+    int FILE_ATTRIBUTES_CACHED = 4096;
+    /** Largest file the file server maps into memory, larger ones are read */
+    long FILE_MAPPING_MAX_FILE = 64L * 1024 * 1024;
+    /** Bytes the file server keeps mapped at once */
+    long FILE_MAPPING_MAX_BYTES = 1024L * 1024 * 1024;
+    /** Files the file server keeps mapped at once */
+    int FILE_MAPPING_MAX_COUNT = 256;
+
+    /** Bytes of file contents a caching file server keeps off-heap */
+    long CONTENT_CACHE_MAX_BYTES = 256L * 1024 * 1024;
+    /** Largest file a caching file server keeps, larger ones go to the server behind it */
+    long CONTENT_CACHE_MAX_ENTRY = 8L * 1024 * 1024;
+
+    /** Bytes of file contents a caching file client keeps */
+    long CLIENT_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+
+    /** Smallest block a delta transfer compares, whatever the size of the file */
+    int DELTA_MIN_BLOCK_SIZE = 1024;
+    /** Largest block a delta transfer compares */
+    int DELTA_MAX_BLOCK_SIZE = 128 * 1024;
+    /** Files whose block hashes the file server keeps for delta transfers */
+    int DELTA_HASHES_CACHED = 64;
+
+    /** Share of calls made outside any trace that start a sampled one, -Drmi.traceSampleRatio=0.01 */
+    double TRACE_SAMPLE_RATIO = Double.parseDouble(System.getProperty("rmi.traceSampleRatio", "0"));
+    /** Spans the default in-memory exporter keeps, older ones are dropped */
+    int TRACE_SPANS_KEPT = 4096;
 }
@@ -0,0 +1,36 @@
+package rmi.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A skeleton accepted a connection from a stub.
+ */
+@Name("rmi.ConnectionAccepted")
+@Label("Connection Accepted")
+@Category({"RMI", "Server"})
+@StackTrace(false)
+public final class ConnectionAcceptedEvent extends Event {
+    /**
+     * Type of the event, looked up once
+     */
+    private static final EventType TYPE = EventType.getEventType(ConnectionAcceptedEvent.class);
+
+    @Label("Interface")
+    public String service;
+
+    @Label("Remote Address")
+    public String remoteAddress;
+
+    /**
+     * @return a new event, or <code>null</code> when no recording enables
+     * it
+     */
+    public static ConnectionAcceptedEvent ifEnabled() {
+        return TYPE.isEnabled() ? new ConnectionAcceptedEvent() : null;
+    }
+}
@@ -0,0 +1,39 @@
+package rmi.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A connection accepted by a skeleton was closed. The event lasts from the
+ * accept to the close.
+ */
+@Name("rmi.ConnectionClosed")
+@Label("Connection Closed")
+@Category({"RMI", "Server"})
+@Description("A connection accepted by a skeleton was closed, the duration is its lifetime")
+@StackTrace(false)
+public final class ConnectionClosedEvent extends Event {
+    /**
+     * Type of the event, looked up once
+     */
+    private static final EventType TYPE = EventType.getEventType(ConnectionClosedEvent.class);
+
+    @Label("Interface")
+    public String service;
+
+    @Label("Remote Address")
+    public String remoteAddress;
+
+    /**
+     * @return a new event, or <code>null</code> when no recording enables
+     * it
+     */
+    public static ConnectionClosedEvent ifEnabled() {
+        return TYPE.isEnabled() ? new ConnectionClosedEvent() : null;
+    }
+}
@@ -0,0 +1,60 @@
+package rmi.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * A call run by a skeleton on a worker thread, from the start of the service
+ * method to the reply written. Only calls longer than the threshold are
+ * recorded.
+ */
+@Name("rmi.Dispatch")
+@Label("Skeleton Dispatch")
+@Category({"RMI", "Server"})
+@Description("A remote call run by a skeleton, from the start of the service method to the reply written")
+@Threshold("10 ms")
+@StackTrace(false)
+public final class DispatchEvent extends Event {
+    /**
+     * Type of the event, looked up once
+     */
+    private static final EventType TYPE = EventType.getEventType(DispatchEvent.class);
+
+    @Label("Interface")
+    public String service;
+
+    @Label("Method")
+    public String method;
+
+    @Label("Queue Wait")
+    @Description("Time the call waited for a worker thread")
+    @Timespan(Timespan.NANOSECONDS)
+    public long queueWait;
+
+    @Label("Argument Bytes")
+    @DataAmount
+    public long argumentBytes;
+
+    @Label("Reply Bytes")
+    @DataAmount
+    public long replyBytes;
+
+    @Label("Failed")
+    public boolean failed;
+
+    /**
+     * @return a new event, or <code>null</code> when no recording enables
+     * it
+     */
+    public static DispatchEvent ifEnabled() {
+        return TYPE.isEnabled() ? new DispatchEvent() : null;
+    }
+}
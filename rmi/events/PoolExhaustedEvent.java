@@ -0,0 +1,39 @@
+package rmi.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A stub found no connection in time, or a skeleton's worker pool rejected
+ * a call. The event lasts for the time spent waiting, if any.
+ */
+@Name("rmi.PoolExhausted")
+@Label("Pool Exhausted")
+@Category("RMI")
+@Description("A stub found no pooled connection in time, or a skeleton's worker pool rejected a call")
+public final class PoolExhaustedEvent extends Event {
+    /**
+     * Type of the event, looked up once
+     */
+    private static final EventType TYPE = EventType.getEventType(PoolExhaustedEvent.class);
+
+    @Label("Pool")
+    @Description("connection or worker")
+    public String pool;
+
+    @Label("Name")
+    @Description("Address of a connection pool, name of a worker pool")
+    public String name;
+
+    /**
+     * @return a new event, or <code>null</code> when no recording enables
+     * it
+     */
+    public static PoolExhaustedEvent ifEnabled() {
+        return TYPE.isEnabled() ? new PoolExhaustedEvent() : null;
+    }
+}
@@ -0,0 +1,60 @@
+package rmi.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A call made through a stub, from getting a connection to decoding the
+ * reply. Only calls longer than the threshold are recorded.
+ */
+@Name("rmi.StubCall")
+@Label("Stub Call")
+@Category({"RMI", "Client"})
+@Description("A remote call made through a stub, from getting a connection to decoding the reply")
+@Threshold("10 ms")
+@StackTrace(false)
+public final class StubCallEvent extends Event {
+    /**
+     * Type of the event, looked up once
+     */
+    private static final EventType TYPE = EventType.getEventType(StubCallEvent.class);
+
+    @Label("Interface")
+    public String service;
+
+    @Label("Method")
+    public String method;
+
+    @Label("Address")
+    public String address;
+
+    @Label("Transport")
+    @Description("local, pooled or multiplexed")
+    public String transport;
+
+    @Label("Argument Bytes")
+    @DataAmount
+    public long argumentBytes;
+
+    @Label("Reply Bytes")
+    @DataAmount
+    public long replyBytes;
+
+    @Label("Failed")
+    public boolean failed;
+
+    /**
+     * @return a new event, or <code>null</code> when no recording enables
+     * it
+     */
+    public static StubCallEvent ifEnabled() {
+        return TYPE.isEnabled() ? new StubCallEvent() : null;
+    }
+}
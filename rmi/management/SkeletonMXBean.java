@@ -0,0 +1,75 @@
+package rmi.management;
+
+import java.util.Map;
+
+/**
+ * Management interface of a running skeleton, registered by
+ * {@link SkeletonManagement} under
+ * <code>rmi:type=Skeleton,service=...,address=...</code>.
+ */
+public interface SkeletonMXBean {
+    String getService();
+
+    String getAddress();
+
+    /**
+     * @return one of the names of <code>ServerState</code>
+     */
+    String getServerState();
+
+    int getConnectionCount();
+
+    /**
+     * @return connections with at least one call not answered yet
+     */
+    int getActiveConnectionCount();
+
+    int getIdleConnectionCount();
+
+    boolean isThreadPerCall();
+
+    int getMinThreads();
+
+    int getMaxThreads();
+
+    int getPoolSize();
+
+    /**
+     * @return worker threads running a call
+     */
+    int getActiveCount();
+
+    /**
+     * @return calls waiting for a worker thread
+     */
+    int getQueueDepth();
+
+    long getRejectedCount();
+
+    long getCompletedCount();
+
+    /**
+     * @return calls received since the skeleton was created, by method signature
+     */
+    Map<String, Long> getMethodCallCounts();
+
+    /**
+     * @return calls per second of each method, averaged since the previous
+     * sample; samples are taken at most once per second
+     */
+    Map<String, Double> getMethodCallRates();
+
+    Map<String, Long> getMethodErrorCounts();
+
+    /**
+     * Stop accepting new connections, open connections keep being served.
+     */
+    void pause();
+
+    void resume();
+
+    /**
+     * Change the thread bounds of the worker pool while it runs.
+     */
+    void resizePool(int minThreads, int maxThreads);
+}
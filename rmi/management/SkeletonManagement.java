@@ -0,0 +1,210 @@
+package rmi.management;
+
+import rmi.metrics.MethodMetrics;
+import rmi.metrics.SkeletonMetrics;
+import rmi.server.RMIServer;
+import rmi.server.task.WorkerPool;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Exposes the state, pools, connections and per-method counters of one
+ * skeleton's server to JMX, and lets operators pause it or resize its pool
+ * without a restart.
+ */
+public class SkeletonManagement implements SkeletonMXBean {
+    private static final Logger LOGGER = Logger.getLogger("SkeletonManagement");
+
+    private static final long MIN_SAMPLE_NANOS = 1000000000L;
+
+    private final RMIServer<?> server;
+
+    /**
+     * Last sample of the call counts and the rates computed from it,
+     * guarded by this
+     */
+    private long sampledAt = System.nanoTime();
+    private final Map<String, Long> sampledCalls = new LinkedHashMap<String, Long>();
+    private final Map<String, Double> rates = new LinkedHashMap<String, Double>();
+
+    public SkeletonManagement(RMIServer<?> server) {
+        this.server = server;
+        sampledCalls.putAll(getMethodCallCounts());
+        for (String method : sampledCalls.keySet()) {
+            rates.put(method, 0.0);
+        }
+    }
+
+    /**
+     * Register the management bean of a server with the platform MBean
+     * server.
+     *
+     * @return its name, or <code>null</code> if it cannot be registered
+     */
+    public static ObjectName register(RMIServer<?> server) {
+        try {
+            ObjectName name = new ObjectName("rmi:type=Skeleton,service=" + server.getService().getName()
+                    + ",address=" + ObjectName.quote(String.valueOf(server.getAddress())));
+            MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+            if (mbeans.isRegistered(name)) {
+                // a stopped skeleton restarted on the same address
+                mbeans.unregisterMBean(name);
+            }
+            mbeans.registerMBean(new SkeletonManagement(server), name);
+            return name;
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Cannot register management bean of " + server.getService().getName(), e);
+            return null;
+        }
+    }
+
+    public static void unregister(ObjectName name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            LOGGER.log(Level.FINE, "Cannot unregister " + name, e);
+        }
+    }
+
+    @Override
+    public String getService() {
+        return server.getService().getName();
+    }
+
+    @Override
+    public String getAddress() {
+        return String.valueOf(server.getAddress());
+    }
+
+    @Override
+    public String getServerState() {
+        return server.getServerState().name();
+    }
+
+    @Override
+    public int getConnectionCount() {
+        return server.getConnectionCount();
+    }
+
+    @Override
+    public int getActiveConnectionCount() {
+        return server.getActiveConnectionCount();
+    }
+
+    @Override
+    public int getIdleConnectionCount() {
+        return Math.max(0, server.getConnectionCount() - server.getActiveConnectionCount());
+    }
+
+    @Override
+    public boolean isThreadPerCall() {
+        WorkerPool pool = server.getWorkerPool();
+        return null != pool && pool.isThreadPerCall();
+    }
+
+    @Override
+    public int getMinThreads() {
+        WorkerPool pool = server.getWorkerPool();
+        return (null == pool) ? 0 : pool.getMinThreads();
+    }
+
+    @Override
+    public int getMaxThreads() {
+        WorkerPool pool = server.getWorkerPool();
+        return (null == pool) ? 0 : pool.getMaxThreads();
+    }
+
+    @Override
+    public int getPoolSize() {
+        WorkerPool pool = server.getWorkerPool();
+        return (null == pool) ? 0 : pool.getPoolSize();
+    }
+
+    @Override
+    public int getActiveCount() {
+        WorkerPool pool = server.getWorkerPool();
+        return (null == pool) ? 0 : pool.getActiveCount();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        WorkerPool pool = server.getWorkerPool();
+        return (null == pool) ? 0 : pool.getQueueDepth();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        WorkerPool pool = server.getWorkerPool();
+        return (null == pool) ? 0 : pool.getRejectedCount();
+    }
+
+    @Override
+    public long getCompletedCount() {
+        WorkerPool pool = server.getWorkerPool();
+        return (null == pool) ? 0 : pool.getCompletedCount();
+    }
+
+    @Override
+    public Map<String, Long> getMethodCallCounts() {
+        Map<String, Long> counts = new LinkedHashMap<String, Long>();
+        for (MethodMetrics method : metrics().byMethod().values()) {
+            counts.put(method.getSignature(), method.getCalls());
+        }
+        return counts;
+    }
+
+    @Override
+    public synchronized Map<String, Double> getMethodCallRates() {
+        long now = System.nanoTime();
+        if (now - sampledAt >= MIN_SAMPLE_NANOS) {
+            Map<String, Long> calls = getMethodCallCounts();
+            double seconds = (now - sampledAt) / 1e9;
+            for (Map.Entry<String, Long> method : calls.entrySet()) {
+                Long previous = sampledCalls.get(method.getKey());
+                rates.put(method.getKey(), (method.getValue() - (null == previous ? 0 : previous)) / seconds);
+            }
+            sampledCalls.putAll(calls);
+            sampledAt = now;
+        }
+        return new LinkedHashMap<String, Double>(rates);
+    }
+
+    @Override
+    public Map<String, Long> getMethodErrorCounts() {
+        Map<String, Long> counts = new LinkedHashMap<String, Long>();
+        for (MethodMetrics method : metrics().byMethod().values()) {
+            counts.put(method.getSignature(), method.getErrors());
+        }
+        return counts;
+    }
+
+    @Override
+    public void pause() {
+        server.pauseServer();
+    }
+
+    @Override
+    public void resume() {
+        server.resumeServer();
+    }
+
+    @Override
+    public void resizePool(int minThreads, int maxThreads) {
+        WorkerPool pool = server.getWorkerPool();
+        if (null == pool) {
+            throw new IllegalStateException("Skeleton not started");
+        }
+        pool.resize(minThreads, maxThreads);
+    }
+
+    private SkeletonMetrics metrics() {
+        return server.getMetrics();
+    }
+}
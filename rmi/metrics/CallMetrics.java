@@ -0,0 +1,129 @@
+package rmi.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What stubs recorded about their calls of one remote method at one address.
+ *
+ * The latency of a call is split in four: the time to get a connection,
+ * which includes waiting for a pooled connection and connecting when a new
+ * one is opened; the time to encode the arguments; the time waiting on the
+ * server, from writing the request to reading the whole reply; and the time
+ * to decode the reply. Calls to a skeleton in the same JVM only record the
+ * wait. Comparing the wait with the execution time the skeleton records
+ * (see {@link MethodMetrics}) tells the network from the server.
+ */
+public final class CallMetrics {
+    private final String signature;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder remoteExceptions = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+
+    private final LatencyHistogram connect = new LatencyHistogram();
+    private final LatencyHistogram serialization = new LatencyHistogram();
+    private final LatencyHistogram serverWait = new LatencyHistogram();
+    private final LatencyHistogram deserialization = new LatencyHistogram();
+
+    public CallMetrics(String signature) {
+        this.signature = signature;
+    }
+
+    public void called() {
+        calls.increment();
+    }
+
+    /**
+     * The call threw, for any reason.
+     */
+    public void failed() {
+        errors.increment();
+    }
+
+    public void connected(long nanos) {
+        connect.record(nanos);
+    }
+
+    /**
+     * The arguments were encoded in <code>payload</code> bytes.
+     */
+    public void serialized(long nanos, int payload) {
+        serialization.record(nanos);
+        bytesOut.add(payload);
+    }
+
+    /**
+     * A reply of <code>payload</code> bytes was read, or a local call returned.
+     */
+    public void waited(long nanos, long payload, boolean remoteException) {
+        serverWait.record(nanos);
+        bytesIn.add(payload);
+        if (remoteException) {
+            remoteExceptions.increment();
+        }
+    }
+
+    public void deserialized(long nanos) {
+        deserialization.record(nanos);
+    }
+
+    /**
+     * @return name and parameter types of the method
+     */
+    public String getSignature() {
+        return signature;
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    /**
+     * @return calls that threw: transport failures, and exceptions thrown
+     * by the server
+     */
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * @return calls that threw an exception thrown by the server
+     */
+    public long getRemoteExceptions() {
+        return remoteExceptions.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public LatencyHistogram.Snapshot getConnect() {
+        return connect.snapshot();
+    }
+
+    public LatencyHistogram.Snapshot getSerialization() {
+        return serialization.snapshot();
+    }
+
+    public LatencyHistogram.Snapshot getServerWait() {
+        return serverWait.snapshot();
+    }
+
+    public LatencyHistogram.Snapshot getDeserialization() {
+        return deserialization.snapshot();
+    }
+
+    @Override
+    public String toString() {
+        return signature + " calls=" + getCalls() + " errors=" + getErrors() + " remote="
+                + getRemoteExceptions() + " out=" + getBytesOut() + " in=" + getBytesIn() + " connect["
+                + getConnect() + "] serialize[" + getSerialization() + "] wait[" + getServerWait()
+                + "] deserialize[" + getDeserialization() + "]";
+    }
+}
@@ -0,0 +1,184 @@
+package rmi.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A histogram of durations in nanoseconds, cheap enough to record every call.
+ *
+ * Buckets are log-linear like HdrHistogram's: each power of two is split in
+ * {@link #SUB_BUCKETS} equal buckets, so a recorded value is known within
+ * 12.5%, from 1 ns to about 9 minutes (longer ones land in the last bucket).
+ * Recording never locks: each thread adds to one of a few stripes of
+ * buckets, picked by its id, created on first use and only summed by
+ * {@link #snapshot}.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    public static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /**
+     * Highest power of two with buckets of its own
+     */
+    private static final int MAX_EXPONENT = 38;
+    public static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    /**
+     * Slots of a stripe after its buckets
+     */
+    private static final int SUM = BUCKETS;
+    private static final int MAX = BUCKETS + 1;
+
+    private static final int STRIPES =
+            Math.min(64, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1);
+
+    private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<AtomicLongArray>(STRIPES);
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        AtomicLongArray stripe = stripe();
+        stripe.incrementAndGet(bucketOf(nanos));
+        stripe.addAndGet(SUM, nanos);
+        long max = stripe.get(MAX);
+        while (nanos > max && !stripe.compareAndSet(MAX, max, nanos)) {
+            max = stripe.get(MAX);
+        }
+    }
+
+    /**
+     * Sum the stripes. Values recorded meanwhile may or may not be counted.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long sum = 0;
+        long max = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            AtomicLongArray stripe = stripes.get(i);
+            if (null == stripe) {
+                continue;
+            }
+            for (int b = 0; b < BUCKETS; b++) {
+                counts[b] += stripe.get(b);
+            }
+            sum += stripe.get(SUM);
+            max = Math.max(max, stripe.get(MAX));
+        }
+        return new Snapshot(counts, sum, max);
+    }
+
+    private AtomicLongArray stripe() {
+        int index = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        AtomicLongArray stripe = stripes.get(index);
+        if (null == stripe) {
+            stripes.compareAndSet(index, null, new AtomicLongArray(BUCKETS + 2));
+            stripe = stripes.get(index);
+        }
+        return stripe;
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the highest value counted in a bucket
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BITS);
+        return lower + (1L << (exponent - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Counts of a histogram at one point in time.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long sum, long max) {
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return total of the recorded values, in nanoseconds
+         */
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return (0 == count) ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param quantile between 0 and 1, e.g. 0.99
+         * @return a value no lower than the given share of recorded values,
+         * and at most 12.5% above the exact one; 0 if nothing was recorded
+         */
+        public long getValueAt(double quantile) {
+            if (0 == count) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(b), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * @return count of each bucket, see {@link #getUpperBound}
+         */
+        public long[] getCounts() {
+            return counts.clone();
+        }
+
+        /**
+         * @return the highest value counted in a bucket
+         */
+        public static long getUpperBound(int bucket) {
+            return upperBoundOf(bucket);
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + " mean=" + (long) getMean() + "ns p50=" + getValueAt(0.5)
+                    + "ns p99=" + getValueAt(0.99) + "ns max=" + max + "ns";
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package rmi.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What a skeleton recorded about the calls of one remote method.
+ *
+ * The latency of a call is split in three: the time it waited for a worker
+ * thread, from the moment it was submitted to the pool; the time its
+ * arguments took to decode and the service method ran; and the time its reply took to encode and write. Calls
+ * rejected by a saturated pool only count as calls and errors.
+ */
+public final class MethodMetrics {
+    private final String signature;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram execution = new LatencyHistogram();
+    private final LatencyHistogram responseWrite = new LatencyHistogram();
+
+    public MethodMetrics(String signature) {
+        this.signature = signature;
+    }
+
+    /**
+     * A call arrived with <code>payload</code> bytes of arguments.
+     */
+    public void called(int payload) {
+        calls.increment();
+        bytesIn.add(payload);
+    }
+
+    /**
+     * The call failed, or its result could not be sent.
+     */
+    public void failed() {
+        errors.increment();
+    }
+
+    /**
+     * <code>payload</code> bytes of reply were written.
+     */
+    public void replied(long payload) {
+        bytesOut.add(payload);
+    }
+
+    /**
+     * Record the phases of a call that ran, in nanoseconds.
+     */
+    public void completed(long queueWaitNanos, long executionNanos, long responseWriteNanos) {
+        queueWait.record(queueWaitNanos);
+        execution.record(executionNanos);
+        responseWrite.record(responseWriteNanos);
+    }
+
+    /**
+     * @return name and parameter types of the method
+     */
+    public String getSignature() {
+        return signature;
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public LatencyHistogram.Snapshot getQueueWait() {
+        return queueWait.snapshot();
+    }
+
+    public LatencyHistogram.Snapshot getExecution() {
+        return execution.snapshot();
+    }
+
+    public LatencyHistogram.Snapshot getResponseWrite() {
+        return responseWrite.snapshot();
+    }
+
+    @Override
+    public String toString() {
+        return signature + " calls=" + getCalls() + " errors=" + getErrors() + " in=" + getBytesIn()
+                + " out=" + getBytesOut() + " queue[" + getQueueWait() + "] execution[" + getExecution()
+                + "] write[" + getResponseWrite() + "]";
+    }
+}
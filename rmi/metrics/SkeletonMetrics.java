@@ -0,0 +1,45 @@
+package rmi.metrics;
+
+import rmi.protocol.MethodTable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-method metrics of one skeleton, indexed like the {@link MethodTable}
+ * of its remote interface so the call path finds them without a lookup.
+ */
+public final class SkeletonMetrics {
+    private final MethodMetrics[] methods;
+
+    public SkeletonMetrics(MethodTable methodTable) {
+        methods = new MethodMetrics[methodTable.size()];
+        for (int i = 0; i < methods.length; i++) {
+            methods[i] = new MethodMetrics(methodTable.signatureAt(i));
+        }
+    }
+
+    /**
+     * @return the metrics of the method at the index, or <code>null</code> if
+     * out of range
+     */
+    public MethodMetrics methodAt(int index) {
+        if (index < 0 || index >= methods.length) {
+            return null;
+        }
+        return methods[index];
+    }
+
+    /**
+     * @return the metrics of every method by signature, e.g.
+     * <code>size(java.lang.String)</code>
+     */
+    public Map<String, MethodMetrics> byMethod() {
+        Map<String, MethodMetrics> bySignature = new LinkedHashMap<String, MethodMetrics>();
+        for (MethodMetrics method : methods) {
+            bySignature.put(method.getSignature(), method);
+        }
+        return Collections.unmodifiableMap(bySignature);
+    }
+}
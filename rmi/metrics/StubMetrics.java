@@ -0,0 +1,82 @@
+package rmi.metrics;
+
+import rmi.protocol.MethodTable;
+
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-method metrics of the calls stubs made to one skeleton address.
+ *
+ * All stubs for the same address share them (see {@link #of}), like they
+ * share connections; {@link #all} lists every address called so far.
+ */
+public final class StubMetrics {
+    private static final ConcurrentHashMap<SocketAddress, StubMetrics> BY_ADDRESS =
+            new ConcurrentHashMap<SocketAddress, StubMetrics>();
+
+    private final SocketAddress address;
+    private final ConcurrentHashMap<String, CallMetrics> bySignature = new ConcurrentHashMap<String, CallMetrics>();
+
+    private StubMetrics(SocketAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * Return the metrics shared by all stubs for the address.
+     */
+    public static StubMetrics of(SocketAddress address) {
+        StubMetrics metrics = BY_ADDRESS.get(address);
+        if (null == metrics) {
+            metrics = new StubMetrics(address);
+            StubMetrics existing = BY_ADDRESS.putIfAbsent(address, metrics);
+            if (null != existing) {
+                metrics = existing;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @return the metrics of every address stubs were created for
+     */
+    public static Map<SocketAddress, StubMetrics> all() {
+        return Collections.unmodifiableMap(BY_ADDRESS);
+    }
+
+    /**
+     * Return the metrics of every method of a remote interface, indexed like
+     * its method table, so the call path finds them without a lookup.
+     */
+    public CallMetrics[] methodsOf(MethodTable methodTable) {
+        CallMetrics[] methods = new CallMetrics[methodTable.size()];
+        for (int i = 0; i < methods.length; i++) {
+            String signature = methodTable.signatureAt(i);
+            CallMetrics method = bySignature.get(signature);
+            if (null == method) {
+                method = new CallMetrics(signature);
+                CallMetrics existing = bySignature.putIfAbsent(signature, method);
+                if (null != existing) {
+                    method = existing;
+                }
+            }
+            methods[i] = method;
+        }
+        return methods;
+    }
+
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the metrics of every method by signature, e.g.
+     * <code>size(java.lang.String)</code>
+     */
+    public Map<String, CallMetrics> byMethod() {
+        return Collections.unmodifiableMap(new TreeMap<String, CallMetrics>(bySignature));
+    }
+}
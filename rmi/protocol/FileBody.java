@@ -0,0 +1,385 @@
+package rmi.protocol;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Bulk bytes returned by a remote method, sent without serialization.
+ *
+ * A remote method declaring <code>FileBody</code> as its return type has its
+ * result sent as the raw payload of the reply. On the skeleton a body backed
+ * by a file region is written with <code>FileChannel.transferTo</code>, which
+ * is <code>sendfile</code> on Linux, so the bytes never enter the heap. The
+ * skeleton closes the body once sent.
+ *
+ * On the stub the bytes land in a heap buffer, or straight into a file or a
+ * buffer the caller provides with {@link #receive}:
+ *
+ * <pre>
+ * try (FileChannel out = FileChannel.open(local, CREATE, WRITE)) {
+ *     FileBody.receive(out, 0, () -&gt; files.retrieveBody(path));
+ * }
+ * </pre>
+ *
+ * A body is at most <code>Integer.MAX_VALUE</code> bytes, the largest frame
+ * payload. A <code>null</code> result is received as an empty body.
+ */
+public final class FileBody implements Closeable {
+    private static final int COPY_BUFFER = 64 * 1024;
+
+    /**
+     * Target of the next body received by a call on this thread
+     */
+    private static final ThreadLocal<Target> TARGET = new ThreadLocal<Target>();
+
+    private final FileChannel channel;
+    private final long position;
+    private final long count;
+    private final boolean ownsChannel;
+
+    private final ByteBuffer buffer;
+
+    /**
+     * Run once the body is closed, may be <code>null</code>
+     */
+    private final Closeable onClose;
+
+    private FileBody(FileChannel channel, long position, long count, boolean ownsChannel) {
+        if (position < 0 || count < 0 || count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bad region [" + position + ", +" + count + "]");
+        }
+        this.channel = channel;
+        this.position = position;
+        this.count = count;
+        this.ownsChannel = ownsChannel;
+        this.buffer = null;
+        this.onClose = null;
+    }
+
+    private FileBody(ByteBuffer buffer, Closeable onClose) {
+        this.channel = null;
+        this.position = 0;
+        this.count = buffer.remaining();
+        this.ownsChannel = false;
+        this.buffer = buffer;
+        this.onClose = onClose;
+    }
+
+    private FileBody(ByteBuffer buffer) {
+        this(buffer, null);
+    }
+
+    /**
+     * A body holding a whole file, closed once sent.
+     */
+    public static FileBody of(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new FileBody(channel, 0, channel.size(), true);
+        } catch (RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * A body holding a region of an open file. The channel stays open, it is
+     * the caller's to close.
+     */
+    public static FileBody of(FileChannel channel, long position, long count) {
+        return new FileBody(channel, position, count, false);
+    }
+
+    /**
+     * A body holding the remaining bytes of a buffer.
+     */
+    public static FileBody wrap(ByteBuffer buffer) {
+        return new FileBody(buffer.slice());
+    }
+
+    /**
+     * A body holding the remaining bytes of a buffer that must stay valid
+     * until the body is sent, such as a mapping of a file; <code>onClose</code>
+     * is closed once the buffer is no longer used.
+     */
+    public static FileBody wrap(ByteBuffer buffer, Closeable onClose) {
+        return new FileBody(buffer.slice(), onClose);
+    }
+
+    public static FileBody wrap(byte[] bytes) {
+        return new FileBody(ByteBuffer.wrap(bytes));
+    }
+
+    public long length() {
+        return count;
+    }
+
+    /**
+     * @return the bytes of the body, without copying if it is held in a buffer
+     */
+    public ByteBuffer asByteBuffer() throws IOException {
+        if (null != buffer) {
+            return buffer.duplicate();
+        }
+        ByteBuffer bytes = ByteBuffer.allocate((int) count);
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, position + bytes.position()) < 0) {
+                throw new EOFException("File shorter than body of " + count + " bytes");
+            }
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    /**
+     * Write bytes of the body, starting <code>offset</code> bytes in, to a
+     * channel. File regions are transferred by the kernel where possible.
+     *
+     * @return the number of bytes written, possibly fewer than requested if
+     * the channel is non-blocking
+     */
+    public long transferTo(long offset, long max, WritableByteChannel target) throws IOException {
+        long n = Math.min(max, count - offset);
+        if (n <= 0) {
+            return 0;
+        }
+        if (null != buffer) {
+            ByteBuffer view = buffer.duplicate();
+            view.position((int) offset).limit((int) (offset + n));
+            return target.write(view);
+        }
+        long written = channel.transferTo(position + offset, n, target);
+        if (0 == written && channel.size() < position + count) {
+            throw new EOFException("File shorter than body of " + count + " bytes");
+        }
+        return written;
+    }
+
+    /**
+     * Write the whole body to a blocking channel.
+     */
+    public void transferTo(WritableByteChannel target) throws IOException {
+        long offset = 0;
+        while (offset < count) {
+            offset += transferTo(offset, count - offset, target);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (ownsChannel) {
+            channel.close();
+        }
+        if (null != onClose) {
+            onClose.close();
+        }
+    }
+
+    /**
+     * A call returning a body.
+     */
+    public interface Call<E extends Exception> {
+        FileBody call() throws E;
+    }
+
+    /**
+     * Make a call returning a body and write the body into a file at the
+     * given position, instead of a heap buffer. The returned body is the
+     * written region of <code>target</code>.
+     */
+    public static <E extends Exception> FileBody receive(FileChannel target, long position, Call<E> call) throws E {
+        return receive(new Target(target, position, null), call);
+    }
+
+    /**
+     * Make a call returning a body and read the body into the remaining
+     * space of <code>target</code>. The returned body wraps the bytes read;
+     * the call fails if the body does not fit.
+     */
+    public static <E extends Exception> FileBody receive(ByteBuffer target, Call<E> call) throws E {
+        return receive(new Target(null, 0, target), call);
+    }
+
+    private static <E extends Exception> FileBody receive(Target target, Call<E> call) throws E {
+        Target previous = TARGET.get();
+        TARGET.set(target);
+        try {
+            return call.call();
+        } finally {
+            if (null == previous) {
+                TARGET.remove();
+            } else {
+                TARGET.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Return where a stub should put the body returned by a call made now on
+     * this thread: the target given to {@link #receive}, or a new heap buffer.
+     * The target is used once.
+     */
+    public static Target target() {
+        Target target = TARGET.get();
+        if (null == target || target.used) {
+            return new Target(null, 0, null);
+        }
+        target.used = true;
+        return target;
+    }
+
+    /**
+     * Destination of one received body.
+     */
+    public static final class Target {
+        private final FileChannel file;
+        private final long position;
+        private final ByteBuffer buffer;
+
+        private boolean used;
+        private volatile FileBody body;
+        private volatile IOException failure;
+
+        private Target(FileChannel file, long position, ByteBuffer buffer) {
+            this.file = file;
+            this.position = position;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Read the payload of a reply whose header was just read: the body of
+         * a RETURN goes to the target, any other payload is read as usual.
+         *
+         * @return the frame, with its payload unless it went to the target
+         */
+        public Frame receive(Frame header, DataInputStream in) throws IOException {
+            if (Protocol.RETURN != header.getType()) {
+                return header.readPayload(in);
+            }
+            receive(in, header.getLength());
+            return header;
+        }
+
+        private void receive(DataInputStream in, int length) throws IOException {
+            if (null != file) {
+                long done = 0;
+                byte[] chunk = new byte[Math.min(COPY_BUFFER, Math.max(length, 1))];
+                ByteBuffer wrapped = ByteBuffer.wrap(chunk);
+                while (done < length) {
+                    int n = (int) Math.min(chunk.length, length - done);
+                    in.readFully(chunk, 0, n);
+                    wrapped.clear().limit(n);
+                    while (wrapped.hasRemaining()) {
+                        file.write(wrapped, position + done + wrapped.position());
+                    }
+                    done += n;
+                }
+                body = FileBody.of(file, position, length);
+                return;
+            }
+
+            ByteBuffer into = buffer;
+            if (null == into) {
+                into = ByteBuffer.allocate(length);
+            } else if (into.remaining() < length) {
+                // keep the stream in step, the call fails on its own
+                in.skipNBytes(length);
+                failure = new IOException("Body of " + length + " bytes does not fit in " + into.remaining());
+                return;
+            }
+            int start = into.position();
+            if (into.hasArray()) {
+                in.readFully(into.array(), into.arrayOffset() + start, length);
+                into.position(start + length);
+            } else {
+                byte[] chunk = new byte[Math.min(COPY_BUFFER, Math.max(length, 1))];
+                int done = 0;
+                while (done < length) {
+                    int n = Math.min(chunk.length, length - done);
+                    in.readFully(chunk, 0, n);
+                    into.put(chunk, 0, n);
+                    done += n;
+                }
+            }
+            ByteBuffer received = into.duplicate();
+            received.position(start).limit(start + length);
+            body = new FileBody(received.slice());
+        }
+
+        /**
+         * Copy a body returned by a skeleton in this JVM, then close it.
+         */
+        public void receive(FileBody source) throws IOException {
+            if (null == source) {
+                source = wrap(new byte[0]);
+            }
+            try {
+                if (null != file) {
+                    // positional on both sides, neither channel is ours to move
+                    long done = 0;
+                    ByteBuffer chunk = null;
+                    while (done < source.length()) {
+                        if (null != source.buffer) {
+                            ByteBuffer view = source.buffer.duplicate();
+                            view.position((int) done);
+                            done += file.write(view, position + done);
+                            continue;
+                        }
+                        if (null == chunk) {
+                            chunk = ByteBuffer.allocate((int) Math.min(COPY_BUFFER, source.length()));
+                        }
+                        chunk.clear().limit((int) Math.min(chunk.capacity(), source.length() - done));
+                        if (source.channel.read(chunk, source.position + done) < 0) {
+                            throw new EOFException("File shorter than body of " + source.length() + " bytes");
+                        }
+                        chunk.flip();
+                        while (chunk.hasRemaining()) {
+                            file.write(chunk, position + done + chunk.position());
+                        }
+                        done += chunk.limit();
+                    }
+                    body = FileBody.of(file, position, source.length());
+                    return;
+                }
+
+                ByteBuffer bytes = source.asByteBuffer();
+                if (null == buffer) {
+                    // the local result must not share the server's buffer
+                    ByteBuffer copy = ByteBuffer.allocate(bytes.remaining());
+                    copy.put(bytes).flip();
+                    body = new FileBody(copy);
+                    return;
+                }
+                if (buffer.remaining() < bytes.remaining()) {
+                    throw new IOException("Body of " + bytes.remaining() + " bytes does not fit in "
+                            + buffer.remaining());
+                }
+                int start = buffer.position();
+                buffer.put(bytes);
+                ByteBuffer received = buffer.duplicate();
+                received.position(start).limit(buffer.position());
+                body = new FileBody(received.slice());
+            } finally {
+                source.close();
+            }
+        }
+
+        /**
+         * @return the body received, or <code>null</code> before
+         * @throws IOException if the body could not be stored
+         */
+        public FileBody body() throws IOException {
+            if (null != failure) {
+                throw failure;
+            }
+            return body;
+        }
+    }
+}
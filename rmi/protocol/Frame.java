@@ -0,0 +1,315 @@
+package rmi.protocol;
+
+import rmi.config.Config;
+import rmi.trace.TraceContext;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A single protocol message, see {@link Protocol} for the layout.
+ */
+public final class Frame {
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * Payload bytes read from a stream before the frame is trusted with more
+     * memory, see {@link #readPayload}
+     */
+    private static final int PAYLOAD_CHUNK = 64 * 1024;
+
+    private final byte type;
+    private final int callId;
+    private final int methodIndex;
+    private final byte[] payload;
+
+    /**
+     * Trace slot of a call, or <code>null</code>
+     */
+    private final TraceContext trace;
+
+    /**
+     * Payload length, without the trace slot, larger than <code>payload</code> for a
+     * header whose payload is streamed separately
+     */
+    private final int length;
+
+    public Frame(byte type, int callId, int methodIndex, byte[] payload) {
+        this(type, callId, methodIndex, payload, null);
+    }
+
+    /**
+     * Create a frame carrying a trace slot, if <code>trace</code> is not
+     * <code>null</code>.
+     */
+    public Frame(byte type, int callId, int methodIndex, byte[] payload, TraceContext trace) {
+        this.type = type;
+        this.callId = callId;
+        this.methodIndex = methodIndex;
+        this.payload = (null == payload) ? EMPTY : payload;
+        this.length = this.payload.length;
+        this.trace = trace;
+    }
+
+    private Frame(byte type, int callId, int methodIndex, int length, TraceContext trace) {
+        this.type = type;
+        this.callId = callId;
+        this.methodIndex = methodIndex;
+        this.payload = EMPTY;
+        this.length = length;
+        this.trace = trace;
+    }
+
+    /**
+     * Create a frame header announcing <code>length</code> payload bytes that
+     * the writer sends itself, right after the header.
+     */
+    public static Frame header(byte type, int callId, int methodIndex, int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative payload length: " + length);
+        }
+        return new Frame(type, callId, methodIndex, length, null);
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public int getCallId() {
+        return callId;
+    }
+
+    public int getMethodIndex() {
+        return methodIndex;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * @return the payload length announced on the wire, without the trace
+     * slot
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the trace context the call was sent in, or <code>null</code>
+     */
+    public TraceContext getTrace() {
+        return trace;
+    }
+
+    private byte wireType() {
+        return (null == trace) ? type : (byte) (type | Protocol.TRACED);
+    }
+
+    private int wireLength() {
+        return (null == trace) ? length : length + TraceContext.LENGTH;
+    }
+
+    /**
+     * @return <code>true</code> if the payload has not been read (or is sent
+     * separately)
+     */
+    public boolean isHeader() {
+        return payload.length != length;
+    }
+
+    /**
+     * Write this frame to the stream, the caller is responsible for flushing.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeShort(Protocol.MAGIC);
+        out.writeByte(Protocol.VERSION);
+        out.writeByte(wireType());
+        out.writeInt(callId);
+        out.writeShort(methodIndex);
+        out.writeInt(wireLength());
+        if (null != trace) {
+            trace.writeTo(out);
+        }
+        out.write(payload);
+    }
+
+    /**
+     * Read the next frame from the stream.
+     *
+     * @throws java.io.EOFException if the stream ends before a whole frame was read
+     * @throws ProtocolException    if the header is malformed or announces more
+     *                              than <code>Config.MAX_FRAME_LENGTH</code>
+     *                              bytes
+     */
+    public static Frame readFrom(DataInputStream in) throws IOException {
+        return readHeader(in).readPayload(in);
+    }
+
+    /**
+     * Read the header of the next frame, and its trace slot if any, leaving
+     * its payload in the stream for {@link #readPayload} or for the caller to
+     * consume directly.
+     *
+     * @throws ProtocolException if the header is malformed or announces more
+     *                           than <code>Config.MAX_FRAME_LENGTH</code> bytes
+     */
+    public static Frame readHeader(DataInputStream in) throws IOException {
+        return readHeader(in, Config.MAX_FRAME_LENGTH);
+    }
+
+    /**
+     * {@link #readHeader(DataInputStream)} with a limit of its own, for a
+     * reply whose payload the caller streams somewhere else than memory.
+     */
+    public static Frame readHeader(DataInputStream in, int maxLength) throws IOException {
+        short magic = in.readShort();
+        if (Protocol.MAGIC != magic) {
+            throw new ProtocolException("Bad magic: 0x" + Integer.toHexString(magic & 0xFFFF));
+        }
+        byte version = in.readByte();
+        if (Protocol.VERSION != version) {
+            throw new ProtocolException("Unsupported protocol version: " + version);
+        }
+        byte type = in.readByte();
+        int callId = in.readInt();
+        int methodIndex = in.readUnsignedShort();
+        int length = in.readInt();
+        if (length < 0) {
+            throw new ProtocolException("Negative payload length: " + length);
+        }
+        if (length > maxLength) {
+            throw new ProtocolException("Frame too long: " + length + " bytes");
+        }
+
+        TraceContext trace = null;
+        if (0 != (type & Protocol.TRACED)) {
+            type &= ~Protocol.TRACED;
+            length -= TraceContext.LENGTH;
+            if (length < 0) {
+                throw new ProtocolException("Trace slot longer than the payload");
+            }
+            trace = TraceContext.readFrom(in);
+        }
+        return new Frame(type, callId, methodIndex, length, trace);
+    }
+
+    /**
+     * Read the payload announced by this header. The payload array grows as
+     * the bytes arrive, so a header announcing a large payload costs memory
+     * only once the peer has sent about half of it.
+     */
+    public Frame readPayload(DataInputStream in) throws IOException {
+        if (!isHeader()) {
+            return this;
+        }
+        if (length > Config.MAX_FRAME_LENGTH) {
+            throw new ProtocolException("Frame too long: " + length + " bytes");
+        }
+        byte[] bytes = new byte[Math.min(length, PAYLOAD_CHUNK)];
+        int read = 0;
+        while (read < length) {
+            if (read == bytes.length) {
+                bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * bytes.length));
+            }
+            int n = in.read(bytes, read, bytes.length - read);
+            if (n < 0) {
+                throw new EOFException("Frame ended after " + read + " of " + length + " bytes");
+            }
+            read += n;
+        }
+        return new Frame(type, callId, methodIndex, bytes, trace);
+    }
+
+    /**
+     * Encode this frame into a new buffer, ready to be written to a channel.
+     */
+    public ByteBuffer encode() {
+        ByteBuffer buf = ByteBuffer.allocate(Protocol.HEADER_LENGTH + (wireLength() - length) + payload.length);
+        buf.putShort(Protocol.MAGIC);
+        buf.put(Protocol.VERSION);
+        buf.put(wireType());
+        buf.putInt(callId);
+        buf.putShort((short) methodIndex);
+        buf.putInt(wireLength());
+        if (null != trace) {
+            trace.writeTo(buf);
+        }
+        buf.put(payload);
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Return the number of bytes the frame starting at the buffer's position
+     * occupies, or -1 if not even the header is available yet.
+     *
+     * @throws ProtocolException if the header announces a negative length or
+     *                           more than <code>Config.MAX_FRAME_LENGTH</code>
+     *                           bytes
+     */
+    public static int frameLength(ByteBuffer buf) throws ProtocolException {
+        if (buf.remaining() < Protocol.HEADER_LENGTH) {
+            return -1;
+        }
+        int length = buf.getInt(buf.position() + Protocol.HEADER_LENGTH - 4);
+        if (length < 0) {
+            throw new ProtocolException("Negative payload length: " + length);
+        }
+        if (length > Config.MAX_FRAME_LENGTH) {
+            throw new ProtocolException("Frame too long: " + length + " bytes");
+        }
+        return Protocol.HEADER_LENGTH + length;
+    }
+
+    /**
+     * Decode the next frame from a buffer in read mode. The payload is only
+     * copied out once the buffer holds all of it.
+     *
+     * @return the frame, or <code>null</code> if the buffer does not yet hold a
+     * whole frame, in which case the position is left untouched
+     * @throws ProtocolException if the header is malformed
+     */
+    public static Frame decode(ByteBuffer buf) throws ProtocolException {
+        int frameLength = frameLength(buf);
+        if (frameLength < 0 || buf.remaining() < frameLength) {
+            return null;
+        }
+
+        short magic = buf.getShort();
+        if (Protocol.MAGIC != magic) {
+            throw new ProtocolException("Bad magic: 0x" + Integer.toHexString(magic & 0xFFFF));
+        }
+        byte version = buf.get();
+        if (Protocol.VERSION != version) {
+            throw new ProtocolException("Unsupported protocol version: " + version);
+        }
+        byte type = buf.get();
+        int callId = buf.getInt();
+        int methodIndex = buf.getShort() & 0xFFFF;
+        int length = buf.getInt();
+        TraceContext trace = null;
+        if (0 != (type & Protocol.TRACED)) {
+            type &= ~Protocol.TRACED;
+            length -= TraceContext.LENGTH;
+            if (length < 0) {
+                throw new ProtocolException("Trace slot longer than the payload");
+            }
+            trace = TraceContext.readFrom(buf);
+        }
+        byte[] payload = new byte[length];
+        buf.get(payload);
+        return new Frame(type, callId, methodIndex, payload, trace);
+    }
+
+    @Override
+    public String toString() {
+        return "Frame[type=" + type + ", callId=" + callId + ", methodIndex=" + methodIndex
+                + ", length=" + length + ((null == trace) ? "" : ", trace=" + trace) + "]";
+    }
+}
@@ -0,0 +1,21 @@
+package rmi.protocol;
+
+import java.io.IOException;
+
+/**
+ * Destination of response frames for one connection.
+ *
+ * Implementations must accept frames from several worker threads at once and
+ * keep each frame contiguous on the wire.
+ */
+public interface FrameWriter {
+
+    public void write(Frame frame) throws IOException;
+
+    /**
+     * Write a header followed by the bytes of a body, as one frame. The header
+     * announces the body length (see {@link Frame#header}). The body is
+     * closed once written.
+     */
+    public void write(Frame header, FileBody body) throws IOException;
+}
@@ -0,0 +1,41 @@
+package rmi.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Converts arguments, return values and exceptions to frame payloads.
+ *
+ * <code>null</code> is encoded as an empty payload, so no-argument calls and
+ * void returns carry no body at all.
+ */
+public final class Marshalling {
+
+    private Marshalling() {}
+
+    public static byte[] marshal(Object obj) throws IOException {
+        if (null == obj) {
+            return new byte[0];
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(obj);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    public static Object unmarshal(byte[] payload) throws IOException, ClassNotFoundException {
+        if (null == payload || 0 == payload.length) {
+            return null;
+        }
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package rmi.protocol;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps the methods of a remote interface to small integers.
+ *
+ * Methods are sorted by their signature (name and parameter types), so a stub
+ * and a skeleton built from the same interface agree on the numbering without
+ * ever sending a <code>Method</code> over the wire.
+ */
+public final class MethodTable {
+    private static final ConcurrentHashMap<Class<?>, MethodTable> TABLES =
+            new ConcurrentHashMap<Class<?>, MethodTable>();
+
+    private final Method[] methods;
+    private final Map<String, Integer> indices;
+
+    /**
+     * Signature metadata by index, so codecs never call the cloning getters
+     * of <code>Method</code> on the call path
+     */
+    private final Class<?>[][] parameterTypes;
+    private final Class<?>[] returnTypes;
+
+    private MethodTable(Class<?> c) {
+        // same signature may be inherited from several super interfaces
+        TreeMap<String, Method> sorted = new TreeMap<String, Method>();
+        for (Method method : c.getMethods()) {
+            String signature = signature(method);
+            if (!sorted.containsKey(signature)) {
+                sorted.put(signature, method);
+            }
+        }
+        if (sorted.size() > 0xFFFF) {
+            throw new IllegalArgumentException("Too many remote methods in " + c.getName());
+        }
+
+        List<Method> list = new ArrayList<Method>(sorted.values());
+        methods = list.toArray(new Method[list.size()]);
+        parameterTypes = new Class<?>[methods.length][];
+        returnTypes = new Class<?>[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            parameterTypes[i] = methods[i].getParameterTypes();
+            returnTypes[i] = methods[i].getReturnType();
+        }
+        indices = new HashMap<String, Integer>();
+        int i = 0;
+        for (String signature : sorted.keySet()) {
+            indices.put(signature, i++);
+        }
+    }
+
+    /**
+     * Return the (cached) method table of the remote interface.
+     */
+    public static MethodTable of(Class<?> c) {
+        MethodTable table = TABLES.get(c);
+        if (null == table) {
+            table = new MethodTable(c);
+            MethodTable existing = TABLES.putIfAbsent(c, table);
+            if (null != existing) {
+                table = existing;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @return index of the method, or -1 if it is not part of the interface
+     */
+    public int indexOf(Method method) {
+        Integer index = indices.get(signature(method));
+        return (null == index) ? -1 : index;
+    }
+
+    /**
+     * @return the method at the index, or <code>null</code> if out of range
+     */
+    public Method methodAt(int index) {
+        if (index < 0 || index >= methods.length) {
+            return null;
+        }
+        return methods[index];
+    }
+
+    /**
+     * @return parameter types of the method at the index, shared and not to
+     * be modified, or <code>null</code> if out of range
+     */
+    public Class<?>[] parameterTypesAt(int index) {
+        if (index < 0 || index >= methods.length) {
+            return null;
+        }
+        return parameterTypes[index];
+    }
+
+    /**
+     * @return return type of the method at the index, or <code>null</code>
+     * if out of range
+     */
+    public Class<?> returnTypeAt(int index) {
+        if (index < 0 || index >= methods.length) {
+            return null;
+        }
+        return returnTypes[index];
+    }
+
+    /**
+     * @return name and parameter types of the method at the index, or
+     * <code>null</code> if out of range
+     */
+    public String signatureAt(int index) {
+        if (index < 0 || index >= methods.length) {
+            return null;
+        }
+        return signature(methods[index]);
+    }
+
+    public int size() {
+        return methods.length;
+    }
+
+    static String signature(Method method) {
+        StringBuilder sb = new StringBuilder(method.getName()).append('(');
+        Class<?>[] params = method.getParameterTypes();
+        for (int i = 0; i < params.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(params[i].getName());
+        }
+        return sb.append(')').toString();
+    }
+}
@@ -0,0 +1,75 @@
+package rmi.protocol;
+
+/**
+ * Wire protocol constants.
+ *
+ * Every message exchanged between a stub and a skeleton is a frame:
+ *
+ * <pre>
+ * +-------+---------+------+---------+--------------+----------------+---------+
+ * | magic | version | type | call id | method index | payload length | payload |
+ * |  u16  |   u8    |  u8  |   i32   |     u16      |      i32       |  bytes  |
+ * +-------+---------+------+---------+--------------+----------------+---------+
+ * </pre>
+ *
+ * A stub opens each connection with a HELLO frame listing the ids of the
+ * codecs it can use, most preferred first; the skeleton answers with a HELLO
+ * holding the one id it picked, and both sides encode payloads of that
+ * connection with it. A connection without HELLO uses Java serialization.
+ *
+ * A method returning a stream (see {@link StreamTypes}) is answered with an
+ * empty RETURN, then STREAM_DATA frames and a final STREAM_END, or an
+ * EXCEPTION if the stream fails. The skeleton may have a window of
+ * <code>Config.STREAM_WINDOW</code> data frames unacknowledged; the stub
+ * grants more with STREAM_CREDIT as it consumes them, and stops the stream
+ * early with STREAM_CANCEL. All of these carry the call id of the call.
+ *
+ * A stub sends SUBSCRIBE to receive the notices its skeleton publishes; each
+ * one arrives as a NOTICE frame with call id 0, its payload encoded with the
+ * codec of the connection, until the stub sends UNSUBSCRIBE. Only
+ * multiplexed connections subscribe, their reader tells notices from replies
+ * by type.
+ *
+ * A CALL made within a trace has the {@link #TRACED} bit set in its type,
+ * and a trace slot of <code>TraceContext.LENGTH</code> bytes between the
+ * header and the payload, counted in the payload length: trace id (two
+ * i64), span id (i64) and flags (u8, bit 0 set if sampled).
+ */
+public interface Protocol {
+    /** "RM" */
+    short MAGIC = 0x524D;
+    /**
+     * Version 2 adds the trace slot of {@link #TRACED} calls; a version 1
+     * peer would read the slot as payload, so it rejects these frames
+     * instead
+     */
+    byte VERSION = 2;
+
+    /** Stub to skeleton: invoke a method */
+    byte CALL = 1;
+    /** Skeleton to stub: normal return value */
+    byte RETURN = 2;
+    /** Skeleton to stub: exception thrown by the call */
+    byte EXCEPTION = 3;
+    /** Both ways, first frame of a connection: codec negotiation */
+    byte HELLO = 4;
+    /** Skeleton to stub: next chunk of a streamed result */
+    byte STREAM_DATA = 5;
+    /** Skeleton to stub: streamed result complete */
+    byte STREAM_END = 6;
+    /** Stub to skeleton: more data frames may be sent, payload is the count (i32) */
+    byte STREAM_CREDIT = 7;
+    /** Stub to skeleton: stop streaming the result */
+    byte STREAM_CANCEL = 8;
+    /** Stub to skeleton: push notices on this connection */
+    byte SUBSCRIBE = 9;
+    /** Skeleton to stub: a notice published by the skeleton */
+    byte NOTICE = 10;
+    /** Stub to skeleton: stop pushing notices on this connection */
+    byte UNSUBSCRIBE = 11;
+
+    /** Flag on the type of a frame followed by a trace slot */
+    byte TRACED = (byte) 0x80;
+
+    int HEADER_LENGTH = 14;
+}
@@ -0,0 +1,52 @@
+package rmi.protocol;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes frames to a blocking stream, one whole frame at a time.
+ *
+ * Bodies are written straight to the socket channel under the stream, when
+ * there is one, so file regions go out with <code>sendfile</code>.
+ */
+public class StreamFrameWriter implements FrameWriter {
+    private final DataOutputStream out;
+    private final WritableByteChannel channel;
+
+    public StreamFrameWriter(DataOutputStream out) {
+        this(out, null);
+    }
+
+    /**
+     * @param channel blocking channel <code>out</code> writes to, or
+     *                <code>null</code> to write bodies through the stream
+     */
+    public StreamFrameWriter(DataOutputStream out, WritableByteChannel channel) {
+        this.out = out;
+        this.channel = (null == channel) ? Channels.newChannel(out) : channel;
+    }
+
+    @Override
+    public void write(Frame frame) throws IOException {
+        synchronized (out) {
+            frame.writeTo(out);
+            out.flush();
+        }
+    }
+
+    @Override
+    public void write(Frame header, FileBody body) throws IOException {
+        try {
+            synchronized (out) {
+                header.writeTo(out);
+                out.flush();
+                body.transferTo(channel);
+                out.flush();
+            }
+        } finally {
+            body.close();
+        }
+    }
+}
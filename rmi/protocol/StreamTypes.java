@@ -0,0 +1,29 @@
+package rmi.protocol;
+
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.Flow;
+
+/**
+ * Return types streamed to the stub in chunks instead of being encoded whole:
+ * <code>InputStream</code>, <code>ReadableByteChannel</code> and
+ * <code>Flow.Publisher&lt;ByteBuffer&gt;</code>.
+ *
+ * The stub returns a lazily pulled object of the declared type, so neither
+ * side holds more than a window of chunks of the result at a time.
+ */
+public final class StreamTypes {
+    private StreamTypes() {}
+
+    public static boolean isStream(Class<?> type) {
+        return InputStream.class == type || ReadableByteChannel.class == type || Flow.Publisher.class == type;
+    }
+
+    /**
+     * @return <code>true</code> if the value is one of the streamed types
+     */
+    public static boolean isStreamValue(Object value) {
+        return value instanceof InputStream || value instanceof ReadableByteChannel
+                || value instanceof Flow.Publisher;
+    }
+}
@@ -0,0 +1,499 @@
+package rmi.protocol.codec;
+
+import rmi.protocol.Marshalling;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Compact tagged binary encoding.
+ *
+ * Every value is a one byte tag followed by its body. Primitives, strings,
+ * byte arrays, object arrays, the common <code>java.util</code> collections,
+ * enums and records are written directly, without class descriptors. Any
+ * other value, exceptions included, is embedded as a Java-serialized blob, so
+ * the codec accepts everything the Java serialization codec does.
+ *
+ * Only public records are written component by component, and only those
+ * that are serializable or of the declared type of an argument or result;
+ * the decoder creates no other record, whatever class name the peer sends.
+ *
+ * Collections are decoded as the same concrete class they were encoded from;
+ * other <code>List</code>, <code>Set</code> and <code>Map</code>
+ * implementations go through the serialized fallback to keep their type.
+ *
+ * Arguments and return values are written against the method signature:
+ * the payload is the parameters in order, primitive ones as their raw bytes
+ * with no tag, reference ones as tagged values. A <code>long</code> argument
+ * costs 8 bytes and a <code>void</code> return none.
+ */
+public class BinaryCodec implements Codec {
+    public static final byte ID = 1;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final byte NULL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte BYTE = 3;
+    private static final byte SHORT = 4;
+    private static final byte CHAR = 5;
+    private static final byte INT = 6;
+    private static final byte LONG = 7;
+    private static final byte FLOAT = 8;
+    private static final byte DOUBLE = 9;
+    private static final byte STRING = 10;
+    private static final byte BYTES = 11;
+    private static final byte ARRAY = 12;
+    private static final byte ARRAY_LIST = 13;
+    private static final byte LINKED_LIST = 14;
+    private static final byte HASH_SET = 15;
+    private static final byte LINKED_HASH_SET = 16;
+    private static final byte HASH_MAP = 17;
+    private static final byte LINKED_HASH_MAP = 18;
+    private static final byte ENUM = 19;
+    private static final byte RECORD = 20;
+    private static final byte SERIALIZED = 127;
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "binary";
+    }
+
+    @Override
+    public byte[] encode(Object obj) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        write(out, obj);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Object decode(byte[] payload) throws IOException, ClassNotFoundException {
+        if (null == payload || 0 == payload.length) {
+            return null;
+        }
+        return read(new DataInputStream(new ByteArrayInputStream(payload)));
+    }
+
+    @Override
+    public byte[] encodeArguments(Class<?>[] types, Object[] args) throws IOException {
+        int count = (null == args) ? 0 : args.length;
+        if (count != types.length) {
+            throw new IOException("Expected " + types.length + " arguments, got " + count);
+        }
+        if (0 == count) {
+            return EMPTY;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int i = 0; i < count; i++) {
+            writeTyped(out, types[i], args[i]);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Object[] decodeArguments(Class<?>[] types, byte[] payload) throws IOException, ClassNotFoundException {
+        Object[] args = new Object[types.length];
+        if (0 == args.length) {
+            return args;
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        for (int i = 0; i < args.length; i++) {
+            args[i] = readTyped(in, types[i]);
+        }
+        return args;
+    }
+
+    @Override
+    public byte[] encodeResult(Class<?> type, Object value) throws IOException {
+        if (void.class == type) {
+            return EMPTY;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(type.isPrimitive() ? 8 : 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeTyped(out, type, value);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Object decodeResult(Class<?> type, byte[] payload) throws IOException, ClassNotFoundException {
+        if (void.class == type) {
+            return null;
+        }
+        return readTyped(new DataInputStream(new ByteArrayInputStream(payload)), type);
+    }
+
+    /**
+     * Write a value of a declared type: primitives raw, references tagged.
+     */
+    private void writeTyped(DataOutputStream out, Class<?> type, Object value) throws IOException {
+        if (!type.isPrimitive()) {
+            write(out, value, type);
+            return;
+        }
+        if (null == value) {
+            throw new IOException("null given for a " + type.getName());
+        }
+
+        if (int.class == type) {
+            out.writeInt((Integer) value);
+        } else if (long.class == type) {
+            out.writeLong((Long) value);
+        } else if (boolean.class == type) {
+            out.writeBoolean((Boolean) value);
+        } else if (double.class == type) {
+            out.writeDouble((Double) value);
+        } else if (float.class == type) {
+            out.writeFloat((Float) value);
+        } else if (short.class == type) {
+            out.writeShort((Short) value);
+        } else if (byte.class == type) {
+            out.writeByte((Byte) value);
+        } else if (char.class == type) {
+            out.writeChar((Character) value);
+        } else {
+            throw new IOException("Cannot encode a " + type.getName());
+        }
+    }
+
+    private Object readTyped(DataInputStream in, Class<?> type) throws IOException, ClassNotFoundException {
+        if (!type.isPrimitive()) {
+            return read(in, type);
+        }
+
+        if (int.class == type) {
+            return in.readInt();
+        } else if (long.class == type) {
+            return in.readLong();
+        } else if (boolean.class == type) {
+            return in.readBoolean();
+        } else if (double.class == type) {
+            return in.readDouble();
+        } else if (float.class == type) {
+            return in.readFloat();
+        } else if (short.class == type) {
+            return in.readShort();
+        } else if (byte.class == type) {
+            return in.readByte();
+        } else if (char.class == type) {
+            return in.readChar();
+        }
+        throw new StreamCorruptedException("Cannot decode a " + type.getName());
+    }
+
+    private void write(DataOutputStream out, Object obj) throws IOException {
+        write(out, obj, null);
+    }
+
+    /**
+     * Write a tagged value.
+     *
+     * @param declared the declared type of the argument or result the value
+     *                 is, <code>null</code> for a value nested in another
+     */
+    private void write(DataOutputStream out, Object obj, Class<?> declared) throws IOException {
+        if (null == obj) {
+            out.writeByte(NULL);
+            return;
+        }
+
+        Class<?> type = obj.getClass();
+        if (String.class == type) {
+            out.writeByte(STRING);
+            writeString(out, (String) obj);
+        } else if (Integer.class == type) {
+            out.writeByte(INT);
+            out.writeInt((Integer) obj);
+        } else if (Long.class == type) {
+            out.writeByte(LONG);
+            out.writeLong((Long) obj);
+        } else if (Boolean.class == type) {
+            out.writeByte((Boolean) obj ? TRUE : FALSE);
+        } else if (Double.class == type) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) obj);
+        } else if (Float.class == type) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) obj);
+        } else if (Short.class == type) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) obj);
+        } else if (Byte.class == type) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) obj);
+        } else if (Character.class == type) {
+            out.writeByte(CHAR);
+            out.writeChar((Character) obj);
+        } else if (byte[].class == type) {
+            byte[] b = (byte[]) obj;
+            out.writeByte(BYTES);
+            out.writeInt(b.length);
+            out.write(b);
+        } else if (type.isArray() && !type.getComponentType().isPrimitive()) {
+            Object[] array = (Object[]) obj;
+            out.writeByte(ARRAY);
+            writeString(out, type.getComponentType().getName());
+            out.writeInt(array.length);
+            for (Object element : array) {
+                write(out, element);
+            }
+        } else if (ArrayList.class == type) {
+            writeCollection(out, ARRAY_LIST, (Collection<?>) obj);
+        } else if (LinkedList.class == type) {
+            writeCollection(out, LINKED_LIST, (Collection<?>) obj);
+        } else if (HashSet.class == type) {
+            writeCollection(out, HASH_SET, (Collection<?>) obj);
+        } else if (LinkedHashSet.class == type) {
+            writeCollection(out, LINKED_HASH_SET, (Collection<?>) obj);
+        } else if (HashMap.class == type) {
+            writeMap(out, HASH_MAP, (Map<?, ?>) obj);
+        } else if (LinkedHashMap.class == type) {
+            writeMap(out, LINKED_HASH_MAP, (Map<?, ?>) obj);
+        } else if (obj instanceof Enum) {
+            out.writeByte(ENUM);
+            writeString(out, ((Enum<?>) obj).getDeclaringClass().getName());
+            writeString(out, ((Enum<?>) obj).name());
+        } else if (isWrittenRecord(type, declared)) {
+            writeRecord(out, obj);
+        } else {
+            byte[] serialized = Marshalling.marshal(obj);
+            out.writeByte(SERIALIZED);
+            out.writeInt(serialized.length);
+            out.write(serialized);
+        }
+    }
+
+    private Object read(DataInputStream in) throws IOException, ClassNotFoundException {
+        return read(in, null);
+    }
+
+    /**
+     * Read a tagged value.
+     *
+     * @param declared the declared type of the argument or result the value
+     *                 is, <code>null</code> for a value nested in another
+     */
+    private Object read(DataInputStream in, Class<?> declared) throws IOException, ClassNotFoundException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case BYTE:
+                return in.readByte();
+            case SHORT:
+                return in.readShort();
+            case CHAR:
+                return in.readChar();
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case FLOAT:
+                return in.readFloat();
+            case DOUBLE:
+                return in.readDouble();
+            case STRING:
+                return readString(in);
+            case BYTES: {
+                byte[] b = new byte[readLength(in)];
+                in.readFully(b);
+                return b;
+            }
+            case ARRAY: {
+                Class<?> component = loadClass(readString(in));
+                int length = readLength(in);
+                Object[] array;
+                try {
+                    array = (Object[]) Array.newInstance(component, length);
+                } catch (IllegalArgumentException e) {
+                    throw new StreamCorruptedException("Bad array of " + component.getName());
+                }
+                for (int i = 0; i < length; i++) {
+                    array[i] = read(in);
+                }
+                return array;
+            }
+            case ARRAY_LIST:
+                return readCollection(in, new ArrayList<Object>());
+            case LINKED_LIST:
+                return readCollection(in, new LinkedList<Object>());
+            case HASH_SET:
+                return readCollection(in, new HashSet<Object>());
+            case LINKED_HASH_SET:
+                return readCollection(in, new LinkedHashSet<Object>());
+            case HASH_MAP:
+                return readMap(in, new HashMap<Object, Object>());
+            case LINKED_HASH_MAP:
+                return readMap(in, new LinkedHashMap<Object, Object>());
+            case ENUM:
+                return readEnum(in);
+            case RECORD:
+                return readRecord(in, declared);
+            case SERIALIZED: {
+                byte[] serialized = new byte[readLength(in)];
+                in.readFully(serialized);
+                return Marshalling.unmarshal(serialized);
+            }
+            default:
+                throw new StreamCorruptedException("Unknown tag " + tag);
+        }
+    }
+
+    private void writeCollection(DataOutputStream out, byte tag, Collection<?> collection) throws IOException {
+        out.writeByte(tag);
+        out.writeInt(collection.size());
+        for (Object element : collection) {
+            write(out, element);
+        }
+    }
+
+    private Collection<Object> readCollection(DataInputStream in, Collection<Object> collection)
+            throws IOException, ClassNotFoundException {
+        int size = readLength(in);
+        for (int i = 0; i < size; i++) {
+            collection.add(read(in));
+        }
+        return collection;
+    }
+
+    private void writeMap(DataOutputStream out, byte tag, Map<?, ?> map) throws IOException {
+        out.writeByte(tag);
+        out.writeInt(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            write(out, entry.getKey());
+            write(out, entry.getValue());
+        }
+    }
+
+    private Map<Object, Object> readMap(DataInputStream in, Map<Object, Object> map)
+            throws IOException, ClassNotFoundException {
+        int size = readLength(in);
+        for (int i = 0; i < size; i++) {
+            Object key = read(in);
+            map.put(key, read(in));
+        }
+        return map;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Object readEnum(DataInputStream in) throws IOException, ClassNotFoundException {
+        Class type = loadClass(readString(in));
+        String name = readString(in);
+        try {
+            return Enum.valueOf(type, name);
+        } catch (IllegalArgumentException e) {
+            throw new StreamCorruptedException("No constant " + name + " in " + type.getName());
+        }
+    }
+
+    private void writeRecord(DataOutputStream out, Object record) throws IOException {
+        out.writeByte(RECORD);
+        writeString(out, record.getClass().getName());
+        for (RecordComponent component : record.getClass().getRecordComponents()) {
+            try {
+                write(out, component.getAccessor().invoke(record));
+            } catch (ReflectiveOperationException e) {
+                throw new IOException("Cannot read record component " + component.getName(), e);
+            }
+        }
+    }
+
+    private Object readRecord(DataInputStream in, Class<?> declared) throws IOException, ClassNotFoundException {
+        Class<?> type = loadClass(readString(in));
+        if (!type.isRecord()) {
+            throw new StreamCorruptedException(type.getName() + " is not a record");
+        }
+        if (!isWrittenRecord(type, declared)) {
+            throw new InvalidClassException(type.getName(), "record neither serializable nor of the declared type");
+        }
+        RecordComponent[] components = type.getRecordComponents();
+        Class<?>[] types = new Class<?>[components.length];
+        Object[] values = new Object[components.length];
+        for (int i = 0; i < components.length; i++) {
+            types[i] = components[i].getType();
+            values[i] = read(in);
+        }
+        try {
+            Constructor<?> canonical = type.getConstructor(types);
+            return canonical.newInstance(values);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Cannot create record " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Tell whether a record is written component by component: it must be
+     * public, and serializable or of the declared type, so that no other
+     * record is created by the decoder than Java serialization would, or the
+     * method signature names. Other records go through serialization.
+     */
+    private static boolean isWrittenRecord(Class<?> type, Class<?> declared) {
+        return type.isRecord() && Modifier.isPublic(type.getModifiers())
+                && (Serializable.class.isAssignableFrom(type)
+                        || (null != declared && Object.class != declared && declared.isAssignableFrom(type)));
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] utf8 = new byte[readLength(in)];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new StreamCorruptedException("Bad length " + length);
+        }
+        return length;
+    }
+
+    private static Class<?> loadClass(String name) throws ClassNotFoundException {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (null == loader) {
+            loader = BinaryCodec.class.getClassLoader();
+        }
+        return Class.forName(name, false, loader);
+    }
+}
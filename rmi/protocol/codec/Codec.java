@@ -0,0 +1,63 @@
+package rmi.protocol.codec;
+
+import java.io.IOException;
+
+/**
+ * Marshals arguments, return values and exceptions into frame payloads.
+ *
+ * Stubs and skeletons agree on a codec per connection with a HELLO exchange
+ * (see {@link Codecs#negotiate}). Implementations must be thread safe.
+ */
+public interface Codec {
+
+    /**
+     * Identifier sent during negotiation, unique among registered codecs
+     */
+    public byte getId();
+
+    public String getName();
+
+    /**
+     * Encode a value, <code>null</code> included.
+     */
+    public byte[] encode(Object obj) throws IOException;
+
+    /**
+     * Decode a payload produced by {@link #encode}.
+     */
+    public Object decode(byte[] payload) throws IOException, ClassNotFoundException;
+
+    /**
+     * Encode the arguments of a call to a method with the given parameter
+     * types. Codecs may use the types to write primitives without boxing or
+     * type information; the default encodes the array as a value.
+     */
+    public default byte[] encodeArguments(Class<?>[] types, Object[] args) throws IOException {
+        return encode(args);
+    }
+
+    /**
+     * Decode arguments produced by {@link #encodeArguments} for the same
+     * parameter types.
+     */
+    public default Object[] decodeArguments(Class<?>[] types, byte[] payload)
+            throws IOException, ClassNotFoundException {
+        return (Object[]) decode(payload);
+    }
+
+    /**
+     * Encode the value returned by a method with the given return type,
+     * <code>void.class</code> included.
+     */
+    public default byte[] encodeResult(Class<?> type, Object value) throws IOException {
+        return encode(value);
+    }
+
+    /**
+     * Decode a return value produced by {@link #encodeResult} for the same
+     * return type.
+     */
+    public default Object decodeResult(Class<?> type, byte[] payload) throws IOException, ClassNotFoundException {
+        return decode(payload);
+    }
+}
@@ -0,0 +1,98 @@
+package rmi.protocol.codec;
+
+import rmi.protocol.Frame;
+import rmi.protocol.Protocol;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Built-in codecs and the negotiation between a stub and a skeleton.
+ */
+public final class Codecs {
+    public static final Codec JAVA = new JavaSerializationCodec();
+    public static final Codec BINARY = new BinaryCodec();
+
+    /**
+     * Codecs offered by default, most preferred first
+     */
+    private static final List<Codec> DEFAULTS = Collections.unmodifiableList(Arrays.asList(BINARY, JAVA));
+
+    private Codecs() {}
+
+    public static List<Codec> defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Encode the ids of the offered codecs as a HELLO payload.
+     */
+    public static byte[] offer(List<Codec> codecs) {
+        byte[] ids = new byte[codecs.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = codecs.get(i).getId();
+        }
+        return ids;
+    }
+
+    /**
+     * Pick the first codec offered by the stub that the skeleton supports.
+     * Java serialization is the fallback every peer understands.
+     */
+    public static Codec negotiate(byte[] offered, List<Codec> supported) {
+        for (byte id : offered) {
+            for (Codec codec : supported) {
+                if (codec.getId() == id) {
+                    return codec;
+                }
+            }
+        }
+        return JAVA;
+    }
+
+    /**
+     * Find the codec chosen by the skeleton among those the stub offered.
+     */
+    public static Codec byId(byte id, List<Codec> offered) {
+        for (Codec codec : offered) {
+            if (codec.getId() == id) {
+                return codec;
+            }
+        }
+        return (JAVA.getId() == id) ? JAVA : null;
+    }
+
+    /**
+     * Run the stub side of the HELLO exchange on a new connection and return
+     * the codec the skeleton picked.
+     */
+    public static Codec handshake(DataInputStream in, DataOutputStream out, List<Codec> offered)
+            throws IOException {
+        new Frame(Protocol.HELLO, 0, 0, offer(offered)).writeTo(out);
+        out.flush();
+
+        Frame reply = Frame.readFrom(in);
+        if (Protocol.HELLO != reply.getType() || 1 != reply.getPayload().length) {
+            throw new ProtocolException("Unexpected handshake reply " + reply);
+        }
+        Codec codec = byId(reply.getPayload()[0], offered);
+        if (null == codec) {
+            throw new ProtocolException("Skeleton picked unknown codec " + reply.getPayload()[0]);
+        }
+        return codec;
+    }
+
+    /**
+     * Return a list with the codecs in order, for configuring a skeleton or
+     * a stub.
+     */
+    public static List<Codec> of(Codec... codecs) {
+        return Collections.unmodifiableList(new ArrayList<Codec>(Arrays.asList(codecs)));
+    }
+}
@@ -0,0 +1,33 @@
+package rmi.protocol.codec;
+
+import rmi.protocol.Marshalling;
+
+import java.io.IOException;
+
+/**
+ * Java serialization, understood by every peer and able to carry any
+ * <code>Serializable</code> value.
+ */
+public class JavaSerializationCodec implements Codec {
+    public static final byte ID = 0;
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "java";
+    }
+
+    @Override
+    public byte[] encode(Object obj) throws IOException {
+        return Marshalling.marshal(obj);
+    }
+
+    @Override
+    public Object decode(byte[] payload) throws IOException, ClassNotFoundException {
+        return Marshalling.unmarshal(payload);
+    }
+}
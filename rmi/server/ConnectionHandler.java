@@ -0,0 +1,105 @@
+package rmi.server;
+
+import rmi.events.ConnectionAcceptedEvent;
+import rmi.events.ConnectionClosedEvent;
+import rmi.protocol.Frame;
+import rmi.protocol.FrameWriter;
+import rmi.protocol.StreamFrameWriter;
+import rmi.server.task.ConnectionContext;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves all calls a stub sends over one accepted connection, until the stub
+ * closes it.
+ */
+class ConnectionHandler implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger("ConnectionHandler");
+
+    private final Socket socket;
+    private final TCPServer<?> server;
+    private ConnectionContext context;
+
+    /**
+     * Flight recorder event lasting from the accept to the close, or
+     * <code>null</code> if no recording enabled it at the accept
+     */
+    private final ConnectionClosedEvent closedEvent = ConnectionClosedEvent.ifEnabled();
+
+    ConnectionHandler(Socket socket, TCPServer<?> server) {
+        this.socket = socket;
+        this.server = server;
+        if (null != closedEvent) {
+            closedEvent.begin();
+        }
+        ConnectionAcceptedEvent accepted = ConnectionAcceptedEvent.ifEnabled();
+        if (null != accepted && accepted.shouldCommit()) {
+            accepted.service = server.getService().getName();
+            accepted.remoteAddress = String.valueOf(socket.getRemoteSocketAddress());
+            accepted.commit();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            socket.setTcpNoDelay(true);
+            FrameWriter out = new StreamFrameWriter(
+                    new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())), socket.getChannel());
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            context = new ConnectionContext(out, new Runnable() {
+                @Override
+                public void run() {
+                    close();
+                }
+            });
+            server.connectionOpened(context);
+
+            while (!socket.isClosed()) {
+                Frame request;
+                try {
+                    request = Frame.readFrom(in);
+                } catch (EOFException e) {
+                    // stub closed the connection
+                    break;
+                }
+                server.dispatch(request, context);
+            }
+        } catch (IOException e) {
+            if (!socket.isClosed()) {
+                LOGGER.log(Level.WARNING, "connection " + socket.getRemoteSocketAddress() + " failed", e);
+            }
+        } finally {
+            close();
+            if (null != context) {
+                context.close();
+                server.connectionClosed(context);
+            }
+            server.connectionClosed(this);
+            if (null != closedEvent) {
+                closedEvent.end();
+                if (closedEvent.shouldCommit()) {
+                    closedEvent.service = server.getService().getName();
+                    closedEvent.remoteAddress = String.valueOf(socket.getRemoteSocketAddress());
+                    closedEvent.commit();
+                }
+            }
+        }
+    }
+
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "close socket error!", e);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package rmi.server;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.UnixDomainSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the servers running in this JVM, so that stubs resolving to
+ * one of them can call it directly instead of going through a socket.
+ *
+ * TCP servers are keyed by port and match any stub address that names this
+ * host on that port; Unix domain socket servers are keyed by their path.
+ */
+public final class LocalSkeletons {
+
+    private static final ConcurrentHashMap<Object, RMIServer<?>> SERVERS =
+            new ConcurrentHashMap<Object, RMIServer<?>>();
+
+    /**
+     * Whether an address belongs to this host, interface lookups are slow
+     */
+    private static final ConcurrentHashMap<InetAddress, Boolean> LOCAL_HOSTS =
+            new ConcurrentHashMap<InetAddress, Boolean>();
+
+    private LocalSkeletons() {}
+
+    static void register(RMIServer<?> server) {
+        Object key = keyOf(server.getAddress());
+        if (null != key) {
+            SERVERS.put(key, server);
+        }
+    }
+
+    static void unregister(RMIServer<?> server) {
+        Object key = keyOf(server.getAddress());
+        if (null != key) {
+            SERVERS.remove(key, server);
+        }
+    }
+
+    /**
+     * Return the running server in this JVM a stub with this address would
+     * connect to, or <code>null</code> if it is remote.
+     */
+    public static RMIServer<?> lookup(SocketAddress address) {
+        if (SERVERS.isEmpty()) {
+            return null;
+        }
+        if (address instanceof InetSocketAddress) {
+            InetSocketAddress inet = (InetSocketAddress) address;
+            if (inet.isUnresolved() || !isLocalHost(inet.getAddress())) {
+                return null;
+            }
+            RMIServer<?> server = SERVERS.get(inet.getPort());
+            if (null == server) {
+                return null;
+            }
+            // a server bound to one interface is not reachable through another
+            InetAddress bound = ((InetSocketAddress) server.getAddress()).getAddress();
+            if (bound.isAnyLocalAddress() || bound.equals(inet.getAddress())) {
+                return server;
+            }
+            return null;
+        }
+        return SERVERS.get(address);
+    }
+
+    private static Object keyOf(SocketAddress address) {
+        if (address instanceof InetSocketAddress) {
+            return ((InetSocketAddress) address).getPort();
+        }
+        if (address instanceof UnixDomainSocketAddress) {
+            return address;
+        }
+        return null;
+    }
+
+    private static boolean isLocalHost(InetAddress address) {
+        if (address.isLoopbackAddress() || address.isAnyLocalAddress()) {
+            return true;
+        }
+        Boolean local = LOCAL_HOSTS.get(address);
+        if (null == local) {
+            try {
+                local = null != NetworkInterface.getByInetAddress(address);
+            } catch (SocketException e) {
+                local = false;
+            }
+            LOCAL_HOSTS.put(address, local);
+        }
+        return local;
+    }
+}
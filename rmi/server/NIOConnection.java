@@ -0,0 +1,260 @@
+package rmi.server;
+
+import rmi.events.ConnectionAcceptedEvent;
+import rmi.events.ConnectionClosedEvent;
+import rmi.protocol.FileBody;
+import rmi.protocol.Frame;
+import rmi.protocol.FrameWriter;
+import rmi.server.task.ConnectionContext;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+/**
+ * State of one non-blocking connection served by a {@link NIOServer}.
+ *
+ * Reads and frame decoding happen on the selector thread, arguments are
+ * decoded by the worker running the call. Responses are
+ * written by the worker threads directly while the socket accepts them; what
+ * does not fit is queued and flushed by the selector thread once the channel
+ * becomes writable again.
+ */
+class NIOConnection implements FrameWriter {
+    private static final int INITIAL_READ_BUFFER = 8192;
+
+    private final NIOServer<?> server;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+
+    /**
+     * Bytes read but not yet decoded, kept in write mode between reads
+     */
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+
+    /**
+     * Responses not yet written, guarded by itself
+     */
+    private final ArrayDeque<PendingWrite> writeQueue = new ArrayDeque<PendingWrite>();
+
+    private final ConnectionContext context = new ConnectionContext(this, new Runnable() {
+        @Override
+        public void run() {
+            close();
+        }
+    });
+
+    /**
+     * Flight recorder event lasting from the accept to the close, or
+     * <code>null</code> if no recording enabled it at the accept
+     */
+    private final ConnectionClosedEvent closedEvent = ConnectionClosedEvent.ifEnabled();
+
+    NIOConnection(NIOServer<?> server, SocketChannel channel, SelectionKey key) {
+        this.server = server;
+        this.channel = channel;
+        this.key = key;
+        server.connectionOpened(context);
+        if (null != closedEvent) {
+            closedEvent.begin();
+        }
+        ConnectionAcceptedEvent accepted = ConnectionAcceptedEvent.ifEnabled();
+        if (null != accepted && accepted.shouldCommit()) {
+            accepted.service = server.getService().getName();
+            accepted.remoteAddress = remoteAddress();
+            accepted.commit();
+        }
+    }
+
+    /**
+     * Read what is available and dispatch every complete frame.
+     *
+     * @return <code>false</code> once the peer has closed the connection
+     */
+    boolean read() throws IOException {
+        int n = channel.read(readBuffer);
+        if (n < 0) {
+            return false;
+        }
+
+        readBuffer.flip();
+        Frame frame;
+        while (null != (frame = Frame.decode(readBuffer))) {
+            server.dispatch(frame, context);
+        }
+        int pending = Frame.frameLength(readBuffer);
+        readBuffer.compact();
+
+        // make room for a frame larger than the buffer as its bytes fill it,
+        // rather than for whatever length a header announces, and give the
+        // room back after it
+        if (pending > readBuffer.capacity() && !readBuffer.hasRemaining()) {
+            resize((int) Math.min(pending, 2L * readBuffer.capacity()));
+        } else if (readBuffer.capacity() > INITIAL_READ_BUFFER && pending <= INITIAL_READ_BUFFER
+                && readBuffer.position() <= INITIAL_READ_BUFFER) {
+            resize(INITIAL_READ_BUFFER);
+        }
+        return true;
+    }
+
+    private void resize(int capacity) {
+        ByteBuffer resized = ByteBuffer.allocate(capacity);
+        readBuffer.flip();
+        resized.put(readBuffer);
+        readBuffer = resized;
+    }
+
+    @Override
+    public void write(Frame frame) throws IOException {
+        write(new BufferWrite(frame.encode()));
+    }
+
+    @Override
+    public void write(Frame header, FileBody body) throws IOException {
+        BodyWrite bodyWrite = new BodyWrite(body);
+        try {
+            synchronized (writeQueue) {
+                write(new BufferWrite(header.encode()));
+                write(bodyWrite);
+            }
+        } catch (IOException e) {
+            // never queued, nobody else will close the file
+            bodyWrite.discard();
+            throw e;
+        } catch (RuntimeException e) {
+            bodyWrite.discard();
+            throw e;
+        }
+    }
+
+    private void write(PendingWrite pending) throws IOException {
+        synchronized (writeQueue) {
+            if (writeQueue.isEmpty() && pending.writeTo(channel)) {
+                return;
+            }
+            writeQueue.add(pending);
+            server.interestOps(key, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Continue writing queued responses, called by the selector thread when
+     * the channel is writable.
+     */
+    void flush() throws IOException {
+        synchronized (writeQueue) {
+            PendingWrite pending;
+            while (null != (pending = writeQueue.peek())) {
+                if (!pending.writeTo(channel)) {
+                    return;
+                }
+                writeQueue.poll();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    void close() {
+        boolean recorded = false;
+        if (null != closedEvent && channel.isOpen()) {
+            closedEvent.end();
+            if (closedEvent.shouldCommit()) {
+                closedEvent.service = server.getService().getName();
+                closedEvent.remoteAddress = remoteAddress();
+                recorded = true;
+            }
+        }
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // nothing left to do with a broken channel
+        }
+        synchronized (writeQueue) {
+            PendingWrite pending;
+            while (null != (pending = writeQueue.poll())) {
+                pending.discard();
+            }
+        }
+        context.close();
+        server.connectionClosed(context);
+        if (recorded) {
+            closedEvent.commit();
+        }
+    }
+
+    private String remoteAddress() {
+        try {
+            return String.valueOf(channel.getRemoteAddress());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Part of a response waiting for the channel
+     */
+    private abstract static class PendingWrite {
+        /**
+         * @return <code>true</code> once everything has been written
+         */
+        abstract boolean writeTo(SocketChannel channel) throws IOException;
+
+        void discard() {}
+    }
+
+    private static final class BufferWrite extends PendingWrite {
+        private final ByteBuffer buf;
+
+        BufferWrite(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        boolean writeTo(SocketChannel channel) throws IOException {
+            channel.write(buf);
+            return !buf.hasRemaining();
+        }
+    }
+
+    /**
+     * A body sent with as many <code>transferTo</code> calls as the socket
+     * needs, closed once sent
+     */
+    private static final class BodyWrite extends PendingWrite {
+        private final FileBody body;
+        private long offset;
+
+        BodyWrite(FileBody body) {
+            this.body = body;
+        }
+
+        @Override
+        boolean writeTo(SocketChannel channel) throws IOException {
+            while (offset < body.length()) {
+                long n = body.transferTo(offset, body.length() - offset, channel);
+                if (0 == n) {
+                    return false;
+                }
+                offset += n;
+            }
+            discard();
+            return true;
+        }
+
+        @Override
+        void discard() {
+            try {
+                body.close();
+            } catch (IOException ignored) {
+                // only a file opened for reading
+            }
+        }
+    }
+}
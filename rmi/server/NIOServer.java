@@ -0,0 +1,379 @@
+package rmi.server;
+
+import rmi.config.Config;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A selector based server implementation.
+ *
+ * One thread multiplexes the listening channel and every accepted connection,
+ * so idle or slow clients cost a registered key rather than a thread. Frames
+ * are read on the selector thread; their arguments are decoded and the calls
+ * executed by the worker threads.
+ */
+public class NIOServer<T> extends RMIServer<T> {
+    private static final Logger LOGGER = Logger.getLogger("NIOServer");
+
+    private AtomicInteger state;   // Server state
+
+    private SocketAddress address;
+    private int maxConnection;
+    private Selector selector;
+
+    /**
+     * Listening channel, closed while the server is paused and replaced by a
+     * new one bound to the same address when it resumes
+     */
+    private volatile ServerSocketChannel serverChannel;
+
+    /**
+     * Set by a pause until the selector thread has deregistered the closed
+     * listening channel; the address is bound until then
+     */
+    private volatile boolean listenerClosing;
+
+    /**
+     * Released by the selector thread once the channel closed by a pause has
+     * released its address, and on shut down
+     */
+    private final Semaphore listenerReleased = new Semaphore(0);
+
+    /**
+     * Channel bound by a resume, for the selector thread to register
+     */
+    private volatile ServerSocketChannel reopened;
+
+    /**
+     * Counted down once the selector thread has closed every channel
+     */
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    public NIOServer(Class<T> clazz, T serviceImpl) throws IOException {
+        this(Config.LISTENING_PORT, Config.MAX_CONNECTION, clazz, serviceImpl);
+    }
+
+    public NIOServer(int port, int maxConnection, Class<T> clazz, T serviceImpl) throws IOException {
+        this(new InetSocketAddress(port), maxConnection, clazz, serviceImpl);
+    }
+
+    /**
+     * @param address TCP address, or Unix domain socket file which must not
+     *                exist yet and is removed again on shut down
+     */
+    public NIOServer(SocketAddress address, int maxConnection, Class<T> clazz, T serviceImpl) throws IOException {
+        super(clazz, serviceImpl);
+        init(address, maxConnection);
+    }
+
+    @Override
+    public void run() {
+        LOGGER.log(Level.INFO, "[NIOServer] start listenning");
+        Throwable failure = null;
+        try {
+            while (isRunning()) {
+                if (listenerClosing) {
+                    // the closed channel is deregistered by a select
+                    selector.select(100);
+                } else {
+                    selector.select();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+                listenerChanged();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "[NIOServer] selector failed!", e);
+            failure = e;
+        } finally {
+            closeAll();
+        }
+        LOGGER.log(Level.INFO, "[NIOServer] complete listenning");
+        listeningStopped(failure);
+    }
+
+    @Override
+    public void start() {
+        throw new UnsupportedOperationException("Please call startServer() to start");
+    }
+
+    @Override
+    public void startServer() {
+        if (!state.compareAndSet(ServerState.CREATED.getValue(), ServerState.LISTENNING.getValue())) {
+            throw new IllegalStateException("Server start fail, not in the created state!");
+        }
+        initWorkerPool();
+        LocalSkeletons.register(this);
+        super.start();
+    }
+
+    /**
+     * Stop accepting connections: the listening channel is closed, so new
+     * connections are refused rather than left in the backlog, while open
+     * connections keep being served. Unless called from the selector thread,
+     * wait until the channel has released its address.
+     */
+    @Override
+    public void pauseServer() {
+        if (!state.compareAndSet(ServerState.LISTENNING.getValue(), ServerState.PAUSE_LISTENNING.getValue())) {
+            throw new IllegalStateException("Server has been started!");
+        }
+        // stubs in this JVM must not keep calling a paused server directly
+        LocalSkeletons.unregister(this);
+        listenerClosing = true;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "close server channel error!", e);
+        }
+        selector.wakeup();
+        if (Thread.currentThread() != this) {
+            // the address is listening until the selector thread deregisters it
+            listenerReleased.acquireUninterruptibly();
+            listenerReleased.release();
+        }
+    }
+
+    /**
+     * Accept connections again, on a new listening channel bound to the
+     * address of the previous one. Must not be called from the selector
+     * thread.
+     *
+     * @throws IllegalStateException if the server is not paused, or the
+     *                               address cannot be bound again; the
+     *                               server then stays paused
+     */
+    @Override
+    public void resumeServer() {
+        if (!isPause()) {
+            throw new IllegalStateException("Server is not paused!");
+        }
+        listenerReleased.acquireUninterruptibly();
+        ServerSocketChannel channel;
+        try {
+            if (address instanceof UnixDomainSocketAddress) {
+                // the socket file outlives the closed channel
+                Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            }
+            channel = bind(address, maxConnection);
+        } catch (IOException e) {
+            listenerReleased.release();
+            throw new IllegalStateException("Cannot listen again at " + address, e);
+        }
+        if (!state.compareAndSet(ServerState.PAUSE_LISTENNING.getValue(), ServerState.LISTENNING.getValue())) {
+            listenerReleased.release();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "close server channel error!", e);
+            }
+            throw new IllegalStateException("Server is not paused!");
+        }
+        serverChannel = channel;
+        reopened = channel;
+        LocalSkeletons.register(this);
+        selector.wakeup();
+    }
+
+    /**
+     * On the selector thread, let a resume proceed once the channel closed
+     * by a pause is deregistered, and register the channel a resume bound.
+     */
+    private void listenerChanged() throws IOException {
+        if (listenerClosing && !serverChannel.isRegistered()) {
+            listenerClosing = false;
+            listenerReleased.release();
+        }
+        ServerSocketChannel channel = reopened;
+        if (null != channel) {
+            reopened = null;
+            try {
+                channel.register(selector, SelectionKey.OP_ACCEPT);
+            } catch (ClosedChannelException e) {
+                // paused again before it was registered
+            }
+        }
+    }
+
+    /**
+     * Stop the selector thread. Unless called from that thread, wait until it
+     * has closed the listening channel, so the address can be bound again.
+     */
+    @Override
+    public void shutDown() {
+        int currentStatus = state.get();
+        if (ServerState.CREATED.getValue() == currentStatus
+                || ServerState.SHUTDOWN.getValue() == currentStatus) {
+            throw new IllegalStateException("Server isn't running!");
+        }
+
+        state.set(ServerState.SHUTDOWN.getValue());
+        LocalSkeletons.unregister(this);
+        selector.wakeup();
+        if (Thread.currentThread() != this) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    closed.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Change the interest set of a key from any thread.
+     */
+    void interestOps(SelectionKey key, int ops) {
+        if (key.isValid()) {
+            key.interestOps(ops);
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public ServerState getServerState() {
+        return ServerState.of(state.get());
+    }
+
+    @Override
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    private void init(SocketAddress address, int maxConnection) throws IOException {
+        state = new AtomicInteger(ServerState.CREATED.getValue());
+        this.address = address;
+        this.maxConnection = maxConnection;
+        selector = Selector.open();
+        serverChannel = bind(address, maxConnection);
+        this.address = serverChannel.getLocalAddress();
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    private static ServerSocketChannel bind(SocketAddress address, int maxConnection) throws IOException {
+        ServerSocketChannel channel;
+        if (address instanceof UnixDomainSocketAddress) {
+            channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            channel = ServerSocketChannel.open();
+        }
+        try {
+            channel.bind(address, maxConnection);
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    private void handle(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            accept();
+            return;
+        }
+
+        NIOConnection conn = (NIOConnection) key.attachment();
+        try {
+            if (key.isReadable() && !conn.read()) {
+                conn.close();
+                return;
+            }
+            if (key.isValid() && key.isWritable()) {
+                conn.flush();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "connection failed!", e);
+            conn.close();
+        } catch (RuntimeException e) {
+            // a bad frame from one stub must not stop the selector thread
+            LOGGER.log(Level.WARNING, "connection failed!", e);
+            conn.close();
+        }
+    }
+
+    private void accept() {
+        SocketChannel channel = null;
+        try {
+            while (null != (channel = serverChannel.accept())) {
+                channel.configureBlocking(false);
+                if (!(address instanceof UnixDomainSocketAddress)) {
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                }
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new NIOConnection(this, channel, key));
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "IO exception occured!", e);
+            if (null != channel) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // nothing left to do with a broken channel
+                }
+            }
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof NIOConnection) {
+                ((NIOConnection) key.attachment()).close();
+            }
+        }
+        try {
+            serverChannel.close();
+            selector.close();
+            if (address instanceof UnixDomainSocketAddress) {
+                Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "close selector error!", e);
+        }
+        if (null != workerThreads) {
+            workerThreads.shutdown();
+        }
+        // a resume waiting for the listening channel gives up
+        listenerReleased.release();
+        closed.countDown();
+    }
+
+    private boolean isRunning() {
+        return (state.get() == ServerState.LISTENNING.getValue() ||
+                state.get() == ServerState.PAUSE_LISTENNING.getValue());
+    }
+
+    private boolean isPause() {
+        return state.get() == ServerState.PAUSE_LISTENNING.getValue();
+    }
+}
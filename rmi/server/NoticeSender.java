@@ -0,0 +1,86 @@
+package rmi.server;
+
+import rmi.config.Config;
+import rmi.protocol.Frame;
+import rmi.server.task.ConnectionContext;
+import rmi.server.task.WorkerPool;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Notices waiting to be written to one subscribed connection.
+ *
+ * They are written from a thread of their own, so a slow subscriber does not
+ * hold the thread publishing them, and at most
+ * <code>Config.NOTICE_QUEUE</code> of them wait: the server disconnects a
+ * subscriber further behind.
+ */
+final class NoticeSender implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger("NoticeSender");
+
+    /**
+     * Threads writing notices, at most one per subscribed connection
+     */
+    private static final ExecutorService WRITERS = WorkerPool.newThreadPerTaskExecutor("notice");
+
+    private final ConnectionContext context;
+    private final ArrayBlockingQueue<Frame> queue = new ArrayBlockingQueue<Frame>(Config.NOTICE_QUEUE);
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private volatile boolean broken;
+
+    NoticeSender(ConnectionContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Queue a notice for the connection.
+     *
+     * @return <code>false</code> if the queue is full or the connection
+     * failed, the notice is dropped
+     */
+    boolean offer(Frame notice) {
+        if (broken || context.isClosed() || !queue.offer(notice)) {
+            return false;
+        }
+        schedule();
+        return true;
+    }
+
+    /**
+     * @return whether writing to the connection failed
+     */
+    boolean isBroken() {
+        return broken || context.isClosed();
+    }
+
+    @Override
+    public void run() {
+        try {
+            Frame notice;
+            while (null != (notice = queue.poll())) {
+                context.getOut().write(notice);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Cannot write notice", e);
+            broken = true;
+            queue.clear();
+        } finally {
+            writing.set(false);
+        }
+        // a notice queued after the last poll, but before the flag was cleared
+        if (!broken && !queue.isEmpty()) {
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        if (writing.compareAndSet(false, true)) {
+            WRITERS.execute(this);
+        }
+    }
+}
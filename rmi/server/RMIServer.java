@@ -1,6 +1,52 @@
 package rmi.server;
 
+import rmi.NoticeListener;
+import rmi.RMIException;
+import rmi.config.Config;
+import rmi.events.DispatchEvent;
+import rmi.metrics.MethodMetrics;
+import rmi.metrics.SkeletonMetrics;
+import rmi.protocol.FileBody;
+import rmi.protocol.Frame;
+import rmi.protocol.MethodTable;
+import rmi.protocol.Protocol;
+import rmi.protocol.StreamTypes;
+import rmi.protocol.codec.Codec;
+import rmi.protocol.codec.Codecs;
+import rmi.server.task.Callback;
+import rmi.server.task.CallbackTask;
+import rmi.server.task.ConnectionContext;
+import rmi.server.task.DispatchTable;
+import rmi.server.task.EncodedArguments;
+import rmi.server.task.MethodInvocation;
+import rmi.server.task.MethodInvocationCallback;
+import rmi.server.task.WorkerPool;
+import rmi.trace.TraceContext;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Method;
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 public abstract class RMIServer<T> extends Thread {
+    private static final Logger LOGGER = Logger.getLogger("RMIServer");
+
+    /**
+     * HELLO payload of a stub, whose codec local calls copy values with
+     */
+    private static final byte[] LOCAL_OFFER = Codecs.offer(Codecs.defaults());
 
     /**
      * The remote interface type
@@ -12,11 +58,416 @@ public abstract class RMIServer<T> extends Thread {
      */
     protected T serviceImpl;
 
+    /**
+     * Method numbering of the remote interface, shared with stubs
+     */
+    protected MethodTable methodTable;
+
+    /**
+     * Precomputed invokers of the remote methods, same numbering
+     */
+    protected DispatchTable dispatchTable;
+
+    /**
+     * Calls, errors, sizes and latencies of the remote methods, same numbering
+     */
+    protected SkeletonMetrics metrics;
+
+    /**
+     * Threads running the remote method calls
+     */
+    protected WorkerPool workerThreads;
+
+    /**
+     * Codecs stubs may pick from, most preferred first
+     */
+    protected volatile List<Codec> codecs = Codecs.defaults();
+
+    /**
+     * Connections which sent SUBSCRIBE with their queued notices, and
+     * listeners of stubs in this JVM
+     */
+    private final ConcurrentHashMap<ConnectionContext, NoticeSender> subscribers =
+            new ConcurrentHashMap<ConnectionContext, NoticeSender>();
+    private final CopyOnWriteArrayList<NoticeListener> localSubscribers = new CopyOnWriteArrayList<NoticeListener>();
+
+    /**
+     * Open connections of either transport
+     */
+    private final Set<ConnectionContext> connections =
+            Collections.newSetFromMap(new ConcurrentHashMap<ConnectionContext, Boolean>());
+
+    /**
+     * Told when the listening thread exits, with the exception that stopped
+     * it or <code>null</code>
+     */
+    private volatile Consumer<Throwable> stopListener;
+
     protected RMIServer() {}
 
     protected RMIServer(Class<T> c, T server) {
         this.service = c;
         this.serviceImpl = server;
+        this.methodTable = MethodTable.of(c);
+        this.dispatchTable = new DispatchTable(methodTable);
+        this.metrics = new SkeletonMetrics(methodTable);
+    }
+
+    /**
+     * Start accepting connections
+     */
+    public abstract void startServer();
+
+    /**
+     * Address the server is bound to
+     */
+    public abstract SocketAddress getAddress();
+
+    public abstract ServerState getServerState();
+
+    /**
+     * A connection was accepted, called by the transport.
+     */
+    protected void connectionOpened(ConnectionContext context) {
+        connections.add(context);
+    }
+
+    /**
+     * A connection was closed, called by the transport.
+     */
+    protected void connectionClosed(ConnectionContext context) {
+        connections.remove(context);
+        subscribers.remove(context);
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * @return the number of connections subscribed to the notices
+     */
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * @return open connections with at least one call not answered yet
+     */
+    public int getActiveConnectionCount() {
+        int active = 0;
+        for (ConnectionContext context : connections) {
+            if (context.getCallsInFlight() > 0) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    /**
+     * Set the pool running the calls, must be called before the server starts
+     */
+    public void setWorkerPool(WorkerPool pool) {
+        this.workerThreads = pool;
+    }
+
+    public WorkerPool getWorkerPool() {
+        return workerThreads;
+    }
+
+    /**
+     * Use the default pool unless one was set
+     */
+    protected void initWorkerPool() {
+        if (null == workerThreads) {
+            workerThreads = WorkerPool.createDefault(service.getSimpleName());
+        }
+    }
+
+    public SkeletonMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Record calls into <code>metrics</code>, e.g. those of a previous run of
+     * the same skeleton; must be called before the server starts
+     */
+    public void setMetrics(SkeletonMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void setStopListener(Consumer<Throwable> listener) {
+        this.stopListener = listener;
+    }
+
+    /**
+     * The listening thread is about to exit, called by the transport once it
+     * no longer accepts connections.
+     */
+    protected void listeningStopped(Throwable cause) {
+        Consumer<Throwable> listener = stopListener;
+        if (null != listener) {
+            listener.accept(cause);
+        }
+    }
+
+    public void setCodecs(List<Codec> codecs) {
+        this.codecs = codecs;
+    }
+
+    public List<Codec> getCodecs() {
+        return codecs;
+    }
+
+    /**
+     * Return the codec a stub offering the defaults would agree on, used to
+     * copy the values of local calls and notices.
+     */
+    protected Codec localCodec() {
+        return Codecs.negotiate(LOCAL_OFFER, codecs);
+    }
+
+    /**
+     * Answer the HELLO a stub opens its connection with, and use the codec
+     * picked for the rest of the connection.
+     */
+    protected void hello(Frame request, ConnectionContext context) throws IOException {
+        Codec codec = Codecs.negotiate(request.getPayload(), codecs);
+        context.setCodec(codec);
+        context.getOut().write(new Frame(Protocol.HELLO, request.getCallId(), 0, new byte[]{codec.getId()}));
+    }
+
+    /**
+     * Send a notice to every subscribed stub, encoded with the codec of each
+     * connection. Notices are queued per connection and written without
+     * blocking the caller. Connections which failed are dropped, and those
+     * more than <code>Config.NOTICE_QUEUE</code> notices behind are closed,
+     * so their stubs learn that notices were missed.
+     */
+    public void publish(Object notice) {
+        Map<Codec, Frame> encoded = new HashMap<Codec, Frame>();
+        for (Map.Entry<ConnectionContext, NoticeSender> subscriber : subscribers.entrySet()) {
+            ConnectionContext context = subscriber.getKey();
+            NoticeSender sender = subscriber.getValue();
+            if (sender.isBroken()) {
+                subscribers.remove(context, sender);
+                continue;
+            }
+            Frame frame = encoded.get(context.getCodec());
+            if (null == frame) {
+                try {
+                    frame = new Frame(Protocol.NOTICE, 0, 0, context.getCodec().encode(notice));
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Cannot encode notice " + notice, e);
+                    continue;
+                }
+                encoded.put(context.getCodec(), frame);
+            }
+            if (!sender.offer(frame)) {
+                subscribers.remove(context, sender);
+                if (!sender.isBroken()) {
+                    LOGGER.log(Level.WARNING, "Disconnecting a subscriber of " + service.getSimpleName()
+                            + " " + Config.NOTICE_QUEUE + " notices behind");
+                    context.disconnect();
+                }
+            }
+        }
+        if (localSubscribers.isEmpty()) {
+            return;
+        }
+
+        Object copy;
+        try {
+            Codec codec = localCodec();
+            copy = codec.decode(codec.encode(notice));
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Cannot copy notice " + notice, e);
+            return;
+        }
+        for (NoticeListener listener : localSubscribers) {
+            try {
+                listener.notice(copy);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Notice listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Deliver notices to a stub in this JVM, which has no connection to
+     * subscribe on.
+     */
+    public void subscribeLocal(NoticeListener listener) {
+        localSubscribers.addIfAbsent(listener);
+    }
+
+    public void unsubscribeLocal(NoticeListener listener) {
+        localSubscribers.remove(listener);
+    }
+
+    /**
+     * Stop accepting new connections, open connections keep being served
+     */
+    public abstract void pauseServer();
+
+    public abstract void resumeServer();
+
+    /**
+     * Stop the server and close all connections
+     */
+    public abstract void shutDown();
+
+    public Class<T> getService() {
+        return service;
+    }
+
+    /**
+     * Call a method on behalf of a stub in this JVM, skipping the socket and
+     * the frame encoding. Arguments, return value and exception are copied
+     * by an encode and decode round trip with the codec a stub would agree on
+     * (see {@link #localCodec}), so the call keeps pass-by-value semantics and
+     * accepts the same values as a remote call; the future completes on the
+     * worker thread that ran the call. Like a new connection, the call is refused unless the server is
+     * listening, paused servers included.
+     */
+    public CompletableFuture<Object> invokeLocal(int methodIndex, Object[] args) {
+        return invokeLocal(methodIndex, args, null);
+    }
+
+    /**
+     * {@link #invokeLocal(int, Object[])} within the trace of the stub's call
+     * span <code>trace</code>, if not <code>null</code>.
+     */
+    public CompletableFuture<Object> invokeLocal(int methodIndex, Object[] args, TraceContext trace) {
+        final CompletableFuture<Object> result = new CompletableFuture<Object>();
+        if (ServerState.LISTENNING != getServerState()) {
+            result.completeExceptionally(new RMIException("Server is not listening"));
+            return result;
+        }
+        MethodHandle invoker = dispatchTable.invokerAt(methodIndex);
+        if (null == invoker) {
+            result.completeExceptionally(new RMIException("Bad method index " + methodIndex));
+            return result;
+        }
+        final MethodMetrics methodMetrics = metrics.methodAt(methodIndex);
+        methodMetrics.called(0);
+
+        final Codec codec = localCodec();
+        final Class<?> returnType = methodTable.returnTypeAt(methodIndex);
+        Class<?>[] types = methodTable.parameterTypesAt(methodIndex);
+        Object[] copied;
+        try {
+            copied = codec.decodeArguments(types, codec.encodeArguments(types, args));
+        } catch (Exception e) {
+            methodMetrics.failed();
+            result.completeExceptionally(new RMIException("Cannot marshal arguments", e));
+            return result;
+        }
+
+        Callback callback = new Callback() {
+            @Override
+            public void onSuccess(Object retVal) {
+                if (retVal instanceof FileBody || StreamTypes.isStreamValue(retVal)) {
+                    // bodies and streams are not serializable, the stub reads them
+                    result.complete(retVal);
+                    return;
+                }
+                try {
+                    result.complete(codec.decodeResult(returnType, codec.encodeResult(returnType, retVal)));
+                } catch (Exception e) {
+                    methodMetrics.failed();
+                    result.completeExceptionally(new RMIException("Cannot marshal return value", e));
+                }
+            }
+
+            @Override
+            public void onFail(Exception e) {
+                methodMetrics.failed();
+                try {
+                    result.completeExceptionally((Throwable) codec.decode(codec.encode(e)));
+                } catch (Exception notSerializable) {
+                    result.completeExceptionally(new RMIException(String.valueOf(e)));
+                }
+            }
+        };
+        DispatchEvent event = DispatchEvent.ifEnabled();
+        if (null != event) {
+            event.service = service.getName();
+        }
+        workerThreads.submit(new CallbackTask(new MethodInvocation(serviceImpl, invoker, copied, serverSpan(trace),
+                spanName(trace, methodMetrics)), callback, methodMetrics, event));
+        return result;
+    }
+
+    /**
+     * @return the context of the span running a call sent within the trace
+     * of <code>caller</code>, <code>null</code> for an untraced call
+     */
+    private static TraceContext serverSpan(TraceContext caller) {
+        return (null == caller) ? null : caller.child();
+    }
+
+    /**
+     * @return the name of the span running a call sent within the trace of
+     * <code>caller</code>, <code>null</code> for an untraced call, so that
+     * untraced calls do not build it
+     */
+    private String spanName(TraceContext caller, MethodMetrics methodMetrics) {
+        return (null == caller) ? null : service.getName() + "." + methodMetrics.getSignature();
+    }
+
+    /**
+     * Handle a frame read from a connection: calls are dispatched to the
+     * worker threads and answered once they complete, other frames control
+     * the connection or the results streamed on it. Payloads are encoded
+     * with the codec negotiated for the connection.
+     */
+    protected void dispatch(Frame request, ConnectionContext context) throws IOException {
+        switch (request.getType()) {
+            case Protocol.HELLO:
+                hello(request, context);
+                return;
+            case Protocol.STREAM_CREDIT:
+            case Protocol.STREAM_CANCEL:
+                context.getStreams().control(request);
+                return;
+            case Protocol.SUBSCRIBE:
+                subscribers.putIfAbsent(context, new NoticeSender(context));
+                return;
+            case Protocol.UNSUBSCRIBE:
+                subscribers.remove(context);
+                return;
+            default:
+                break;
+        }
+
+        context.callStarted();
+        Codec codec = context.getCodec();
+        Method method = methodTable.methodAt(request.getMethodIndex());
+        MethodMetrics methodMetrics = (Protocol.CALL == request.getType())
+                ? metrics.methodAt(request.getMethodIndex()) : null;
+        DispatchEvent event = DispatchEvent.ifEnabled();
+        Callback callback = new MethodInvocationCallback(context, request.getCallId(), request.getMethodIndex(),
+                methodTable.returnTypeAt(request.getMethodIndex()), methodMetrics, event);
+        if (Protocol.CALL != request.getType() || null == method) {
+            callback.onFail(new RMIException("Bad request " + request));
+            return;
+        }
+        methodMetrics.called(null == request.getPayload() ? 0 : request.getPayload().length);
+        if (null != event) {
+            event.service = service.getName();
+            event.argumentBytes = request.getLength();
+        }
+
+        // arguments are decoded by the worker, not by the thread reading the connection
+        EncodedArguments args = new EncodedArguments(codec, method,
+                methodTable.parameterTypesAt(request.getMethodIndex()), request.getPayload());
+        Callable<Object> methodInvocation = new MethodInvocation(this.serviceImpl,
+                dispatchTable.invokerAt(request.getMethodIndex()), args, serverSpan(request.getTrace()),
+                spanName(request.getTrace(), methodMetrics));
+        CallbackTask task = new CallbackTask(methodInvocation, callback, methodMetrics, event);
+
+        workerThreads.submit(task);
     }
 
 }
@@ -25,5 +25,14 @@ public enum ServerState {
         return value;
     }
 
+    public static ServerState of(int value) {
+        for (ServerState state : values()) {
+            if (state.value == value) {
+                return state;
+            }
+        }
+        throw new IllegalArgumentException("No server state " + value);
+    }
+
 
 }
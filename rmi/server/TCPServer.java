@@ -1,20 +1,20 @@
 package rmi.server;
 
 import rmi.config.Config;
-import rmi.server.task.Callback;
-import rmi.server.task.CallbackTask;
-import rmi.server.task.MethodInvocation;
-import rmi.server.task.MethodInvocationCallback;
+import rmi.server.task.WorkerPool;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.concurrent.Callable;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
@@ -28,37 +28,75 @@ public class TCPServer<T> extends RMIServer<T> {
 
     private AtomicInteger state;   // TCP Server state
 
-    private ExecutorService workerThreads;
-    private ServerSocket serverSocket;
+    /**
+     * Listening socket, closed while the server is paused and replaced by a
+     * new one bound to the same address when it resumes
+     */
+    private volatile ServerSocket serverSocket;
+
+    /**
+     * Address the listening socket is bound to, with the port the system
+     * picked if any
+     */
+    private SocketAddress address;
+
+    /**
+     * Backlog of the listening socket
+     */
+    private int maxConnection;
+
+    /**
+     * Threads reading requests from accepted connections, one per connection
+     */
+    private ExecutorService connectionThreads;
+
+    /**
+     * Open connections, closed on shut down
+     */
+    private final Set<ConnectionHandler> connections =
+            Collections.newSetFromMap(new ConcurrentHashMap<ConnectionHandler, Boolean>());
 
     /**
      * If the server allow to run
      */
     private Semaphore permission = new Semaphore(0);
 
+    /**
+     * Released each time the listening thread stops accepting; the socket
+     * it was blocked on is only released by then
+     */
+    private Semaphore listenerIdle = new Semaphore(0);
+
     public TCPServer(Class<T> clazz, T serviceImpl) throws IOException {
-        super(clazz, serviceImpl);
-        init(Config.LISTENING_PORT, Config.MAX_CONNECTION);
+        this(Config.LISTENING_PORT, Config.MAX_CONNECTION, clazz, serviceImpl);
     }
     public TCPServer(int port, int maxConnection, Class<T> clazz, T serviceImpl) throws IOException {
+        this(new InetSocketAddress(port), maxConnection, clazz, serviceImpl);
+    }
+    public TCPServer(SocketAddress address, int maxConnection, Class<T> clazz, T serviceImpl) throws IOException {
         super(clazz, serviceImpl);
-        init(port, maxConnection);
+        init(address, maxConnection);
     }
 
     @Override
     public void run() {
-        while (isRunning()) {
-            try {
-                permission.acquire();
-                LOGGER.log(Level.INFO, "[TCPServer] start listenning");
-                listening();
-                LOGGER.log(Level.INFO, "[TCPServer] complete listenning");
-            } catch (InterruptedException e) {
-                LOGGER.log(Level.INFO, "[TCPServer] being interrupted!");
+        try {
+            while (isRunning()) {
+                try {
+                    permission.acquire();
+                    LOGGER.log(Level.INFO, "[TCPServer] start listenning");
+                    listening();
+                    LOGGER.log(Level.INFO, "[TCPServer] complete listenning");
+                    listenerIdle.release();
+                } catch (InterruptedException e) {
+                    LOGGER.log(Level.INFO, "[TCPServer] being interrupted!");
+                }
             }
-
+        } finally {
+            // a shut down racing a resume may stop the thread before it listens
+            listenerIdle.release();
+            listeningStopped(null);
         }
-
     }
 
     @Override
@@ -69,37 +107,90 @@ public class TCPServer<T> extends RMIServer<T> {
     /**
      * Start the TCP server
      */
+    @Override
     public void startServer() {
         if (!state.compareAndSet(ServerState.CREATED.getValue(), ServerState.LISTENNING.getValue())) {
             throw new IllegalStateException("Server start fail, not in the created state!");
         }
-        if (isRunning()) {
-            throw new IllegalStateException("Server start fail, has been started!");
+        initWorkerPool();
+        if (workerThreads.isThreadPerCall()) {
+            // connections block in reads, give them cheap threads as well
+            connectionThreads = WorkerPool.newThreadPerTaskExecutor(service.getSimpleName() + "-connection");
+        } else {
+            connectionThreads = Executors.newCachedThreadPool();
         }
-
+        LocalSkeletons.register(this);
         // permit server to start
         permission.release();
         // start server thread
         super.start();
     }
 
+    /**
+     * Stop accepting connections: the listening socket is closed, so new
+     * connections are refused rather than left in the backlog, while open
+     * connections keep being served. Unless called from the listening
+     * thread, wait until the socket has released its address.
+     */
+    @Override
     public void pauseServer() {
         if (!state.compareAndSet(ServerState.LISTENNING.getValue(), ServerState.PAUSE_LISTENNING.getValue())) {
             throw new IllegalStateException("Server has been started!");
         }
+        // stubs in this JVM must not keep calling a paused server directly
+        LocalSkeletons.unregister(this);
+        try {
+            // wakes the listening thread blocked in accept
+            serverSocket.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "close server socket error!", e);
+        }
+        awaitListenerIdle();
     }
 
+    /**
+     * Accept connections again, on a new listening socket bound to the
+     * address of the previous one.
+     *
+     * @throws IllegalStateException if the server is not paused, or the
+     *                               address cannot be bound again; the
+     *                               server then stays paused
+     */
+    @Override
     public void resumeServer() {
-       if (!state.compareAndSet(ServerState.PAUSE_LISTENNING.getValue(), ServerState.LISTENNING.getValue())) {
-           throw new IllegalStateException("Server is not paused!");
-       }
+        if (!isPause()) {
+            throw new IllegalStateException("Server is not paused!");
+        }
+        // the address is bound until the listening thread leaves accept
+        listenerIdle.acquireUninterruptibly();
+        ServerSocket reopened;
+        try {
+            reopened = bind(address, maxConnection);
+        } catch (IOException e) {
+            listenerIdle.release();
+            throw new IllegalStateException("Cannot listen again at " + address, e);
+        }
+        serverSocket = reopened;
+        if (!state.compareAndSet(ServerState.PAUSE_LISTENNING.getValue(), ServerState.LISTENNING.getValue())) {
+            listenerIdle.release();
+            try {
+                reopened.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "close server socket error!", e);
+            }
+            throw new IllegalStateException("Server is not paused!");
+        }
+        LocalSkeletons.register(this);
         permission.release();
     }
 
 
     /**
-     * Shut down the TCP server, shut down all inner thread pool.
+     * Shut down the TCP server, shut down all inner thread pool. The
+     * listening socket is closed before returning, so the address can be
+     * bound again.
      */
+    @Override
     public void shutDown() {
         int currentStatus = state.get();
         if (ServerState.CREATED.getValue() == currentStatus
@@ -108,12 +199,63 @@ public class TCPServer<T> extends RMIServer<T> {
         }
 
         state.set(ServerState.SHUTDOWN.getValue());
+        LocalSkeletons.unregister(this);
+        try {
+            // wakes the listening thread blocked in accept
+            serverSocket.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "close server socket error!", e);
+        }
+        // and the one waiting for a resume
+        permission.release();
+        awaitListenerIdle();
+        connectionThreads.shutdown();
+        workerThreads.shutdown();
+        for (ConnectionHandler handler : connections) {
+            handler.close();
+        }
+    }
+
+    /**
+     * Wait until the listening thread has left accept: a socket closed while
+     * another thread accepts on it keeps its address until that thread
+     * returns.
+     */
+    private void awaitListenerIdle() {
+        if (Thread.currentThread() != this) {
+            listenerIdle.acquireUninterruptibly();
+            listenerIdle.release();
+        }
     }
 
 
-    private void init(int port, int maxConnection) throws IOException {
-        workerThreads = Executors.newFixedThreadPool(Config.MIN_THREAD);
-        serverSocket = new ServerSocket(port, maxConnection);
+    @Override
+    public ServerState getServerState() {
+        return ServerState.of(state.get());
+    }
+
+    @Override
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    private void init(SocketAddress address, int maxConnection) throws IOException {
+        state = new AtomicInteger(ServerState.CREATED.getValue());
+        this.maxConnection = maxConnection;
+        serverSocket = bind(address, maxConnection);
+        this.address = serverSocket.getLocalSocketAddress();
+    }
+
+    private static ServerSocket bind(SocketAddress address, int maxConnection) throws IOException {
+        // channel backed, so accepted sockets can send file bodies with transferTo
+        ServerSocket socket = ServerSocketChannel.open().socket();
+        try {
+            socket.bind(address, maxConnection);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
     }
 
     /**
@@ -121,51 +263,32 @@ public class TCPServer<T> extends RMIServer<T> {
      * Main logic for the server.
      */
     private void listening() {
-        Socket clientSocket = null;
-        ObjectOutputStream out = null;
-        ObjectInputStream in = null;
-        try {
-            while (isRunning() && !isPause()) {
-                clientSocket = serverSocket.accept();
-                out = new ObjectOutputStream(clientSocket.getOutputStream());
-                in = new ObjectInputStream(clientSocket.getInputStream());
-                //TODO
-                // read methond name and arguments from in
-                Method method = (Method) in.readObject();
-                Object[] args = (Object[]) in.readObject();
-
-                // submit a task to workerThreads
-                Callable<Object> methodInvocation = new MethodInvocation(this.serviceImpl, method, args);
-                Callback callback = new MethodInvocationCallback(out);
-                CallbackTask task = new CallbackTask(methodInvocation, callback);
-
-                workerThreads.submit(task);
-
-            }
-        } catch (IOException e) {
-            LOGGER.log(Level.WARNING, "IO exception occured!", e);
-
-        } catch (Exception e) {
-            LOGGER.log(Level.WARNING, "Unknown exception occured!", e);
-        } finally {
+        while (isRunning() && !isPause()) {
             try {
-                if (null != clientSocket) {
-                    clientSocket.close();
-                }
-                if (null != out) {
-                    out.close();
-                }
-                if (null != in) {
-                    in.close();
+                Socket clientSocket = serverSocket.accept();
+                ConnectionHandler handler = new ConnectionHandler(clientSocket, this);
+                connections.add(handler);
+                try {
+                    connectionThreads.execute(handler);
+                } catch (RejectedExecutionException e) {
+                    connectionClosed(handler);
+                    handler.close();
                 }
             } catch (IOException e) {
-                LOGGER.log(Level.WARNING, "close socket or stream error!", e);
+                if (isRunning() && !isPause()) {
+                    LOGGER.log(Level.WARNING, "IO exception occured!", e);
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Unknown exception occured!", e);
             }
-
         }
 
     }
 
+    void connectionClosed(ConnectionHandler handler) {
+        connections.remove(handler);
+    }
+
 
     private boolean isRunning() {
         return (state.get() == ServerState.LISTENNING.getValue() ||
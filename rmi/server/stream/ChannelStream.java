@@ -0,0 +1,113 @@
+package rmi.server.stream;
+
+import rmi.config.Config;
+import rmi.protocol.FrameWriter;
+import rmi.protocol.codec.Codec;
+import rmi.server.task.WorkerPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Streams a blocking source, an <code>InputStream</code> or a
+ * <code>ReadableByteChannel</code>, from a thread of its own: one read per
+ * data frame, and no read without a credit.
+ */
+final class ChannelStream extends OutboundStream {
+
+    /**
+     * Threads reading the sources, so slow sources do not hold worker threads
+     */
+    private static final ExecutorService PUMPS = WorkerPool.newThreadPerTaskExecutor("stream");
+
+    private final ReadableByteChannel source;
+    private final Semaphore credits = new Semaphore(Config.STREAM_WINDOW);
+    private volatile boolean cancelled;
+
+    ChannelStream(ReadableByteChannel source, FrameWriter out, Codec codec, int callId, int methodIndex) {
+        super(out, codec, callId, methodIndex);
+        this.source = source;
+    }
+
+    @Override
+    void start() {
+        PUMPS.execute(new Runnable() {
+            @Override
+            public void run() {
+                pump();
+            }
+        });
+    }
+
+    private void pump() {
+        ByteBuffer buf = ByteBuffer.allocate(chunkSize());
+        try {
+            while (true) {
+                credits.acquire();
+                if (cancelled) {
+                    return;
+                }
+
+                int n;
+                buf.clear();
+                try {
+                    n = source.read(buf);
+                } catch (IOException e) {
+                    if (!cancelled) {
+                        sendError(e);
+                    }
+                    return;
+                }
+                if (n < 0) {
+                    sendEnd();
+                    return;
+                }
+                if (n > 0) {
+                    sendData(Arrays.copyOf(buf.array(), n));
+                } else {
+                    // nothing read, the credit is still ours
+                    credits.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // connection gone, the stub will not read the rest
+            cancel();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Credits beyond a window are dropped, a stub never has more than a
+     * window of frames outstanding.
+     */
+    @Override
+    void credit(int n) {
+        int granted = Math.min(n, Config.STREAM_WINDOW - credits.availablePermits());
+        if (granted > 0) {
+            credits.release(granted);
+        }
+    }
+
+    @Override
+    void cancel() {
+        cancelled = true;
+        // wake the pump if it waits for credit, and any blocked read
+        credits.release(Config.STREAM_WINDOW);
+        close();
+    }
+
+    private void close() {
+        try {
+            source.close();
+        } catch (IOException ignored) {
+            // done with the source either way
+        }
+    }
+}
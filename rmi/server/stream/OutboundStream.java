@@ -0,0 +1,121 @@
+package rmi.server.stream;
+
+import rmi.RMIException;
+import rmi.config.Config;
+import rmi.protocol.Frame;
+import rmi.protocol.FrameWriter;
+import rmi.protocol.Protocol;
+import rmi.protocol.codec.Codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.Flow;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A result sent to the stub as a sequence of data frames, at most
+ * <code>Config.STREAM_WINDOW</code> ahead of the stub's credits.
+ */
+public abstract class OutboundStream {
+    private static final Logger LOGGER = Logger.getLogger("OutboundStream");
+
+    private final FrameWriter out;
+    private final Codec codec;
+    private final int callId;
+    private final int methodIndex;
+    private StreamTable table;
+
+    protected OutboundStream(FrameWriter out, Codec codec, int callId, int methodIndex) {
+        this.out = out;
+        this.codec = codec;
+        this.callId = callId;
+        this.methodIndex = methodIndex;
+    }
+
+    /**
+     * Create the stream sending a value of one of the streamed types
+     * (see {@link rmi.protocol.StreamTypes}), <code>null</code> being sent as
+     * an empty stream.
+     */
+    @SuppressWarnings("unchecked")
+    public static OutboundStream of(Object source, FrameWriter out, Codec codec, int callId, int methodIndex) {
+        if (source instanceof Flow.Publisher) {
+            return new PublisherStream((Flow.Publisher<ByteBuffer>) source, out, codec, callId, methodIndex);
+        }
+        ReadableByteChannel channel;
+        if (null == source) {
+            channel = Channels.newChannel(InputStream.nullInputStream());
+        } else if (source instanceof InputStream) {
+            channel = Channels.newChannel((InputStream) source);
+        } else {
+            channel = (ReadableByteChannel) source;
+        }
+        return new ChannelStream(channel, out, codec, callId, methodIndex);
+    }
+
+    public int getCallId() {
+        return callId;
+    }
+
+    void start(StreamTable table) {
+        this.table = table;
+        start();
+    }
+
+    /**
+     * Begin sending, without blocking the caller.
+     */
+    abstract void start();
+
+    /**
+     * The stub consumed <code>n</code> more data frames.
+     */
+    abstract void credit(int n);
+
+    /**
+     * Stop sending and release the source, the stub no longer wants the rest.
+     */
+    abstract void cancel();
+
+    protected void sendData(byte[] chunk) throws IOException {
+        out.write(new Frame(Protocol.STREAM_DATA, callId, methodIndex, chunk));
+    }
+
+    protected void sendEnd() {
+        finished();
+        try {
+            out.write(new Frame(Protocol.STREAM_END, callId, methodIndex, null));
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "stream end not sent", e);
+        }
+    }
+
+    protected void sendError(Throwable cause) {
+        finished();
+        try {
+            byte[] payload;
+            try {
+                payload = codec.encode(cause);
+            } catch (IOException notSerializable) {
+                payload = codec.encode(new RMIException(String.valueOf(cause)));
+            }
+            out.write(new Frame(Protocol.EXCEPTION, callId, methodIndex, payload));
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "stream failure not sent", e);
+        }
+    }
+
+    private void finished() {
+        if (null != table) {
+            table.remove(this);
+        }
+    }
+
+    protected static int chunkSize() {
+        return Config.STREAM_CHUNK_SIZE;
+    }
+}
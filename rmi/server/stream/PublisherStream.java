@@ -0,0 +1,136 @@
+package rmi.server.stream;
+
+import rmi.config.Config;
+import rmi.protocol.FrameWriter;
+import rmi.protocol.codec.Codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+
+/**
+ * Streams a <code>Flow.Publisher</code>. Credits count data frames, so items
+ * are requested one at a time while there is credit left; an item larger
+ * than a chunk is split, and may overdraw the credit by the excess frames.
+ */
+final class PublisherStream extends OutboundStream implements Flow.Subscriber<ByteBuffer> {
+    private final Flow.Publisher<ByteBuffer> publisher;
+
+    /**
+     * Flow control state, guarded by <code>this</code>
+     */
+    private Flow.Subscription subscription;
+    private long credits = Config.STREAM_WINDOW;
+    private boolean requested;
+    private boolean done;
+
+    PublisherStream(Flow.Publisher<ByteBuffer> publisher, FrameWriter out, Codec codec, int callId,
+            int methodIndex) {
+        super(out, codec, callId, methodIndex);
+        this.publisher = publisher;
+    }
+
+    @Override
+    void start() {
+        publisher.subscribe(this);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription s) {
+        synchronized (this) {
+            if (done || null != subscription) {
+                s.cancel();
+                return;
+            }
+            subscription = s;
+        }
+        requestMore();
+    }
+
+    @Override
+    public void onNext(ByteBuffer item) {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            requested = false;
+        }
+
+        int frames = 0;
+        try {
+            while (item.hasRemaining()) {
+                byte[] chunk = new byte[Math.min(item.remaining(), chunkSize())];
+                item.get(chunk);
+                sendData(chunk);
+                frames++;
+            }
+        } catch (IOException e) {
+            // connection gone
+            cancel();
+            return;
+        }
+
+        synchronized (this) {
+            credits -= frames;
+        }
+        requestMore();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        if (finish()) {
+            sendError(t);
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        if (finish()) {
+            sendEnd();
+        }
+    }
+
+    @Override
+    void credit(int n) {
+        synchronized (this) {
+            // a stub never has more than a window of frames outstanding
+            credits = Math.min(credits + n, Config.STREAM_WINDOW);
+        }
+        requestMore();
+    }
+
+    @Override
+    void cancel() {
+        Flow.Subscription s;
+        synchronized (this) {
+            done = true;
+            s = subscription;
+        }
+        if (null != s) {
+            s.cancel();
+        }
+    }
+
+    private synchronized boolean finish() {
+        if (done) {
+            return false;
+        }
+        done = true;
+        return true;
+    }
+
+    /**
+     * Request the next item if there is credit and none is outstanding.
+     */
+    private void requestMore() {
+        Flow.Subscription s;
+        synchronized (this) {
+            if (done || requested || null == subscription || credits <= 0) {
+                return;
+            }
+            requested = true;
+            s = subscription;
+        }
+        s.request(1);
+    }
+}
@@ -0,0 +1,75 @@
+package rmi.server.stream;
+
+import rmi.protocol.Frame;
+import rmi.protocol.Protocol;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Results being streamed over one connection, by call id.
+ */
+public class StreamTable {
+    private static final Logger LOGGER = Logger.getLogger("StreamTable");
+
+    private final ConcurrentHashMap<Integer, OutboundStream> streams =
+            new ConcurrentHashMap<Integer, OutboundStream>();
+
+    private volatile boolean closed;
+
+    /**
+     * Register and start a stream. A stream added after the connection
+     * closed is cancelled right away.
+     */
+    public void start(OutboundStream stream) {
+        streams.put(stream.getCallId(), stream);
+        if (closed) {
+            remove(stream);
+            stream.cancel();
+            return;
+        }
+        stream.start(this);
+    }
+
+    void remove(OutboundStream stream) {
+        streams.remove(stream.getCallId(), stream);
+    }
+
+    /**
+     * Apply a STREAM_CREDIT or STREAM_CANCEL frame from the stub.
+     */
+    public void control(Frame frame) {
+        OutboundStream stream = streams.get(frame.getCallId());
+        if (null == stream) {
+            // finished while the frame was in flight
+            LOGGER.log(Level.FINE, "No stream for " + frame);
+            return;
+        }
+        if (Protocol.STREAM_CANCEL == frame.getType()) {
+            remove(stream);
+            stream.cancel();
+            return;
+        }
+        // the count comes from the stub, a bad one only costs the frame
+        int credit = (null != frame.getPayload() && frame.getPayload().length == 4)
+                ? ByteBuffer.wrap(frame.getPayload()).getInt() : 0;
+        if (credit > 0) {
+            stream.credit(credit);
+        } else {
+            LOGGER.log(Level.WARNING, "Bad credit frame " + frame);
+        }
+    }
+
+    /**
+     * Cancel every stream, the connection is gone.
+     */
+    public void close() {
+        closed = true;
+        for (OutboundStream stream : streams.values()) {
+            remove(stream);
+            stream.cancel();
+        }
+    }
+}
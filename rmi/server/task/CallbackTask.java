@@ -1,5 +1,9 @@
 package rmi.server.task;
 
+import rmi.RMIException;
+import rmi.events.DispatchEvent;
+import rmi.metrics.MethodMetrics;
+
 import java.util.concurrent.Callable;
 
 /**
@@ -13,27 +17,106 @@ public final class CallbackTask implements Runnable {
     /**
      * Actual task to run
      */
-    protected final Callable task;
+    private final Callable<?> task;
 
     /**
      * Callback object
      */
-    protected final Callback callback;
+    private final Callback callback;
+
+    /**
+     * Where the phases of the call are recorded, or <code>null</code>
+     */
+    private final MethodMetrics metrics;
 
+    /**
+     * When the task was created, just before it is submitted
+     */
+    private final long submittedAt;
 
-    public CallbackTask(Callable task, Callback callback) {
+    /**
+     * Flight recorder event of the call, with its interface and arguments
+     * filled in, or <code>null</code> when not recorded
+     */
+    private final DispatchEvent event;
+
+
+    public CallbackTask(Callable<?> task, Callback callback) {
+        this(task, callback, null, null);
+    }
+
+    public CallbackTask(Callable<?> task, Callback callback, MethodMetrics metrics, DispatchEvent event) {
         this.task = task;
         this.callback = callback;
+        this.metrics = metrics;
+        this.event = event;
+        this.submittedAt = (null == metrics) ? 0 : System.nanoTime();
     }
 
     @Override
     public void run() {
+        if (null != metrics) {
+            runMeasured();
+            return;
+        }
         try {
             Object retVal = task.call();
             callback.onSuccess(retVal);
-        } catch (Exception e) {
-            callback.onFail(e);
+        } catch (Throwable t) {
+            callback.onFail(asException(t));
+        }
+
+    }
+
+    /**
+     * An error thrown by the service method, e.g. an
+     * <code>AssertionError</code>, fails the call like an exception would,
+     * rather than killing the worker and leaving the stub waiting.
+     */
+    private static Exception asException(Throwable t) {
+        return (t instanceof Exception) ? (Exception) t : new RMIException("Call failed with " + t, t);
+    }
+
+    /**
+     * Fail the task without running it.
+     */
+    public void reject(Exception cause) {
+        callback.onFail(cause);
+    }
+
+    private void runMeasured() {
+        if (null != event) {
+            event.begin();
+        }
+        long started = System.nanoTime();
+        Object retVal = null;
+        Exception failure = null;
+        try {
+            retVal = task.call();
+        } catch (Throwable t) {
+            failure = asException(t);
         }
+        long executed = System.nanoTime();
+        if (null == failure) {
+            try {
+                callback.onSuccess(retVal);
+            } catch (Throwable t) {
+                callback.onFail(asException(t));
+            }
+        } else {
+            callback.onFail(failure);
+        }
+        metrics.completed(started - submittedAt, executed - started, System.nanoTime() - executed);
 
+        if (null == event) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.method = metrics.getSignature();
+            event.queueWait = started - submittedAt;
+            event.failed = null != failure || event.failed;
+            event.commit();
+        }
     }
 }
@@ -0,0 +1,85 @@
+package rmi.server.task;
+
+import rmi.protocol.FrameWriter;
+import rmi.protocol.codec.Codec;
+import rmi.protocol.codec.Codecs;
+import rmi.server.stream.StreamTable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * What calls arriving on one connection reply through: the frame writer,
+ * the codec negotiated by the stub, and the results being streamed.
+ */
+public class ConnectionContext {
+    private final FrameWriter out;
+    private final Runnable disconnect;
+    private final StreamTable streams = new StreamTable();
+
+    /**
+     * Java serialization until the stub's HELLO says otherwise
+     */
+    private volatile Codec codec = Codecs.JAVA;
+
+    private volatile boolean closed;
+
+    /**
+     * Calls received and not answered yet
+     */
+    private final AtomicInteger callsInFlight = new AtomicInteger();
+
+    /**
+     * @param disconnect closes the connection from any thread
+     */
+    public ConnectionContext(FrameWriter out, Runnable disconnect) {
+        this.out = out;
+        this.disconnect = disconnect;
+    }
+
+    public FrameWriter getOut() {
+        return out;
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    public void setCodec(Codec codec) {
+        this.codec = codec;
+    }
+
+    public StreamTable getStreams() {
+        return streams;
+    }
+
+    public void callStarted() {
+        callsInFlight.incrementAndGet();
+    }
+
+    public void callFinished() {
+        callsInFlight.decrementAndGet();
+    }
+
+    public int getCallsInFlight() {
+        return callsInFlight.get();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Close the connection, e.g. because its stub does not keep up.
+     */
+    public void disconnect() {
+        disconnect.run();
+    }
+
+    /**
+     * The connection is closed, stop streaming to it.
+     */
+    public void close() {
+        closed = true;
+        streams.close();
+    }
+}
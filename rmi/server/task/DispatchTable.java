@@ -0,0 +1,58 @@
+package rmi.server.task;
+
+import rmi.protocol.MethodTable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * Method handles for every method of a remote interface, indexed like its
+ * {@link MethodTable}.
+ *
+ * Each handle is adapted once to the uniform type
+ * <code>(Object target, Object[] args)Object</code>, so a call is a single
+ * <code>invokeExact</code> without the per-call access checks and argument
+ * copying of <code>Method.invoke</code>, and the JIT can inline through it.
+ */
+public final class DispatchTable {
+    private static final MethodType INVOKER_TYPE =
+            MethodType.methodType(Object.class, Object.class, Object[].class);
+
+    private final MethodHandle[] invokers;
+
+    public DispatchTable(MethodTable methodTable) {
+        invokers = new MethodHandle[methodTable.size()];
+        for (int i = 0; i < invokers.length; i++) {
+            invokers[i] = invoker(methodTable.methodAt(i));
+        }
+    }
+
+    /**
+     * @return the invoker of the method at the index, or <code>null</code> if
+     * out of range
+     */
+    public MethodHandle invokerAt(int index) {
+        if (index < 0 || index >= invokers.length) {
+            return null;
+        }
+        return invokers[index];
+    }
+
+    private static MethodHandle invoker(Method method) {
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            // remote interface not public, same as Method.invoke after setAccessible
+            method.setAccessible(true);
+            try {
+                handle = MethodHandles.lookup().unreflect(method);
+            } catch (IllegalAccessException denied) {
+                throw new Error("Cannot access remote method " + method, denied);
+            }
+        }
+        return handle.asSpreader(Object[].class, method.getParameterTypes().length).asType(INVOKER_TYPE);
+    }
+}
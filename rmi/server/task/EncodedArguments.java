@@ -0,0 +1,33 @@
+package rmi.server.task;
+
+import rmi.RMIException;
+import rmi.protocol.codec.Codec;
+
+import java.lang.reflect.Method;
+
+/**
+ * Arguments of a call as read from the connection, decoded by the worker
+ * thread that runs the call so that the thread reading the connection, the
+ * selector thread of a NIO server, never waits for a codec.
+ */
+public final class EncodedArguments {
+    private final Codec codec;
+    private final Method method;
+    private final Class<?>[] parameterTypes;
+    private final byte[] payload;
+
+    public EncodedArguments(Codec codec, Method method, Class<?>[] parameterTypes, byte[] payload) {
+        this.codec = codec;
+        this.method = method;
+        this.parameterTypes = parameterTypes;
+        this.payload = payload;
+    }
+
+    public Object[] decode() throws RMIException {
+        try {
+            return codec.decodeArguments(parameterTypes, payload);
+        } catch (Exception e) {
+            throw new RMIException("Cannot unmarshal arguments of " + method.getName(), e);
+        }
+    }
+}
@@ -1,27 +1,101 @@
 package rmi.server.task;
 
-import java.lang.reflect.Method;
+import rmi.trace.Span;
+import rmi.trace.TraceContext;
+import rmi.trace.Tracing;
+
+import java.lang.invoke.MethodHandle;
 import java.util.concurrent.Callable;
 
 /**
  * Represents a RMI task
  */
 public class MethodInvocation implements Callable<Object> {
+    private static final Object[] NO_ARGS = new Object[0];
+
     /**
      * Service implementaino instance
      */
     private Object instance;
-    private Method method;
+
+    /**
+     * Invoker from the skeleton's {@link DispatchTable}
+     */
+    private MethodHandle invoker;
     private Object[] args;
 
-    public MethodInvocation(Object instance, Method method, Object[] args) {
+    /**
+     * Arguments still to decode, or <code>null</code> once <code>args</code>
+     * is set
+     */
+    private EncodedArguments encoded;
+
+    /**
+     * Context of the server span of a traced call, attached to the worker
+     * thread while the method runs, or <code>null</code>
+     */
+    private TraceContext trace;
+
+    /**
+     * Name of the server span
+     */
+    private String spanName;
+
+    public MethodInvocation(Object instance, MethodHandle invoker, Object[] args) {
+        this(instance, invoker, args, null, null);
+    }
+
+    public MethodInvocation(Object instance, MethodHandle invoker, Object[] args, TraceContext trace,
+            String spanName) {
         this.instance = instance;
-        this.method = method;
-        this.args = args;
+        this.invoker = invoker;
+        this.args = (null == args) ? NO_ARGS : args;
+        this.trace = trace;
+        this.spanName = spanName;
+    }
+
+    /**
+     * Create the invocation of a call whose arguments are decoded when it
+     * runs.
+     */
+    public MethodInvocation(Object instance, MethodHandle invoker, EncodedArguments encoded, TraceContext trace,
+            String spanName) {
+        this(instance, invoker, (Object[]) null, trace, spanName);
+        this.encoded = encoded;
     }
 
     @Override
     public Object call() throws Exception {
-        return method.invoke(instance, args);
+        if (null != encoded) {
+            args = encoded.decode();
+            encoded = null;
+        }
+        if (null == trace) {
+            return invoke();
+        }
+        TraceContext previous = Tracing.attach(trace);
+        long startMicros = Tracing.nowMicros();
+        long startNanos = System.nanoTime();
+        boolean failed = true;
+        try {
+            Object retVal = invoke();
+            failed = false;
+            return retVal;
+        } finally {
+            Tracing.attach(previous);
+            Tracing.finish(trace, Span.Kind.SERVER, spanName, startMicros, startNanos, failed);
+        }
+    }
+
+    private Object invoke() throws Exception {
+        try {
+            return (Object) invoker.invokeExact(instance, args);
+        } catch (Exception e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new Exception(t);
+        }
     }
 }
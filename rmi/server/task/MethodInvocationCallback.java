@@ -1,40 +1,176 @@
 package rmi.server.task;
 
+import rmi.RMIException;
+import rmi.events.DispatchEvent;
+import rmi.metrics.MethodMetrics;
+import rmi.protocol.FileBody;
+import rmi.protocol.Frame;
+import rmi.protocol.FrameWriter;
+import rmi.protocol.Protocol;
+import rmi.protocol.StreamTypes;
+import rmi.protocol.codec.Codec;
+import rmi.server.stream.OutboundStream;
+import rmi.server.stream.StreamTable;
+
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.lang.reflect.InvocationTargetException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class MethodInvocationCallback implements Callback {
     private static final Logger LOGGER = Logger.getLogger("MethodInvocationCallback");
-    private ObjectOutputStream out;
+    private FrameWriter out;
+    private int callId;
+    private int methodIndex;
+    private Codec codec;
+    private StreamTable streams;
+    private Class<?> returnType;
+
+    /**
+     * Where errors and reply sizes are counted, or <code>null</code>
+     */
+    private MethodMetrics metrics;
+
+    /**
+     * Flight recorder event of the call, or <code>null</code>
+     */
+    private DispatchEvent event;
+
+    private ConnectionContext context;
+
+    /**
+     * Set once the call counts as answered, only touched by the thread
+     * answering it
+     */
+    private boolean finished;
 
-    public MethodInvocationCallback(ObjectOutputStream out) {
-        this.out = out;
+    public MethodInvocationCallback(ConnectionContext context, int callId, int methodIndex, Class<?> returnType) {
+        this(context, callId, methodIndex, returnType, null, null);
+    }
+
+    public MethodInvocationCallback(ConnectionContext context, int callId, int methodIndex, Class<?> returnType,
+            MethodMetrics metrics, DispatchEvent event) {
+        this.metrics = metrics;
+        this.event = event;
+        this.context = context;
+        this.out = context.getOut();
+        this.codec = context.getCodec();
+        this.streams = context.getStreams();
+        this.returnType = returnType;
+        this.callId = callId;
+        this.methodIndex = methodIndex;
     }
 
     @Override
     public void onSuccess(Object retVal) {
         try {
-            out.writeObject(retVal);
-        } catch (Exception e) {
-            LOGGER.log(Level.WARNING, "MethodInvocationCallback: write object exception!", e);
+            if (FileBody.class == returnType) {
+                replyBody((FileBody) retVal);
+                return;
+            }
+            if (StreamTypes.isStream(returnType)) {
+                replyStream(retVal);
+                return;
+            }
+            try {
+                reply(Protocol.RETURN, codec.encodeResult(returnType, retVal));
+            } catch (IOException e) {
+                // e.g. return value not serializable, let the stub know
+                onFail(new RMIException("Cannot marshal return value", e));
+            }
+        } finally {
+            finish();
+        }
+    }
 
+    @Override
+    public void onFail(Exception e) {
+        try {
+            fail(e);
         } finally {
-            if (null != out) {
-                try {
-                    out.close();
-                } catch (IOException e) {
-                    LOGGER.log(Level.WARNING, "MethodInvocationCallback: close output stream error!", e);
-                }
+            finish();
+        }
+    }
+
+    private void fail(Exception e) {
+        if (null != metrics) {
+            metrics.failed();
+        }
+        if (null != event) {
+            event.failed = true;
+        }
+        Throwable cause = e;
+        if (e instanceof InvocationTargetException && null != e.getCause()) {
+            // exception thrown by the service implementation itself
+            cause = e.getCause();
+        }
+
+        try {
+            reply(Protocol.EXCEPTION, codec.encode(cause));
+        } catch (IOException ioe) {
+            LOGGER.log(Level.WARNING, "MethodInvocationCallback: marshal exception error!", ioe);
+            try {
+                reply(Protocol.EXCEPTION, codec.encode(new RMIException(String.valueOf(cause))));
+            } catch (IOException fatal) {
+                LOGGER.log(Level.WARNING, "MethodInvocationCallback: marshal RMIException error!", fatal);
             }
+        }
+    }
 
+    /**
+     * The call is answered, or could not be: a streamed result still flows.
+     */
+    private void finish() {
+        if (!finished) {
+            finished = true;
+            context.callFinished();
         }
+    }
 
+    /**
+     * Send a body as the raw payload of the reply, see {@link FileBody}.
+     */
+    private void replyBody(FileBody body) {
+        if (null == body) {
+            body = FileBody.wrap(new byte[0]);
+        }
+        try {
+            out.write(Frame.header(Protocol.RETURN, callId, methodIndex, (int) body.length()), body);
+            if (null != metrics) {
+                metrics.replied(body.length());
+            }
+            if (null != event) {
+                event.replyBytes = body.length();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "MethodInvocationCallback: write body exception!", e);
+        }
     }
 
-    @Override
-    public void onFail(Exception e) {
+    /**
+     * Announce a streamed result with an empty RETURN, then stream it.
+     */
+    private void replyStream(Object source) {
+        OutboundStream stream = OutboundStream.of(source, out, codec, callId, methodIndex);
+        reply(Protocol.RETURN, null);
+        streams.start(stream);
+    }
 
+    /**
+     * Write the response frame, other calls may be answering on the same
+     * connection concurrently.
+     */
+    private void reply(byte type, byte[] payload) {
+        try {
+            out.write(new Frame(type, callId, methodIndex, payload));
+            if (null != metrics && null != payload) {
+                metrics.replied(payload.length);
+            }
+            if (null != event && null != payload) {
+                event.replyBytes = payload.length;
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "MethodInvocationCallback: write frame exception!", e);
+        }
     }
 }
@@ -0,0 +1,35 @@
+package rmi.server.task;
+
+import rmi.RMIException;
+
+/**
+ * What a {@link WorkerPool} does with a call when all threads are busy and the
+ * queue is full.
+ */
+public interface RejectionPolicy {
+
+    public void rejected(CallbackTask task, WorkerPool pool);
+
+    /**
+     * Fail the call at once, the stub receives an "overloaded"
+     * <code>RMIException</code> and may retry later.
+     */
+    RejectionPolicy OVERLOADED = new RejectionPolicy() {
+        @Override
+        public void rejected(CallbackTask task, WorkerPool pool) {
+            task.reject(new RMIException("Server overloaded: " + pool.getQueueDepth()
+                    + " calls queued, " + pool.getActiveCount() + " running"));
+        }
+    };
+
+    /**
+     * Run the call on the thread that read it, slowing that connection down.
+     * Only suitable when connections have their own reading thread.
+     */
+    RejectionPolicy CALLER_RUNS = new RejectionPolicy() {
+        @Override
+        public void rejected(CallbackTask task, WorkerPool pool) {
+            task.run();
+        }
+    };
+}
@@ -0,0 +1,218 @@
+package rmi.server.task;
+
+import rmi.RMIException;
+import rmi.config.Config;
+import rmi.events.PoolExhaustedEvent;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Threads running the remote calls of one skeleton.
+ *
+ * A bounded pool keeps <code>minThreads</code> threads, queues up to
+ * <code>queueCapacity</code> calls, and only then grows towards
+ * <code>maxThreads</code>; threads above the minimum exit after
+ * <code>keepAliveSeconds</code> idle. A call arriving when the queue is full
+ * and every thread is busy is handed to the {@link RejectionPolicy}.
+ *
+ * A thread-per-call pool (see {@link #threadPerCall}) instead starts a new
+ * thread for every call, virtual when the runtime supports them, so blocking
+ * service methods never wait for a free worker.
+ */
+public class WorkerPool {
+    private static final Logger LOGGER = Logger.getLogger("WorkerPool");
+
+    private final ExecutorService executor;
+
+    /**
+     * The bounded pool, <code>null</code> in thread-per-call mode
+     */
+    private final ThreadPoolExecutor pool;
+
+    private final RejectionPolicy rejectionPolicy;
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Calls running and completed, only tracked in thread-per-call mode
+     */
+    private final AtomicInteger running = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+
+    public WorkerPool(final String name, int minThreads, int maxThreads, long keepAliveSeconds,
+            int queueCapacity, RejectionPolicy rejectionPolicy) {
+        this.rejectionPolicy = rejectionPolicy;
+        this.pool = new ThreadPoolExecutor(minThreads, maxThreads, keepAliveSeconds, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, name + "-worker-" + count.incrementAndGet());
+                    }
+                },
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+                        rejected.increment();
+                        PoolExhaustedEvent event = PoolExhaustedEvent.ifEnabled();
+                        if (null != event && event.shouldCommit()) {
+                            event.pool = "worker";
+                            event.name = name;
+                            event.commit();
+                        }
+                        WorkerPool.this.rejectionPolicy.rejected((CallbackTask) r, WorkerPool.this);
+                    }
+                });
+        this.executor = pool;
+    }
+
+    private WorkerPool(ExecutorService executor) {
+        this.executor = executor;
+        this.pool = null;
+        this.rejectionPolicy = RejectionPolicy.OVERLOADED;
+    }
+
+    /**
+     * Create a pool sized by {@link Config}, failing calls with an
+     * "overloaded" exception when saturated.
+     */
+    public static WorkerPool createDefault(String name) {
+        return new WorkerPool(name, Config.MIN_THREAD, Config.MAX_THREAD, Config.KEEP_ALIVE_TIME,
+                Config.WORKER_QUEUE_SIZE, RejectionPolicy.OVERLOADED);
+    }
+
+    /**
+     * Create a pool running every call on a thread of its own.
+     */
+    public static WorkerPool threadPerCall(String name) {
+        return new WorkerPool(newThreadPerTaskExecutor(name + "-worker"));
+    }
+
+    /**
+     * Return an executor starting a new thread per task: a virtual thread if
+     * the runtime has them (JDK 21 and later), otherwise a platform thread.
+     */
+    public static ExecutorService newThreadPerTaskExecutor(final String name) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            // not available, or preview not enabled
+            LOGGER.log(Level.FINE, "virtual threads unavailable, using platform threads for " + name);
+        }
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    public void submit(final CallbackTask task) {
+        if (executor.isShutdown()) {
+            task.reject(new RMIException("Server is shutting down"));
+            return;
+        }
+        if (null != pool) {
+            pool.execute(task);
+            return;
+        }
+
+        running.incrementAndGet();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        running.decrementAndGet();
+                        completed.increment();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            running.decrementAndGet();
+            task.reject(new RMIException("Server is shutting down"));
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * @return <code>true</code> if every call gets a thread of its own
+     */
+    public boolean isThreadPerCall() {
+        return null == pool;
+    }
+
+    /**
+     * Change the thread bounds of a running pool.
+     *
+     * @throws UnsupportedOperationException in thread-per-call mode
+     */
+    public void resize(int minThreads, int maxThreads) {
+        if (null == pool) {
+            throw new UnsupportedOperationException("Thread-per-call pools have no size");
+        }
+        if (minThreads < 0 || maxThreads <= 0 || minThreads > maxThreads) {
+            throw new IllegalArgumentException("Bad pool size [" + minThreads + ", " + maxThreads + "]");
+        }
+        // keep core <= max at every step
+        if (maxThreads >= pool.getCorePoolSize()) {
+            pool.setMaximumPoolSize(maxThreads);
+            pool.setCorePoolSize(minThreads);
+        } else {
+            pool.setCorePoolSize(minThreads);
+            pool.setMaximumPoolSize(maxThreads);
+        }
+    }
+
+    public int getMinThreads() {
+        return (null == pool) ? 0 : pool.getCorePoolSize();
+    }
+
+    public int getMaxThreads() {
+        return (null == pool) ? Integer.MAX_VALUE : pool.getMaximumPoolSize();
+    }
+
+    public int getPoolSize() {
+        return (null == pool) ? running.get() : pool.getPoolSize();
+    }
+
+    public int getActiveCount() {
+        return (null == pool) ? running.get() : pool.getActiveCount();
+    }
+
+    public int getQueueDepth() {
+        return (null == pool) ? 0 : pool.getQueue().size();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getCompletedCount() {
+        return (null == pool) ? completed.sum() : pool.getCompletedTaskCount();
+    }
+}
@@ -0,0 +1,320 @@
+package rmi.service.client;
+
+import rmi.NoticeListener;
+import rmi.RMIException;
+import rmi.Stub;
+import rmi.config.Config;
+import rmi.protocol.FileBody;
+import rmi.service.server.BlockSignatures;
+import rmi.service.server.FileChange;
+import rmi.service.server.FileDelta;
+import rmi.service.server.FileServer;
+import rmi.service.server.VersionedContent;
+
+import java.io.FileNotFoundException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A file server stub remembering the sizes and contents it has fetched, kept
+ * fresh by the change notices the server publishes.
+ *
+ * The client subscribes to the notices of the stub's skeleton (see
+ * {@link Stub#subscribe}) before caching anything. A cached file is fresh
+ * until a {@link FileChange} names it or its directory, and fresh answers
+ * never leave the client. Results fetched while a notice arrived, and every
+ * file once the subscription is lost, are only kept as stale copies: reading
+ * one asks the server with {@link FileServer#retrieveIfChanged}, which costs a
+ * round trip but no data if the version is unchanged. Without notices the
+ * client thus still saves the transfer of unchanged files.
+ *
+ * Only absolute paths are cached, since notices name files by their absolute
+ * path on the server. Contents are kept on the heap up to
+ * <code>maxBytes</code>, and at most <code>Config.FILE_ATTRIBUTES_CACHED</code>
+ * files, least recently used first; bodies, deltas and ranges not
+ * covered by cached contents always go to the server.
+ */
+public class CachingFileClient implements FileServer, NoticeListener {
+    private final FileServer stub;
+    private final long maxBytes;
+
+    /**
+     * Cached files in access order, guarded by itself
+     */
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<Path, Entry>(16, 0.75f, true);
+    private long cachedBytes;
+
+    /**
+     * Incremented by every notice, guarded by <code>entries</code>
+     */
+    private long generation;
+    private boolean subscribed;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+
+    public CachingFileClient(FileServer stub) {
+        this(stub, Config.CLIENT_CACHE_MAX_BYTES);
+    }
+
+    public CachingFileClient(FileServer stub, long maxBytes) {
+        this.stub = stub;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public long size(String path) throws FileNotFoundException, RMIException {
+        Path file = key(path);
+        if (null != file) {
+            synchronized (entries) {
+                Entry entry = entries.get(file);
+                if (null != entry && entry.fresh) {
+                    hits.increment();
+                    return entry.size;
+                }
+            }
+        }
+
+        long generation = prepare(file);
+        long size = stub.size(path);
+        if (null != file) {
+            store(file, new Entry(size, null, null), generation);
+        }
+        return size;
+    }
+
+    @Override
+    public byte[] retrive(String path) throws FileNotFoundException, RMIException {
+        Path file = key(path);
+        if (null == file) {
+            misses.increment();
+            return stub.retrive(path);
+        }
+
+        Entry known;
+        synchronized (entries) {
+            known = entries.get(file);
+            if (null != known && null != known.content && known.fresh) {
+                hits.increment();
+                return known.content.clone();
+            }
+        }
+
+        long generation = prepare(file);
+        String knownVersion = (null == known || null == known.content) ? null : known.version;
+        VersionedContent reply = stub.retrieveIfChanged(path, knownVersion);
+        if (!reply.isModified()) {
+            notModified.increment();
+            store(file, known, generation);
+            return known.content.clone();
+        }
+        byte[] content = reply.content();
+        if (content.length <= maxBytes) {
+            store(file, new Entry(content.length, content.clone(), reply.version()), generation);
+        }
+        return content;
+    }
+
+    @Override
+    public VersionedContent retrieveIfChanged(String path, String knownVersion)
+            throws FileNotFoundException, RMIException {
+        Path file = key(path);
+        if (null != file) {
+            synchronized (entries) {
+                Entry entry = entries.get(file);
+                if (null != entry && null != entry.content && entry.fresh) {
+                    hits.increment();
+                    return new VersionedContent(entry.version,
+                            entry.version.equals(knownVersion) ? null : entry.content.clone());
+                }
+            }
+        }
+        misses.increment();
+        return stub.retrieveIfChanged(path, knownVersion);
+    }
+
+    @Override
+    public byte[] retrieve(String path, long offset, int length) throws FileNotFoundException, RMIException {
+        Path file = key(path);
+        if (null != file && offset >= 0 && length >= 0) {
+            synchronized (entries) {
+                Entry entry = entries.get(file);
+                if (null != entry && null != entry.content && entry.fresh) {
+                    hits.increment();
+                    int from = (int) Math.min(offset, entry.content.length);
+                    return Arrays.copyOfRange(entry.content, from, (int) Math.min(entry.content.length,
+                            (long) from + length));
+                }
+            }
+        }
+        misses.increment();
+        return stub.retrieve(path, offset, length);
+    }
+
+    @Override
+    public FileDelta retrieveDelta(String path, BlockSignatures signatures)
+            throws FileNotFoundException, RMIException {
+        return stub.retrieveDelta(path, signatures);
+    }
+
+    @Override
+    public FileBody retrieveBody(String path) throws FileNotFoundException, RMIException {
+        misses.increment();
+        return stub.retrieveBody(path);
+    }
+
+    @Override
+    public void notice(Object notice) {
+        if (!(notice instanceof FileChange)) {
+            return;
+        }
+        FileChange change = (FileChange) notice;
+        Path changed = Paths.get(change.path()).normalize();
+        synchronized (entries) {
+            generation++;
+            if (!change.directory()) {
+                expire(entries.get(changed));
+                return;
+            }
+            for (Map.Entry<Path, Entry> entry : entries.entrySet()) {
+                if (changed.equals(entry.getKey().getParent())) {
+                    expire(entry.getValue());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void lost() {
+        synchronized (entries) {
+            generation++;
+            subscribed = false;
+            for (Entry entry : entries.values()) {
+                expire(entry);
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of reads answered by the server with "not modified"
+     */
+    public long getNotModified() {
+        return notModified.sum();
+    }
+
+    /**
+     * @return the cache key of a path, <code>null</code> if it is not cached
+     */
+    private static Path key(String path) {
+        Path file = Paths.get(path);
+        return file.isAbsolute() ? file.normalize() : null;
+    }
+
+    /**
+     * Count a miss and make sure notices are received before fetching.
+     *
+     * @return the generation to store the fetched result with, or -1 if it
+     * can only be kept stale
+     */
+    private long prepare(Path file) {
+        misses.increment();
+        if (null == file) {
+            return -1;
+        }
+        synchronized (entries) {
+            if (subscribed) {
+                return generation;
+            }
+        }
+        try {
+            // outside the lock, the connection reader delivers notices under it
+            Stub.subscribe(stub, this);
+        } catch (RMIException e) {
+            return -1;
+        }
+        synchronized (entries) {
+            subscribed = true;
+            return generation;
+        }
+    }
+
+    /**
+     * Cache a fetched result, fresh unless a notice arrived since it was
+     * requested; sizes alone are not worth keeping stale.
+     */
+    private void store(Path file, Entry entry, long requested) {
+        synchronized (entries) {
+            boolean fresh = requested >= 0 && requested == generation && subscribed;
+            if (!fresh && null == entry.content) {
+                return;
+            }
+            Entry previous = entries.get(file);
+            if (null != previous) {
+                entries.remove(file);
+                cachedBytes -= previous.bytes();
+            }
+            entry.fresh = fresh;
+            entries.put(file, entry);
+            cachedBytes += entry.bytes();
+
+            Iterator<Entry> eldest = entries.values().iterator();
+            while ((cachedBytes > maxBytes || entries.size() > Config.FILE_ATTRIBUTES_CACHED) && eldest.hasNext()) {
+                Entry old = eldest.next();
+                if (old == entry) {
+                    break;
+                }
+                cachedBytes -= old.bytes();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Called with the lock held
+     */
+    private static void expire(Entry entry) {
+        if (null != entry) {
+            entry.fresh = false;
+        }
+    }
+
+    private static final class Entry {
+        final long size;
+
+        /**
+         * <code>null</code> if only the size was fetched
+         */
+        final byte[] content;
+        final String version;
+
+        /**
+         * No notice has named the file since it was fetched, guarded by
+         * <code>entries</code>
+         */
+        boolean fresh;
+
+        Entry(long size, byte[] content, String version) {
+            this.size = size;
+            this.content = content;
+            this.version = version;
+        }
+
+        long bytes() {
+            return (null == content) ? 0 : content.length;
+        }
+    }
+}
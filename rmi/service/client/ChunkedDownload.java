@@ -0,0 +1,200 @@
+package rmi.service.client;
+
+import rmi.RMIException;
+import rmi.config.Config;
+import rmi.service.server.FileServer;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Download of one remote file as ranged chunks fetched in parallel.
+ *
+ * Each chunk is one {@link FileServer#retrieve(String, long, int)} call, made
+ * from its own thread so pooled stubs carry the chunks over separate
+ * connections, and is written at its offset in the target channel. A chunk
+ * failing with an <code>RMIException</code>, or returned as <code>null</code>,
+ * is retried; if it still fails, {@link #run} throws once the other chunks
+ * are done, and calling it again fetches only the missing chunks.
+ */
+public class ChunkedDownload {
+    private static final Logger LOGGER = Logger.getLogger("ChunkedDownload");
+
+    private final FileServer server;
+    private final String path;
+    private final FileChannel target;
+    private final int chunkSize;
+    private final int parallelism;
+
+    /**
+     * Size of the remote file, -1 until first read
+     */
+    private long size = -1;
+
+    /**
+     * Chunks written to the target, guarded by itself
+     */
+    private final BitSet done = new BitSet();
+
+    public ChunkedDownload(FileServer server, String path, FileChannel target) {
+        this(server, path, target, Config.DOWNLOAD_CHUNK_SIZE, Config.DOWNLOAD_PARALLELISM);
+    }
+
+    public ChunkedDownload(FileServer server, String path, FileChannel target, int chunkSize, int parallelism) {
+        if (chunkSize <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("chunkSize and parallelism must be positive");
+        }
+        this.server = server;
+        this.path = path;
+        this.target = target;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Fetch every chunk not written yet.
+     *
+     * @return the size of the file
+     * @throws FileNotFoundException if the file does not exist on the server
+     * @throws RMIException if a chunk still fails after
+     * <code>Config.DOWNLOAD_ATTEMPTS</code> attempts
+     * @throws IOException if the target cannot be written, or the file
+     * shrinks during the download
+     */
+    public long run() throws IOException, RMIException {
+        if (size < 0) {
+            size = server.size(path);
+        }
+
+        List<Integer> missing = new ArrayList<Integer>();
+        synchronized (done) {
+            for (int i = 0; i < chunkCount(); i++) {
+                if (!done.get(i)) {
+                    missing.add(i);
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return size;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, missing.size()),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "download-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        try {
+            List<Future<Void>> chunks = new ArrayList<Future<Void>>();
+            for (final int chunk : missing) {
+                chunks.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException, RMIException {
+                        fetch(chunk);
+                        return null;
+                    }
+                }));
+            }
+            return awaitAll(chunks);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return <code>true</code> once every chunk has been written
+     */
+    public boolean isComplete() {
+        synchronized (done) {
+            return size >= 0 && done.cardinality() == chunkCount();
+        }
+    }
+
+    private int chunkCount() {
+        return (int) ((size + chunkSize - 1) / chunkSize);
+    }
+
+    /**
+     * Wait for every chunk, then throw the first failure if any.
+     */
+    private long awaitAll(List<Future<Void>> chunks) throws IOException, RMIException {
+        Throwable failure = null;
+        for (Future<Void> chunk : chunks) {
+            try {
+                chunk.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RMIException("Interrupted downloading " + path, e);
+            } catch (ExecutionException e) {
+                if (null == failure) {
+                    failure = e.getCause();
+                }
+            }
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure instanceof RMIException) {
+            throw (RMIException) failure;
+        }
+        if (null != failure) {
+            throw new RMIException("Cannot download " + path, failure);
+        }
+        return size;
+    }
+
+    private void fetch(int chunk) throws IOException, RMIException {
+        long offset = (long) chunk * chunkSize;
+        int length = (int) Math.min(chunkSize, size - offset);
+
+        byte[] bytes;
+        for (int attempt = 1; ; attempt++) {
+            RMIException failure;
+            try {
+                bytes = server.retrieve(path, offset, length);
+                if (null != bytes) {
+                    break;
+                }
+                // a broken server must not keep the chunk spinning
+                failure = new RMIException("No bytes returned for chunk " + chunk + " of " + path);
+            } catch (RMIException e) {
+                failure = e;
+            }
+            if (attempt >= Config.DOWNLOAD_ATTEMPTS) {
+                throw failure;
+            }
+            LOGGER.log(Level.FINE, "Retrying chunk " + chunk + " of " + path, failure);
+        }
+        if (bytes.length != length) {
+            throw new EOFException(path + " shrank during the download");
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        while (buf.hasRemaining()) {
+            target.write(buf, offset + buf.position());
+        }
+        synchronized (done) {
+            done.set(chunk);
+        }
+    }
+}
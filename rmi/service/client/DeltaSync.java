@@ -0,0 +1,175 @@
+package rmi.service.client;
+
+import rmi.RMIException;
+import rmi.config.Config;
+import rmi.service.server.BlockSignatures;
+import rmi.service.server.FileDelta;
+import rmi.service.server.FileServer;
+import rmi.service.server.RollingChecksum;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * Update of a local copy of a remote file by delta transfer, as rsync does.
+ *
+ * The local copy is cut in blocks of about the square root of its size, and
+ * the rolling and strong checksums of every block are sent with
+ * {@link FileServer#retrieveDelta}. The server answers with the blocks it
+ * found in its file and the bytes it did not, and the new file is assembled
+ * beside the copy from both, then moved over it. A copy missing or shorter
+ * than a block is fetched whole, as literal bytes.
+ */
+public class DeltaSync {
+    private final FileServer server;
+    private final String path;
+    private final Path local;
+    private final int blockSize;
+
+    private long receivedBytes;
+    private long reusedBytes;
+
+    public DeltaSync(FileServer server, String path, Path local) {
+        this(server, path, local, 0);
+    }
+
+    /**
+     * @param blockSize length of the blocks compared, or 0 to choose it from
+     *                  the size of the local copy
+     */
+    public DeltaSync(FileServer server, String path, Path local, int blockSize) {
+        if (blockSize < 0) {
+            throw new IllegalArgumentException("blockSize must not be negative");
+        }
+        this.server = server;
+        this.path = path;
+        this.local = local;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Bring the local copy up to date.
+     *
+     * @return the delta applied
+     * @throws FileNotFoundException if the file does not exist on the server
+     * @throws RMIException if the delta cannot be fetched
+     * @throws IOException if the local copy cannot be read or replaced, or
+     * the delta does not rebuild a file of the size the server announced
+     */
+    public FileDelta run() throws IOException, RMIException {
+        Path parent = local.toAbsolutePath().getParent();
+        Path assembled = Files.createTempFile(parent, local.getFileName().toString(), ".delta");
+        try {
+            FileDelta delta;
+            try (FileChannel basis = Files.exists(local) ? FileChannel.open(local, StandardOpenOption.READ) : null;
+                 FileChannel target = FileChannel.open(assembled, StandardOpenOption.WRITE)) {
+                long size = null == basis ? 0 : basis.size();
+                BlockSignatures signatures = signatures(basis, blockSize > 0 ? blockSize : blockSize(size));
+                delta = server.retrieveDelta(path, signatures);
+                apply(delta, signatures.blockSize(), basis, target);
+                target.force(false);
+            }
+            // closed first, some platforms cannot replace open files
+            Files.move(assembled, local, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return delta;
+        } finally {
+            Files.deleteIfExists(assembled);
+        }
+    }
+
+    /**
+     * @return literal bytes received by the syncs so far
+     */
+    public long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    /**
+     * @return bytes taken from the local copy by the syncs so far
+     */
+    public long getReusedBytes() {
+        return reusedBytes;
+    }
+
+    /**
+     * @return the block size rsync would pick for a copy of <code>size</code> bytes
+     */
+    public static int blockSize(long size) {
+        long root = (long) Math.sqrt((double) size) & ~7L;
+        return (int) Math.max(Config.DELTA_MIN_BLOCK_SIZE, Math.min(Config.DELTA_MAX_BLOCK_SIZE, root));
+    }
+
+    /**
+     * Sign every full block of a copy, read from its start.
+     *
+     * @param copy the copy, or <code>null</code> if there is none
+     */
+    public static BlockSignatures signatures(FileChannel copy, int blockSize) throws IOException {
+        int count = null == copy ? 0 : (int) Math.min(Integer.MAX_VALUE / BlockSignatures.STRONG_LENGTH,
+                copy.size() / blockSize);
+        int[] weak = new int[count];
+        byte[] strong = new byte[count * BlockSignatures.STRONG_LENGTH];
+        MessageDigest md5 = BlockSignatures.md5();
+        ByteBuffer block = ByteBuffer.allocate(blockSize);
+        for (int i = 0; i < count; i++) {
+            block.clear();
+            readFully(copy, block, (long) i * blockSize);
+            block.flip();
+            weak[i] = RollingChecksum.of(block, 0, blockSize);
+            System.arraycopy(BlockSignatures.strongDigest(md5, block), 0,
+                    strong, i * BlockSignatures.STRONG_LENGTH, BlockSignatures.STRONG_LENGTH);
+        }
+        return new BlockSignatures(blockSize, weak, strong);
+    }
+
+    /**
+     * Write the file a delta rebuilds from the blocks of a copy to the
+     * current position of <code>target</code>.
+     */
+    public void apply(FileDelta delta, int blockSize, FileChannel basis, FileChannel target) throws IOException {
+        long written = 0;
+        int literal = 0;
+        for (int op : delta.ops()) {
+            if (op >= 0) {
+                long from = (long) op * blockSize;
+                long done = 0;
+                while (done < blockSize) {
+                    long n = basis.transferTo(from + done, blockSize - done, target);
+                    if (n <= 0) {
+                        throw new EOFException(local + " changed during the sync");
+                    }
+                    done += n;
+                }
+                written += blockSize;
+                reusedBytes += blockSize;
+            } else {
+                ByteBuffer bytes = ByteBuffer.wrap(delta.literals(), literal, -op);
+                while (bytes.hasRemaining()) {
+                    target.write(bytes);
+                }
+                literal += -op;
+                written += -op;
+                receivedBytes += -op;
+            }
+        }
+        if (written != delta.size()) {
+            throw new IOException("Delta of " + path + " rebuilds " + written + " bytes instead of " + delta.size());
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new EOFException("Copy shrank while it was signed");
+            }
+        }
+    }
+}
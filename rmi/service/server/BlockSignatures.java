@@ -0,0 +1,46 @@
+package rmi.service.server;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Signatures of the blocks of a copy of a file, sent to ask for a delta.
+ * @param blockSize length of every block; a shorter last block is not signed
+ * @param weak {@link RollingChecksum} of every block
+ * @param strong {@link #STRONG_LENGTH} bytes of MD5 digest of every block,
+ *               one after the other
+ */
+public record BlockSignatures(int blockSize, int[] weak, byte[] strong) implements Serializable {
+    public static final int STRONG_LENGTH = 16;
+
+    public BlockSignatures {
+        if (blockSize <= 0 || strong.length != weak.length * STRONG_LENGTH) {
+            throw new IllegalArgumentException("Bad signatures of " + weak.length + " blocks of " + blockSize);
+        }
+    }
+
+    public int blockCount() {
+        return weak.length;
+    }
+
+    /**
+     * Return the strong digest of a block: the remaining bytes of
+     * <code>block</code>, which is consumed.
+     */
+    public static byte[] strongDigest(MessageDigest md5, ByteBuffer block) {
+        md5.reset();
+        md5.update(block);
+        return md5.digest();
+    }
+
+    public static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has MD5
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package rmi.service.server;
+
+import java.io.Serializable;
+
+/**
+ * Notice published by a file server when a file it serves changes.
+ * @param path absolute path of the changed file on the server, or of its
+ *             directory if <code>directory</code> is set
+ * @param directory every file of the directory may have changed, because
+ *                  events were lost or the directory is no longer watched
+ */
+public record FileChange(String path, boolean directory) implements Serializable {
+}
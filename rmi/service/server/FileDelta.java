@@ -0,0 +1,14 @@
+package rmi.service.server;
+
+import java.io.Serializable;
+
+/**
+ * How to rebuild a file from the blocks of another copy of it.
+ * @param version version of the file on the server
+ * @param size size of the file on the server
+ * @param ops in order, either the index of a block of the copy (zero or
+ *            more), or minus the length of the next bytes of <code>literals</code>
+ * @param literals the bytes found in no block of the copy
+ */
+public record FileDelta(String version, long size, int[] ops, byte[] literals) implements Serializable {
+}
@@ -1,6 +1,7 @@
 package rmi.service.server;
 
 import rmi.RMIException;
+import rmi.protocol.FileBody;
 
 import java.io.FileNotFoundException;
 
@@ -26,4 +27,53 @@ public interface FileServer {
      * @throws RMIException
      */
     public byte[] retrive(String path) throws FileNotFoundException, RMIException;
+
+    /**
+     * Return up to <code>length</code> bytes of the file starting at
+     * <code>offset</code>, fewer only at the end of the file.
+     * @param path file full path on the server
+     * @param offset first byte to read
+     * @param length number of bytes to read
+     * @return
+     * @throws FileNotFoundException
+     * @throws RMIException
+     */
+    public byte[] retrieve(String path, long offset, int length) throws FileNotFoundException, RMIException;
+
+    /**
+     * Return file data on the server and its version, or only the version if
+     * it is <code>knownVersion</code>. A version changes whenever the size,
+     * modification time or identity of the file does.
+     * @param path file full path on the server
+     * @param knownVersion version of the data the caller holds, or <code>null</code>
+     * @return
+     * @throws FileNotFoundException
+     * @throws RMIException
+     */
+    public VersionedContent retrieveIfChanged(String path, String knownVersion)
+            throws FileNotFoundException, RMIException;
+
+    /**
+     * Return file data on the server as a delta against the caller's copy:
+     * references to the blocks of the copy found in the file, and the bytes
+     * found in none.
+     * @param path file full path on the server
+     * @param signatures signatures of the blocks of the caller's copy
+     * @return
+     * @throws FileNotFoundException
+     * @throws RMIException
+     */
+    public FileDelta retrieveDelta(String path, BlockSignatures signatures)
+            throws FileNotFoundException, RMIException;
+
+    /**
+     * Return file data on the server without copying it through the heap:
+     * the server sends the file with sendfile, and the client can receive it
+     * straight into a file or buffer with <code>FileBody.receive</code>.
+     * @param path file full path on the server
+     * @return
+     * @throws FileNotFoundException
+     * @throws RMIException
+     */
+    public FileBody retrieveBody(String path) throws FileNotFoundException, RMIException;
 }
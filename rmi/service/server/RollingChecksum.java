@@ -0,0 +1,49 @@
+package rmi.service.server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The weak checksum of rsync over a window of bytes: two sums modulo 2^16,
+ * of the bytes and of the bytes weighted by their distance to the end of the
+ * window. Sliding the window forward one byte costs a few additions, so a
+ * file can be searched at every offset for blocks of another copy.
+ */
+public final class RollingChecksum {
+    private int a;
+    private int b;
+    private int length;
+
+    /**
+     * Start over on the <code>length</code> bytes at <code>offset</code>.
+     */
+    public void reset(ByteBuffer data, int offset, int length) {
+        a = 0;
+        b = 0;
+        for (int i = 0; i < length; i++) {
+            int x = data.get(offset + i) & 0xFF;
+            a += x;
+            b += (length - i) * x;
+        }
+        this.length = length;
+    }
+
+    /**
+     * Slide the window one byte forward: <code>out</code> is its first byte,
+     * <code>in</code> the byte just after it.
+     */
+    public void roll(byte out, byte in) {
+        int x = out & 0xFF;
+        a += (in & 0xFF) - x;
+        b += a - length * x;
+    }
+
+    public int value() {
+        return (b << 16) | (a & 0xFFFF);
+    }
+
+    public static int of(ByteBuffer data, int offset, int length) {
+        RollingChecksum sum = new RollingChecksum();
+        sum.reset(data, offset, length);
+        return sum.value();
+    }
+}
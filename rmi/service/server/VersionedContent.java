@@ -0,0 +1,15 @@
+package rmi.service.server;
+
+import java.io.Serializable;
+
+/**
+ * Result of a conditional retrieval.
+ * @param version version of the file on the server
+ * @param content file data, or <code>null</code> if the file is still at the
+ *                version the caller knows
+ */
+public record VersionedContent(String version, byte[] content) implements Serializable {
+    public boolean isModified() {
+        return null != content;
+    }
+}
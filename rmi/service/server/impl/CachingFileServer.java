@@ -0,0 +1,380 @@
+package rmi.service.server.impl;
+
+import rmi.RMIException;
+import rmi.config.Config;
+import rmi.protocol.FileBody;
+import rmi.service.server.BlockSignatures;
+import rmi.service.server.FileChange;
+import rmi.service.server.FileDelta;
+import rmi.service.server.FileServer;
+import rmi.service.server.VersionedContent;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A file server keeping the contents of recently read files off-heap, in
+ * front of another file server in the same process.
+ *
+ * Contents live in direct buffers, so a large cache adds nothing for the
+ * garbage collector to trace, and are evicted least recently used first once
+ * <code>maxBytes</code> is exceeded. An entry is checked against the version
+ * of its file (see {@link FileVersions}) when it is older than the validation
+ * interval; until then hits never touch the file system. A hit of
+ * <code>retrieveBody</code> sends the cached buffer as is.
+ *
+ * Files larger than <code>maxEntry</code>, calls for files that cannot be
+ * read locally and deltas, whose block hashes the server behind keeps, are
+ * passed to the server behind. With a {@link FileWatcher}
+ * (see {@link #watch}), changed files are dropped as soon as the change is
+ * seen rather than at the next validation.
+ */
+public class CachingFileServer implements FileServer {
+    private final FileServer delegate;
+    private final long maxBytes;
+    private final long maxEntry;
+    private final long validateNanos;
+
+    /**
+     * Entries by file in access order, guarded by itself
+     */
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<Path, Entry>(16, 0.75f, true);
+    private long cachedBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public CachingFileServer(FileServer delegate) {
+        this(delegate, Config.CONTENT_CACHE_MAX_BYTES, Config.CONTENT_CACHE_MAX_ENTRY, Config.FILE_ATTRIBUTES_TTL);
+    }
+
+    public CachingFileServer(FileServer delegate, long maxBytes, long maxEntry, long validateMillis) {
+        this.delegate = delegate;
+        this.maxBytes = maxBytes;
+        this.maxEntry = Math.min(maxEntry, Math.min(maxBytes, Integer.MAX_VALUE - 8));
+        this.validateNanos = validateMillis * 1000000L;
+    }
+
+    @Override
+    public long size(String path) throws FileNotFoundException, RMIException {
+        Entry entry = lookup(path, false);
+        if (null == entry) {
+            return delegate.size(path);
+        }
+        try {
+            return entry.size;
+        } finally {
+            entry.release();
+        }
+    }
+
+    @Override
+    public byte[] retrive(String path) throws FileNotFoundException, RMIException {
+        Entry entry = lookup(path, true);
+        if (null == entry) {
+            return delegate.retrive(path);
+        }
+        try {
+            byte[] bytes = new byte[(int) entry.size];
+            entry.buffer.duplicate().get(bytes);
+            return bytes;
+        } finally {
+            entry.release();
+        }
+    }
+
+    @Override
+    public byte[] retrieve(String path, long offset, int length) throws FileNotFoundException, RMIException {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Bad range [" + offset + ", +" + length + "]");
+        }
+        Entry entry = lookup(path, true);
+        if (null == entry) {
+            return delegate.retrieve(path, offset, length);
+        }
+        try {
+            byte[] range = new byte[(int) Math.max(0, Math.min(length, entry.size - offset))];
+            if (range.length > 0) {
+                ByteBuffer view = entry.buffer.duplicate();
+                view.position((int) offset);
+                view.get(range);
+            }
+            return range;
+        } finally {
+            entry.release();
+        }
+    }
+
+    @Override
+    public VersionedContent retrieveIfChanged(String path, String knownVersion)
+            throws FileNotFoundException, RMIException {
+        Entry entry = lookup(path, true);
+        if (null == entry) {
+            return delegate.retrieveIfChanged(path, knownVersion);
+        }
+        try {
+            if (entry.version.equals(knownVersion)) {
+                return new VersionedContent(entry.version, null);
+            }
+            byte[] bytes = new byte[(int) entry.size];
+            entry.buffer.duplicate().get(bytes);
+            return new VersionedContent(entry.version, bytes);
+        } finally {
+            entry.release();
+        }
+    }
+
+    @Override
+    public FileDelta retrieveDelta(String path, BlockSignatures signatures)
+            throws FileNotFoundException, RMIException {
+        return delegate.retrieveDelta(path, signatures);
+    }
+
+    @Override
+    public FileBody retrieveBody(String path) throws FileNotFoundException, RMIException {
+        final Entry entry = lookup(path, true);
+        if (null == entry) {
+            return delegate.retrieveBody(path);
+        }
+        // the entry stays referenced until the body is sent
+        return FileBody.wrap(entry.buffer.duplicate(), new Closeable() {
+            private final AtomicBoolean closed = new AtomicBoolean();
+
+            @Override
+            public void close() {
+                if (closed.compareAndSet(false, true)) {
+                    entry.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Drop the cached contents of changed files as a watcher sees them. The
+     * server behind registers the directories to watch.
+     */
+    public void watch(FileWatcher watcher) {
+        watcher.addListener(new FileWatcher.Listener() {
+            @Override
+            public void changed(FileChange change) {
+                invalidate(change);
+            }
+        });
+    }
+
+    /**
+     * Drop the cached contents of a changed file, or of every file of a
+     * changed directory.
+     */
+    public void invalidate(FileChange change) {
+        if (!change.directory()) {
+            invalidate(change.path());
+            return;
+        }
+        Path directory = Paths.get(change.path());
+        synchronized (entries) {
+            Iterator<Entry> cached = entries.values().iterator();
+            while (cached.hasNext()) {
+                Entry entry = cached.next();
+                if (directory.equals(entry.file.getParent())) {
+                    cached.remove();
+                    cachedBytes -= entry.size;
+                    entry.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop the cached contents of a file, if any.
+     */
+    public void invalidate(String path) {
+        Path file = Paths.get(path).toAbsolutePath().normalize();
+        synchronized (entries) {
+            Entry entry = entries.get(file);
+            if (null != entry) {
+                remove(entry);
+            }
+        }
+    }
+
+    /**
+     * Drop every cached file; buffers still being sent are freed once sent.
+     */
+    public void clear() {
+        synchronized (entries) {
+            for (Entry entry : entries.values()) {
+                entry.release();
+            }
+            entries.clear();
+            cachedBytes = 0;
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getCachedBytes() {
+        synchronized (entries) {
+            return cachedBytes;
+        }
+    }
+
+    /**
+     * Return the referenced entry of a file, validated and loaded through
+     * the server behind if needed, or <code>null</code> if the call should
+     * go to that server: the file is too large, cannot be read locally, or
+     * is missing and <code>load</code> is <code>false</code>. A returned entry
+     * must be released.
+     */
+    private Entry lookup(String path, boolean load) throws FileNotFoundException, RMIException {
+        Path file = Paths.get(path).toAbsolutePath().normalize();
+        long now = System.nanoTime();
+
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(file);
+            if (null != entry) {
+                entry.retain();
+            }
+        }
+        if (null != entry && now - entry.validatedAt < validateNanos) {
+            hits.increment();
+            return entry;
+        }
+
+        BasicFileAttributes attrs = attributes(file);
+        if (null != entry) {
+            if (null != attrs && FileVersions.of(attrs).equals(entry.version)) {
+                entry.validatedAt = now;
+                hits.increment();
+                return entry;
+            }
+            entry.release();
+            synchronized (entries) {
+                if (entries.get(file) == entry) {
+                    remove(entry);
+                }
+            }
+        }
+
+        misses.increment();
+        if (!load || null == attrs || attrs.size() > maxEntry) {
+            return null;
+        }
+
+        byte[] bytes = delegate.retrive(path);
+        if (bytes.length != attrs.size()) {
+            // changed while it was read, serve it this once without caching
+            return new Entry(file, ByteBuffer.wrap(bytes), FileVersions.of(attrs), now);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return insert(new Entry(file, buffer, FileVersions.of(attrs), now));
+    }
+
+    /**
+     * Cache a new entry, evicting the least recently used ones over budget,
+     * and return it referenced.
+     */
+    private Entry insert(Entry entry) {
+        synchronized (entries) {
+            Entry previous = entries.put(entry.file, entry);
+            if (null != previous) {
+                cachedBytes -= previous.size;
+                previous.release();
+            }
+            cachedBytes += entry.size;
+            entry.retain();
+
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (cachedBytes > maxBytes && eldest.hasNext()) {
+                Entry old = eldest.next();
+                if (old == entry) {
+                    break;
+                }
+                eldest.remove();
+                cachedBytes -= old.size;
+                old.release();
+                evictions.increment();
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Called with the lock held
+     */
+    private void remove(Entry entry) {
+        entries.remove(entry.file);
+        cachedBytes -= entry.size;
+        entry.release();
+    }
+
+    /**
+     * @return the attributes of a regular file, or <code>null</code> if
+     * there is none to cache
+     */
+    private static BasicFileAttributes attributes(Path file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            return attrs.isRegularFile() ? attrs : null;
+        } catch (IOException e) {
+            // missing or unreadable, the server behind answers
+            return null;
+        }
+    }
+
+    /**
+     * Contents of one file, counted like {@link MappedFiles}: the cache holds
+     * one reference while the entry is cached, and every lookup another.
+     */
+    private static final class Entry {
+        final Path file;
+        final ByteBuffer buffer;
+        final long size;
+        final String version;
+        volatile long validatedAt;
+
+        final AtomicInteger refs = new AtomicInteger(1);
+
+        Entry(Path file, ByteBuffer buffer, String version, long validatedAt) {
+            this.file = file;
+            this.buffer = buffer;
+            this.size = buffer.remaining();
+            this.version = version;
+            this.validatedAt = validatedAt;
+        }
+
+        void retain() {
+            refs.incrementAndGet();
+        }
+
+        void release() {
+            if (0 == refs.decrementAndGet()) {
+                DirectBuffers.free(buffer);
+            }
+        }
+    }
+}
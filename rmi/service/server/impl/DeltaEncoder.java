@@ -0,0 +1,185 @@
+package rmi.service.server.impl;
+
+import rmi.service.server.BlockSignatures;
+import rmi.service.server.FileDelta;
+import rmi.service.server.RollingChecksum;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Delta of a served file against the block signatures of a caller's copy,
+ * as rsync computes it: the weak checksum is rolled over every offset of the
+ * file, and only windows whose checksum is one of the copy's are hashed.
+ *
+ * Those strong hashes are kept by file version, block size and offset, for
+ * the files delta'd last. Callers syncing from the same old copy match at
+ * the same offsets, so after the first one a delta mostly costs the rolling
+ * checksum.
+ */
+class DeltaEncoder {
+    private final int maxFiles;
+
+    /**
+     * Hashes by file in access order, guarded by itself
+     */
+    private final LinkedHashMap<Key, Map<Long, byte[]>> hashes = new LinkedHashMap<Key, Map<Long, byte[]>>(16, 0.75f, true);
+
+    DeltaEncoder(int maxFiles) {
+        this.maxFiles = maxFiles;
+    }
+
+    /**
+     * Encode the whole of <code>data</code>, the contents of a file at
+     * <code>version</code>.
+     */
+    FileDelta encode(Path file, String version, ByteBuffer data, BlockSignatures signatures) {
+        int size = data.remaining();
+        int blockSize = signatures.blockSize();
+        Map<Long, byte[]> strongs = hashesOf(new Key(file, version, blockSize));
+        // about one matched window per block of the file, plus some misses
+        int maxStrongs = 2 * (size / blockSize) + 64;
+
+        HashMap<Integer, int[]> blocks = new HashMap<Integer, int[]>();
+        for (int i = 0; i < signatures.blockCount(); i++) {
+            int[] same = blocks.get(signatures.weak()[i]);
+            if (null == same) {
+                same = new int[] {i};
+            } else {
+                same = Arrays.copyOf(same, same.length + 1);
+                same[same.length - 1] = i;
+            }
+            blocks.put(signatures.weak()[i], same);
+        }
+
+        MessageDigest md5 = BlockSignatures.md5();
+        RollingChecksum sum = new RollingChecksum();
+        int[] ops = new int[16];
+        int opCount = 0;
+        ByteArrayOutputStream literals = new ByteArrayOutputStream();
+        int literalStart = 0;
+        boolean rolled = false;
+        int offset = 0;
+        while (offset + blockSize <= size && !blocks.isEmpty()) {
+            if (!rolled) {
+                sum.reset(data, offset, blockSize);
+                rolled = true;
+            }
+            int match = -1;
+            int[] candidates = blocks.get(sum.value());
+            if (null != candidates) {
+                byte[] strong = strongs.get((long) offset);
+                if (null == strong) {
+                    ByteBuffer window = data.duplicate();
+                    window.limit(offset + blockSize).position(offset);
+                    strong = BlockSignatures.strongDigest(md5, window);
+                    if (strongs.size() < maxStrongs) {
+                        strongs.put((long) offset, strong);
+                    }
+                }
+                for (int candidate : candidates) {
+                    int from = candidate * BlockSignatures.STRONG_LENGTH;
+                    if (Arrays.equals(strong, 0, strong.length,
+                            signatures.strong(), from, from + BlockSignatures.STRONG_LENGTH)) {
+                        match = candidate;
+                        break;
+                    }
+                }
+            }
+
+            if (match < 0) {
+                if (offset + blockSize < size) {
+                    sum.roll(data.get(offset), data.get(offset + blockSize));
+                }
+                offset++;
+                continue;
+            }
+            if (opCount + 2 > ops.length) {
+                ops = Arrays.copyOf(ops, 2 * ops.length);
+            }
+            if (offset > literalStart) {
+                ops[opCount++] = literalStart - offset;
+                copy(data, literalStart, offset, literals);
+            }
+            ops[opCount++] = match;
+            offset += blockSize;
+            literalStart = offset;
+            rolled = false;
+        }
+        if (size > literalStart) {
+            ops = Arrays.copyOf(ops, opCount + 1);
+            ops[opCount++] = literalStart - size;
+            copy(data, literalStart, size, literals);
+        }
+        return new FileDelta(version, size, Arrays.copyOf(ops, opCount), literals.toByteArray());
+    }
+
+    /**
+     * Drop the hashes of a file, at every version.
+     */
+    void invalidate(Path file) {
+        synchronized (hashes) {
+            Iterator<Key> keys = hashes.keySet().iterator();
+            while (keys.hasNext()) {
+                if (file.equals(keys.next().file())) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop the hashes of every file in a directory.
+     */
+    void invalidateDirectory(Path directory) {
+        synchronized (hashes) {
+            Iterator<Key> keys = hashes.keySet().iterator();
+            while (keys.hasNext()) {
+                if (directory.equals(keys.next().file().getParent())) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    void clear() {
+        synchronized (hashes) {
+            hashes.clear();
+        }
+    }
+
+    private Map<Long, byte[]> hashesOf(Key key) {
+        synchronized (hashes) {
+            Map<Long, byte[]> strongs = hashes.get(key);
+            if (null == strongs) {
+                strongs = new ConcurrentHashMap<Long, byte[]>();
+                hashes.put(key, strongs);
+                Iterator<Key> eldest = hashes.keySet().iterator();
+                while (hashes.size() > maxFiles) {
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+            return strongs;
+        }
+    }
+
+    private static void copy(ByteBuffer data, int from, int to, ByteArrayOutputStream out) {
+        byte[] bytes = new byte[to - from];
+        ByteBuffer range = data.duplicate();
+        range.position(from);
+        range.get(bytes);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private record Key(Path file, String version, int blockSize) {
+    }
+}
@@ -0,0 +1,55 @@
+package rmi.service.server.impl;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Explicit release of direct and mapped buffers.
+ */
+final class DirectBuffers {
+    private static final Logger LOGGER = Logger.getLogger("DirectBuffers");
+
+    /**
+     * <code>sun.misc.Unsafe.invokeCleaner</code> and its receiver, or
+     * <code>null</code> if the runtime does not offer it
+     */
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (Exception e) {
+            LOGGER.log(Level.INFO, "Direct buffers are released by the garbage collector", e);
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private DirectBuffers() {}
+
+    /**
+     * Free the memory of a direct buffer, or unmap a mapped one, now rather
+     * than when it is collected. Neither the buffer nor any view of it may be
+     * used afterwards.
+     */
+    static void free(ByteBuffer buffer) {
+        if (null == INVOKE_CLEANER || !buffer.isDirect()) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Cannot free buffer", e);
+        }
+    }
+}
@@ -1,23 +1,351 @@
 package rmi.service.server.impl;
 
 import rmi.RMIException;
+import rmi.config.Config;
+import rmi.protocol.FileBody;
+import rmi.service.server.BlockSignatures;
+import rmi.service.server.FileChange;
+import rmi.service.server.FileDelta;
 import rmi.service.server.FileServer;
+import rmi.service.server.VersionedContent;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Remote interface implementation, this class should stay on the server.
+ *
+ * File attributes are cached for <code>Config.FILE_ATTRIBUTES_TTL</code>, so
+ * <code>size</code> rarely touches the disk. Files up to
+ * <code>Config.FILE_MAPPING_MAX_FILE</code> are served from read-only
+ * mappings kept in a bounded LRU pool: hot files come straight from the page
+ * cache without read calls, and <code>retrieveBody</code> sends the mapped
+ * pages without copying them into the heap. Larger files are read with
+ * positional reads, or sent with <code>sendfile</code>. Versions for
+ * <code>retrieveIfChanged</code> come with the cached attributes (see
+ * {@link FileVersions}). Deltas for <code>retrieveDelta</code> are computed
+ * over the same mappings, or a one-off mapping of a larger file, with the
+ * strong hashes of matched blocks cached (see {@link DeltaEncoder}). With a
+ * {@link FileWatcher} (see {@link #watch}), changed files are dropped from
+ * both caches as soon as the change is seen. Without one, a mapping is still
+ * dropped once the attributes read again show another version, even when the
+ * size and modification time it was mapped with still match.
  * @date 2014-10-18 2:50 PM
  */
 public class FileServerImpl implements FileServer {
+    private static final Logger LOGGER = Logger.getLogger("FileServerImpl");
+
+    private final MappedFiles mappings;
+    private final long maxMappedFile;
+    private final DeltaEncoder deltas = new DeltaEncoder(Config.DELTA_HASHES_CACHED);
+
+    /**
+     * Attributes by path in access order, guarded by itself
+     */
+    private final LinkedHashMap<Path, Attributes> attributes;
+    private final long attributesTtlNanos;
+
+    private volatile FileWatcher watcher;
+
+    public FileServerImpl() {
+        this(Config.FILE_MAPPING_MAX_FILE, Config.FILE_MAPPING_MAX_BYTES, Config.FILE_MAPPING_MAX_COUNT,
+                Config.FILE_ATTRIBUTES_CACHED, Config.FILE_ATTRIBUTES_TTL);
+    }
+
+    public FileServerImpl(long maxMappedFile, long maxMappedBytes, int maxMappings,
+            final int maxAttributes, long attributesTtlMillis) {
+        this.mappings = new MappedFiles(maxMappedBytes, maxMappings);
+        this.maxMappedFile = maxMappedFile;
+        this.attributesTtlNanos = attributesTtlMillis * 1000000L;
+        this.attributes = new LinkedHashMap<Path, Attributes>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Attributes> eldest) {
+                return size() > maxAttributes;
+            }
+        };
+    }
 
     @Override
     public long size(String path) throws FileNotFoundException, RMIException {
-        return 0;
+        return attributes(path).size;
     }
 
     @Override
     public byte[] retrive(String path) throws FileNotFoundException, RMIException {
-        return new byte[0];
+        Attributes attrs = attributes(path);
+        if (attrs.size > Integer.MAX_VALUE - 8) {
+            throw new RMIException(path + " is too large to return as an array, use retrieve or retrieveBody");
+        }
+        return read(path, attrs, 0, (int) attrs.size);
+    }
+
+    @Override
+    public byte[] retrieve(String path, long offset, int length) throws FileNotFoundException, RMIException {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Bad range [" + offset + ", +" + length + "]");
+        }
+        return read(path, attributes(path), offset, length);
+    }
+
+    @Override
+    public VersionedContent retrieveIfChanged(String path, String knownVersion)
+            throws FileNotFoundException, RMIException {
+        Attributes attrs = attributes(path);
+        if (attrs.version.equals(knownVersion)) {
+            return new VersionedContent(attrs.version, null);
+        }
+        if (attrs.size > Integer.MAX_VALUE - 8) {
+            throw new RMIException(path + " is too large to return as an array, use retrieve or retrieveBody");
+        }
+        return new VersionedContent(attrs.version, read(path, attrs, 0, (int) attrs.size));
+    }
+
+    @Override
+    public FileDelta retrieveDelta(String path, BlockSignatures signatures)
+            throws FileNotFoundException, RMIException {
+        Attributes attrs = attributes(path);
+        if (attrs.size > Integer.MAX_VALUE - 8) {
+            throw new RMIException(path + " is too large to return as a delta, use retrieve or retrieveBody");
+        }
+        if (attrs.size <= maxMappedFile) {
+            MappedFiles.Handle mapping = map(path, attrs);
+            try {
+                return deltas.encode(attrs.file, attrs.version, mapping.buffer(), signatures);
+            } catch (InternalError e) {
+                invalidate(attrs.file);
+                throw new RMIException("Cannot read " + path, e);
+            } finally {
+                mapping.close();
+            }
+        }
+
+        // too large to keep mapped, map it for this call only
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(attrs.file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(attrs.size, channel.size()));
+        } catch (NoSuchFileException e) {
+            invalidate(attrs.file);
+            throw new FileNotFoundException(path);
+        } catch (IOException e) {
+            throw new RMIException("Cannot map " + path, e);
+        }
+        try {
+            return deltas.encode(attrs.file, attrs.version, buffer, signatures);
+        } catch (InternalError e) {
+            invalidate(attrs.file);
+            throw new RMIException("Cannot read " + path, e);
+        } finally {
+            DirectBuffers.free(buffer);
+        }
+    }
+
+    /**
+     * Read a range of a file whose attributes were just looked up, from its
+     * mapping if it is small enough.
+     */
+    private byte[] read(String path, Attributes attrs, long offset, int length)
+            throws FileNotFoundException, RMIException {
+        if (attrs.size <= maxMappedFile) {
+            MappedFiles.Handle mapping = map(path, attrs);
+            try {
+                ByteBuffer view = mapping.buffer();
+                int n = (int) Math.max(0, Math.min(length, attrs.size - offset));
+                byte[] range = new byte[n];
+                if (n > 0) {
+                    view.position((int) offset);
+                    view.get(range);
+                }
+                return range;
+            } catch (InternalError e) {
+                // the file was truncated under the mapping
+                invalidate(attrs.file);
+                throw new RMIException("Cannot read " + path, e);
+            } finally {
+                mapping.close();
+            }
+        }
+
+        // positional reads, so concurrent ranges of one file never share a position
+        try (FileChannel channel = FileChannel.open(attrs.file, StandardOpenOption.READ)) {
+            ByteBuffer range = ByteBuffer.allocate((int) Math.max(0, Math.min(length, channel.size() - offset)));
+            while (range.hasRemaining()) {
+                if (channel.read(range, offset + range.position()) < 0) {
+                    // truncated since size() was read
+                    return Arrays.copyOf(range.array(), range.position());
+                }
+            }
+            return range.array();
+        } catch (NoSuchFileException e) {
+            invalidate(attrs.file);
+            throw new FileNotFoundException(path);
+        } catch (IOException e) {
+            throw new RMIException("Cannot read " + path, e);
+        }
+    }
+
+    @Override
+    public FileBody retrieveBody(String path) throws FileNotFoundException, RMIException {
+        Attributes attrs = attributes(path);
+        if (attrs.size <= maxMappedFile) {
+            MappedFiles.Handle mapping = map(path, attrs);
+            return FileBody.wrap(mapping.buffer(), mapping);
+        }
+        try {
+            return FileBody.of(attrs.file);
+        } catch (NoSuchFileException e) {
+            invalidate(attrs.file);
+            throw new FileNotFoundException(path);
+        } catch (IOException e) {
+            throw new RMIException("Cannot open " + path, e);
+        }
+    }
+
+    /**
+     * Watch the directory of every file served from now on, and drop the
+     * cached attributes and mappings of files as they change.
+     */
+    public void watch(FileWatcher watcher) {
+        watcher.addListener(new FileWatcher.Listener() {
+            @Override
+            public void changed(FileChange change) {
+                invalidate(change);
+            }
+        });
+        this.watcher = watcher;
+    }
+
+    /**
+     * Drop what is cached about a changed file, or about every file of a
+     * changed directory.
+     */
+    public void invalidate(FileChange change) {
+        Path changed = Paths.get(change.path());
+        if (!change.directory()) {
+            invalidate(changed);
+            return;
+        }
+        synchronized (attributes) {
+            Iterator<Path> files = attributes.keySet().iterator();
+            while (files.hasNext()) {
+                if (changed.equals(files.next().getParent())) {
+                    files.remove();
+                }
+            }
+        }
+        mappings.invalidateDirectory(changed);
+        deltas.invalidateDirectory(changed);
+    }
+
+    /**
+     * Unmap every file no response is still sending.
+     */
+    public void close() {
+        mappings.clear();
+        deltas.clear();
+        synchronized (attributes) {
+            attributes.clear();
+        }
+    }
+
+    private MappedFiles.Handle map(String path, Attributes attrs) throws FileNotFoundException, RMIException {
+        try {
+            return mappings.acquire(attrs.file, attrs.size, attrs.modified);
+        } catch (NoSuchFileException e) {
+            invalidate(attrs.file);
+            throw new FileNotFoundException(path);
+        } catch (IOException e) {
+            throw new RMIException("Cannot map " + path, e);
+        }
+    }
+
+    /**
+     * Return the cached attributes of a regular file, reading them again
+     * once they are older than the time to live. Attributes read again with
+     * another version drop the mapping of the file.
+     */
+    private Attributes attributes(String path) throws FileNotFoundException, RMIException {
+        Path file = Paths.get(path).toAbsolutePath().normalize();
+        long now = System.nanoTime();
+        Attributes cached;
+        synchronized (attributes) {
+            cached = attributes.get(file);
+            if (null != cached && now - cached.readAt < attributesTtlNanos) {
+                return cached;
+            }
+        }
+
+        // watch before reading, so no change after the read goes unnoticed
+        FileWatcher watcher = this.watcher;
+        if (null != watcher && null != file.getParent() && !watcher.isWatched(file.getParent())) {
+            try {
+                watcher.watch(file.getParent());
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Cannot watch " + file.getParent(), e);
+            }
+        }
+
+        BasicFileAttributes read;
+        try {
+            read = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            invalidate(file);
+            throw new FileNotFoundException(path);
+        } catch (IOException e) {
+            throw new RMIException("Cannot stat " + path, e);
+        }
+        if (!read.isRegularFile()) {
+            invalidate(file);
+            throw new FileNotFoundException(path);
+        }
+
+        Attributes attrs = new Attributes(file, read.size(), read.lastModifiedTime().toMillis(),
+                FileVersions.of(read), now);
+        if (null != cached && !cached.version.equals(attrs.version)) {
+            // a file renamed over this one may match the size and time of
+            // its mapping, but not its version
+            mappings.invalidate(file);
+        }
+        synchronized (attributes) {
+            attributes.put(file, attrs);
+        }
+        return attrs;
+    }
+
+    private void invalidate(Path file) {
+        synchronized (attributes) {
+            attributes.remove(file);
+        }
+        mappings.invalidate(file);
+        deltas.invalidate(file);
+    }
+
+    private static final class Attributes {
+        final Path file;
+        final long size;
+        final long modified;
+        final String version;
+        final long readAt;
+
+        Attributes(Path file, long size, long modified, String version, long readAt) {
+            this.file = file;
+            this.size = size;
+            this.modified = modified;
+            this.version = version;
+            this.readAt = readAt;
+        }
     }
 }
@@ -0,0 +1,29 @@
+package rmi.service.server.impl;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Versions of served files, as returned by
+ * <code>FileServer.retrieveIfChanged</code>.
+ *
+ * A version is derived from the size, modification time and file key (the
+ * inode on Unix) of a file, so it comes with the attributes the servers
+ * cache anyway and never requires reading the contents. Replacing a file by
+ * renaming another over it changes its key, hence its version, even if size
+ * and time match.
+ */
+final class FileVersions {
+    private FileVersions() {}
+
+    static String of(BasicFileAttributes attrs) {
+        StringBuilder version = new StringBuilder();
+        version.append(Long.toHexString(attrs.size())).append('-')
+                .append(Long.toHexString(attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)));
+        Object key = attrs.fileKey();
+        if (null != key) {
+            version.append('-').append(Integer.toHexString(key.hashCode()));
+        }
+        return version.toString();
+    }
+}
@@ -0,0 +1,129 @@
+package rmi.service.server.impl;
+
+import rmi.service.server.FileChange;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the directories of served files and reports every change to them.
+ *
+ * File servers register the directory of each file they serve with
+ * {@link #watch}, and drop their own cached state for a change before the
+ * change reaches stubs. To push changes to subscribed stubs, register the
+ * servers first and publish last:
+ *
+ * <pre>
+ * FileWatcher watcher = new FileWatcher();
+ * files.watch(watcher);
+ * watcher.addListener(change -&gt; skeleton.publish(change));
+ * </pre>
+ *
+ * Listeners run on the watcher thread, in registration order.
+ */
+public class FileWatcher implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger("FileWatcher");
+
+    /**
+     * Receives the changes seen by a watcher
+     */
+    public interface Listener {
+        void changed(FileChange change);
+    }
+
+    private final WatchService watchService;
+
+    /**
+     * Watched directories, absolute and normalized
+     */
+    private final ConcurrentHashMap<Path, WatchKey> watched = new ConcurrentHashMap<Path, WatchKey>();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    public FileWatcher() throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                processEvents();
+            }
+        }, "FileWatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Watch a directory, unless it is already watched.
+     */
+    public void watch(Path directory) throws IOException {
+        Path dir = directory.toAbsolutePath().normalize();
+        if (watched.containsKey(dir)) {
+            return;
+        }
+        WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watched.putIfAbsent(dir, key);
+    }
+
+    public boolean isWatched(Path directory) {
+        return watched.containsKey(directory.toAbsolutePath().normalize());
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void processEvents() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (StandardWatchEventKinds.OVERFLOW == event.kind()) {
+                        fire(new FileChange(dir.toString(), true));
+                    } else {
+                        fire(new FileChange(dir.resolve((Path) event.context()).toString(), false));
+                    }
+                }
+                if (!key.reset()) {
+                    // the directory is gone, or no longer accessible
+                    watched.remove(dir, key);
+                    fire(new FileChange(dir.toString(), true));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    private void fire(FileChange change) {
+        for (Listener listener : listeners) {
+            try {
+                listener.changed(change);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "File change listener failed on " + change, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package rmi.service.server.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read-only mappings of served files, bounded in count and total size and
+ * evicted least recently used first.
+ *
+ * A mapping is counted: the pool holds one reference while the mapping is
+ * cached, and every {@link #acquire} another until its handle is closed. The
+ * last reference unmaps the file at once (see {@link DirectBuffers}) instead
+ * of waiting for the garbage collector, so evicted mappings give their
+ * address space back promptly and a buffer is never unmapped while a
+ * response still reads it.
+ */
+class MappedFiles {
+    private final long maxBytes;
+    private final int maxCount;
+
+    /**
+     * Cached mappings in access order, guarded by itself
+     */
+    private final LinkedHashMap<Path, Mapping> mappings = new LinkedHashMap<Path, Mapping>(16, 0.75f, true);
+    private long mappedBytes;
+
+    MappedFiles(long maxBytes, int maxCount) {
+        this.maxBytes = maxBytes;
+        this.maxCount = maxCount;
+    }
+
+    /**
+     * Return a handle on the mapping of a file, mapping it unless a mapping
+     * of the same size and modification time is cached. The handle must be
+     * closed once its buffer is no longer read.
+     */
+    Handle acquire(Path file, long size, long modified) throws IOException {
+        synchronized (mappings) {
+            Mapping mapping = mappings.get(file);
+            if (null != mapping && mapping.size == size && mapping.modified == modified) {
+                return new Handle(mapping);
+            }
+            if (null != mapping) {
+                evict(mapping);
+            }
+        }
+
+        Mapping mapping;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            mapping = new Mapping(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, size), size, modified);
+        }
+
+        synchronized (mappings) {
+            Mapping cached = mappings.get(file);
+            if (null != cached && cached.size == size && cached.modified == modified) {
+                // mapped concurrently by another call, use the cached one
+                mapping.release();
+                return new Handle(cached);
+            }
+            if (null != cached) {
+                evict(cached);
+            }
+            mappings.put(file, mapping);
+            mappedBytes += size;
+            Iterator<Mapping> eldest = mappings.values().iterator();
+            while ((mappedBytes > maxBytes || mappings.size() > maxCount) && eldest.hasNext()) {
+                Mapping old = eldest.next();
+                if (old == mapping) {
+                    break;
+                }
+                eldest.remove();
+                mappedBytes -= old.size;
+                old.release();
+            }
+            return new Handle(mapping);
+        }
+    }
+
+    /**
+     * Drop the cached mapping of a file, if any.
+     */
+    void invalidate(Path file) {
+        synchronized (mappings) {
+            Mapping mapping = mappings.get(file);
+            if (null != mapping) {
+                evict(mapping);
+            }
+        }
+    }
+
+    /**
+     * Drop the cached mappings of every file in a directory.
+     */
+    void invalidateDirectory(Path directory) {
+        synchronized (mappings) {
+            Iterator<Mapping> cached = mappings.values().iterator();
+            while (cached.hasNext()) {
+                Mapping mapping = cached.next();
+                if (directory.equals(mapping.file.getParent())) {
+                    cached.remove();
+                    mappedBytes -= mapping.size;
+                    mapping.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop every cached mapping; mappings still read are unmapped once their
+     * last handle closes.
+     */
+    void clear() {
+        synchronized (mappings) {
+            for (Mapping mapping : mappings.values()) {
+                mapping.release();
+            }
+            mappings.clear();
+            mappedBytes = 0;
+        }
+    }
+
+    /**
+     * @return the number of cached mappings
+     */
+    int mappedCount() {
+        synchronized (mappings) {
+            return mappings.size();
+        }
+    }
+
+    /**
+     * @return the total size of the cached mappings
+     */
+    long mappedBytes() {
+        synchronized (mappings) {
+            return mappedBytes;
+        }
+    }
+
+    /**
+     * Called with the lock held
+     */
+    private void evict(Mapping mapping) {
+        mappings.remove(mapping.file);
+        mappedBytes -= mapping.size;
+        mapping.release();
+    }
+
+    private static final class Mapping {
+        final Path file;
+        final MappedByteBuffer buffer;
+        final long size;
+        final long modified;
+
+        /**
+         * The pool's reference and one per open handle
+         */
+        final AtomicInteger refs = new AtomicInteger(1);
+
+        Mapping(Path file, MappedByteBuffer buffer, long size, long modified) {
+            this.file = file;
+            this.buffer = buffer;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        void release() {
+            if (0 == refs.decrementAndGet()) {
+                DirectBuffers.free(buffer);
+            }
+        }
+    }
+
+    /**
+     * One reference to a mapping, closed at most once
+     */
+    static final class Handle implements Closeable {
+        private final Mapping mapping;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        /**
+         * Called with the pool lock held, while the pool still references
+         * the mapping
+         */
+        private Handle(Mapping mapping) {
+            this.mapping = mapping;
+            mapping.refs.incrementAndGet();
+        }
+
+        /**
+         * @return a read-only view of the whole file, valid until closed
+         */
+        ByteBuffer buffer() {
+            return mapping.buffer.duplicate();
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                mapping.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package rmi.trace;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the latest spans in memory, the default exporter.
+ */
+public class InMemorySpanExporter implements SpanExporter {
+    private final int capacity;
+
+    /**
+     * Oldest span first, guarded by this
+     */
+    private final ArrayDeque<Span> spans = new ArrayDeque<Span>();
+
+    public InMemorySpanExporter(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    @Override
+    public synchronized void export(Span span) {
+        if (spans.size() == capacity) {
+            spans.removeFirst();
+        }
+        spans.addLast(span);
+    }
+
+    /**
+     * @return the spans kept, oldest first
+     */
+    public synchronized List<Span> getSpans() {
+        return new ArrayList<Span>(spans);
+    }
+
+    /**
+     * @return the spans kept of one trace, oldest first
+     */
+    public synchronized List<Span> getSpans(String traceId) {
+        List<Span> trace = new ArrayList<Span>();
+        for (Span span : spans) {
+            if (span.getTraceId().equals(traceId)) {
+                trace.add(span);
+            }
+        }
+        return trace;
+    }
+
+    public synchronized void clear() {
+        spans.clear();
+    }
+}
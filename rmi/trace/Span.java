@@ -0,0 +1,86 @@
+package rmi.trace;
+
+/**
+ * One timed hop of a trace: a call made by a stub, or run by a skeleton.
+ */
+public final class Span {
+    public enum Kind {
+        /** A stub waiting for a call, from the arguments encoded to the reply decoded */
+        CLIENT,
+        /** A skeleton running the service method of a call */
+        SERVER
+    }
+
+    private final TraceContext context;
+    private final Kind kind;
+    private final String name;
+    private final long startMicros;
+    private final long durationNanos;
+    private final boolean failed;
+
+    public Span(TraceContext context, Kind kind, String name, long startMicros, long durationNanos,
+            boolean failed) {
+        this.context = context;
+        this.kind = kind;
+        this.name = name;
+        this.startMicros = startMicros;
+        this.durationNanos = durationNanos;
+        this.failed = failed;
+    }
+
+    public TraceContext getContext() {
+        return context;
+    }
+
+    public String getTraceId() {
+        return context.getTraceId();
+    }
+
+    public long getSpanId() {
+        return context.getSpanId();
+    }
+
+    /**
+     * @return the span this one is a child of, 0 for the root of a trace
+     */
+    public long getParentSpanId() {
+        return context.getParentSpanId();
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return interface and method signature, e.g.
+     * <code>rmi.service.server.FileServer.size(java.lang.String)</code>
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return when the span started, in microseconds since the epoch
+     */
+    public long getStartMicros() {
+        return startMicros;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * @return <code>true</code> if the call threw
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + name + " trace=" + getTraceId() + " span=" + TraceContext.hex(getSpanId())
+                + " parent=" + TraceContext.hex(getParentSpanId()) + " " + durationNanos + "ns"
+                + (failed ? " failed" : "");
+    }
+}
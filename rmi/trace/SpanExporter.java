@@ -0,0 +1,14 @@
+package rmi.trace;
+
+/**
+ * Destination of the spans of sampled traces, see
+ * {@link Tracing#setExporter}.
+ *
+ * Spans are exported on the thread that finished them, a stub's caller or a
+ * skeleton's worker, so implementations must be thread safe and should hand
+ * slow work to a thread of their own.
+ */
+public interface SpanExporter {
+
+    public void export(Span span);
+}
@@ -0,0 +1,130 @@
+package rmi.trace;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Identifies a span within a trace, the way it travels in the trace slot of
+ * a call frame: a 128-bit trace id, a 64-bit span id and whether the trace
+ * is sampled. Unsampled contexts are still forwarded, so every hop of a
+ * trace takes the same decision, but record no spans.
+ */
+public final class TraceContext {
+    /** Bytes of the trace slot on the wire */
+    public static final int LENGTH = 25;
+
+    private static final byte SAMPLED = 1;
+
+    private final long traceIdHigh;
+    private final long traceIdLow;
+    private final long spanId;
+
+    /**
+     * Span this one is a child of, 0 for a root or a context read from the
+     * wire
+     */
+    private final long parentSpanId;
+    private final boolean sampled;
+
+    public TraceContext(long traceIdHigh, long traceIdLow, long spanId, long parentSpanId, boolean sampled) {
+        this.traceIdHigh = traceIdHigh;
+        this.traceIdLow = traceIdLow;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.sampled = sampled;
+    }
+
+    /**
+     * Start a new trace.
+     */
+    public static TraceContext root(boolean sampled) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new TraceContext(random.nextLong(), nonZero(random), nonZero(random), 0, sampled);
+    }
+
+    /**
+     * @return a new span of the same trace, child of this one
+     */
+    public TraceContext child() {
+        return new TraceContext(traceIdHigh, traceIdLow, nonZero(ThreadLocalRandom.current()), spanId, sampled);
+    }
+
+    private static long nonZero(ThreadLocalRandom random) {
+        long id;
+        do {
+            id = random.nextLong();
+        } while (0 == id);
+        return id;
+    }
+
+    public long getTraceIdHigh() {
+        return traceIdHigh;
+    }
+
+    public long getTraceIdLow() {
+        return traceIdLow;
+    }
+
+    public long getSpanId() {
+        return spanId;
+    }
+
+    public long getParentSpanId() {
+        return parentSpanId;
+    }
+
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    /**
+     * @return the trace id as 32 hexadecimal digits
+     */
+    public String getTraceId() {
+        return hex(traceIdHigh) + hex(traceIdLow);
+    }
+
+    static String hex(long id) {
+        String digits = Long.toHexString(id);
+        return "0000000000000000".substring(digits.length()) + digits;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeLong(traceIdHigh);
+        out.writeLong(traceIdLow);
+        out.writeLong(spanId);
+        out.writeByte(sampled ? SAMPLED : 0);
+    }
+
+    public void writeTo(ByteBuffer buf) {
+        buf.putLong(traceIdHigh);
+        buf.putLong(traceIdLow);
+        buf.putLong(spanId);
+        buf.put(sampled ? SAMPLED : 0);
+    }
+
+    public static TraceContext readFrom(DataInputStream in) throws IOException {
+        long high = in.readLong();
+        long low = in.readLong();
+        long span = in.readLong();
+        return new TraceContext(high, low, span, 0, 0 != (in.readByte() & SAMPLED));
+    }
+
+    public static TraceContext readFrom(ByteBuffer buf) {
+        long high = buf.getLong();
+        long low = buf.getLong();
+        long span = buf.getLong();
+        return new TraceContext(high, low, span, 0, 0 != (buf.get() & SAMPLED));
+    }
+
+    /**
+     * @return the context in the format of a W3C <code>traceparent</code> header
+     */
+    @Override
+    public String toString() {
+        return "00-" + getTraceId() + "-" + hex(spanId) + (sampled ? "-01" : "-00");
+    }
+}
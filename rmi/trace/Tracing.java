@@ -0,0 +1,106 @@
+package rmi.trace;
+
+import rmi.config.Config;
+
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The trace context of the current thread, and where finished spans go.
+ *
+ * While a skeleton runs a traced call, the context of its server span is
+ * attached to the worker thread, so calls made by stubs from the service
+ * method join the same trace. Callers may attach a context of their own to
+ * start or continue a trace; outside any trace, stubs start one for
+ * <code>Config.TRACE_SAMPLE_RATIO</code> of their calls.
+ */
+public final class Tracing {
+    private static final Logger LOGGER = Logger.getLogger("Tracing");
+
+    private static final ThreadLocal<TraceContext> CURRENT = new ThreadLocal<TraceContext>();
+
+    private static volatile SpanExporter exporter = new InMemorySpanExporter(Config.TRACE_SPANS_KEPT);
+
+    private Tracing() {
+    }
+
+    /**
+     * @return the context attached to this thread, or <code>null</code>
+     */
+    public static TraceContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Attach a context to this thread, <code>null</code> to detach.
+     *
+     * @return the context attached before, to restore once done
+     */
+    public static TraceContext attach(TraceContext context) {
+        TraceContext previous = CURRENT.get();
+        if (null == context) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(context);
+        }
+        return previous;
+    }
+
+    /**
+     * @return the context of a call a stub is about to make: a child of the
+     * current one, a new sampled trace, or <code>null</code> to send the call
+     * untraced
+     */
+    public static TraceContext startCall() {
+        TraceContext current = CURRENT.get();
+        if (null != current) {
+            return current.child();
+        }
+        if (Config.TRACE_SAMPLE_RATIO > 0 && ThreadLocalRandom.current().nextDouble() < Config.TRACE_SAMPLE_RATIO) {
+            return TraceContext.root(true);
+        }
+        return null;
+    }
+
+    /**
+     * Export the span of a sampled context that started at
+     * <code>startMicros</code> and <code>startNanos</code>.
+     */
+    public static void finish(TraceContext context, Span.Kind kind, String name, long startMicros, long startNanos,
+            boolean failed) {
+        if (null == context || !context.isSampled()) {
+            return;
+        }
+        Span span = new Span(context, kind, name, startMicros, System.nanoTime() - startNanos, failed);
+        try {
+            exporter.export(span);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Cannot export " + span, e);
+        }
+    }
+
+    /**
+     * @return microseconds since the epoch, for the start of a span
+     */
+    public static long nowMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1000000 + now.getNano() / 1000;
+    }
+
+    public static SpanExporter getExporter() {
+        return exporter;
+    }
+
+    /**
+     * Send the spans of sampled traces to <code>exporter</code> instead of
+     * the in-memory one.
+     */
+    public static void setExporter(SpanExporter exporter) {
+        if (null == exporter) {
+            throw new NullPointerException("exporter");
+        }
+        Tracing.exporter = exporter;
+    }
+}
@@ -8,6 +8,30 @@ import test.*;
     Tests run are:
     <ul>
     <li>{@link rmi.SampleUnitTest}</li>
+    <li>{@link rmi.AsyncStubTest}</li>
+    <li>{@link rmi.UnixSocketTest}</li>
+    <li>{@link rmi.protocol.ProtocolTest}</li>
+    <li>{@link rmi.protocol.codec.CodecTest}</li>
+    <li>{@link rmi.protocol.StreamTest}</li>
+    <li>{@link rmi.protocol.FileBodyTest}</li>
+    <li>{@link rmi.metrics.LatencyHistogramTest}</li>
+    <li>{@link rmi.metrics.StubMetricsTest}</li>
+    <li>{@link rmi.server.task.CallbackTaskTest}</li>
+    <li>{@link rmi.server.task.WorkerPoolTest}</li>
+    <li>{@link rmi.server.task.ThreadPerCallTest}</li>
+    <li>{@link rmi.server.LocalCallTest}</li>
+    <li>{@link rmi.service.server.impl.DeltaTest}</li>
+    <li>{@link rmi.server.NoticeTest}</li>
+    <li>{@link rmi.client.pool.ConnectionPoolTest}</li>
+    <li>{@link rmi.client.mux.MultiplexedConnectionTest}</li>
+    <li>{@link rmi.service.client.CachingFileClientTest}</li>
+    <li>{@link rmi.service.client.ChunkedDownloadTest}</li>
+    <li>{@link rmi.service.server.impl.MappedFilesTest}</li>
+    <li>{@link rmi.service.server.impl.CachingFileServerTest}</li>
+    <li>{@link rmi.service.server.impl.ConditionalRetrievalTest}</li>
+    <li>{@link rmi.management.SkeletonManagementTest}</li>
+    <li>{@link rmi.events.EventsTest}</li>
+    <li>{@link rmi.trace.TracingTest}</li>
     </ul>
  */
 public class UnitTests
@@ -21,7 +45,31 @@ public class UnitTests
         // Create the test list, the series object, and run the test series.
         @SuppressWarnings("unchecked")
         Class<? extends Test>[]     tests =
-            new Class[] {rmi.SampleUnitTest.class};
+            new Class[] {rmi.SampleUnitTest.class,
+                         rmi.AsyncStubTest.class,
+                         rmi.UnixSocketTest.class,
+                         rmi.protocol.ProtocolTest.class,
+                         rmi.protocol.codec.CodecTest.class,
+                         rmi.protocol.StreamTest.class,
+                         rmi.protocol.FileBodyTest.class,
+                         rmi.metrics.LatencyHistogramTest.class,
+                         rmi.metrics.StubMetricsTest.class,
+                         rmi.server.task.CallbackTaskTest.class,
+                         rmi.server.task.WorkerPoolTest.class,
+                         rmi.server.task.ThreadPerCallTest.class,
+                         rmi.server.LocalCallTest.class,
+                         rmi.service.server.impl.DeltaTest.class,
+                         rmi.server.NoticeTest.class,
+                         rmi.client.pool.ConnectionPoolTest.class,
+                         rmi.client.mux.MultiplexedConnectionTest.class,
+                         rmi.service.client.CachingFileClientTest.class,
+                         rmi.service.client.ChunkedDownloadTest.class,
+                         rmi.service.server.impl.MappedFilesTest.class,
+                         rmi.service.server.impl.CachingFileServerTest.class,
+                         rmi.service.server.impl.ConditionalRetrievalTest.class,
+                         rmi.management.SkeletonManagementTest.class,
+                         rmi.events.EventsTest.class,
+                         rmi.trace.TracingTest.class};
         Series                      series = new Series(tests);
         SeriesReport                report = series.run(3, System.out);
 
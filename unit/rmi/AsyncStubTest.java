@@ -0,0 +1,261 @@
+package rmi;
+
+import test.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/** Unit tests for asynchronous stubs.
+
+    <p>
+    The tests performed are:
+    <ul>
+    <li>Many calls in flight at once each complete with their own return
+        value.</li>
+    <li>An exception thrown by the server completes the future exceptionally
+        with that exception.</li>
+    <li>A server which cannot be reached completes the future exceptionally
+        with an <code>RMIException</code>.</li>
+    <li>A call lambda which does not call the stub is refused.</li>
+    </ul>
+ */
+public class AsyncStubTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking asynchronous stubs";
+
+    /** Calls in flight at once. */
+    private static final int    CALLS = 32;
+    /** Seconds to wait for a future. */
+    private static final int    TIMEOUT = 2;
+
+    /** Remote interface called. */
+    public interface Arithmetic
+    {
+        int add(int a, int b) throws RMIException;
+
+        int divide(int a, int b) throws RMIException;
+    }
+
+    /** Implementation of the remote interface. */
+    public static class ArithmeticImpl implements Arithmetic
+    {
+        @Override
+        public int add(int a, int b)
+        {
+            return a + b;
+        }
+
+        @Override
+        public int divide(int a, int b)
+        {
+            return a / b;
+        }
+    }
+
+    /** Skeleton called. */
+    private Skeleton<Arithmetic>    skeleton;
+    /** Stub under test. */
+    private AsyncStub<Arithmetic>   stub;
+
+    /** Starts the skeleton and creates the stub.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            skeleton = new Skeleton<Arithmetic>(Arithmetic.class,
+                new ArithmeticImpl(),
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            skeleton.start();
+            stub = Stub.createAsync(Arithmetic.class,
+                                    (InetSocketAddress)skeleton.getAddress());
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        ensureCompleted();
+        ensureServerException();
+        ensureUnreachable();
+        ensureMisuseRefused();
+    }
+
+    /** Keeps many calls in flight. */
+    private void ensureCompleted() throws TestFailed
+    {
+        List<CompletableFuture<Integer>>    sums =
+            new ArrayList<CompletableFuture<Integer>>();
+
+        for(int i = 0; i < CALLS; ++i)
+        {
+            final int   value = i;
+
+            sums.add(stub.call(new AsyncStub.RemoteCall<Arithmetic, Integer>()
+            {
+                @Override
+                public Integer apply(Arithmetic remote) throws Exception
+                {
+                    return remote.add(value, value);
+                }
+            }));
+        }
+
+        for(int i = 0; i < CALLS; ++i)
+        {
+            Integer     sum;
+
+            try
+            {
+                sum = await(sums.get(i));
+            }
+            catch(ExecutionException e)
+            {
+                throw new TestFailed("call failed", e.getCause());
+            }
+
+            if(sum.intValue() != 2 * i)
+                throw new TestFailed("call " + i + " completed with " + sum);
+        }
+    }
+
+    /** Calls a method throwing on the server. */
+    private void ensureServerException() throws TestFailed
+    {
+        CompletableFuture<Integer>  quotient = stub.call(
+            new AsyncStub.RemoteCall<Arithmetic, Integer>()
+            {
+                @Override
+                public Integer apply(Arithmetic remote) throws Exception
+                {
+                    return remote.divide(1, 0);
+                }
+            });
+
+        try
+        {
+            await(quotient);
+            throw new TestFailed("division by zero completed");
+        }
+        catch(ExecutionException e)
+        {
+            if(!(e.getCause() instanceof ArithmeticException))
+            {
+                throw new TestFailed("division by zero failed with another " +
+                                     "exception", e.getCause());
+            }
+        }
+    }
+
+    /** Calls a server which is not listening. */
+    private void ensureUnreachable() throws TestFailed
+    {
+        InetSocketAddress   address;
+
+        try(ServerSocket socket =
+                new ServerSocket(0, 1, InetAddress.getLoopbackAddress()))
+        {
+            address = (InetSocketAddress)socket.getLocalSocketAddress();
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to find a free port", e);
+        }
+
+        AsyncStub<Arithmetic>       unreachable =
+            Stub.createAsync(Arithmetic.class, address);
+        CompletableFuture<Integer>  sum = unreachable.call(
+            new AsyncStub.RemoteCall<Arithmetic, Integer>()
+            {
+                @Override
+                public Integer apply(Arithmetic remote) throws Exception
+                {
+                    return remote.add(1, 1);
+                }
+            });
+
+        try
+        {
+            await(sum);
+            throw new TestFailed("call to an unreachable server completed");
+        }
+        catch(ExecutionException e)
+        {
+            if(!(e.getCause() instanceof RMIException))
+            {
+                throw new TestFailed("unreachable server failed the call " +
+                                     "with another exception", e.getCause());
+            }
+        }
+    }
+
+    /** Passes a lambda which does not call the stub. */
+    private void ensureMisuseRefused() throws TestFailed
+    {
+        try
+        {
+            stub.call(new AsyncStub.RemoteCall<Arithmetic, Integer>()
+            {
+                @Override
+                public Integer apply(Arithmetic remote)
+                {
+                    return 0;
+                }
+            });
+            throw new TestFailed("call lambda not calling the stub accepted");
+        }
+        catch(IllegalArgumentException e)
+        {
+            // the lambda made no call
+        }
+    }
+
+    /** Waits for a future. */
+    private static <V> V await(CompletableFuture<V> future)
+        throws TestFailed, ExecutionException
+    {
+        try
+        {
+            return future.get(TIMEOUT, TimeUnit.SECONDS);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+        catch(TimeoutException e)
+        {
+            throw new TestFailed("call not completed in " + TIMEOUT +
+                                 " seconds", e);
+        }
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        skeleton = null;
+    }
+}
@@ -0,0 +1,219 @@
+package rmi;
+
+import rmi.client.pool.Connection;
+import rmi.client.pool.ConnectionPool;
+import rmi.protocol.Frame;
+import rmi.protocol.MethodTable;
+import rmi.protocol.Protocol;
+import rmi.server.LocalSkeletons;
+import rmi.server.RMIServer;
+import test.*;
+
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** Unit tests for skeletons and stubs on Unix domain sockets.
+
+    <p>
+    The tests performed are:
+    <ul>
+    <li>A skeleton started at a socket file creates it, and answers calls
+        sent over a connection to it, as well as stub calls.</li>
+    <li>A paused skeleton refuses connections, and accepts them again once
+        resumed.</li>
+    <li>A stopped skeleton deletes its socket file.</li>
+    </ul>
+ */
+public class UnixSocketTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking Unix domain sockets";
+
+    /** Remote interface of the skeleton. */
+    public interface Echo
+    {
+        String echo(String value) throws RMIException;
+    }
+
+    /** Implementation returning its argument. */
+    public static class EchoImpl implements Echo
+    {
+        @Override
+        public String echo(String value)
+        {
+            return value;
+        }
+    }
+
+    /** Directory holding the socket file. */
+    private Path                    directory;
+    /** Socket file of the skeleton. */
+    private UnixDomainSocketAddress address;
+    /** Skeleton under test. */
+    private Skeleton<Echo>          skeleton;
+
+    /** Starts the skeleton at a socket file in a new directory.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            directory = Files.createTempDirectory("unix");
+            address = UnixDomainSocketAddress.of(directory.resolve("echo.sock"));
+            skeleton = new Skeleton<Echo>(Echo.class, new EchoImpl(), address);
+            skeleton.start();
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to create directory", e);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        ensureCalled();
+        ensurePauseHonored();
+        ensureFileDeleted();
+    }
+
+    /** Calls the skeleton over a connection and through a stub. */
+    private void ensureCalled() throws TestFailed
+    {
+        if(!Files.exists(address.getPath()))
+            throw new TestFailed("socket file not created");
+
+        if(!"one".equals(call("one")))
+            throw new TestFailed("wrong value returned over the socket");
+
+        try
+        {
+            if(!"two".equals(Stub.create(Echo.class, address).echo("two")))
+                throw new TestFailed("wrong value returned to the stub");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("stub call failed", e);
+        }
+    }
+
+    /** Connects to the skeleton while paused, then once resumed. */
+    private void ensurePauseHonored() throws TestFailed
+    {
+        RMIServer<?>    server = LocalSkeletons.lookup(address);
+
+        if(server == null)
+            throw new TestFailed("skeleton not registered at its socket file");
+
+        server.pauseServer();
+
+        try
+        {
+            call("paused");
+            throw new TestFailed("paused skeleton accepted a connection");
+        }
+        catch(TestFailed e)
+        {
+            if(!(e.getCause() instanceof RMIException))
+                throw e;
+        }
+
+        server.resumeServer();
+
+        if(!"resumed".equals(call("resumed")))
+            throw new TestFailed("wrong value returned once resumed");
+    }
+
+    /** Stops the skeleton. */
+    private void ensureFileDeleted() throws TestFailed
+    {
+        skeleton.stop();
+        skeleton = null;
+
+        if(Files.exists(address.getPath()))
+            throw new TestFailed("socket file left by the stopped skeleton");
+    }
+
+    /** Calls the skeleton over a connection of its own, skipping any call
+        within the JVM. */
+    private String call(String value) throws TestFailed
+    {
+        ConnectionPool  pool = new ConnectionPool(address, 1, 60000);
+        Connection      connection;
+
+        try
+        {
+            connection = pool.borrow();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to connect", e);
+        }
+
+        try
+        {
+            Class<?>[]  types = new Class<?>[] {String.class};
+            int         echo = MethodTable.of(Echo.class).indexOf(
+                Echo.class.getMethod("echo", types));
+
+            new Frame(Protocol.CALL, 1, echo, connection.getCodec()
+                .encodeArguments(types, new Object[] {value}))
+                .writeTo(connection.getOut());
+            connection.getOut().flush();
+
+            Frame       reply = Frame.readFrom(connection.getIn());
+
+            if(reply.getType() != Protocol.RETURN)
+                throw new TestFailed("call failed: " + reply);
+
+            return (String)connection.getCodec().decodeResult(String.class,
+                reply.getPayload());
+        }
+        catch(TestFailed e)
+        {
+            throw e;
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("call over the socket failed", e);
+        }
+        finally
+        {
+            pool.invalidate(connection);
+        }
+    }
+
+    /** Stops the skeleton and removes the directory. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        try
+        {
+            if(address != null)
+                Files.deleteIfExists(address.getPath());
+
+            if(directory != null)
+                Files.deleteIfExists(directory);
+        }
+        catch(IOException e)
+        {
+            // left in the temporary directory
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package rmi.client.mux;
+
+import rmi.NoticeListener;
+import rmi.RMIException;
+import rmi.protocol.Frame;
+import rmi.protocol.MethodTable;
+import rmi.protocol.Protocol;
+import rmi.server.ServerState;
+import rmi.server.TCPServer;
+import test.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/** Unit tests for the multiplexed connection.
+
+    <p>
+    The tests performed are:
+    <ul>
+    <li>Replies arrive in the order calls complete, and each reaches the
+        caller of its call.</li>
+    <li>No more calls than the correlation table holds are in flight; call
+        ids wrapping around the table still match their replies.</li>
+    <li>A stage added to a returned future, and a notice listener, run off
+        the reader thread and may make a blocking call on the same
+        connection.</li>
+    </ul>
+ */
+public class MultiplexedConnectionTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking multiplexed connections";
+
+    /** Seconds to wait for a reply. */
+    private static final int    TIMEOUT = 10;
+    /** Milliseconds a slow call takes. */
+    private static final int    SLOW = 300;
+
+    /** Remote interface whose calls take as long as asked. */
+    public interface Delayed
+    {
+        int echo(int value, int millis) throws RMIException;
+    }
+
+    /** Implementation sleeping before it returns its argument. */
+    public static class DelayedImpl implements Delayed
+    {
+        @Override
+        public int echo(int value, int millis) throws RMIException
+        {
+            try
+            {
+                Thread.sleep(millis);
+            }
+            catch(InterruptedException e)
+            {
+                throw new RMIException("interrupted", e);
+            }
+
+            return value;
+        }
+    }
+
+    /** Server called. */
+    private TCPServer<Delayed>      server;
+    /** Connection under test. */
+    private MultiplexedConnection   connection;
+    /** Index of the method called. */
+    private int                     echo;
+
+    /** Starts the server on a system-assigned loopback port.
+
+        @throws TestFailed If the server cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            server = new TCPServer<Delayed>(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4,
+                Delayed.class, new DelayedImpl());
+            server.startServer();
+            echo = MethodTable.of(Delayed.class).indexOf(
+                Delayed.class.getMethod("echo", int.class, int.class));
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to start server", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            ensureOutOfOrderReplies();
+            ensureTableBounded();
+            ensureStagesOffReader();
+            ensureListenersOffReader();
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to use connection", e);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+    }
+
+    /** Sends a slow call, then a fast one. */
+    private void ensureOutOfOrderReplies()
+        throws TestFailed, IOException, RMIException
+    {
+        connect(4);
+
+        CompletableFuture<Frame>    slow = send(1, SLOW);
+        CompletableFuture<Frame>    fast = send(2, 0);
+
+        if(value(fast) != 2)
+            throw new TestFailed("fast call got another reply");
+
+        if(slow.isDone())
+            throw new TestFailed("slow call answered before the fast one");
+
+        if(value(slow) != 1)
+            throw new TestFailed("slow call got another reply");
+    }
+
+    /** Fills a table of two slots, and wraps call ids around it. */
+    private void ensureTableBounded()
+        throws TestFailed, IOException, RMIException
+    {
+        connect(2);
+
+        CompletableFuture<Frame>    first = send(1, SLOW);
+        CompletableFuture<Frame>    second = send(2, SLOW);
+        final CompletableFuture<CompletableFuture<Frame>>   third =
+            new CompletableFuture<CompletableFuture<Frame>>();
+
+        Thread  sender = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    third.complete(send(3, 0));
+                }
+                catch(RMIException e)
+                {
+                    third.completeExceptionally(e);
+                }
+            }
+        });
+        sender.start();
+
+        try
+        {
+            Thread.sleep(SLOW / 3);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+
+        if(third.isDone())
+            throw new TestFailed("call sent with the table full");
+
+        if(value(first) != 1 || value(second) != 2)
+            throw new TestFailed("calls of a full table got other replies");
+
+        if(value(await(third)) != 3)
+            throw new TestFailed("waiting call got another reply");
+
+        for(int i = 0; i < 8; ++i)
+        {
+            if(value(send(i, 0)) != i)
+                throw new TestFailed("wrapped call id got another reply");
+        }
+    }
+
+    /** Makes a blocking call from a stage of a returned future. */
+    private void ensureStagesOffReader()
+        throws TestFailed, IOException, RMIException
+    {
+        connect(4);
+
+        CompletableFuture<Object>   nested = send(1, 0).thenApply(
+            new Function<Frame, Object>()
+            {
+                @Override
+                public Object apply(Frame reply)
+                {
+                    if(onReader())
+                        return "stage ran on the reader thread";
+
+                    try
+                    {
+                        return connection.call(echo, arguments(2, 0));
+                    }
+                    catch(RMIException e)
+                    {
+                        return e;
+                    }
+                }
+            });
+
+        Object  result = await(nested);
+
+        if(!(result instanceof Frame))
+            throw new TestFailed("blocking call from a stage failed: " + result);
+
+        if(value((Frame)result) != 2)
+            throw new TestFailed("blocking call from a stage got another reply");
+    }
+
+    /** Makes a blocking call from a notice listener. */
+    private void ensureListenersOffReader()
+        throws TestFailed, IOException, RMIException
+    {
+        connect(4);
+
+        final LinkedBlockingQueue<Object>   results =
+            new LinkedBlockingQueue<Object>();
+
+        connection.subscribe(new NoticeListener()
+        {
+            @Override
+            public void notice(Object notice)
+            {
+                if(onReader())
+                {
+                    results.add("listener ran on the reader thread");
+                    return;
+                }
+
+                try
+                {
+                    results.add(connection.call(echo,
+                        arguments((Integer)notice, 0)));
+                }
+                catch(RMIException e)
+                {
+                    results.add(e);
+                }
+            }
+
+            @Override
+            public void lost()
+            {
+                // the test closes the connection itself
+            }
+        });
+
+        // the subscription reaches the server before the call returns
+        value(send(0, 0));
+        server.publish(5);
+
+        Object  result;
+        try
+        {
+            result = results.poll(TIMEOUT, TimeUnit.SECONDS);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+
+        if(!(result instanceof Frame))
+            throw new TestFailed("blocking call from a listener failed: " + result);
+
+        if(value((Frame)result) != 5)
+            throw new TestFailed("blocking call from a listener got another reply");
+    }
+
+    /** Replaces the connection by one with a table of the given size. */
+    private void connect(int maxInFlight) throws IOException
+    {
+        close();
+        connection = new MultiplexedConnection(server.getAddress(), maxInFlight);
+    }
+
+    /** Sends a call to the echo method. */
+    private CompletableFuture<Frame> send(int value, int millis)
+        throws RMIException
+    {
+        return connection.send(echo, arguments(value, millis));
+    }
+
+    /** Encodes the arguments of the echo method. */
+    private byte[] arguments(int value, int millis) throws RMIException
+    {
+        try
+        {
+            return connection.getCodec().encodeArguments(
+                new Class<?>[] {int.class, int.class},
+                new Object[] {value, millis});
+        }
+        catch(IOException e)
+        {
+            throw new RMIException("unable to encode arguments", e);
+        }
+    }
+
+    /** Waits for a reply and decodes the value it returns. */
+    private int value(CompletableFuture<Frame> reply) throws TestFailed
+    {
+        return value(await(reply));
+    }
+
+    /** Decodes the value a reply returns. */
+    private int value(Frame reply) throws TestFailed
+    {
+        if(reply.getType() != Protocol.RETURN)
+            throw new TestFailed("call failed: " + reply);
+
+        try
+        {
+            return (Integer)connection.getCodec().decodeResult(int.class,
+                reply.getPayload());
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to decode reply", e);
+        }
+    }
+
+    /** Waits for a future. */
+    private static <V> V await(CompletableFuture<V> future) throws TestFailed
+    {
+        try
+        {
+            return future.get(TIMEOUT, TimeUnit.SECONDS);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+        catch(ExecutionException e)
+        {
+            throw new TestFailed("call failed", e.getCause());
+        }
+        catch(TimeoutException e)
+        {
+            throw new TestFailed("no reply in " + TIMEOUT + " seconds", e);
+        }
+    }
+
+    /** Tells whether the current thread reads a connection. */
+    private static boolean onReader()
+    {
+        return Thread.currentThread().getName()
+            .startsWith("MultiplexedConnection-reader");
+    }
+
+    /** Closes the connection, if any. */
+    private void close()
+    {
+        if(connection != null)
+            connection.close(new IOException("test over"));
+
+        connection = null;
+    }
+
+    /** Closes the connection and stops the server. */
+    @Override
+    protected void clean()
+    {
+        close();
+
+        if(server != null &&
+           server.getServerState() != ServerState.SHUTDOWN &&
+           server.getServerState() != ServerState.CREATED)
+        {
+            server.shutDown();
+        }
+
+        server = null;
+    }
+}
@@ -0,0 +1,274 @@
+package rmi.client.pool;
+
+import rmi.RMIException;
+import rmi.server.ServerState;
+import rmi.server.TCPServer;
+import test.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/** Unit tests for the client connection pool.
+
+    <p>
+    The tests performed are:
+    <ul>
+    <li>A connection handed back is borrowed again, an invalidated one is
+        not.</li>
+    <li>No more connections than the pool size are borrowed at a time; a
+        borrower waits until one is handed back.</li>
+    <li>Connections idle for longer than the idle timeout are closed by
+        eviction.</li>
+    <li>A shared pool left without connections is retired: the address gets
+        a new pool, and the old one keeps no connection handed back.</li>
+    </ul>
+ */
+public class ConnectionPoolTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the connection pool";
+
+    /** Milliseconds a borrower is expected to keep waiting. */
+    private static final int    WAIT = 200;
+    /** Idle timeout of pools expected to evict, in milliseconds. */
+    private static final int    IDLE = 40;
+    /** Seconds to wait for a borrow or a retirement. */
+    private static final int    TIMEOUT = 2;
+
+    /** Remote interface of the server connected to. */
+    public interface Echo
+    {
+        int echo(int value) throws RMIException;
+    }
+
+    /** Implementation returning its argument. */
+    public static class EchoImpl implements Echo
+    {
+        @Override
+        public int echo(int value) throws RMIException
+        {
+            return value;
+        }
+    }
+
+    /** Server connected to. */
+    private TCPServer<Echo>     server;
+    /** Address of the server. */
+    private SocketAddress       address;
+
+    /** Starts the server on a system-assigned loopback port.
+
+        @throws TestFailed If the server cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            server = new TCPServer<Echo>(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4,
+                Echo.class, new EchoImpl());
+            server.startServer();
+            address = server.getAddress();
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to start server", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            ensureReused();
+            ensureBounded();
+            ensureEvicted();
+            ensureRetired();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to borrow a connection", e);
+        }
+    }
+
+    /** Borrows a connection handed back, then one invalidated. */
+    private void ensureReused() throws TestFailed, RMIException
+    {
+        ConnectionPool  pool = new ConnectionPool(address, 2, 60000);
+        Connection      first = pool.borrow();
+
+        pool.release(first);
+
+        if(pool.getIdleCount() != 1)
+            throw new TestFailed("connection handed back not kept");
+
+        Connection      second = pool.borrow();
+
+        if(second != first)
+            throw new TestFailed("connection handed back not reused");
+
+        pool.invalidate(second);
+
+        Connection      third = pool.borrow();
+
+        if(third == first)
+            throw new TestFailed("invalidated connection reused");
+
+        pool.invalidate(third);
+    }
+
+    /** Borrows more connections than the pool holds. */
+    private void ensureBounded() throws TestFailed, RMIException
+    {
+        final ConnectionPool    pool = new ConnectionPool(address, 2, 60000);
+        Connection              first = pool.borrow();
+        Connection              second = pool.borrow();
+        final CompletableFuture<Connection> third =
+            new CompletableFuture<Connection>();
+
+        Thread  borrower = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    third.complete(pool.borrow());
+                }
+                catch(RMIException e)
+                {
+                    third.completeExceptionally(e);
+                }
+            }
+        });
+        borrower.start();
+
+        sleep(WAIT);
+
+        if(third.isDone())
+            throw new TestFailed("connection borrowed from an exhausted pool");
+
+        pool.release(first);
+
+        Connection  borrowed = await(third);
+
+        if(borrowed != first)
+            throw new TestFailed("waiting borrower got a new connection");
+
+        pool.invalidate(borrowed);
+        pool.invalidate(second);
+    }
+
+    /** Lets a connection idle past the idle timeout. */
+    private void ensureEvicted() throws TestFailed, RMIException
+    {
+        ConnectionPool  pool = new ConnectionPool(address, 2, IDLE);
+        Connection      first = pool.borrow();
+
+        pool.release(first);
+        sleep(3 * IDLE);
+        pool.evictIdle();
+
+        if(pool.getIdleCount() != 0)
+            throw new TestFailed("idle connection not evicted");
+
+        Connection      second = pool.borrow();
+
+        if(second == first)
+            throw new TestFailed("evicted connection reused");
+
+        pool.invalidate(second);
+    }
+
+    /** Lets a shared pool go unused until it is retired. */
+    private void ensureRetired() throws TestFailed, RMIException
+    {
+        ConnectionPool  shared = ConnectionPool.of(address, 1, IDLE);
+
+        if(ConnectionPool.of(address) != shared)
+            throw new TestFailed("address has more than one shared pool");
+
+        pool(shared);
+
+        long    deadline = System.currentTimeMillis() + TIMEOUT * 1000;
+
+        while(ConnectionPool.of(address, 1, IDLE) == shared)
+        {
+            if(System.currentTimeMillis() > deadline)
+                throw new TestFailed("unused shared pool not retired");
+
+            sleep(IDLE);
+        }
+
+        pool(shared);
+
+        if(shared.getIdleCount() != 0)
+            throw new TestFailed("retired pool kept a connection");
+    }
+
+    /** Borrows a connection and hands it back. */
+    private static void pool(ConnectionPool pool) throws RMIException
+    {
+        pool.release(pool.borrow());
+    }
+
+    /** Waits for a borrowed connection. */
+    private static Connection await(CompletableFuture<Connection> future)
+        throws TestFailed
+    {
+        try
+        {
+            return future.get(TIMEOUT, TimeUnit.SECONDS);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+        catch(ExecutionException e)
+        {
+            throw new TestFailed("waiting borrower failed", e.getCause());
+        }
+        catch(TimeoutException e)
+        {
+            throw new TestFailed("connection handed back not borrowed", e);
+        }
+    }
+
+    /** Sleeps for some milliseconds. */
+    private static void sleep(int millis) throws TestFailed
+    {
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+    }
+
+    /** Stops the server. */
+    @Override
+    protected void clean()
+    {
+        if(server != null &&
+           server.getServerState() != ServerState.SHUTDOWN &&
+           server.getServerState() != ServerState.CREATED)
+        {
+            server.shutDown();
+        }
+
+        server = null;
+    }
+}
@@ -0,0 +1,323 @@
+package rmi.events;
+
+import rmi.RMIException;
+import rmi.Stub;
+import rmi.server.ServerState;
+import rmi.server.TCPServer;
+import test.*;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import jdk.jfr.consumer.RecordingStream;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/** Unit tests for the flight recorder events.
+
+    <p>
+    The tests performed are:
+    <ul>
+    <li>Without a recording enabling them, no event is created: the factory
+        of every event returns <code>null</code>.</li>
+    <li>Calls and connections made during a recording which disables the
+        events create and commit none of them.</li>
+    <li>Once a recording enables them, the same calls and connections commit
+        the stub call, dispatch and connection events. The server commits
+        some of them after the stub has its reply, so they are streamed
+        until they all arrive.</li>
+    </ul>
+ */
+public class EventsTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking flight recorder events";
+
+    /** Seconds to wait for the server to open or close a connection. */
+    private static final int    TIMEOUT = 10;
+
+    /** Names of the events the calls and connections commit. */
+    private static final String[]   COMMITTED =
+        {"rmi.StubCall", "rmi.Dispatch", "rmi.ConnectionAccepted",
+         "rmi.ConnectionClosed"};
+    /** Name of the event no call or connection commits. */
+    private static final String     EXHAUSTED = "rmi.PoolExhausted";
+
+    /** Remote interface of the server. */
+    public interface Echo
+    {
+        String echo(String message) throws RMIException;
+    }
+
+    /** Implementation returning its argument. */
+    public static class EchoImpl implements Echo
+    {
+        @Override
+        public String echo(String message)
+        {
+            return message;
+        }
+    }
+
+    /** Server called. */
+    private TCPServer<Echo>     server;
+    /** File the recordings are dumped to. */
+    private Path                dump;
+
+    /** Starts the server on a system-assigned loopback port.
+
+        @throws TestFailed If the server cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            server = new TCPServer<Echo>(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4,
+                Echo.class, new EchoImpl());
+            server.startServer();
+            dump = Files.createTempFile("events", ".jfr");
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to start server", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        checkCreated(false);
+
+        Set<String>     recorded;
+        // events are enabled in any recording unless disabled
+        Recording       recording = new Recording();
+        for(String name : COMMITTED)
+            recording.disable(name);
+        recording.disable(EXHAUSTED);
+
+        try
+        {
+            recording.start();
+            checkCreated(false);
+            use();
+            recorded = recorded(recording);
+        }
+        finally
+        {
+            recording.close();
+        }
+
+        if(!recorded.isEmpty())
+            throw new TestFailed("events committed while disabled: " + recorded);
+
+        RecordingStream stream = new RecordingStream();
+        for(String name : COMMITTED)
+            stream.enable(name).withThreshold(Duration.ZERO);
+        stream.enable(EXHAUSTED);
+
+        final Set<String>   streamed =
+            ConcurrentHashMap.<String>newKeySet();
+        stream.onEvent(new Consumer<RecordedEvent>()
+        {
+            @Override
+            public void accept(RecordedEvent event)
+            {
+                streamed.add(event.getEventType().getName());
+            }
+        });
+
+        try
+        {
+            stream.startAsync();
+            checkCreated(true);
+            use();
+            waitForEvents(streamed);
+        }
+        finally
+        {
+            stream.close();
+        }
+
+        checkCreated(false);
+    }
+
+    /** Checks whether the factory of every event creates one. */
+    private static void checkCreated(boolean enabled) throws TestFailed
+    {
+        Object[]    events = {StubCallEvent.ifEnabled(),
+                              DispatchEvent.ifEnabled(),
+                              ConnectionAcceptedEvent.ifEnabled(),
+                              ConnectionClosedEvent.ifEnabled(),
+                              PoolExhaustedEvent.ifEnabled()};
+
+        for(Object event : events)
+        {
+            if((event != null) != enabled)
+            {
+                throw new TestFailed("events created " +
+                                     (enabled ? "only while" : "while not") +
+                                     " enabled");
+            }
+        }
+    }
+
+    /** Calls the server through a stub, and opens and closes a
+        connection. */
+    private void use() throws TestFailed
+    {
+        InetSocketAddress   address = (InetSocketAddress)server.getAddress();
+
+        try
+        {
+            if(!"hello".equals(Stub.create(Echo.class, address).echo("hello")))
+                throw new TestFailed("wrong reply");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        // pooled stub connections stay open
+        int     pooled = server.getConnectionCount();
+        Socket  socket;
+
+        try
+        {
+            socket = new Socket(address.getAddress(), address.getPort());
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to connect", e);
+        }
+
+        try
+        {
+            waitForConnections(pooled + 1);
+        }
+        finally
+        {
+            try
+            {
+                socket.close();
+            }
+            catch(IOException e)
+            {
+                // nothing was sent on it
+            }
+        }
+
+        waitForConnections(pooled);
+    }
+
+    /** Waits until the server has a number of open connections. */
+    private void waitForConnections(int connections) throws TestFailed
+    {
+        long    deadline = System.currentTimeMillis() + TIMEOUT * 1000;
+
+        while(server.getConnectionCount() != connections)
+        {
+            if(System.currentTimeMillis() > deadline)
+            {
+                throw new TestFailed("server has " +
+                                     server.getConnectionCount() +
+                                     " connections instead of " + connections);
+            }
+
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted", e);
+            }
+        }
+    }
+
+    /** Waits until every event the calls and connections commit has been
+        streamed. */
+    private static void waitForEvents(Set<String> streamed) throws TestFailed
+    {
+        long    deadline = System.currentTimeMillis() + TIMEOUT * 1000;
+
+        while(!streamed.containsAll(Arrays.asList(COMMITTED)))
+        {
+            if(System.currentTimeMillis() > deadline)
+                throw new TestFailed("events not committed: " + streamed);
+
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted", e);
+            }
+        }
+    }
+
+    /** Returns the names of the events of this package in a recording. */
+    private Set<String> recorded(Recording recording) throws TestFailed
+    {
+        Set<String>     names = new HashSet<String>();
+
+        try
+        {
+            recording.stop();
+            recording.dump(dump);
+
+            for(RecordedEvent event : RecordingFile.readAllEvents(dump))
+            {
+                if(event.getEventType().getName().startsWith("rmi."))
+                    names.add(event.getEventType().getName());
+            }
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to read recording", e);
+        }
+
+        return names;
+    }
+
+    /** Stops the server and removes the recording. */
+    @Override
+    protected void clean()
+    {
+        if(server != null &&
+           server.getServerState() != ServerState.SHUTDOWN &&
+           server.getServerState() != ServerState.CREATED)
+        {
+            server.shutDown();
+        }
+
+        try
+        {
+            if(dump != null)
+                Files.deleteIfExists(dump);
+        }
+        catch(IOException e)
+        {
+            // left in the temporary directory
+        }
+
+        server = null;
+    }
+}
@@ -0,0 +1,256 @@
+package rmi.management;
+
+import rmi.RMIException;
+import rmi.server.NIOServer;
+import rmi.server.RMIServer;
+import rmi.server.ServerState;
+import rmi.server.TCPServer;
+import test.*;
+
+import javax.management.JMException;
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/** Unit tests for the management bean of a skeleton.
+
+    <p>
+    The tests performed are, for a blocking and a selector based server:
+    <ul>
+    <li>The bean registered for a server reports its interface, address,
+        state and the calls of each method.</li>
+    <li>Pausing through the bean stops the server accepting connections, and
+        resuming accepts them again on the same address.</li>
+    <li>Once unregistered, the bean is gone from the platform MBean
+        server.</li>
+    </ul>
+ */
+public class SkeletonManagementTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the skeleton management bean";
+
+    /** Remote interface of the server. */
+    public interface Counter
+    {
+        int next() throws RMIException;
+    }
+
+    /** Implementation counting its calls. */
+    public static class CounterImpl implements Counter
+    {
+        /** Calls so far. */
+        private int calls;
+
+        @Override
+        public synchronized int next()
+        {
+            return ++calls;
+        }
+    }
+
+    /** Server managed. */
+    private RMIServer<Counter>  server;
+    /** Name of the bean of the server. */
+    private ObjectName          name;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            server = new TCPServer<Counter>(loopback(), 4, Counter.class,
+                                            new CounterImpl());
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to create server", e);
+        }
+
+        ensureManaged();
+        clean();
+
+        try
+        {
+            server = new NIOServer<Counter>(loopback(), 4, Counter.class,
+                                            new CounterImpl());
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to create server", e);
+        }
+
+        ensureManaged();
+    }
+
+    /** Address on a system-assigned loopback port. */
+    private static InetSocketAddress loopback()
+    {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    }
+
+    /** Starts the server, registers its bean and manages the server
+        through it. */
+    private void ensureManaged() throws TestFailed
+    {
+        server.startServer();
+
+        name = SkeletonManagement.register(server);
+        if(name == null)
+            throw new TestFailed("unable to register management bean");
+
+        MBeanServer     mbeans = ManagementFactory.getPlatformMBeanServer();
+
+        try
+        {
+            ensureAttributes(mbeans);
+            ensurePauseRefusesConnections(mbeans);
+        }
+        catch(JMException e)
+        {
+            throw new TestFailed("unable to use management bean", e);
+        }
+
+        SkeletonManagement.unregister(name);
+        if(mbeans.isRegistered(name))
+            throw new TestFailed("management bean still registered");
+
+        name = null;
+    }
+
+    /** Reads the attributes of the bean, before and after a call. */
+    private void ensureAttributes(MBeanServer mbeans)
+        throws TestFailed, JMException
+    {
+        if(!Counter.class.getName().equals(
+               mbeans.getAttribute(name, "Service")))
+        {
+            throw new TestFailed("wrong service: " +
+                                 mbeans.getAttribute(name, "Service"));
+        }
+
+        if(!String.valueOf(server.getAddress()).equals(
+               mbeans.getAttribute(name, "Address")))
+        {
+            throw new TestFailed("wrong address: " +
+                                 mbeans.getAttribute(name, "Address"));
+        }
+
+        checkState(mbeans, ServerState.LISTENNING);
+
+        try
+        {
+            server.invokeLocal(0, new Object[0]).get();
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+        catch(ExecutionException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        // maps are open data to a JMX console, read them back as a client
+        SkeletonMXBean      bean = JMX.newMXBeanProxy(mbeans, name,
+                                                      SkeletonMXBean.class);
+        Map<String, Long>   calls = bean.getMethodCallCounts();
+
+        if(calls.size() != 1 ||
+           calls.values().iterator().next().longValue() != 1)
+        {
+            throw new TestFailed("wrong call counts: " + calls);
+        }
+
+        if(!calls.keySet().equals(bean.getMethodErrorCounts().keySet()))
+            throw new TestFailed("error counts of other methods");
+    }
+
+    /** Pauses and resumes the server through the bean. */
+    private void ensurePauseRefusesConnections(MBeanServer mbeans)
+        throws TestFailed, JMException
+    {
+        SocketAddress   address = server.getAddress();
+
+        mbeans.invoke(name, "pause", null, null);
+        checkState(mbeans, ServerState.PAUSE_LISTENNING);
+
+        if(connects(address))
+            throw new TestFailed("paused server accepted a connection");
+
+        mbeans.invoke(name, "resume", null, null);
+        checkState(mbeans, ServerState.LISTENNING);
+
+        if(!connects(address))
+            throw new TestFailed("resumed server refused a connection");
+    }
+
+    /** Checks the state reported by the bean. */
+    private void checkState(MBeanServer mbeans, ServerState expected)
+        throws TestFailed, JMException
+    {
+        if(!expected.name().equals(mbeans.getAttribute(name, "ServerState")))
+        {
+            throw new TestFailed("server reported " +
+                                 mbeans.getAttribute(name, "ServerState") +
+                                 " instead of " + expected);
+        }
+    }
+
+    /** Tells whether a connection to an address is accepted. */
+    private static boolean connects(SocketAddress address)
+    {
+        Socket  socket = new Socket();
+
+        try
+        {
+            socket.connect(address);
+            return true;
+        }
+        catch(IOException e)
+        {
+            return false;
+        }
+        finally
+        {
+            try
+            {
+                socket.close();
+            }
+            catch(IOException e)
+            {
+                // nothing was sent on it
+            }
+        }
+    }
+
+    /** Unregisters the bean and stops the server. */
+    @Override
+    protected void clean()
+    {
+        if(name != null)
+            SkeletonManagement.unregister(name);
+
+        if(server != null &&
+           server.getServerState() != ServerState.SHUTDOWN &&
+           server.getServerState() != ServerState.CREATED)
+        {
+            server.shutDown();
+        }
+
+        name = null;
+        server = null;
+    }
+}
@@ -0,0 +1,89 @@
+package rmi.metrics;
+
+import test.*;
+
+/** Unit tests for latency histograms.
+
+    <p>
+    The tests performed are:
+    <ul>
+    <li>Every value falls in a bucket whose bounds enclose it, within one
+        eighth of the value.</li>
+    <li>Quantiles of recorded values are found in the right bucket.</li>
+    </ul>
+ */
+public class LatencyHistogramTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking latency histograms";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        ensureBucketBounds();
+        ensureQuantiles();
+    }
+
+    /** Checks the bucket of values around every power of two. */
+    private void ensureBucketBounds() throws TestFailed
+    {
+        for(int shift = 0; shift < 38; ++shift)
+        {
+            for(long delta = -1; delta <= 1; ++delta)
+            {
+                long    value = Math.max(0, (1L << shift) + delta);
+                int     bucket = LatencyHistogram.bucketOf(value);
+                long    upper = LatencyHistogram.upperBoundOf(bucket);
+                long    lower = (bucket == 0) ? 0 :
+                                LatencyHistogram.upperBoundOf(bucket - 1) + 1;
+
+                if(value < lower || value > upper)
+                {
+                    throw new TestFailed("value " + value + " outside bucket " +
+                                         bucket + " [" + lower + ", " +
+                                         upper + "]");
+                }
+
+                if(upper - lower > value / 8)
+                {
+                    throw new TestFailed("bucket " + bucket + " too wide " +
+                                         "for value " + value);
+                }
+            }
+        }
+
+        if(LatencyHistogram.bucketOf(Long.MAX_VALUE) !=
+           LatencyHistogram.BUCKETS - 1)
+        {
+            throw new TestFailed("huge value not in the last bucket");
+        }
+    }
+
+    /** Records 1 to 1000 microseconds and checks the median and maximum. */
+    private void ensureQuantiles() throws TestFailed
+    {
+        LatencyHistogram    histogram = new LatencyHistogram();
+
+        for(long micros = 1; micros <= 1000; ++micros)
+            histogram.record(micros * 1000);
+
+        LatencyHistogram.Snapshot   snapshot = histogram.snapshot();
+        long                        median = snapshot.getValueAt(0.5);
+
+        if(snapshot.getCount() != 1000)
+            throw new TestFailed("count " + snapshot.getCount());
+
+        if(median < 500000 || median > 500000 + 500000 / 8)
+            throw new TestFailed("median " + median);
+
+        if(snapshot.getValueAt(1.0) != 1000000 ||
+           snapshot.getMax() != 1000000)
+        {
+            throw new TestFailed("maximum " + snapshot.getMax());
+        }
+    }
+}
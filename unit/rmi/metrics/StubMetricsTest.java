@@ -0,0 +1,232 @@
+package rmi.metrics;
+
+import rmi.RMIException;
+import rmi.Skeleton;
+import rmi.Stub;
+import rmi.config.Config;
+import test.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.UnknownHostException;
+
+/** Unit tests for the metrics stubs record about their calls.
+
+    <p>
+    The tests performed are:
+    <ul>
+    <li>Stubs for the same address share their metrics, listed by
+        <code>StubMetrics.all</code> and kept by method signature.</li>
+    <li>Each call is counted, and its wait on the server recorded; calls
+        through a socket also record the connection, the bytes sent and
+        received, and the time to encode and decode.</li>
+    <li>An exception thrown by the server counts as an error and a remote
+        exception; a server which cannot be reached only as an error.</li>
+    </ul>
+ */
+public class StubMetricsTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking stub metrics";
+
+    /** Successful calls made. */
+    private static final int    CALLS = 5;
+    /** Signature of the method called. */
+    private static final String ECHO = "echo(java.lang.String)";
+
+    /** Remote interface of the skeleton. */
+    public interface Echo
+    {
+        String echo(String value) throws RMIException;
+    }
+
+    /** Implementation returning its argument, and throwing on
+        <code>null</code>. */
+    public static class EchoImpl implements Echo
+    {
+        @Override
+        public String echo(String value)
+        {
+            if(value == null)
+                throw new IllegalArgumentException("nothing to echo");
+
+            return value;
+        }
+    }
+
+    /** Skeleton called. */
+    private Skeleton<Echo>  skeleton;
+
+    /** Starts the skeleton on a system-assigned loopback port.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            skeleton = new Skeleton<Echo>(Echo.class, new EchoImpl(),
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            ensureCallsRecorded();
+            ensureUnreachableRecorded();
+        }
+        catch(UnknownHostException e)
+        {
+            throw new TestFailed("unable to create stub", e);
+        }
+    }
+
+    /** Makes successful calls and one the server fails. */
+    private void ensureCallsRecorded() throws TestFailed, UnknownHostException
+    {
+        Echo            stub = Stub.create(Echo.class, skeleton);
+        StubMetrics     metrics = Stub.getMetrics(stub);
+
+        if(Stub.getMetrics(Stub.create(Echo.class, skeleton)) != metrics)
+            throw new TestFailed("stubs for one address have their own metrics");
+
+        if(StubMetrics.all().get(metrics.getAddress()) != metrics)
+            throw new TestFailed("metrics of an address not listed");
+
+        CallMetrics     echo = metrics.byMethod().get(ECHO);
+
+        if(echo == null)
+            throw new TestFailed("no metrics for " + ECHO);
+
+        // a port may be reused by an earlier test, only compare differences
+        long            calls = echo.getCalls();
+        long            errors = echo.getErrors();
+        long            remote = echo.getRemoteExceptions();
+        long            waits = echo.getServerWait().getCount();
+        long            connects = echo.getConnect().getCount();
+        long            encoded = echo.getSerialization().getCount();
+        long            decoded = echo.getDeserialization().getCount();
+        long            out = echo.getBytesOut();
+        long            in = echo.getBytesIn();
+
+        try
+        {
+            for(int i = 0; i < CALLS; ++i)
+                stub.echo("value " + i);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        try
+        {
+            stub.echo(null);
+            throw new TestFailed("call failed by the server returned");
+        }
+        catch(IllegalArgumentException e)
+        {
+            // thrown by the server
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("server exception not thrown", e);
+        }
+
+        check("calls", echo.getCalls() - calls, CALLS + 1);
+        check("errors", echo.getErrors() - errors, 1);
+        check("remote exceptions", echo.getRemoteExceptions() - remote, 1);
+        check("server waits", echo.getServerWait().getCount() - waits,
+              CALLS + 1);
+
+        boolean         local = Config.LOCAL_CALLS;
+
+        int             socketCalls = local ? 0 : CALLS + 1;
+
+        check("connections", echo.getConnect().getCount() - connects,
+              socketCalls);
+        check("encodings", echo.getSerialization().getCount() - encoded,
+              socketCalls);
+        check("decodings", echo.getDeserialization().getCount() - decoded,
+              socketCalls);
+
+        if(local != (echo.getBytesOut() == out) ||
+           local != (echo.getBytesIn() == in))
+        {
+            throw new TestFailed("bytes " + (local ? "" : "not ") +
+                                 "counted for calls " +
+                                 (local ? "within the JVM" : "over a socket"));
+        }
+    }
+
+    /** Calls a server which is not listening. */
+    private void ensureUnreachableRecorded()
+        throws TestFailed, UnknownHostException
+    {
+        InetSocketAddress   address;
+
+        try(ServerSocket socket =
+                new ServerSocket(0, 1, InetAddress.getLoopbackAddress()))
+        {
+            address = (InetSocketAddress)socket.getLocalSocketAddress();
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to find a free port", e);
+        }
+
+        Echo            stub = Stub.create(Echo.class, address);
+        CallMetrics     echo = Stub.getMetrics(stub).byMethod().get(ECHO);
+        long            errors = echo.getErrors();
+        long            remote = echo.getRemoteExceptions();
+
+        try
+        {
+            stub.echo("lost");
+            throw new TestFailed("call to an unreachable server returned");
+        }
+        catch(RMIException e)
+        {
+            // not connected
+        }
+
+        check("errors", echo.getErrors() - errors, 1);
+        check("remote exceptions", echo.getRemoteExceptions() - remote, 0);
+    }
+
+    /** Checks a difference of a metric. */
+    private static void check(String metric, long difference, long expected)
+        throws TestFailed
+    {
+        if(difference != expected)
+        {
+            throw new TestFailed(difference + " " + metric + " recorded " +
+                                 "instead of " + expected);
+        }
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        skeleton = null;
+    }
+}
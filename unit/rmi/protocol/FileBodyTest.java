@@ -0,0 +1,292 @@
+package rmi.protocol;
+
+import rmi.RMIException;
+import rmi.Stub;
+import rmi.server.ServerState;
+import rmi.server.TCPServer;
+import test.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/** Unit tests for bodies returned without serialization.
+
+    <p>
+    The tests performed are:
+    <ul>
+    <li>A region of an open file is sent as its bytes, without moving the
+        position of the file channel.</li>
+    <li>A body returned by a call is received into a heap buffer, into a
+        buffer given by the caller, or into a file at a given position
+        without moving the position of the caller's file channel.</li>
+    <li>A body which does not fit in the buffer given fails the call.</li>
+    </ul>
+ */
+public class FileBodyTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking file bodies";
+
+    /** Bytes of the file returned. */
+    private static final byte[] CONTENT = "0123456789abcdef".getBytes();
+
+    /** Remote interface returning bodies. */
+    public interface Bodies
+    {
+        FileBody file() throws RMIException;
+        FileBody bytes() throws RMIException;
+    }
+
+    /** Implementation returning the file, or its bytes from the heap. */
+    public static class BodiesImpl implements Bodies
+    {
+        /** File returned. */
+        private final Path  file;
+
+        BodiesImpl(Path file)
+        {
+            this.file = file;
+        }
+
+        @Override
+        public FileBody file() throws RMIException
+        {
+            try
+            {
+                return FileBody.of(file);
+            }
+            catch(IOException e)
+            {
+                throw new RMIException(e);
+            }
+        }
+
+        @Override
+        public FileBody bytes()
+        {
+            return FileBody.wrap(CONTENT.clone());
+        }
+    }
+
+    /** Server called. */
+    private TCPServer<Bodies>   server;
+    /** File returned by the server. */
+    private Path                source;
+    /** File bodies are received into. */
+    private Path                received;
+
+    /** Creates the files and starts the server on a system-assigned
+        loopback port.
+
+        @throws TestFailed If the server cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            source = Files.createTempFile("body", ".src");
+            received = Files.createTempFile("body", ".dst");
+            Files.write(source, CONTENT);
+
+            server = new TCPServer<Bodies>(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4,
+                Bodies.class, new BodiesImpl(source));
+            server.startServer();
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to start server", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        final Bodies    stub = Stub.create(Bodies.class,
+            (InetSocketAddress)server.getAddress());
+
+        try
+        {
+            ensureRegionSent();
+            ensureReceivedIntoHeap(stub);
+            ensureReceivedIntoBuffer(stub);
+            ensureReceivedIntoFile(stub);
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to use file", e);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+    }
+
+    /** Sends a region of an open file. */
+    private void ensureRegionSent() throws TestFailed, IOException
+    {
+        try(FileChannel channel = FileChannel.open(source,
+                                                   StandardOpenOption.READ))
+        {
+            ByteArrayOutputStream   bytes = new ByteArrayOutputStream();
+            FileBody                body = FileBody.of(channel, 2, 5);
+
+            channel.position(1);
+            body.transferTo(Channels.newChannel(bytes));
+            body.close();
+
+            if(!Arrays.equals(Arrays.copyOfRange(CONTENT, 2, 7),
+                              bytes.toByteArray()))
+            {
+                throw new TestFailed("wrong region sent: " + bytes);
+            }
+
+            if(channel.position() != 1)
+                throw new TestFailed("sending moved the file position");
+
+            if(!channel.isOpen())
+                throw new TestFailed("body closed the caller's channel");
+        }
+    }
+
+    /** Receives a body without a target. */
+    private void ensureReceivedIntoHeap(Bodies stub)
+        throws TestFailed, IOException, RMIException
+    {
+        checkContent(stub.file().asByteBuffer(), "file received into heap");
+        checkContent(stub.bytes().asByteBuffer(), "bytes received into heap");
+    }
+
+    /** Receives a body into a buffer given by the caller. */
+    private void ensureReceivedIntoBuffer(final Bodies stub)
+        throws TestFailed, IOException, RMIException
+    {
+        ByteBuffer  target = ByteBuffer.allocateDirect(CONTENT.length + 2);
+        target.position(2);
+
+        FileBody    body = FileBody.receive(target,
+            new FileBody.Call<RMIException>()
+            {
+                @Override
+                public FileBody call() throws RMIException
+                {
+                    return stub.file();
+                }
+            });
+
+        checkContent(body.asByteBuffer(), "body returned from buffer");
+
+        target.flip().position(2);
+        checkContent(target, "file received into buffer");
+
+        try
+        {
+            FileBody.receive(ByteBuffer.allocate(CONTENT.length - 1),
+                new FileBody.Call<RMIException>()
+                {
+                    @Override
+                    public FileBody call() throws RMIException
+                    {
+                        return stub.bytes();
+                    }
+                });
+            throw new TestFailed("body received into a buffer too small");
+        }
+        catch(RMIException e)
+        {
+            // the body does not fit
+        }
+
+        // the connection is still in step
+        checkContent(stub.bytes().asByteBuffer(), "bytes received after");
+    }
+
+    /** Receives a body into a file at a position. */
+    private void ensureReceivedIntoFile(final Bodies stub)
+        throws TestFailed, IOException, RMIException
+    {
+        try(FileChannel channel = FileChannel.open(received,
+                StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            channel.position(1);
+
+            FileBody    body = FileBody.receive(channel, 3,
+                new FileBody.Call<RMIException>()
+                {
+                    @Override
+                    public FileBody call() throws RMIException
+                    {
+                        return stub.file();
+                    }
+                });
+
+            if(channel.position() != 1)
+                throw new TestFailed("receiving moved the file position");
+
+            if(body.length() != CONTENT.length)
+                throw new TestFailed("wrong body length: " + body.length());
+
+            checkContent(body.asByteBuffer(), "body returned from file");
+        }
+
+        byte[]  bytes = Files.readAllBytes(received);
+
+        if(bytes.length != CONTENT.length + 3)
+            throw new TestFailed("wrong file length: " + bytes.length);
+
+        checkContent(ByteBuffer.wrap(bytes, 3, CONTENT.length),
+                     "file received into file");
+    }
+
+    /** Checks the remaining bytes of a buffer against the file. */
+    private static void checkContent(ByteBuffer bytes, String what)
+        throws TestFailed
+    {
+        byte[]  copy = new byte[bytes.remaining()];
+        bytes.duplicate().get(copy);
+
+        if(!Arrays.equals(CONTENT, copy))
+            throw new TestFailed(what + " is wrong: " + new String(copy));
+    }
+
+    /** Stops the server and removes the files. */
+    @Override
+    protected void clean()
+    {
+        if(server != null &&
+           server.getServerState() != ServerState.SHUTDOWN &&
+           server.getServerState() != ServerState.CREATED)
+        {
+            server.shutDown();
+        }
+
+        try
+        {
+            if(source != null)
+                Files.deleteIfExists(source);
+
+            if(received != null)
+                Files.deleteIfExists(received);
+        }
+        catch(IOException e)
+        {
+            // left in the temporary directory
+        }
+
+        server = null;
+    }
+}
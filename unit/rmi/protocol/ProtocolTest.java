@@ -0,0 +1,305 @@
+package rmi.protocol;
+
+import rmi.config.Config;
+import rmi.trace.TraceContext;
+import test.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/** Unit tests for the frame format and method numbering.
+
+    <p>
+    The tests performed are:
+    <ul>
+    <li>Frames survive a write/read round trip.</li>
+    <li>Trace slots survive stream and buffer round trips.</li>
+    <li>Frames with a bad magic number are rejected.</li>
+    <li>Frames longer than the configured limit are rejected before their
+        payload is allocated.</li>
+    <li>A payload read from a stream is allocated as it arrives: a frame
+        cut short after its header costs little memory, and a payload of
+        several chunks survives a round trip.</li>
+    <li>Method indices are stable and follow sorted signatures.</li>
+    </ul>
+ */
+public class ProtocolTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking wire protocol";
+
+    /** Interface numbered in the method table test. */
+    private interface Numbered
+    {
+        void zeta(long x);
+        void alpha(int x);
+        void alpha(String x);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        ensureRoundTrip();
+        ensureTraceRoundTrip();
+        ensureBadMagicRejected();
+        ensureLongFrameRejected();
+        ensurePayloadReadAsItArrives();
+        ensureMethodNumbering();
+    }
+
+    /** Writes a frame and reads it back. */
+    private void ensureRoundTrip() throws TestFailed
+    {
+        byte[]  payload = new byte[] {1, 2, 3};
+        Frame   frame = new Frame(Protocol.CALL, 42, 7, payload);
+
+        try
+        {
+            Frame   copy = Frame.readFrom(read(write(frame)));
+
+            if(copy.getType() != Protocol.CALL || copy.getCallId() != 42 ||
+               copy.getMethodIndex() != 7 || copy.getPayload().length != 3 ||
+               copy.getPayload()[2] != 3)
+            {
+                throw new TestFailed("frame changed in round trip: " + copy);
+            }
+
+            if(write(frame).length != Protocol.HEADER_LENGTH + payload.length)
+                throw new TestFailed("unexpected header length");
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to round trip frame", e);
+        }
+    }
+
+    /** Writes a traced call and reads it back, from a stream and a buffer. */
+    private void ensureTraceRoundTrip() throws TestFailed
+    {
+        TraceContext    trace = TraceContext.root(true);
+        Frame           frame =
+            new Frame(Protocol.CALL, 43, 5, new byte[] {4, 5}, trace);
+
+        try
+        {
+            byte[]      bytes = write(frame);
+            Frame       copy = Frame.readFrom(read(bytes));
+
+            if(bytes.length !=
+               Protocol.HEADER_LENGTH + TraceContext.LENGTH + 2)
+            {
+                throw new TestFailed("unexpected traced frame length");
+            }
+
+            checkTraced(copy, trace);
+            checkTraced(Frame.decode(frame.encode()), trace);
+
+            if(Frame.readFrom(read(write(
+                   new Frame(Protocol.CALL, 1, 0, null)))).getTrace() != null)
+            {
+                throw new TestFailed("untraced frame read with a trace");
+            }
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to round trip traced frame", e);
+        }
+    }
+
+    /** Checks a traced call read back. */
+    private static void checkTraced(Frame copy, TraceContext trace)
+        throws TestFailed
+    {
+        TraceContext    read = copy.getTrace();
+
+        if(copy.getType() != Protocol.CALL || copy.getLength() != 2 ||
+           copy.getPayload()[1] != 5)
+        {
+            throw new TestFailed("traced frame changed: " + copy);
+        }
+
+        if(read == null || !read.getTraceId().equals(trace.getTraceId()) ||
+           read.getSpanId() != trace.getSpanId() || !read.isSampled())
+        {
+            throw new TestFailed("trace slot changed: " + read);
+        }
+    }
+
+    /** Ensures garbage on the wire is not taken for a frame. */
+    private void ensureBadMagicRejected() throws TestFailed
+    {
+        try
+        {
+            byte[]  bytes = write(new Frame(Protocol.RETURN, 1, 0, null));
+            bytes[0] = 0;
+            Frame.readFrom(read(bytes));
+            throw new TestFailed("frame with bad magic accepted");
+        }
+        catch(ProtocolException e) { }
+        catch(IOException e)
+        {
+            throw new TestFailed("unexpected exception for bad magic", e);
+        }
+    }
+
+    /** Ensures a header announcing a huge payload is refused by both the
+        stream and the buffer readers. */
+    private void ensureLongFrameRejected() throws TestFailed
+    {
+        byte[]      bytes = new byte[Protocol.HEADER_LENGTH];
+        ByteBuffer  header = ByteBuffer.wrap(bytes);
+
+        header.putShort(Protocol.MAGIC).put(Protocol.VERSION)
+              .put(Protocol.CALL).putInt(1).putShort((short)0)
+              .putInt(Config.MAX_FRAME_LENGTH + 1).flip();
+
+        try
+        {
+            Frame.readFrom(read(bytes));
+            throw new TestFailed("overlong frame read from a stream");
+        }
+        catch(ProtocolException e) { }
+        catch(IOException e)
+        {
+            throw new TestFailed("unexpected exception for overlong frame",
+                                 e);
+        }
+
+        try
+        {
+            Frame.decode(header);
+            throw new TestFailed("overlong frame decoded from a buffer");
+        }
+        catch(ProtocolException e) { }
+    }
+
+    /** Reads a frame cut short after its header, and a large frame. */
+    private void ensurePayloadReadAsItArrives() throws TestFailed
+    {
+        byte[]      bytes = new byte[Protocol.HEADER_LENGTH + 10];
+
+        ByteBuffer.wrap(bytes).putShort(Protocol.MAGIC).put(Protocol.VERSION)
+              .put(Protocol.CALL).putInt(1).putShort((short)0)
+              .putInt(Config.MAX_FRAME_LENGTH);
+
+        // the HotSpot bean counts the bytes this thread allocates
+        ThreadMXBean    threads = ManagementFactory.getThreadMXBean();
+        long            allocated = allocated(threads);
+
+        try
+        {
+            Frame.readFrom(read(bytes));
+            throw new TestFailed("truncated frame read from a stream");
+        }
+        catch(EOFException e) { }
+        catch(IOException e)
+        {
+            throw new TestFailed("unexpected exception for truncated frame",
+                                 e);
+        }
+
+        allocated = allocated(threads) - allocated;
+        if(allocated > Config.MAX_FRAME_LENGTH / 4)
+        {
+            throw new TestFailed(allocated + " bytes allocated for a frame " +
+                                 "cut short after its header");
+        }
+
+        byte[]      payload = new byte[300 * 1024 + 1];
+        payload[payload.length - 1] = 9;
+
+        try
+        {
+            Frame   copy = Frame.readFrom(read(write(
+                new Frame(Protocol.RETURN, 2, 0, payload))));
+
+            if(copy.getPayload().length != payload.length ||
+               copy.getPayload()[payload.length - 1] != 9)
+            {
+                throw new TestFailed("large payload changed in round trip");
+            }
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to round trip large frame", e);
+        }
+    }
+
+    /** Returns the bytes allocated by this thread so far, or 0 when the
+        virtual machine does not count them. */
+    private static long allocated(ThreadMXBean threads)
+    {
+        if(!(threads instanceof com.sun.management.ThreadMXBean))
+            return 0;
+
+        return ((com.sun.management.ThreadMXBean)threads)
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /** Checks that methods are numbered by sorted signature. */
+    private void ensureMethodNumbering() throws TestFailed
+    {
+        MethodTable table = MethodTable.of(Numbered.class);
+
+        if(table != MethodTable.of(Numbered.class))
+            throw new TestFailed("method table not cached");
+
+        if(table.size() != 3)
+            throw new TestFailed("expected 3 methods, got " + table.size());
+
+        try
+        {
+            Method  intAlpha = Numbered.class.getMethod("alpha", int.class);
+            Method  stringAlpha =
+                Numbered.class.getMethod("alpha", String.class);
+            Method  zeta = Numbered.class.getMethod("zeta", long.class);
+
+            if(table.indexOf(intAlpha) != 0 ||
+               table.indexOf(stringAlpha) != 1 || table.indexOf(zeta) != 2)
+            {
+                throw new TestFailed("methods not numbered by signature");
+            }
+
+            if(!table.methodAt(2).equals(zeta) || table.methodAt(3) != null)
+                throw new TestFailed("methodAt disagrees with indexOf");
+
+            if(table.indexOf(Object.class.getMethod("toString")) != -1)
+                throw new TestFailed("non-remote method has an index");
+        }
+        catch(NoSuchMethodException e)
+        {
+            throw new TestFailed("test interface incomplete", e);
+        }
+    }
+
+    /** Serializes a frame to bytes. */
+    private static byte[] write(Frame frame) throws IOException
+    {
+        ByteArrayOutputStream   bytes = new ByteArrayOutputStream();
+        DataOutputStream        out = new DataOutputStream(bytes);
+
+        frame.writeTo(out);
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    /** Wraps bytes in a data stream. */
+    private static DataInputStream read(byte[] bytes)
+    {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+}
@@ -0,0 +1,630 @@
+package rmi.protocol;
+
+import rmi.client.stream.InboundStream;
+import rmi.config.Config;
+import rmi.protocol.codec.Codecs;
+import rmi.server.stream.OutboundStream;
+import rmi.server.stream.StreamTable;
+import test.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+/** Unit tests for streamed results.
+
+    <p>
+    The skeleton's side of a stream is connected to the stub's side through
+    an in-memory pipe, which applies the stub's credits and cancellation as
+    a connection would.
+
+    <p>
+    The tests performed are:
+    <ul>
+    <li><code>InputStream</code>, <code>ReadableByteChannel</code> and
+        <code>Flow.Publisher</code> results several windows long arrive
+        intact.</li>
+    <li>The skeleton never sends more than a window of chunks ahead of the
+        stub's credits.</li>
+    <li>Closing the stream, or cancelling the subscription, before the end
+        releases the skeleton's source.</li>
+    <li>A source failing mid-stream fails the stub's stream with the
+        source's exception as the cause.</li>
+    <li>Credits which are not positive are ignored, and credits beyond a
+        window do not let the skeleton send further ahead.</li>
+    </ul>
+ */
+public class StreamTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking streamed results";
+
+    /** Seconds to wait for the other side of a stream. */
+    private static final int    TIMEOUT = 10;
+
+    /** Content streamed: three windows and a partial chunk. */
+    private byte[]              data;
+
+    /** Connects a skeleton stream to a stub stream, as a connection would.
+     */
+    private static class Pipe implements FrameWriter, InboundStream.Source
+    {
+        /** Streams of the simulated connection. */
+        final StreamTable                   table = new StreamTable();
+        /** Frames sent by the skeleton, not read by the stub yet. */
+        final LinkedBlockingQueue<Frame>    frames =
+            new LinkedBlockingQueue<Frame>();
+        /** Data frames sent and credits granted. */
+        int                                 sent, granted;
+        /** Largest number of data frames sent ahead of the credits. */
+        int                                 maxAhead;
+        /** Whether the stub ended the stream, or abandoned it. */
+        volatile boolean                    finished, aborted;
+
+        @Override
+        public synchronized void write(Frame frame)
+        {
+            if(frame.getType() == Protocol.STREAM_DATA)
+            {
+                ++sent;
+                maxAhead = Math.max(maxAhead, sent - granted);
+            }
+
+            frames.add(frame);
+        }
+
+        @Override
+        public void write(Frame header, FileBody body) throws IOException
+        {
+            throw new IOException("file body in a stream");
+        }
+
+        @Override
+        public Frame next() throws IOException
+        {
+            try
+            {
+                Frame   frame = frames.poll(TIMEOUT, TimeUnit.SECONDS);
+
+                if(frame == null)
+                    throw new IOException("stream stalled");
+
+                return frame;
+            }
+            catch(InterruptedException e)
+            {
+                throw new IOException("interrupted", e);
+            }
+        }
+
+        @Override
+        public void grant(int n)
+        {
+            synchronized(this)
+            {
+                granted += n;
+            }
+
+            table.control(new Frame(Protocol.STREAM_CREDIT, 1, 0,
+                                    ByteBuffer.allocate(4).putInt(n).array()));
+        }
+
+        @Override
+        public void finished()
+        {
+            finished = true;
+        }
+
+        @Override
+        public void abort()
+        {
+            aborted = true;
+            table.control(new Frame(Protocol.STREAM_CANCEL, 1, 0, null));
+        }
+    }
+
+    /** Source which never ends, and records when it is closed. */
+    private static class EndlessStream extends InputStream
+    {
+        /** Counted down when the stream is closed. */
+        final CountDownLatch    closed = new CountDownLatch(1);
+
+        @Override
+        public int read()
+        {
+            return 'x';
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+        {
+            Arrays.fill(b, off, off + len, (byte)'x');
+            return len;
+        }
+
+        @Override
+        public void close()
+        {
+            closed.countDown();
+        }
+    }
+
+    /** Source which fails after a few chunks. */
+    private static class FailingStream extends InputStream
+    {
+        /** Bytes left before the failure. */
+        int     left = 2 * Config.STREAM_CHUNK_SIZE;
+
+        @Override
+        public int read() throws IOException
+        {
+            byte[]  b = new byte[1];
+            return (read(b, 0, 1) < 0) ? -1 : b[0];
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if(left == 0)
+                throw new IOException("disk failed");
+
+            int     n = Math.min(len, left);
+            left -= n;
+            return n;
+        }
+    }
+
+    /** Subscriber collecting a streamed result. */
+    private static class Collector implements Flow.Subscriber<ByteBuffer>
+    {
+        /** Items received. */
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        /** Counted down on completion, failure, or cancellation. */
+        final CountDownLatch        done = new CountDownLatch(1);
+        /** Items after which the subscription is cancelled, or -1. */
+        final int                   cancelAfter;
+        /** Failure received. */
+        volatile Throwable          failure;
+        /** Whether the stream completed. */
+        volatile boolean            completed;
+        /** Subscription, and items received through it. */
+        Flow.Subscription           subscription;
+        int                         items;
+
+        Collector(int cancelAfter)
+        {
+            this.cancelAfter = cancelAfter;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription s)
+        {
+            subscription = s;
+            s.request(1);
+        }
+
+        @Override
+        public void onNext(ByteBuffer item)
+        {
+            byte[]  bytes = new byte[item.remaining()];
+            item.get(bytes);
+            content.write(bytes, 0, bytes.length);
+
+            if(++items == cancelAfter)
+            {
+                subscription.cancel();
+                done.countDown();
+                return;
+            }
+
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable t)
+        {
+            failure = t;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete()
+        {
+            completed = true;
+            done.countDown();
+        }
+
+        /** Waits until the subscriber is done. */
+        void await() throws TestFailed
+        {
+            try
+            {
+                if(!done.await(TIMEOUT, TimeUnit.SECONDS))
+                    throw new TestFailed("streamed result not received");
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted", e);
+            }
+        }
+    }
+
+    /** Creates the content streamed. */
+    @Override
+    protected void initialize()
+    {
+        data = new byte[3 * Config.STREAM_WINDOW * Config.STREAM_CHUNK_SIZE +
+                        100];
+        new Random(1).nextBytes(data);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        ensureInputStreamRoundTrip();
+        ensureChannelRoundTrip();
+        ensurePublisherRoundTrip();
+        ensureCloseReleasesSource();
+        ensureCancelReleasesPublisher();
+        ensureSourceFailureReported();
+        ensurePublisherFailureReported();
+        ensureBadCreditsIgnored();
+    }
+
+    /** Streams an <code>InputStream</code> result. */
+    private void ensureInputStreamRoundTrip() throws TestFailed
+    {
+        Pipe            pipe = new Pipe();
+        InboundStream   in = open(new ByteArrayInputStream(data), pipe);
+
+        try
+        {
+            byte[]      received =
+                ((InputStream)in.as(InputStream.class)).readAllBytes();
+
+            if(!Arrays.equals(received, data))
+                throw new TestFailed("InputStream result changed");
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to read InputStream result", e);
+        }
+
+        checkWindow(pipe);
+    }
+
+    /** Streams a <code>ReadableByteChannel</code> result. */
+    private void ensureChannelRoundTrip() throws TestFailed
+    {
+        Pipe                pipe = new Pipe();
+        InboundStream       in = open(Channels.newChannel(
+                                          new ByteArrayInputStream(data)),
+                                      pipe);
+        ReadableByteChannel channel =
+            (ReadableByteChannel)in.as(ReadableByteChannel.class);
+        ByteBuffer          received = ByteBuffer.allocate(data.length + 1);
+
+        try
+        {
+            while(channel.read(received) >= 0)
+            {
+                if(!received.hasRemaining())
+                    throw new TestFailed("channel result too long");
+            }
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to read channel result", e);
+        }
+
+        received.flip();
+        if(!received.equals(ByteBuffer.wrap(data)))
+            throw new TestFailed("channel result changed");
+
+        checkWindow(pipe);
+    }
+
+    /** Streams a <code>Flow.Publisher</code> result. */
+    private void ensurePublisherRoundTrip() throws TestFailed
+    {
+        Pipe                            pipe = new Pipe();
+        SubmissionPublisher<ByteBuffer> publisher =
+            new SubmissionPublisher<ByteBuffer>();
+        InboundStream                   in = open(publisher, pipe);
+        Collector                       collector = new Collector(-1);
+
+        subscribe(in, collector);
+
+        for(int offset = 0; offset < data.length;
+            offset += Config.STREAM_CHUNK_SIZE)
+        {
+            int     length = Math.min(Config.STREAM_CHUNK_SIZE,
+                                      data.length - offset);
+            publisher.submit(ByteBuffer.wrap(data, offset, length));
+        }
+        publisher.close();
+
+        collector.await();
+
+        if(!collector.completed)
+            throw new TestFailed("publisher result failed", collector.failure);
+
+        if(!Arrays.equals(collector.content.toByteArray(), data))
+            throw new TestFailed("publisher result changed");
+
+        checkWindow(pipe);
+    }
+
+    /** Closes a stream mid-way and checks that its source is closed. */
+    private void ensureCloseReleasesSource() throws TestFailed
+    {
+        Pipe            pipe = new Pipe();
+        EndlessStream   source = new EndlessStream();
+        InboundStream   in = open(source, pipe);
+
+        try
+        {
+            for(int chunk = 0; chunk < Config.STREAM_WINDOW * 2; ++chunk)
+            {
+                if(in.nextChunk() == null)
+                    throw new TestFailed("endless stream ended");
+            }
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to read endless stream", e);
+        }
+
+        in.close();
+
+        if(!pipe.aborted)
+            throw new TestFailed("early close not sent as a cancellation");
+
+        try
+        {
+            if(!source.closed.await(TIMEOUT, TimeUnit.SECONDS))
+                throw new TestFailed("cancelled source not closed");
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+    }
+
+    /** Cancels a subscription mid-way and checks that the publisher's
+        subscription is cancelled. */
+    private void ensureCancelReleasesPublisher() throws TestFailed
+    {
+        Pipe                                    pipe = new Pipe();
+        final SubmissionPublisher<ByteBuffer>   publisher =
+            new SubmissionPublisher<ByteBuffer>();
+        InboundStream                           in = open(publisher, pipe);
+        Collector                               collector = new Collector(3);
+
+        subscribe(in, collector);
+
+        Thread  producer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                while(!publisher.isClosed() && publisher.hasSubscribers())
+                {
+                    publisher.offer(ByteBuffer.allocate(100), 100,
+                                    TimeUnit.MILLISECONDS, null);
+                }
+            }
+        });
+        producer.start();
+
+        collector.await();
+
+        try
+        {
+            producer.join(TIMEOUT * 1000);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+        finally
+        {
+            publisher.close();
+        }
+
+        if(producer.isAlive())
+            throw new TestFailed("cancelled publisher still subscribed");
+
+        if(!pipe.aborted)
+            throw new TestFailed("cancellation not sent");
+    }
+
+    /** Fails a source mid-stream and checks the stub's exception. */
+    private void ensureSourceFailureReported() throws TestFailed
+    {
+        Pipe            pipe = new Pipe();
+        InboundStream   in = open(new FailingStream(), pipe);
+
+        try
+        {
+            in.readAllBytes();
+            throw new TestFailed("failed source read to the end");
+        }
+        catch(IOException e)
+        {
+            checkCause(e);
+        }
+
+        if(!pipe.finished || pipe.aborted)
+            throw new TestFailed("failed stream not ended by the skeleton");
+    }
+
+    /** Fails a publisher mid-stream and checks the subscriber's error. */
+    private void ensurePublisherFailureReported() throws TestFailed
+    {
+        Pipe                            pipe = new Pipe();
+        SubmissionPublisher<ByteBuffer> publisher =
+            new SubmissionPublisher<ByteBuffer>();
+        InboundStream                   in = open(publisher, pipe);
+        Collector                       collector = new Collector(-1);
+
+        subscribe(in, collector);
+        publisher.submit(ByteBuffer.allocate(100));
+        publisher.closeExceptionally(new IOException("disk failed"));
+
+        collector.await();
+
+        if(collector.completed)
+            throw new TestFailed("failed publisher completed");
+
+        checkCause(collector.failure);
+    }
+
+    /** Sends credits a stub would never send, and checks how far ahead the
+        skeleton streams. */
+    private void ensureBadCreditsIgnored() throws TestFailed
+    {
+        Pipe            pipe = new Pipe();
+        EndlessStream   source = new EndlessStream();
+
+        open(source, pipe);
+
+        waitForSent(pipe, Config.STREAM_WINDOW);
+
+        try
+        {
+            credit(pipe, -1);
+            credit(pipe, 0);
+            credit(pipe, Integer.MAX_VALUE);
+        }
+        catch(RuntimeException e)
+        {
+            throw new TestFailed("bad credit not ignored", e);
+        }
+
+        // the first window, and one more for the huge credit
+        waitForSent(pipe, 2 * Config.STREAM_WINDOW);
+
+        try
+        {
+            Thread.sleep(100);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+
+        synchronized(pipe)
+        {
+            if(pipe.sent > 2 * Config.STREAM_WINDOW)
+            {
+                throw new TestFailed(pipe.sent + " chunks sent for a " +
+                                     "credit beyond the window");
+            }
+        }
+
+        pipe.abort();
+
+        try
+        {
+            if(!source.closed.await(TIMEOUT, TimeUnit.SECONDS))
+                throw new TestFailed("cancelled source not closed");
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+    }
+
+    /** Sends a credit frame as a stub would, without counting it. */
+    private static void credit(Pipe pipe, int n)
+    {
+        pipe.table.control(new Frame(Protocol.STREAM_CREDIT, 1, 0,
+                                     ByteBuffer.allocate(4).putInt(n).array()));
+    }
+
+    /** Waits until the skeleton has sent a number of data frames. */
+    private static void waitForSent(Pipe pipe, int frames) throws TestFailed
+    {
+        long    deadline = System.currentTimeMillis() + TIMEOUT * 1000;
+
+        while(true)
+        {
+            synchronized(pipe)
+            {
+                if(pipe.sent >= frames)
+                    return;
+            }
+
+            if(System.currentTimeMillis() > deadline)
+                throw new TestFailed("stream stalled");
+
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted", e);
+            }
+        }
+    }
+
+    /** Starts streaming a result through a pipe, and returns the stub's
+        side. */
+    private static InboundStream open(Object source, Pipe pipe)
+    {
+        pipe.table.start(OutboundStream.of(source, pipe, Codecs.JAVA, 1, 0));
+        return new InboundStream(pipe, Codecs.JAVA);
+    }
+
+    /** Subscribes to the stub's side of a stream as a publisher. */
+    @SuppressWarnings("unchecked")
+    private static void subscribe(InboundStream in, Collector collector)
+    {
+        ((Flow.Publisher<ByteBuffer>)in.as(Flow.Publisher.class))
+            .subscribe(collector);
+    }
+
+    /** Checks that a stream ended normally, within its window. */
+    private static void checkWindow(Pipe pipe) throws TestFailed
+    {
+        if(!pipe.finished || pipe.aborted)
+            throw new TestFailed("stream not ended by the skeleton");
+
+        synchronized(pipe)
+        {
+            if(pipe.maxAhead > Config.STREAM_WINDOW)
+            {
+                throw new TestFailed(pipe.maxAhead + " chunks sent ahead " +
+                                     "of the credits");
+            }
+        }
+    }
+
+    /** Checks that a stream failure carries the source's exception. */
+    private static void checkCause(Throwable failure) throws TestFailed
+    {
+        if(!(failure instanceof IOException) ||
+           !(failure.getCause() instanceof IOException) ||
+           !"disk failed".equals(failure.getCause().getMessage()))
+        {
+            throw new TestFailed("source failure not reported", failure);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package rmi.protocol.codec;
+
+import test.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** Unit tests for the payload codecs and their negotiation.
+
+    <p>
+    The tests performed are:
+    <ul>
+    <li>The binary codec round trips primitives, strings, arrays,
+        collections, enums, records and serializable fallbacks.</li>
+    <li>Arguments and return values encoded against a method signature
+        carry primitives raw.</li>
+    <li>A record neither serializable nor of a declared type is not
+        encoded, nor created by the decoder, and a corrupt array type is
+        reported as an <code>IOException</code>.</li>
+    <li>Negotiation picks the first offered codec the skeleton supports, and
+        Java serialization otherwise.</li>
+    </ul>
+ */
+public class CodecTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking payload codecs";
+
+    /** Serializable record encoded without serialization. */
+    public record Point(int x, String label) implements Serializable { }
+
+    /** Record only encoded as a declared argument or result type. */
+    public record Range(int from, int to) { }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        ensureBinaryRoundTrip();
+        ensureSignatureRoundTrip();
+        ensureRecordsRestricted();
+        ensureNegotiation();
+    }
+
+    /** Encodes values with the binary codec and decodes them back. */
+    private void ensureBinaryRoundTrip() throws TestFailed
+    {
+        List<Object>        list = new ArrayList<Object>(Arrays.asList(
+                                       1, "two", null, 3.0));
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("set", new LinkedHashSet<Object>(Arrays.asList('a', 'b')));
+        map.put("point", new Point(4, "p"));
+
+        Object[]            values = new Object[] {
+            true, (byte) 1, (short) 2, 'c', 3, 4L, 5.0f, 6.0, "\u00e9t\u00e9",
+            list, map, TimeUnit.SECONDS, new Point(-1, null),
+            new BigInteger("12345678901234567890"),
+            new FileNotFoundException("missing")};
+
+        try
+        {
+            Object[]    copy =
+                (Object[])Codecs.BINARY.decode(Codecs.BINARY.encode(values));
+
+            if(copy.length != values.length)
+                throw new TestFailed("array length changed in round trip");
+
+            for(int i = 0; i < values.length - 1; ++i)
+            {
+                if(!values[i].equals(copy[i]))
+                {
+                    throw new TestFailed("value " + values[i] +
+                                         " changed in round trip: " + copy[i]);
+                }
+            }
+
+            Object      exception = copy[values.length - 1];
+            if(!(exception instanceof FileNotFoundException) ||
+               !"missing".equals(((Exception)exception).getMessage()))
+            {
+                throw new TestFailed("exception changed in round trip");
+            }
+
+            byte[]      bytes = new byte[] {1, 2, 3};
+            if(!Arrays.equals(bytes, (byte[])Codecs.BINARY.decode(
+                    Codecs.BINARY.encode(bytes))))
+            {
+                throw new TestFailed("byte array changed in round trip");
+            }
+
+            if(Codecs.BINARY.decode(Codecs.BINARY.encode(null)) != null)
+                throw new TestFailed("null changed in round trip");
+
+            if(Codecs.BINARY.encode(42).length >= Codecs.JAVA.encode(42).length)
+                throw new TestFailed("binary encoding not smaller");
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to round trip values", e);
+        }
+        catch(ClassNotFoundException e)
+        {
+            throw new TestFailed("unable to round trip values", e);
+        }
+    }
+
+    /** Encodes arguments and results by their declared types. */
+    private void ensureSignatureRoundTrip() throws TestFailed
+    {
+        Class<?>[]  types = new Class<?>[] {long.class, boolean.class,
+                                            String.class, char.class};
+        Object[]    args = new Object[] {-7L, true, "s", 'x'};
+
+        try
+        {
+            byte[]      payload = Codecs.BINARY.encodeArguments(types, args);
+
+            // 8 + 1 + (1 tag + 4 length + 1) + 2 bytes, no type information.
+            if(payload.length != 17)
+                throw new TestFailed("unexpected argument encoding size");
+
+            if(!Arrays.equals(args,
+                    Codecs.BINARY.decodeArguments(types, payload)))
+            {
+                throw new TestFailed("arguments changed in round trip");
+            }
+
+            if(Codecs.BINARY.encodeResult(void.class, null).length != 0 ||
+               Codecs.BINARY.decodeResult(void.class, new byte[0]) != null)
+            {
+                throw new TestFailed("void result not empty");
+            }
+
+            if(!Long.valueOf(5L).equals(Codecs.BINARY.decodeResult(long.class,
+                    Codecs.BINARY.encodeResult(long.class, 5L))))
+            {
+                throw new TestFailed("long result changed in round trip");
+            }
+
+            if(Codecs.BINARY.decodeArguments(new Class<?>[0],
+                    Codecs.BINARY.encodeArguments(new Class<?>[0], null))
+                    .length != 0)
+            {
+                throw new TestFailed("no-argument call not empty");
+            }
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to round trip signature", e);
+        }
+        catch(ClassNotFoundException e)
+        {
+            throw new TestFailed("unable to round trip signature", e);
+        }
+    }
+
+    /** Encodes and decodes records which are not serializable. */
+    private void ensureRecordsRestricted() throws TestFailed
+    {
+        Range       range = new Range(1, 2);
+        byte[]      result;
+
+        try
+        {
+            if(!Arrays.equals(new Object[] {range},
+                    Codecs.BINARY.decodeArguments(new Class<?>[] {Range.class},
+                        Codecs.BINARY.encodeArguments(
+                            new Class<?>[] {Range.class},
+                            new Object[] {range}))))
+            {
+                throw new TestFailed("declared record changed in round trip");
+            }
+
+            result = Codecs.BINARY.encodeResult(Range.class, range);
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to round trip declared record", e);
+        }
+        catch(ClassNotFoundException e)
+        {
+            throw new TestFailed("unable to round trip declared record", e);
+        }
+
+        try
+        {
+            Codecs.BINARY.encode(new Object[] {range});
+            throw new TestFailed("undeclared record encoded");
+        }
+        catch(IOException e)
+        {
+            // not serializable either
+        }
+
+        // a peer naming the record where no signature declares it
+        ensureRejected(result, "undeclared record decoded");
+
+        try
+        {
+            ByteArrayOutputStream   bytes = new ByteArrayOutputStream();
+            DataOutputStream        out = new DataOutputStream(bytes);
+            byte[]                  type = ("[".repeat(255) +
+                                            "Ljava.lang.Object;").getBytes();
+
+            // an array of arrays one dimension deeper than allowed
+            out.writeByte(12);
+            out.writeInt(type.length);
+            out.write(type);
+            out.writeInt(0);
+            ensureRejected(bytes.toByteArray(), "corrupt array decoded");
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to write corrupt array", e);
+        }
+    }
+
+    /** Checks that an untyped payload is refused with an
+        <code>IOException</code>. */
+    private static void ensureRejected(byte[] payload, String failure)
+        throws TestFailed
+    {
+        try
+        {
+            Codecs.BINARY.decode(payload);
+            throw new TestFailed(failure);
+        }
+        catch(IOException e)
+        {
+            // refused as corrupt
+        }
+        catch(ClassNotFoundException e)
+        {
+            throw new TestFailed(failure + " as an unknown class", e);
+        }
+        catch(RuntimeException e)
+        {
+            throw new TestFailed(failure + " with " + e, e);
+        }
+    }
+
+    /** Checks which codec both sides end up with. */
+    private void ensureNegotiation() throws TestFailed
+    {
+        byte[]  offered = Codecs.offer(Codecs.defaults());
+
+        if(Codecs.negotiate(offered, Codecs.defaults()) != Codecs.BINARY)
+            throw new TestFailed("preferred codec not picked");
+
+        if(Codecs.negotiate(offered, Codecs.of(Codecs.JAVA)) != Codecs.JAVA)
+            throw new TestFailed("skeleton codec list not honoured");
+
+        if(Codecs.negotiate(new byte[] {99}, Codecs.defaults()) != Codecs.JAVA)
+            throw new TestFailed("no fallback to Java serialization");
+
+        if(Codecs.byId((byte)99, Codecs.defaults()) != null)
+            throw new TestFailed("unknown codec id resolved");
+    }
+}
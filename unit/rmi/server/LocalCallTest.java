@@ -0,0 +1,241 @@
+package rmi.server;
+
+import rmi.RMIException;
+import rmi.protocol.MethodTable;
+import rmi.protocol.codec.Codecs;
+import test.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+
+/** Unit tests for calls made by stubs to a server in the same JVM.
+
+    <p>
+    The tests performed are:
+    <ul>
+    <li>A local call copies its arguments: the server changing an argument
+        does not change the caller's object.</li>
+    <li>A local call copies its return value: the caller does not receive
+        the object the server kept.</li>
+    <li>A local call copies with the codec a stub would agree on: a record
+        that only the binary codec writes is accepted, and refused once the
+        server supports Java serialization alone.</li>
+    <li>A paused server is no longer registered for local calls, and refuses
+        them until it is resumed.</li>
+    </ul>
+ */
+public class LocalCallTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking calls within the JVM";
+
+    /** Remote interface whose implementation changes its argument. */
+    public interface Appending
+    {
+        ArrayList<String> append(ArrayList<String> list, String item)
+            throws RMIException;
+
+        int width(Range range) throws RMIException;
+    }
+
+    /** Argument only the binary codec writes, not being serializable. */
+    public record Range(int from, int to)
+    {
+    }
+
+    /** Implementation appending to the list it is given and keeping it. */
+    public static class AppendingImpl implements Appending
+    {
+        /** Last list the server received. */
+        volatile ArrayList<String>  kept;
+
+        @Override
+        public ArrayList<String> append(ArrayList<String> list, String item)
+        {
+            list.add(item);
+            kept = list;
+            return list;
+        }
+
+        @Override
+        public int width(Range range)
+        {
+            return range.to() - range.from();
+        }
+    }
+
+    /** Server called by the test. */
+    private TCPServer<Appending>    server;
+
+    /** Starts the server on a system-assigned loopback port.
+
+        @throws TestFailed If the server cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            server = new TCPServer<Appending>(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4,
+                Appending.class, new AppendingImpl());
+            server.startServer();
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to start server", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        if(LocalSkeletons.lookup(server.getAddress()) != server)
+            throw new TestFailed("started server not registered");
+
+        ensurePassByValue();
+        ensureCodecUsed();
+        ensurePauseHonored();
+    }
+
+    /** Checks that arguments and return values are copied. */
+    private void ensurePassByValue() throws TestFailed
+    {
+        AppendingImpl       impl = (AppendingImpl)server.serviceImpl;
+        ArrayList<String>   list = new ArrayList<String>();
+        list.add("a");
+
+        Object              returned = call(list);
+
+        if(list.size() != 1)
+            throw new TestFailed("server changed the caller's argument");
+
+        if(returned == list || returned == impl.kept)
+            throw new TestFailed("return value not copied");
+
+        if(!returned.equals(impl.kept))
+            throw new TestFailed("wrong return value: " + returned);
+    }
+
+    /** Checks that values are copied with the server's codecs. */
+    private void ensureCodecUsed() throws TestFailed
+    {
+        int     width;
+        try
+        {
+            width = MethodTable.of(Appending.class).indexOf(
+                Appending.class.getMethod("width", Range.class));
+        }
+        catch(NoSuchMethodException e)
+        {
+            throw new TestFailed("unable to find method", e);
+        }
+
+        Object[]    args = new Object[] {new Range(2, 5)};
+        Object      returned;
+
+        try
+        {
+            returned = server.invokeLocal(width, args).get();
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("record argument not copied", e);
+        }
+
+        if(!Integer.valueOf(3).equals(returned))
+            throw new TestFailed("wrong width of a record argument: " + returned);
+
+        server.setCodecs(Codecs.of(Codecs.JAVA));
+
+        try
+        {
+            server.invokeLocal(width, args).get();
+            throw new TestFailed("record copied without the binary codec");
+        }
+        catch(ExecutionException e)
+        {
+            if(!(e.getCause() instanceof RMIException))
+            {
+                throw new TestFailed("unexpected failure of a local call",
+                                     e.getCause());
+            }
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+        finally
+        {
+            server.setCodecs(Codecs.defaults());
+        }
+    }
+
+    /** Checks that a paused server takes no local calls until resumed. */
+    private void ensurePauseHonored() throws TestFailed
+    {
+        server.pauseServer();
+
+        if(LocalSkeletons.lookup(server.getAddress()) != null)
+            throw new TestFailed("paused server still registered");
+
+        try
+        {
+            server.invokeLocal(0, new Object[] {new ArrayList<String>(), "b"})
+                .get();
+            throw new TestFailed("paused server accepted a local call");
+        }
+        catch(ExecutionException e)
+        {
+            if(!(e.getCause() instanceof RMIException))
+            {
+                throw new TestFailed("unexpected failure of a local call",
+                                     e.getCause());
+            }
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+
+        server.resumeServer();
+
+        if(LocalSkeletons.lookup(server.getAddress()) != server)
+            throw new TestFailed("resumed server not registered");
+
+        call(new ArrayList<String>());
+    }
+
+    /** Calls the server locally and waits for the return value. */
+    private Object call(ArrayList<String> list) throws TestFailed
+    {
+        try
+        {
+            return server.invokeLocal(0, new Object[] {list, "b"}).get();
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("local call failed", e);
+        }
+    }
+
+    /** Stops the server. */
+    @Override
+    protected void clean()
+    {
+        if(server != null &&
+           server.getServerState() != ServerState.SHUTDOWN &&
+           server.getServerState() != ServerState.CREATED)
+        {
+            server.shutDown();
+        }
+
+        server = null;
+    }
+}
@@ -0,0 +1,252 @@
+package rmi.server;
+
+import rmi.NoticeListener;
+import rmi.RMIException;
+import rmi.client.mux.MultiplexedConnection;
+import rmi.config.Config;
+import rmi.protocol.FileBody;
+import rmi.protocol.Frame;
+import rmi.protocol.FrameWriter;
+import rmi.protocol.Protocol;
+import rmi.server.task.ConnectionContext;
+import test.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/** Unit tests for the notices a server publishes to subscribed stubs.
+
+    <p>
+    The tests performed are:
+    <ul>
+    <li>A notice published by the server reaches a listener subscribed on a
+        multiplexed connection.</li>
+    <li>Once the last listener of a connection unsubscribes, the server
+        stops pushing notices to it.</li>
+    <li>Publishing does not wait for a subscriber which does not read its
+        notices, and the server disconnects it once it falls
+        <code>Config.NOTICE_QUEUE</code> notices behind.</li>
+    </ul>
+ */
+public class NoticeTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking published notices";
+
+    /** Seconds to wait for a notice. */
+    private static final int    TIMEOUT = 10;
+
+    /** Remote interface of the server, never called. */
+    public interface Quiet
+    {
+        void nothing() throws RMIException;
+    }
+
+    /** Implementation of the remote interface. */
+    public static class QuietImpl implements Quiet
+    {
+        @Override
+        public void nothing()
+        {
+        }
+    }
+
+    /** Listener queueing the notices it receives. */
+    private static class Received implements NoticeListener
+    {
+        /** Notices received. */
+        final LinkedBlockingQueue<Object>   notices =
+            new LinkedBlockingQueue<Object>();
+
+        @Override
+        public void notice(Object notice)
+        {
+            notices.add(notice);
+        }
+
+        @Override
+        public void lost()
+        {
+        }
+    }
+
+    /** Frame writer of a subscriber which never reads: every write blocks
+        until the test ends. */
+    private static class Stalled implements FrameWriter
+    {
+        /** Released when the test ends. */
+        final CountDownLatch    released = new CountDownLatch(1);
+
+        @Override
+        public void write(Frame frame) throws IOException
+        {
+            try
+            {
+                released.await();
+            }
+            catch(InterruptedException e)
+            {
+                throw new IOException("interrupted", e);
+            }
+        }
+
+        @Override
+        public void write(Frame header, FileBody body) throws IOException
+        {
+            write(header);
+        }
+    }
+
+    /** Server publishing the notices. */
+    private TCPServer<Quiet>    server;
+    /** Writer of the stalled subscriber. */
+    private Stalled             stalled;
+
+    /** Starts the server on a system-assigned loopback port.
+
+        @throws TestFailed If the server cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        stalled = new Stalled();
+
+        try
+        {
+            server = new TCPServer<Quiet>(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4,
+                Quiet.class, new QuietImpl());
+            server.startServer();
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to start server", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        ensureNoticeDelivered();
+        ensureLaggardDisconnected();
+    }
+
+    /** Subscribes over a connection, receives a notice and unsubscribes. */
+    private void ensureNoticeDelivered() throws TestFailed
+    {
+        Received    listener = new Received();
+
+        try
+        {
+            MultiplexedConnection.of(server.getAddress()).subscribe(listener);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to subscribe", e);
+        }
+
+        // the subscription travels on the connection, publish until it is in
+        waitFor(1);
+        server.publish("hello");
+
+        try
+        {
+            Object  received = listener.notices.poll(TIMEOUT,
+                                                     TimeUnit.SECONDS);
+            if(!"hello".equals(received))
+                throw new TestFailed("notice not received: " + received);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+
+        MultiplexedConnection.unsubscribe(server.getAddress(), listener);
+        waitFor(0);
+    }
+
+    /** Publishes to a subscriber which does not read. */
+    private void ensureLaggardDisconnected() throws TestFailed
+    {
+        final CountDownLatch    disconnected = new CountDownLatch(1);
+        ConnectionContext       context = new ConnectionContext(stalled,
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    disconnected.countDown();
+                }
+            });
+
+        try
+        {
+            server.dispatch(new Frame(Protocol.SUBSCRIBE, 0, 0, null),
+                            context);
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to subscribe", e);
+        }
+
+        // one notice being written, a full queue, and one too many
+        for(int i = 0; i < Config.NOTICE_QUEUE + 2; ++i)
+            server.publish(i);
+
+        if(disconnected.getCount() != 0)
+            throw new TestFailed("subscriber far behind not disconnected");
+
+        if(server.getSubscriberCount() != 0)
+            throw new TestFailed("disconnected subscriber still subscribed");
+    }
+
+    /** Waits until the server has a number of subscribers. */
+    private void waitFor(int subscribers) throws TestFailed
+    {
+        long    deadline = System.currentTimeMillis() + TIMEOUT * 1000;
+
+        while(server.getSubscriberCount() != subscribers)
+        {
+            if(System.currentTimeMillis() > deadline)
+            {
+                throw new TestFailed("server has " +
+                                     server.getSubscriberCount() +
+                                     " subscribers instead of " + subscribers);
+            }
+
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted", e);
+            }
+        }
+    }
+
+    /** Stops the server and releases the stalled writer. */
+    @Override
+    protected void clean()
+    {
+        if(stalled != null)
+            stalled.released.countDown();
+
+        if(server != null &&
+           server.getServerState() != ServerState.SHUTDOWN &&
+           server.getServerState() != ServerState.CREATED)
+        {
+            server.shutDown();
+        }
+
+        server = null;
+    }
+}
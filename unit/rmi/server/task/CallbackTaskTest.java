@@ -0,0 +1,108 @@
+package rmi.server.task;
+
+import rmi.RMIException;
+import rmi.metrics.MethodMetrics;
+import rmi.protocol.MethodTable;
+import test.*;
+
+/** Unit tests for the tasks run by the worker pool.
+
+    <p>
+    The tests performed are:
+    <ul>
+    <li>A service method throwing an <code>Error</code> fails its call with
+        an <code>RMIException</code> caused by the error, instead of killing
+        the worker without an answer.</li>
+    <li>The failed call is still measured.</li>
+    </ul>
+ */
+public class CallbackTaskTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking worker tasks";
+
+    /** Remote interface whose implementation throws an error. */
+    public interface Failing
+    {
+        void fail() throws RMIException;
+    }
+
+    /** Implementation failing an assertion. */
+    public static class FailingImpl implements Failing
+    {
+        @Override
+        public void fail()
+        {
+            throw new AssertionError("broken invariant");
+        }
+    }
+
+    /** Callback remembering how the call ended. */
+    private static class Outcome implements Callback
+    {
+        /** Return value, if the call succeeded. */
+        Object      value;
+        /** Exception, if the call failed. */
+        Exception   failure;
+        /** Number of times the callback was called. */
+        int         calls;
+
+        @Override
+        public void onSuccess(Object retVal)
+        {
+            value = retVal;
+            ++calls;
+        }
+
+        @Override
+        public void onFail(Exception e)
+        {
+            failure = e;
+            ++calls;
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        MethodTable     table = MethodTable.of(Failing.class);
+        DispatchTable   dispatch = new DispatchTable(table);
+
+        Outcome         plain = new Outcome();
+        new CallbackTask(new MethodInvocation(new FailingImpl(),
+                                              dispatch.invokerAt(0), null),
+                         plain).run();
+        checkFailed(plain);
+
+        Outcome         measured = new Outcome();
+        MethodMetrics   metrics = new MethodMetrics(table.signatureAt(0));
+        new CallbackTask(new MethodInvocation(new FailingImpl(),
+                                              dispatch.invokerAt(0), null),
+                         measured, metrics, null).run();
+        checkFailed(measured);
+
+        if(metrics.getExecution().getCount() != 1)
+            throw new TestFailed("failed call not measured");
+    }
+
+    /** Checks that a call failed once, with the assertion as the cause. */
+    private static void checkFailed(Outcome outcome) throws TestFailed
+    {
+        if(outcome.calls != 1)
+        {
+            throw new TestFailed("callback called " + outcome.calls +
+                                 " times");
+        }
+
+        if(!(outcome.failure instanceof RMIException) ||
+           !(outcome.failure.getCause() instanceof AssertionError))
+        {
+            throw new TestFailed("error not reported as an RMIException: " +
+                                 outcome.failure);
+        }
+    }
+}
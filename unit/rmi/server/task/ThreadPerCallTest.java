@@ -0,0 +1,268 @@
+package rmi.server.task;
+
+import rmi.RMIException;
+import rmi.Skeleton;
+import rmi.Stub;
+import rmi.config.Config;
+import test.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/** Unit tests for the thread-per-call worker pool.
+
+    <p>
+    The tests performed are:
+    <ul>
+    <li>Calls blocked in the service all run at once, more of them than a
+        bounded pool has threads, and are counted while running and once
+        completed.</li>
+    <li>The pool has no size to change, and fails calls submitted once it is
+        shut down.</li>
+    <li>A skeleton whose <code>createWorkerPool</code> returns such a pool
+        answers stub calls with it.</li>
+    </ul>
+ */
+public class ThreadPerCallTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking thread-per-call workers";
+
+    /** Calls blocked at once, more than a bounded pool runs. */
+    private static final int    CALLS = 2 * Config.MAX_THREAD;
+    /** Seconds to wait for calls. */
+    private static final int    TIMEOUT = 2;
+
+    /** Remote interface of the skeleton. */
+    public interface Echo
+    {
+        int echo(int value) throws RMIException;
+    }
+
+    /** Implementation returning its argument. */
+    public static class EchoImpl implements Echo
+    {
+        @Override
+        public int echo(int value)
+        {
+            return value;
+        }
+    }
+
+    /** Callback queueing how each call ended. */
+    private static class Outcomes implements Callback
+    {
+        /** Return values and exceptions, in the order calls ended. */
+        final LinkedBlockingQueue<Object>   ended =
+            new LinkedBlockingQueue<Object>();
+
+        @Override
+        public void onSuccess(Object retVal)
+        {
+            ended.add(retVal);
+        }
+
+        @Override
+        public void onFail(Exception e)
+        {
+            ended.add(e);
+        }
+    }
+
+    /** Pool under test. */
+    private WorkerPool          pool;
+    /** Gate holding the calls submitted. */
+    private CountDownLatch      gate;
+    /** Skeleton running its calls a thread each. */
+    private Skeleton<Echo>      skeleton;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        ensureCallsRunAtOnce();
+        ensureUnsized();
+        ensureSkeletonUsesPool();
+    }
+
+    /** Blocks more calls than a bounded pool would run. */
+    private void ensureCallsRunAtOnce() throws TestFailed
+    {
+        pool = WorkerPool.threadPerCall("test");
+        gate = new CountDownLatch(1);
+
+        if(!pool.isThreadPerCall())
+            throw new TestFailed("pool does not run calls a thread each");
+
+        final CountDownLatch    started = new CountDownLatch(CALLS);
+        Outcomes                outcomes = new Outcomes();
+
+        for(int i = 0; i < CALLS; ++i)
+        {
+            pool.submit(new CallbackTask(new Callable<Object>()
+            {
+                @Override
+                public Object call() throws Exception
+                {
+                    started.countDown();
+                    gate.await();
+                    return Thread.currentThread().getName();
+                }
+            }, outcomes));
+        }
+
+        await(started, "blocked calls did not all start");
+
+        if(pool.getActiveCount() != CALLS)
+        {
+            throw new TestFailed(pool.getActiveCount() + " calls counted " +
+                                 "running instead of " + CALLS);
+        }
+
+        gate.countDown();
+
+        for(int i = 0; i < CALLS; ++i)
+        {
+            Object  outcome;
+
+            try
+            {
+                outcome = outcomes.ended.poll(TIMEOUT, TimeUnit.SECONDS);
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted", e);
+            }
+
+            if(!(outcome instanceof String))
+                throw new TestFailed("released call failed: " + outcome);
+        }
+
+        awaitCompleted(pool, CALLS);
+
+        if(pool.getActiveCount() != 0)
+            throw new TestFailed("completed calls counted running");
+    }
+
+    /** Resizes the pool, then submits to it once shut down. */
+    private void ensureUnsized() throws TestFailed
+    {
+        try
+        {
+            pool.resize(1, 2);
+            throw new TestFailed("thread-per-call pool resized");
+        }
+        catch(UnsupportedOperationException e)
+        {
+            // no size to change
+        }
+
+        pool.shutdown();
+
+        Outcomes    outcomes = new Outcomes();
+        pool.submit(new CallbackTask(new Callable<Object>()
+        {
+            @Override
+            public Object call()
+            {
+                return "ran";
+            }
+        }, outcomes));
+
+        if(!(outcomes.ended.poll() instanceof RMIException))
+            throw new TestFailed("shut down pool did not fail a call");
+    }
+
+    /** Calls a skeleton running its calls a thread each. */
+    private void ensureSkeletonUsesPool() throws TestFailed
+    {
+        try
+        {
+            skeleton = new Skeleton<Echo>(Echo.class, new EchoImpl(),
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+            {
+                @Override
+                protected WorkerPool createWorkerPool()
+                {
+                    return WorkerPool.threadPerCall("echo");
+                }
+            };
+            skeleton.start();
+
+            if(Stub.create(Echo.class, skeleton).echo(7) != 7)
+                throw new TestFailed("wrong value returned");
+        }
+        catch(UnknownHostException e)
+        {
+            throw new TestFailed("unable to create stub", e);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        if(!skeleton.getWorkerPool().isThreadPerCall())
+            throw new TestFailed("skeleton did not use its own pool");
+
+        awaitCompleted(skeleton.getWorkerPool(), 1);
+    }
+
+    /** Waits for a pool to count calls completed, which it does once their
+        callback returned. */
+    private static void awaitCompleted(WorkerPool pool, int calls)
+        throws TestFailed
+    {
+        long    deadline = System.currentTimeMillis() + TIMEOUT * 1000;
+
+        while(pool.getCompletedCount() != calls)
+        {
+            if(System.currentTimeMillis() > deadline)
+            {
+                throw new TestFailed(pool.getCompletedCount() + " calls " +
+                                     "counted completed instead of " + calls);
+            }
+
+            Thread.yield();
+        }
+    }
+
+    /** Waits for a latch. */
+    private static void await(CountDownLatch latch, String failure)
+        throws TestFailed
+    {
+        try
+        {
+            if(!latch.await(TIMEOUT, TimeUnit.SECONDS))
+                throw new TestFailed(failure);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+    }
+
+    /** Shuts the pool down and stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(gate != null)
+            gate.countDown();
+
+        if(pool != null)
+            pool.shutdown();
+
+        if(skeleton != null)
+            skeleton.stop();
+
+        pool = null;
+        skeleton = null;
+    }
+}
@@ -0,0 +1,245 @@
+package rmi.server.task;
+
+import rmi.RMIException;
+import test.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/** Unit tests for the worker pool.
+
+    <p>
+    The tests performed are:
+    <ul>
+    <li>A bounded pool queues calls up to its queue capacity before growing
+        past its minimum thread count, and never grows past its maximum.</li>
+    <li>With the <code>OVERLOADED</code> policy, a call arriving while the
+        pool is saturated fails at once with an <code>RMIException</code>,
+        and is counted as rejected.</li>
+    <li>With the <code>CALLER_RUNS</code> policy, such a call runs on the
+        submitting thread.</li>
+    <li>Threads above the minimum exit once idle for the keep-alive time.</li>
+    <li>A running pool can be resized, but not to bad bounds.</li>
+    </ul>
+ */
+public class WorkerPoolTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the worker pool";
+
+    /** Seconds to wait for a call. */
+    private static final int    TIMEOUT = 2;
+
+    /** Callback queueing how each call ended. */
+    private static class Outcomes implements Callback
+    {
+        /** Return values and exceptions, in the order calls ended. */
+        final LinkedBlockingQueue<Object>   ended =
+            new LinkedBlockingQueue<Object>();
+
+        @Override
+        public void onSuccess(Object retVal)
+        {
+            ended.add(retVal);
+        }
+
+        @Override
+        public void onFail(Exception e)
+        {
+            ended.add(e);
+        }
+
+        /** Waits for the next call to end. */
+        Object next() throws TestFailed
+        {
+            Object  outcome;
+
+            try
+            {
+                outcome = ended.poll(TIMEOUT, TimeUnit.SECONDS);
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted", e);
+            }
+
+            if(outcome == null)
+                throw new TestFailed("call not ended in " + TIMEOUT + " seconds");
+
+            return outcome;
+        }
+    }
+
+    /** Call returning the name of its thread, once the gate opens. */
+    private static class Gated implements Callable<Object>
+    {
+        /** Gate the call waits for. */
+        private final CountDownLatch    gate;
+
+        Gated(CountDownLatch gate)
+        {
+            this.gate = gate;
+        }
+
+        @Override
+        public Object call() throws Exception
+        {
+            gate.await();
+            return Thread.currentThread().getName();
+        }
+    }
+
+    /** Pool under test. */
+    private WorkerPool      pool;
+    /** Gate holding the calls submitted. */
+    private CountDownLatch  gate;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        ensureBoundedAndOverloaded();
+        ensureIdleThreadsExit();
+        ensureCallerRuns();
+        ensureResized();
+    }
+
+    /** Saturates a pool of one to two threads with a queue of two. */
+    private void ensureBoundedAndOverloaded() throws TestFailed
+    {
+        open(new WorkerPool("bounded", 1, 2, 1, 2, RejectionPolicy.OVERLOADED));
+        Outcomes    outcomes = new Outcomes();
+
+        submit(outcomes);
+        submit(outcomes);
+        submit(outcomes);
+
+        if(pool.getPoolSize() != 1 || pool.getQueueDepth() != 2)
+        {
+            throw new TestFailed("pool grew before its queue was full: " +
+                                 pool.getPoolSize() + " threads, " +
+                                 pool.getQueueDepth() + " calls queued");
+        }
+
+        submit(outcomes);
+
+        if(pool.getPoolSize() != 2)
+            throw new TestFailed("full queue did not grow the pool");
+
+        submit(outcomes);
+
+        if(!(outcomes.next() instanceof RMIException))
+            throw new TestFailed("call to a saturated pool not failed");
+
+        if(pool.getRejectedCount() != 1 || pool.getPoolSize() != 2)
+            throw new TestFailed("saturated pool grew or did not count");
+
+        gate.countDown();
+
+        for(int i = 0; i < 4; ++i)
+        {
+            if(!(outcomes.next() instanceof String))
+                throw new TestFailed("queued call failed");
+        }
+    }
+
+    /** Waits for the thread above the minimum to exit. */
+    private void ensureIdleThreadsExit() throws TestFailed
+    {
+        long    deadline = System.currentTimeMillis() + TIMEOUT * 1000;
+
+        while(pool.getPoolSize() > 1)
+        {
+            if(System.currentTimeMillis() > deadline)
+                throw new TestFailed("idle thread above the minimum kept");
+
+            try
+            {
+                Thread.sleep(50);
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted", e);
+            }
+        }
+    }
+
+    /** Saturates a pool of one thread with a queue of one. */
+    private void ensureCallerRuns() throws TestFailed
+    {
+        open(new WorkerPool("caller", 1, 1, 1, 1, RejectionPolicy.CALLER_RUNS));
+        Outcomes    outcomes = new Outcomes();
+
+        submit(outcomes);
+        submit(outcomes);
+        // runs here, a closed gate would hold the test
+        pool.submit(new CallbackTask(new Gated(new CountDownLatch(0)), outcomes));
+
+        if(!Thread.currentThread().getName().equals(outcomes.next()))
+            throw new TestFailed("rejected call not run by the caller");
+
+        gate.countDown();
+
+        for(int i = 0; i < 2; ++i)
+        {
+            if(!(outcomes.next() instanceof String))
+                throw new TestFailed("queued call failed");
+        }
+    }
+
+    /** Resizes a running pool. */
+    private void ensureResized() throws TestFailed
+    {
+        pool.resize(0, 3);
+
+        if(pool.getMinThreads() != 0 || pool.getMaxThreads() != 3)
+            throw new TestFailed("pool not resized");
+
+        try
+        {
+            pool.resize(2, 1);
+            throw new TestFailed("pool resized to a minimum above its maximum");
+        }
+        catch(IllegalArgumentException e)
+        {
+            // bad bounds
+        }
+    }
+
+    /** Replaces the pool under test, with a closed gate. */
+    private void open(WorkerPool replacement)
+    {
+        close();
+        pool = replacement;
+        gate = new CountDownLatch(1);
+    }
+
+    /** Submits a call held by the gate. */
+    private void submit(Outcomes outcomes)
+    {
+        pool.submit(new CallbackTask(new Gated(gate), outcomes));
+    }
+
+    /** Opens the gate and shuts the pool down. */
+    private void close()
+    {
+        if(gate != null)
+            gate.countDown();
+
+        if(pool != null)
+            pool.shutdown();
+    }
+
+    /** Shuts the pool down. */
+    @Override
+    protected void clean()
+    {
+        close();
+        pool = null;
+    }
+}
@@ -0,0 +1,188 @@
+package rmi.service.client;
+
+import rmi.RMIException;
+import rmi.Skeleton;
+import rmi.Stub;
+import rmi.service.server.FileChange;
+import rmi.service.server.FileServer;
+import rmi.service.server.impl.FileServerImpl;
+import rmi.service.server.impl.FileWatcher;
+import test.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/** Unit tests for the caching file client.
+
+    <p>
+    The file server watches the files it serves and its skeleton publishes
+    every change, as a deployed file server would.
+
+    <p>
+    The tests performed are:
+    <ul>
+    <li>A file read twice is read from the server once.</li>
+    <li>Once the file is modified, the change notice expires the cached
+        copy, and the next read returns the new content.</li>
+    </ul>
+ */
+public class CachingFileClientTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the caching file client";
+
+    /** Seconds to wait for a change notice. */
+    private static final int    TIMEOUT = 10;
+
+    /** Directory of the served file. */
+    private Path                        directory;
+    /** Served file. */
+    private Path                        file;
+    /** Watcher of the served directory. */
+    private FileWatcher                 watcher;
+    /** Skeleton of the file server. */
+    private Skeleton<FileServer>        skeleton;
+    /** Client under test. */
+    private CachingFileClient           client;
+
+    /** Starts a watched file server, and a client of it.
+
+        @throws TestFailed If the server cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            directory = Files.createTempDirectory("cache");
+            file = directory.resolve("file");
+            Files.write(file, "one".getBytes());
+
+            FileServerImpl  files = new FileServerImpl();
+            watcher = new FileWatcher();
+            files.watch(watcher);
+
+            skeleton = new Skeleton<FileServer>(FileServer.class, files,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            skeleton.start();
+
+            watcher.addListener(new FileWatcher.Listener()
+            {
+                @Override
+                public void changed(FileChange change)
+                {
+                    skeleton.publish(change);
+                }
+            });
+
+            client = new CachingFileClient(
+                Stub.create(FileServer.class, skeleton));
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to start file server", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        String  path = file.toString();
+
+        try
+        {
+            check(client.retrive(path), "one");
+            check(client.retrive(path), "one");
+
+            if(client.getMisses() != 1 || client.getHits() != 1)
+            {
+                throw new TestFailed("unchanged file read " +
+                                     client.getMisses() + " times from " +
+                                     "the server");
+            }
+
+            // replaced at once, so no read sees a partial write
+            Path    replacement = directory.resolve("replacement");
+            Files.write(replacement, "two!".getBytes());
+            Files.move(replacement, file,
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+
+            // fresh copies are answered locally until the notice arrives
+            long    deadline = System.currentTimeMillis() + TIMEOUT * 1000;
+            byte[]  content;
+
+            while(Arrays.equals(content = client.retrive(path),
+                                "one".getBytes()))
+            {
+                if(System.currentTimeMillis() > deadline)
+                    throw new TestFailed("change notice not received");
+
+                Thread.sleep(10);
+            }
+
+            check(content, "two!");
+
+            if(client.getMisses() != 2)
+                throw new TestFailed("expired file not read from the server");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to read file", e);
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to replace file", e);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+    }
+
+    /** Checks the content read. */
+    private static void check(byte[] content, String expected)
+        throws TestFailed
+    {
+        if(!Arrays.equals(content, expected.getBytes()))
+        {
+            throw new TestFailed("read \"" + new String(content) +
+                                 "\" instead of \"" + expected + "\"");
+        }
+    }
+
+    /** Stops the server and removes the file. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        try
+        {
+            if(watcher != null)
+                watcher.close();
+
+            if(file != null)
+                Files.deleteIfExists(file);
+
+            if(directory != null)
+                Files.deleteIfExists(directory);
+        }
+        catch(IOException e)
+        {
+            // left in the temporary directory
+        }
+
+        skeleton = null;
+    }
+}
@@ -0,0 +1,281 @@
+package rmi.service.client;
+
+import rmi.RMIException;
+import rmi.config.Config;
+import rmi.service.server.impl.FileServerImpl;
+import test.*;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Unit tests for chunked downloads.
+
+    <p>
+    The tests performed are:
+    <ul>
+    <li>A chunk failing fewer times than the attempts allowed is retried, and
+        the download completes.</li>
+    <li>A chunk failing on every attempt fails the download once the other
+        chunks are written; running it again fetches only that chunk.</li>
+    <li>A chunk returned as <code>null</code> counts as a failed attempt
+        instead of being fetched forever.</li>
+    </ul>
+ */
+public class ChunkedDownloadTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking chunked downloads";
+
+    /** Bytes of the downloaded file. */
+    private static final byte[] CONTENT = "0123456789abcdef".getBytes();
+    /** Bytes per chunk, four chunks in the file. */
+    private static final int    CHUNK = 4;
+
+    /** File server failing the chunks it is told to. */
+    public static class FlakyServer extends FileServerImpl
+    {
+        /** Calls left to fail, by chunk offset. */
+        private final Map<Long, Integer>    failures =
+            new HashMap<Long, Integer>();
+        /** Calls left to return <code>null</code>, by chunk offset. */
+        private final Map<Long, Integer>    nulls = new HashMap<Long, Integer>();
+        /** Ranged calls made. */
+        private int                         calls;
+
+        @Override
+        public byte[] retrieve(String path, long offset, int length)
+            throws FileNotFoundException, RMIException
+        {
+            synchronized(this)
+            {
+                ++calls;
+
+                if(take(failures, offset))
+                    throw new RMIException("chunk at " + offset + " lost");
+
+                if(take(nulls, offset))
+                    return null;
+            }
+
+            return super.retrieve(path, offset, length);
+        }
+
+        /** Fails the next calls for a chunk. */
+        synchronized void fail(long offset, int times)
+        {
+            failures.put(offset, times);
+        }
+
+        /** Returns <code>null</code> to the next calls for a chunk. */
+        synchronized void returnNull(long offset, int times)
+        {
+            nulls.put(offset, times);
+        }
+
+        /** Returns the calls made since the last time, and resets them. */
+        synchronized int calls()
+        {
+            int     made = calls;
+            calls = 0;
+            return made;
+        }
+
+        /** Counts down the calls left for a chunk. */
+        private static boolean take(Map<Long, Integer> left, long offset)
+        {
+            Integer     count = left.get(offset);
+
+            if(count == null || count.intValue() == 0)
+                return false;
+
+            left.put(offset, count.intValue() - 1);
+            return true;
+        }
+    }
+
+    /** Server the chunks are fetched from. */
+    private FlakyServer         server;
+    /** Downloaded file. */
+    private Path                source;
+    /** File written by the download. */
+    private Path                target;
+
+    /** Creates the downloaded file.
+
+        @throws TestFailed If the file cannot be created.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            source = Files.createTempFile("download", ".src");
+            target = Files.createTempFile("download", ".dst");
+            Files.write(source, CONTENT);
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to create file", e);
+        }
+
+        server = new FlakyServer();
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            ensureRetried();
+            ensureResumed();
+            ensureNullRetried();
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to download", e);
+        }
+    }
+
+    /** Downloads with one chunk failing until its last attempt. */
+    private void ensureRetried() throws TestFailed, IOException
+    {
+        server.fail(CHUNK, Config.DOWNLOAD_ATTEMPTS - 1);
+
+        try(FileChannel channel = open())
+        {
+            ChunkedDownload download = download(channel);
+
+            if(download.run() != CONTENT.length)
+                throw new TestFailed("wrong size downloaded");
+
+            if(!download.isComplete())
+                throw new TestFailed("download not complete");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("retried chunk failed the download", e);
+        }
+
+        checkCalls(4 + Config.DOWNLOAD_ATTEMPTS - 1);
+        checkContent();
+    }
+
+    /** Downloads with one chunk failing on every attempt, then again. */
+    private void ensureResumed() throws TestFailed, IOException
+    {
+        server.fail(2 * CHUNK, Config.DOWNLOAD_ATTEMPTS);
+        resume();
+    }
+
+    /** Downloads with one chunk returned as <code>null</code> on every
+        attempt, then again. */
+    private void ensureNullRetried() throws TestFailed, IOException
+    {
+        server.returnNull(3 * CHUNK, Config.DOWNLOAD_ATTEMPTS);
+        resume();
+    }
+
+    /** Runs a download expected to miss one chunk, then runs it again. */
+    private void resume() throws TestFailed, IOException
+    {
+        try(FileChannel channel = open())
+        {
+            ChunkedDownload download = download(channel);
+
+            try
+            {
+                download.run();
+                throw new TestFailed("download of a lost chunk completed");
+            }
+            catch(RMIException e)
+            {
+                // the chunk failed on every attempt
+            }
+
+            if(download.isComplete())
+                throw new TestFailed("download with a lost chunk complete");
+
+            checkCalls(3 + Config.DOWNLOAD_ATTEMPTS);
+
+            try
+            {
+                download.run();
+            }
+            catch(RMIException e)
+            {
+                throw new TestFailed("resumed download failed", e);
+            }
+
+            if(!download.isComplete())
+                throw new TestFailed("resumed download not complete");
+
+            checkCalls(1);
+        }
+
+        checkContent();
+    }
+
+    /** Opens the target, emptied. */
+    private FileChannel open() throws IOException
+    {
+        return FileChannel.open(target, StandardOpenOption.WRITE,
+                                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /** Creates a download of the file into a channel. */
+    private ChunkedDownload download(FileChannel channel)
+    {
+        return new ChunkedDownload(server, source.toString(), channel, CHUNK,
+                                   2);
+    }
+
+    /** Checks the ranged calls made since the last check. */
+    private void checkCalls(int expected) throws TestFailed
+    {
+        int     calls = server.calls();
+
+        if(calls != expected)
+        {
+            throw new TestFailed(calls + " chunks fetched instead of " +
+                                 expected);
+        }
+    }
+
+    /** Checks the downloaded file. */
+    private void checkContent() throws TestFailed, IOException
+    {
+        byte[]  bytes = Files.readAllBytes(target);
+
+        if(!Arrays.equals(CONTENT, bytes))
+            throw new TestFailed("wrong file downloaded: " + new String(bytes));
+    }
+
+    /** Removes the files. */
+    @Override
+    protected void clean()
+    {
+        try
+        {
+            if(source != null)
+                Files.deleteIfExists(source);
+
+            if(target != null)
+                Files.deleteIfExists(target);
+        }
+        catch(IOException e)
+        {
+            // left in the temporary directory
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package rmi.service.server.impl;
+
+import rmi.RMIException;
+import rmi.protocol.FileBody;
+import test.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/** Unit tests for the off-heap content cache.
+
+    <p>
+    The tests performed are:
+    <ul>
+    <li>Cached contents stay within the byte budget, and the least recently
+        used file is evicted first.</li>
+    <li>A body being sent from a cached buffer stays readable when its entry
+        is evicted, invalidated or the cache cleared; the buffer is freed
+        once the body is closed. Reading a freed buffer would crash the
+        test.</li>
+    </ul>
+ */
+public class CachingFileServerTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the file content cache";
+
+    /** Size of every file. */
+    private static final int    SIZE = 100;
+
+    /** Directory of the files. */
+    private Path                directory;
+    /** Files served, each filled with a letter of its own. */
+    private Path[]              files;
+
+    /** Creates the files.
+
+        @throws TestFailed If the files cannot be created.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            directory = Files.createTempDirectory("cached");
+            files = new Path[3];
+
+            for(int i = 0; i < files.length; ++i)
+            {
+                files[i] = directory.resolve("file" + i);
+                Files.write(files[i], content(i));
+            }
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to create files", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            ensureLeastRecentlyUsedEvicted();
+            ensureBorrowedKept();
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to read files", e);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to read files", e);
+        }
+    }
+
+    /** Reads more files than the cache keeps. */
+    private void ensureLeastRecentlyUsedEvicted()
+        throws TestFailed, IOException, RMIException
+    {
+        CachingFileServer   cache = newCache(2 * SIZE + SIZE / 2);
+
+        read(cache, 0);
+        read(cache, 1);
+        // the first file becomes the most recently used
+        read(cache, 0);
+        read(cache, 2);
+
+        if(cache.getCachedBytes() != 2 * SIZE || cache.getEvictions() != 1)
+        {
+            throw new TestFailed("cache of " + (2 * SIZE + SIZE / 2) +
+                                 " bytes holds " + cache.getCachedBytes());
+        }
+
+        long                misses = cache.getMisses();
+        read(cache, 0);
+        read(cache, 2);
+        if(cache.getMisses() != misses)
+            throw new TestFailed("recently used file evicted");
+
+        read(cache, 1);
+        if(cache.getMisses() != misses + 1)
+            throw new TestFailed("least recently used file kept");
+    }
+
+    /** Evicts, invalidates and clears entries while bodies are sent from
+        them. */
+    private void ensureBorrowedKept()
+        throws TestFailed, IOException, RMIException
+    {
+        CachingFileServer   cache = newCache(SIZE);
+
+        FileBody            evicted = cache.retrieveBody(files[0].toString());
+        // over the budget, the first entry is evicted
+        read(cache, 1);
+        if(cache.getEvictions() != 1)
+            throw new TestFailed("entry not evicted");
+        check(evicted, 0);
+
+        FileBody            invalidated =
+            cache.retrieveBody(files[1].toString());
+        cache.invalidate(files[1].toString());
+        check(invalidated, 1);
+
+        FileBody            cleared = cache.retrieveBody(files[2].toString());
+        cache.clear();
+        if(cache.getCachedBytes() != 0)
+            throw new TestFailed("cache not cleared");
+        check(cleared, 2);
+    }
+
+    /** Creates a cache of a budget, over a file server, validating entries
+        every minute. */
+    private static CachingFileServer newCache(long maxBytes)
+    {
+        return new CachingFileServer(new FileServerImpl(), maxBytes, maxBytes,
+                                     60000);
+    }
+
+    /** Reads a file through a cache. */
+    private void read(CachingFileServer cache, int file)
+        throws TestFailed, IOException, RMIException
+    {
+        if(!Arrays.equals(cache.retrive(files[file].toString()),
+                          content(file)))
+        {
+            throw new TestFailed("content of file " + file + " changed");
+        }
+    }
+
+    /** Checks that a body sends the content of a file, and closes it. */
+    private static void check(FileBody body, int file)
+        throws TestFailed, IOException
+    {
+        ByteArrayOutputStream   sent = new ByteArrayOutputStream();
+
+        try
+        {
+            body.transferTo(Channels.newChannel(sent));
+        }
+        finally
+        {
+            body.close();
+        }
+
+        if(!Arrays.equals(sent.toByteArray(), content(file)))
+            throw new TestFailed("body of file " + file + " changed");
+    }
+
+    /** Content of a file. */
+    private static byte[] content(int file)
+    {
+        byte[]  content = new byte[SIZE];
+        Arrays.fill(content, (byte)('a' + file));
+        return content;
+    }
+
+    /** Removes the files. */
+    @Override
+    protected void clean()
+    {
+        try
+        {
+            if(files != null)
+            {
+                for(Path file : files)
+                {
+                    if(file != null)
+                        Files.deleteIfExists(file);
+                }
+            }
+
+            if(directory != null)
+                Files.deleteIfExists(directory);
+        }
+        catch(IOException e)
+        {
+            // left in the temporary directory
+        }
+    }
+}
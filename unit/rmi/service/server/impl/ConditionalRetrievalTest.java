@@ -0,0 +1,157 @@
+package rmi.service.server.impl;
+
+import rmi.RMIException;
+import rmi.config.Config;
+import rmi.service.server.FileServer;
+import rmi.service.server.VersionedContent;
+import test.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/** Unit tests for conditional retrieval of files.
+
+    <p>
+    The tests performed are, for the file server and for the content cache
+    in front of it:
+    <ul>
+    <li>A file retrieved without a known version is returned with its
+        version.</li>
+    <li>Retrieving it again with that version returns no content.</li>
+    <li>After the file is rewritten, or replaced by a file of the same size
+        and modification time, it is returned again with a new
+        version.</li>
+    </ul>
+ */
+public class ConditionalRetrievalTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking conditional retrieval";
+
+    /** Directory of the file. */
+    private Path                directory;
+    /** File retrieved. */
+    private Path                file;
+    /** File renamed over the retrieved one. */
+    private Path                replacement;
+
+    /** Creates the directory of the file.
+
+        @throws TestFailed If the directory cannot be created.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            directory = Files.createTempDirectory("versions");
+            file = directory.resolve("file");
+            replacement = directory.resolve("replacement");
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to create directory", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        // attributes are read again on every call
+        FileServerImpl  files = new FileServerImpl(
+            Config.FILE_MAPPING_MAX_FILE, Config.FILE_MAPPING_MAX_BYTES,
+            Config.FILE_MAPPING_MAX_COUNT, Config.FILE_ATTRIBUTES_CACHED, 0);
+
+        try
+        {
+            ensureVersioned(files);
+            ensureVersioned(new CachingFileServer(files, 1 << 20, 1 << 20,
+                                                  0));
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to change file", e);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to retrieve file", e);
+        }
+    }
+
+    /** Retrieves a file as it changes. */
+    private void ensureVersioned(FileServer server)
+        throws TestFailed, IOException, RMIException
+    {
+        Files.write(file, "one".getBytes());
+
+        String  version = retrieve(server, null, "one");
+
+        if(server.retrieveIfChanged(file.toString(), version).isModified())
+            throw new TestFailed("unchanged file returned again");
+
+        Files.write(file, "two!".getBytes());
+        version = retrieve(server, version, "two!");
+
+        // same size and time, but another file
+        Files.write(replacement, "six!".getBytes());
+        Files.setLastModifiedTime(replacement,
+                                  Files.getLastModifiedTime(file));
+        Files.move(replacement, file, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        retrieve(server, version, "six!");
+    }
+
+    /** Retrieves a file expected to differ from a known version.
+
+        @return The new version.
+     */
+    private String retrieve(FileServer server, String knownVersion,
+                            String expected)
+        throws TestFailed, RMIException, IOException
+    {
+        VersionedContent    reply =
+            server.retrieveIfChanged(file.toString(), knownVersion);
+
+        if(!reply.isModified() ||
+           !Arrays.equals(reply.content(), expected.getBytes()))
+        {
+            throw new TestFailed("changed file not returned: " +
+                                 (reply.isModified()
+                                  ? new String(reply.content())
+                                  : "not modified"));
+        }
+
+        if(reply.version() == null || reply.version().equals(knownVersion))
+            throw new TestFailed("changed file returned with its old version");
+
+        return reply.version();
+    }
+
+    /** Removes the files. */
+    @Override
+    protected void clean()
+    {
+        try
+        {
+            if(file != null)
+                Files.deleteIfExists(file);
+
+            if(replacement != null)
+                Files.deleteIfExists(replacement);
+
+            if(directory != null)
+                Files.deleteIfExists(directory);
+        }
+        catch(IOException e)
+        {
+            // left in the temporary directory
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package rmi.service.server.impl;
+
+import rmi.service.client.DeltaSync;
+import rmi.service.server.BlockSignatures;
+import rmi.service.server.FileDelta;
+import rmi.service.server.RollingChecksum;
+import test.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/** Unit tests for delta transfers.
+
+    <p>
+    The tests performed are:
+    <ul>
+    <li>The rolling checksum, rolled across a buffer, equals the checksum
+        computed afresh at every offset.</li>
+    <li>A delta encoded against the signatures of a copy, applied to that
+        copy, rebuilds the file: after an insertion, after a deletion, from
+        an empty copy, to an empty file, and with a trailing partial
+        block.</li>
+    <li>Blocks found in the copy are reused rather than sent, and encoding
+        again from the cached hashes gives the same delta.</li>
+    </ul>
+ */
+public class DeltaTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking delta transfers";
+
+    /** Block size of the deltas. */
+    private static final int    BLOCK = 16;
+
+    /** Random content the files are made from. */
+    private byte[]              base;
+
+    /** Creates the content of the copies. */
+    @Override
+    protected void initialize()
+    {
+        // a trailing partial block of 8 bytes
+        base = new byte[62 * BLOCK + 8];
+        new Random(1).nextBytes(base);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        ensureRollingChecksum();
+
+        DeltaEncoder    encoder = new DeltaEncoder(4);
+
+        FileDelta       same = ensureRebuilt(encoder, base, base);
+        if(same.literals().length != 8)
+        {
+            throw new TestFailed("unchanged file sent " +
+                                 same.literals().length + " literal bytes");
+        }
+
+        byte[]          insertion = "some inserted bytes".getBytes();
+        byte[]          inserted = concat(Arrays.copyOf(base, 500), insertion,
+                                          Arrays.copyOfRange(base, 500,
+                                                             base.length));
+        FileDelta       insert = ensureRebuilt(encoder, base, inserted);
+        checkReused(insert, insertion.length);
+        if(!Arrays.equals(insert.ops(),
+                          ensureRebuilt(encoder, base, inserted).ops()))
+        {
+            throw new TestFailed("cached hashes changed the delta");
+        }
+
+        byte[]          deleted = concat(Arrays.copyOf(base, 300),
+                                         Arrays.copyOfRange(base, 420,
+                                                            base.length));
+        checkReused(ensureRebuilt(encoder, base, deleted), 0);
+
+        FileDelta       fromEmpty = ensureRebuilt(encoder, new byte[0], base);
+        if(fromEmpty.literals().length != base.length)
+            throw new TestFailed("delta from an empty copy not all literal");
+
+        FileDelta       toEmpty = ensureRebuilt(encoder, base, new byte[0]);
+        if(toEmpty.ops().length != 0 || toEmpty.size() != 0)
+            throw new TestFailed("delta to an empty file not empty");
+    }
+
+    /** Rolls the checksum across a buffer, checking it at every offset. */
+    private void ensureRollingChecksum() throws TestFailed
+    {
+        ByteBuffer      data = ByteBuffer.wrap(base);
+        RollingChecksum sum = new RollingChecksum();
+        sum.reset(data, 0, BLOCK);
+
+        for(int offset = 0; offset + BLOCK <= base.length; ++offset)
+        {
+            if(sum.value() != RollingChecksum.of(data, offset, BLOCK))
+            {
+                throw new TestFailed("rolled checksum wrong at offset " +
+                                     offset);
+            }
+
+            if(offset + BLOCK < base.length)
+                sum.roll(base[offset], base[offset + BLOCK]);
+        }
+    }
+
+    /** Encodes a delta from a copy to a file, applies it to the copy, and
+        checks that the file is rebuilt.
+
+        @return The delta.
+     */
+    private FileDelta ensureRebuilt(DeltaEncoder encoder, byte[] copy,
+                                    byte[] file) throws TestFailed
+    {
+        Path    basis = null;
+        Path    target = null;
+
+        try
+        {
+            basis = Files.createTempFile("delta", ".basis");
+            target = Files.createTempFile("delta", ".target");
+            Files.write(basis, copy);
+
+            DeltaSync   sync = new DeltaSync(null, "file", basis, BLOCK);
+            FileDelta   delta;
+
+            try(FileChannel in = FileChannel.open(basis,
+                                                  StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target,
+                                                   StandardOpenOption.WRITE))
+            {
+                BlockSignatures signatures = DeltaSync.signatures(in, BLOCK);
+                delta = encoder.encode(Path.of("file"), "1",
+                                       ByteBuffer.wrap(file), signatures);
+                sync.apply(delta, BLOCK, in, out);
+            }
+
+            if(!Arrays.equals(Files.readAllBytes(target), file))
+                throw new TestFailed("delta did not rebuild the file");
+
+            if(sync.getReceivedBytes() != delta.literals().length ||
+               sync.getReceivedBytes() + sync.getReusedBytes() != file.length)
+            {
+                throw new TestFailed("delta sizes not accounted for");
+            }
+
+            return delta;
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to apply delta", e);
+        }
+        finally
+        {
+            delete(basis);
+            delete(target);
+        }
+    }
+
+    /** Checks that a delta sends little more than the bytes edited.
+
+        @param added Bytes not in the copy.
+     */
+    private static void checkReused(FileDelta delta, int added)
+        throws TestFailed
+    {
+        // the blocks around an edit cannot be matched, nor the partial one
+        if(delta.literals().length > added + 2 * BLOCK + 8)
+        {
+            throw new TestFailed("delta sends " + delta.literals().length +
+                                 " literal bytes for " + added +
+                                 " new ones");
+        }
+    }
+
+    /** Concatenates byte arrays. */
+    private static byte[] concat(byte[]... parts)
+    {
+        int     length = 0;
+        for(byte[] part : parts)
+            length += part.length;
+
+        byte[]  result = new byte[length];
+        int     offset = 0;
+        for(byte[] part : parts)
+        {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+
+        return result;
+    }
+
+    /** Deletes a temporary file, if it was created. */
+    private static void delete(Path file)
+    {
+        if(file == null)
+            return;
+
+        try
+        {
+            Files.deleteIfExists(file);
+        }
+        catch(IOException e)
+        {
+            // left in the temporary directory
+        }
+    }
+}
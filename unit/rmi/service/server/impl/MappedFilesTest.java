@@ -0,0 +1,196 @@
+package rmi.service.server.impl;
+
+import test.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/** Unit tests for the pool of file mappings.
+
+    <p>
+    The tests performed are:
+    <ul>
+    <li>The pool keeps at most its number and total size of mappings,
+        evicting the least recently used first.</li>
+    <li>A mapping evicted, invalidated or cleared while a handle on it is
+        open stays readable until the handle is closed. Reading an unmapped
+        buffer would crash the test.</li>
+    </ul>
+ */
+public class MappedFilesTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the pool of file mappings";
+
+    /** Size of every file. */
+    private static final int    SIZE = 100;
+
+    /** Directory of the files. */
+    private Path                directory;
+    /** Files mapped, each filled with a letter of its own. */
+    private Path[]              files;
+
+    /** Creates the files.
+
+        @throws TestFailed If the files cannot be created.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            directory = Files.createTempDirectory("mapped");
+            files = new Path[3];
+
+            for(int i = 0; i < files.length; ++i)
+            {
+                files[i] = directory.resolve("file" + i);
+                Files.write(files[i], content(i));
+            }
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to create files", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            ensureBounded();
+            ensureBorrowedKept();
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to map files", e);
+        }
+    }
+
+    /** Maps more files than the pool keeps. */
+    private void ensureBounded() throws TestFailed, IOException
+    {
+        MappedFiles     byCount = new MappedFiles(10 * SIZE, 2);
+
+        map(byCount, 0);
+        map(byCount, 1);
+        // the first file becomes the most recently used
+        map(byCount, 0);
+        map(byCount, 2);
+
+        if(byCount.mappedCount() != 2 || byCount.mappedBytes() != 2 * SIZE)
+        {
+            throw new TestFailed("pool of 2 mappings holds " +
+                                 byCount.mappedCount());
+        }
+
+        MappedFiles     bySize = new MappedFiles(2 * SIZE + SIZE / 2, 10);
+
+        map(bySize, 0);
+        map(bySize, 1);
+        map(bySize, 2);
+
+        if(bySize.mappedBytes() > 2 * SIZE + SIZE / 2)
+        {
+            throw new TestFailed("pool maps " + bySize.mappedBytes() +
+                                 " bytes");
+        }
+    }
+
+    /** Evicts, invalidates and clears mappings with open handles. */
+    private void ensureBorrowedKept() throws TestFailed, IOException
+    {
+        MappedFiles         pool = new MappedFiles(SIZE, 10);
+
+        MappedFiles.Handle  evicted = acquire(pool, 0);
+        // over the size limit, the first mapping is evicted
+        map(pool, 1);
+        if(pool.mappedCount() != 1)
+            throw new TestFailed("mapping not evicted");
+        check(evicted, 0);
+        evicted.close();
+
+        MappedFiles.Handle  invalidated = acquire(pool, 2);
+        pool.invalidate(files[2]);
+        check(invalidated, 2);
+        invalidated.close();
+
+        MappedFiles.Handle  cleared = acquire(pool, 1);
+        pool.clear();
+        if(pool.mappedCount() != 0 || pool.mappedBytes() != 0)
+            throw new TestFailed("pool not cleared");
+        check(cleared, 1);
+        cleared.close();
+        // closing twice must not release the mapping twice
+        cleared.close();
+    }
+
+    /** Acquires the mapping of a file. */
+    private MappedFiles.Handle acquire(MappedFiles pool, int file)
+        throws IOException
+    {
+        return pool.acquire(files[file], SIZE,
+                            Files.getLastModifiedTime(files[file])
+                                .toMillis());
+    }
+
+    /** Maps a file and closes the handle at once. */
+    private void map(MappedFiles pool, int file) throws TestFailed, IOException
+    {
+        MappedFiles.Handle  handle = acquire(pool, file);
+        check(handle, file);
+        handle.close();
+    }
+
+    /** Checks that a handle reads the content of a file. */
+    private static void check(MappedFiles.Handle handle, int file)
+        throws TestFailed
+    {
+        ByteBuffer  buffer = handle.buffer();
+        byte[]      read = new byte[buffer.remaining()];
+        buffer.get(read);
+
+        if(!Arrays.equals(read, content(file)))
+            throw new TestFailed("mapping of file " + file + " changed");
+    }
+
+    /** Content of a file. */
+    private static byte[] content(int file)
+    {
+        byte[]  content = new byte[SIZE];
+        Arrays.fill(content, (byte)('a' + file));
+        return content;
+    }
+
+    /** Removes the files. */
+    @Override
+    protected void clean()
+    {
+        try
+        {
+            if(files != null)
+            {
+                for(Path file : files)
+                {
+                    if(file != null)
+                        Files.deleteIfExists(file);
+                }
+            }
+
+            if(directory != null)
+                Files.deleteIfExists(directory);
+        }
+        catch(IOException e)
+        {
+            // left in the temporary directory
+        }
+    }
+}
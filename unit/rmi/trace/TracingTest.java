@@ -0,0 +1,328 @@
+package rmi.trace;
+
+import rmi.RMIException;
+import rmi.Skeleton;
+import rmi.Stub;
+import rmi.config.Config;
+import test.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+/** Unit tests for trace propagation and span export.
+
+    <p>
+    The tests performed are:
+    <ul>
+    <li>A call made within a sampled trace exports a client and a server
+        span of that trace, and a call the service method makes through
+        another stub joins the trace as a child of the server span.</li>
+    <li>A failed call exports failed spans.</li>
+    <li>An unsampled trace reaches the service but exports no span, and a
+        call made outside any trace carries none.</li>
+    <li>An exporter throwing does not fail the call.</li>
+    </ul>
+ */
+public class TracingTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking trace propagation";
+
+    /** Remote interface called last, recording the trace it runs in. */
+    public interface Inner
+    {
+        int twice(int value) throws RMIException;
+
+        void fail() throws RMIException;
+    }
+
+    /** Remote interface calling the inner one. */
+    public interface Outer
+    {
+        int relay(int value) throws RMIException;
+    }
+
+    /** Implementation of the inner interface. */
+    public static class InnerImpl implements Inner
+    {
+        /** Context attached while the last call ran. */
+        volatile TraceContext   seen;
+
+        @Override
+        public int twice(int value)
+        {
+            seen = Tracing.current();
+            return 2 * value;
+        }
+
+        @Override
+        public void fail()
+        {
+            throw new IllegalStateException("failed on purpose");
+        }
+    }
+
+    /** Implementation of the outer interface, calling the inner one. */
+    public static class OuterImpl implements Outer
+    {
+        /** Stub of the inner skeleton. */
+        volatile Inner  inner;
+
+        @Override
+        public int relay(int value) throws RMIException
+        {
+            return inner.twice(value);
+        }
+    }
+
+    /** Implementation of the inner interface. */
+    private final InnerImpl             innerImpl = new InnerImpl();
+    /** Skeleton of the inner interface. */
+    private Skeleton<Inner>             innerSkeleton;
+    /** Skeleton of the outer interface. */
+    private Skeleton<Outer>             outerSkeleton;
+    /** Stub of the inner skeleton. */
+    private Inner                       inner;
+    /** Stub of the outer skeleton. */
+    private Outer                       outer;
+    /** Exporter the spans go to during the test. */
+    private final InMemorySpanExporter  spans = new InMemorySpanExporter(64);
+    /** Exporter before the test, restored afterwards. */
+    private SpanExporter                previous;
+
+    /** Starts both skeletons and installs the exporter.
+
+        @throws TestFailed If a skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            OuterImpl   outerImpl = new OuterImpl();
+
+            innerSkeleton = new Skeleton<Inner>(Inner.class, innerImpl,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            innerSkeleton.start();
+            outerSkeleton = new Skeleton<Outer>(Outer.class, outerImpl,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            outerSkeleton.start();
+
+            inner = Stub.create(Inner.class, innerSkeleton);
+            outerImpl.inner = inner;
+            outer = Stub.create(Outer.class, outerSkeleton);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+        catch(UnknownHostException e)
+        {
+            throw new TestFailed("unable to create stub", e);
+        }
+
+        previous = Tracing.getExporter();
+        Tracing.setExporter(spans);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            ensureNestedTrace();
+            ensureFailedSpans();
+            ensureUnsampled();
+            ensureExporterFailureIgnored();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+    }
+
+    /** Calls the outer skeleton within a sampled trace. */
+    private void ensureNestedTrace() throws TestFailed, RMIException
+    {
+        TraceContext    root = TraceContext.root(true);
+
+        if(traced(root, 3) != 6)
+            throw new TestFailed("wrong value relayed");
+
+        List<Span>      trace = spans.getSpans(root.getTraceId());
+
+        if(trace.size() != 4)
+            throw new TestFailed(trace.size() + " spans exported instead of 4");
+
+        Span    outerClient = find(trace, Span.Kind.CLIENT, "$Outer.relay(int)");
+        Span    outerServer = find(trace, Span.Kind.SERVER, "$Outer.relay(int)");
+        Span    innerClient = find(trace, Span.Kind.CLIENT, "$Inner.twice(int)");
+        Span    innerServer = find(trace, Span.Kind.SERVER, "$Inner.twice(int)");
+
+        checkParent(outerClient, root.getSpanId());
+        checkParent(outerServer, outerClient.getSpanId());
+        checkParent(innerClient, outerServer.getSpanId());
+        checkParent(innerServer, innerClient.getSpanId());
+
+        if(innerImpl.seen == null ||
+           innerImpl.seen.getSpanId() != innerServer.getSpanId())
+        {
+            throw new TestFailed("service ran outside its server span");
+        }
+
+        for(Span span : trace)
+        {
+            if(span.isFailed())
+                throw new TestFailed("span of a successful call failed: " + span);
+        }
+    }
+
+    /** Calls a failing method within a sampled trace. */
+    private void ensureFailedSpans() throws TestFailed
+    {
+        TraceContext    root = TraceContext.root(true);
+        TraceContext    before = Tracing.attach(root);
+
+        try
+        {
+            inner.fail();
+            throw new TestFailed("failing call returned");
+        }
+        catch(IllegalStateException e)
+        {
+            // thrown by the service
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("service exception not thrown", e);
+        }
+        finally
+        {
+            Tracing.attach(before);
+        }
+
+        List<Span>      trace = spans.getSpans(root.getTraceId());
+
+        if(trace.size() != 2)
+            throw new TestFailed(trace.size() + " spans exported instead of 2");
+
+        for(Span span : trace)
+        {
+            if(!span.isFailed())
+                throw new TestFailed("span of a failed call succeeded: " + span);
+        }
+    }
+
+    /** Calls within an unsampled trace, then outside any trace. */
+    private void ensureUnsampled() throws TestFailed, RMIException
+    {
+        TraceContext    root = TraceContext.root(false);
+        spans.clear();
+
+        traced(root, 1);
+
+        if(!spans.getSpans().isEmpty())
+            throw new TestFailed("unsampled trace exported spans");
+
+        if(innerImpl.seen == null ||
+           !root.getTraceId().equals(innerImpl.seen.getTraceId()) ||
+           innerImpl.seen.isSampled())
+        {
+            throw new TestFailed("unsampled trace not forwarded: " +
+                                 innerImpl.seen);
+        }
+
+        // stubs only start traces of their own when sampling is configured
+        if(Config.TRACE_SAMPLE_RATIO > 0)
+            return;
+
+        outer.relay(1);
+
+        if(innerImpl.seen != null)
+            throw new TestFailed("untraced call ran in a trace");
+
+        if(!spans.getSpans().isEmpty())
+            throw new TestFailed("untraced call exported spans");
+    }
+
+    /** Calls within a sampled trace, with an exporter always throwing. */
+    private void ensureExporterFailureIgnored() throws TestFailed, RMIException
+    {
+        Tracing.setExporter(new SpanExporter()
+        {
+            @Override
+            public void export(Span span)
+            {
+                throw new IllegalStateException("exporter down");
+            }
+        });
+
+        try
+        {
+            if(traced(TraceContext.root(true), 4) != 8)
+                throw new TestFailed("wrong value relayed");
+        }
+        finally
+        {
+            Tracing.setExporter(spans);
+        }
+    }
+
+    /** Relays a value with a context attached to this thread. */
+    private int traced(TraceContext context, int value) throws RMIException
+    {
+        TraceContext    before = Tracing.attach(context);
+
+        try
+        {
+            return outer.relay(value);
+        }
+        finally
+        {
+            Tracing.attach(before);
+        }
+    }
+
+    /** Finds the span of a kind whose name ends as given. */
+    private static Span find(List<Span> trace, Span.Kind kind, String name)
+        throws TestFailed
+    {
+        for(Span span : trace)
+        {
+            if(span.getKind() == kind && span.getName().endsWith(name))
+                return span;
+        }
+
+        throw new TestFailed("no " + kind + " span for " + name);
+    }
+
+    /** Checks the parent of a span. */
+    private static void checkParent(Span span, long parent) throws TestFailed
+    {
+        if(span.getParentSpanId() != parent)
+            throw new TestFailed("span " + span + " not a child of " + parent);
+    }
+
+    /** Restores the exporter and stops the skeletons. */
+    @Override
+    protected void clean()
+    {
+        if(previous != null)
+            Tracing.setExporter(previous);
+
+        if(outerSkeleton != null)
+            outerSkeleton.stop();
+
+        if(innerSkeleton != null)
+            innerSkeleton.stop();
+
+        outerSkeleton = null;
+        innerSkeleton = null;
+    }
+}